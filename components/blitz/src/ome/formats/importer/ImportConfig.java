@@ -140,6 +140,9 @@ public class ImportConfig {
     public final StrValue readersPath;
     public final StrValue checksumAlgorithm;
 
+    /** Maximum number of filesets imported at once. */
+    public final IntValue parallelFileset;
+
     public final BoolValue encryptedConnection;
     public final BoolValue autoClose;
 
@@ -290,6 +293,7 @@ public class ImportConfig {
 
         readersPath = new StrValue("readersPath", this);
         checksumAlgorithm = new StrValue("checksumAlgorithm", this);
+        parallelFileset = new IntValue("parallelFileset", this, 1);
     }
 
     public String getBioFormatsVersion() {
@@ -27,6 +27,14 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import loci.common.Location;
 import loci.formats.FormatException;
@@ -228,13 +236,16 @@ public class ImportLibrary implements IObservable
 
     public boolean addObserver(IObserver object)
     {
-        return observers.add(object);
+        synchronized (observers) {
+            return observers.add(object);
+        }
     }
 
     public boolean deleteObserver(IObserver object)
     {
-        return observers.remove(object);
-
+        synchronized (observers) {
+            return observers.remove(object);
+        }
     }
 
     /* (non-Javadoc)
@@ -242,8 +253,11 @@ public class ImportLibrary implements IObservable
      */
     public void notifyObservers(ImportEvent event)
     {
-        for (IObserver observer : observers) {
-            observer.update(this, event);
+        // Serialized as filesets may be imported in parallel.
+        synchronized (observers) {
+            for (IObserver observer : observers) {
+                observer.update(this, event);
+            }
         }
     }
 
@@ -261,42 +275,19 @@ public class ImportLibrary implements IObservable
     {
         List<ImportContainer> containers = candidates.getContainers();
         if (containers != null) {
+            final int parallelFileset = config.parallelFileset.get();
+            if (parallelFileset > 1 && containers.size() > 1) {
+                return importCandidates(config, containers, parallelFileset);
+            }
             int numDone = 0;
             for (int index = 0; index < containers.size(); index++) {
                 ImportContainer ic = containers.get(index);
-                ImportTarget target = config.getTarget();
-                if (target != null) {
-                    try {
-                        IObject obj = target.load(store, ic);
-                        if (!(obj instanceof Annotation)) {
-                            ic.setTarget(obj);
-                        } else {
-                            // This is likely a "post-processing" annotation
-                            // so that we don't have to resolve the target
-                            // until later.
-                            ic.getCustomAnnotationList().add((Annotation) obj);
-                        }
-                    } catch (Exception e) {
-                        log.error("Could not load target: {}", target);
-                        throw new RuntimeException("Failed to load target", e);
-                    }
-                }
-                if (config.checksumAlgorithm.get() != null) {
-                    ic.setChecksumAlgorithm(config.checksumAlgorithm.get());
-                }
-
+                prepareContainer(config, ic);
                 try {
                     importImage(ic,index,numDone,containers.size());
                     numDone++;
                 } catch (Throwable t) {
-                    String message = "Error on import";
-                    if (t instanceof ServerError) {
-                        final ServerError se = (ServerError) t;
-                        if (StringUtils.isNotBlank(se.message)) {
-                            message += ": " + se.message;
-                        }
-                    }
-                    log.error(message, t);
+                    logImportError(t);
                     if (!config.contOnError.get()) {
                         log.info("Exiting on error");
                         return false;
@@ -309,6 +300,137 @@ public class ImportLibrary implements IObservable
         return true;
     }
 
+    /**
+     * Imports a number of containers with up to the given number of them in
+     * flight at once so that the upload of a fileset may overlap with the
+     * server-side processing of the previous ones. Errors are reported in
+     * the order of the containers. If {@link ImportConfig#contOnError} is
+     * not set, then no further import is started after a failure but those
+     * already in flight are allowed to complete.
+     * @param config The configuration information.
+     * @param containers The containers to import.
+     * @param parallelFileset The maximum number of containers in flight.
+     * @return if the import did not exit because of an error
+     */
+    private boolean importCandidates(final ImportConfig config,
+            final List<ImportContainer> containers, int parallelFileset)
+    {
+        final int total = containers.size();
+        for (ImportContainer ic : containers) {
+            // Targets are loaded up front, from this thread, as the
+            // metadata store is not to be shared by the import threads.
+            prepareContainer(config, ic);
+        }
+        final boolean contOnError = config.contOnError.get();
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        final AtomicInteger numDone = new AtomicInteger(0);
+        final ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(parallelFileset, total), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger(0);
+                    public Thread newThread(Runnable r) {
+                        final Thread thread = new Thread(r,
+                                "FilesetImport-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        final List<Future<Void>> imports = new ArrayList<Future<Void>>(total);
+        try {
+            for (int i = 0; i < total; i++) {
+                final int index = i;
+                imports.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        if (failed.get() && !contOnError) {
+                            return null; // Skipped after an error
+                        }
+                        try {
+                            importImage(containers.get(index), index,
+                                    numDone.get(), total);
+                            numDone.incrementAndGet();
+                            return null;
+                        } catch (Throwable t) {
+                            failed.set(true);
+                            if (t instanceof Exception) {
+                                throw (Exception) t;
+                            } else if (t instanceof Error) {
+                                throw (Error) t;
+                            }
+                            throw new ExecutionException(t);
+                        }
+                    }
+                }));
+            }
+            executor.shutdown();
+            boolean success = true;
+            for (Future<Void> future : imports) {
+                try {
+                    future.get();
+                } catch (ExecutionException ee) {
+                    logImportError(ee.getCause());
+                    if (contOnError) {
+                        log.info("Continuing after error");
+                    } else if (success) {
+                        log.info("Exiting on error");
+                        success = false;
+                    }
+                }
+            }
+            return success;
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            log.error("Interrupted while waiting on imports", ie);
+            return false;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Prepares a container for import, loading its target and setting its
+     * checksum algorithm from the configuration.
+     * @param config The configuration information.
+     * @param ic The container to prepare.
+     */
+    private void prepareContainer(ImportConfig config, ImportContainer ic)
+    {
+        ImportTarget target = config.getTarget();
+        if (target != null) {
+            try {
+                IObject obj = target.load(store, ic);
+                if (!(obj instanceof Annotation)) {
+                    ic.setTarget(obj);
+                } else {
+                    // This is likely a "post-processing" annotation
+                    // so that we don't have to resolve the target
+                    // until later.
+                    ic.getCustomAnnotationList().add((Annotation) obj);
+                }
+            } catch (Exception e) {
+                log.error("Could not load target: {}", target);
+                throw new RuntimeException("Failed to load target", e);
+            }
+        }
+        if (config.checksumAlgorithm.get() != null) {
+            ic.setChecksumAlgorithm(config.checksumAlgorithm.get());
+        }
+    }
+
+    /**
+     * Logs the failure of the import of a container.
+     * @param t The cause of the failure.
+     */
+    private void logImportError(Throwable t)
+    {
+        String message = "Error on import";
+        if (t instanceof ServerError) {
+            final ServerError se = (ServerError) t;
+            if (StringUtils.isNotBlank(se.message)) {
+                message += ": " + se.message;
+            }
+        }
+        log.error(message, t);
+    }
+
     /**
      * Delete files from the managed repository.
      * @param container The current import container containing usedFiles to be
@@ -237,11 +237,13 @@ public class OMEROWrapper extends MinMaxCalculator {
         return minMaxSet;
     }
 
-    /* (non-Javadoc)
+    /**
+     * Updates the minima and maxima with pixel data read by another reader
+     * of the same file, as if it had been read by this reader.
      * @see loci.formats.MinMaxCalculator#updateMinMax(int, byte[], int)
      */
     @Override
-    protected void updateMinMax(int no, byte[] buf, int len)
+    public void updateMinMax(int no, byte[] buf, int len)
         throws FormatException, IOException {
         if (!isMinMaxSet())
             super.updateMinMax(no, buf, len);
@@ -453,6 +453,11 @@ public class CommandLineImporter {
             + "                            \t     SHA1-160 (slow, default)\n\n"
             + "  e.g. $ bin/omero import --checksum-algorithm=CRC-32 foo.tiff\n"
             + "       $ ./importer-cli --checksum-algorithm=Murmur3-128 bar.tiff\n\n"
+            + "    --parallel-fileset=ARG\tNumber of filesets to import at the same time,\n"
+            + "                            \tso that uploads overlap with server-side processing\n"
+            + "                            \t(default: 1)\n\n"
+            + "  e.g. $ bin/omero import -- --parallel-fileset=4 plates/\n"
+            + "       $ ./importer-cli --parallel-fileset=4 plates/\n\n"
             + "    --no-stats-info\t\tDisable calculation of minima and maxima"
             + " when as part of the Bio-Formats reader metadata\n\n"
             + "  e.g. $ bin/omero import -- --no-stats-info foo.tiff\n"
@@ -611,6 +616,9 @@ public class CommandLineImporter {
         LongOpt encryptedConnection =
                 new LongOpt("encrypted", LongOpt.REQUIRED_ARGUMENT, null, 26);
 
+        LongOpt parallelFileset =
+                new LongOpt("parallel-fileset", LongOpt.REQUIRED_ARGUMENT, null, 27);
+
         // DEPRECATED OPTIONS
         LongOpt minutesWaitDeprecated =
                 new LongOpt("minutes_wait", LongOpt.REQUIRED_ARGUMENT, null, 86);
@@ -649,6 +657,7 @@ public class CommandLineImporter {
                                 exclude, target, noStatsInfo,
                                 noUpgradeCheck, qaBaseURL,
                                 outputFormat, encryptedConnection,
+                                parallelFileset,
                                 plateName, plateName2,
                                 plateDescription, plateDescription2,
                                 noThumbnailsDeprecated,
@@ -813,6 +822,15 @@ public class CommandLineImporter {
                 config.encryptedConnection.set(Boolean.valueOf(encryptedArg));
                 break;
             }
+            case 27: {
+                int parallelArg = Integer.parseInt(g.getOptarg());
+                if (parallelArg < 1) {
+                    usage(); // exits
+                }
+                log.info("Setting parallel fileset imports to {}", parallelArg);
+                config.parallelFileset.set(parallelArg);
+                break;
+            }
             // ADVANCED END ---------------------------------------------------
             // DEPRECATED OPTIONS
             case 90:
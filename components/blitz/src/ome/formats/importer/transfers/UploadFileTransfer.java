@@ -1,5 +1,5 @@
 /*
- * Copyright (C) 2014 University of Dundee & Open Microscopy Environment.
+ * Copyright (C) 2014-2018 University of Dundee & Open Microscopy Environment.
  * All rights reserved.
  *
  * This program is free software; you can redistribute it and/or modify
@@ -22,7 +22,12 @@ package ome.formats.importer.transfers;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import ome.util.checksum.ChecksumProvider;
 import omero.ServerError;
@@ -30,64 +35,167 @@ import omero.api.RawFileStorePrx;
 
 import org.apache.commons.lang.ArrayUtils;
 
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import Ice.AsyncResult;
+
 /**
  * Traditional file transfer mechanism which uploads
  * files using the API. This is done by reading from
  * {@link TransferState#getFile()} into {@link TransferState#getBuffer()}
  * and then {@link RawFileStorePrx#write(byte[], long, int) writing} to the
  * server. <em>Not thread safe</em>
+ * <p>
+ * Up to a window of chunks are {@link RawFileStorePrx#begin_write(byte[],
+ * long, int) written asynchronously} at once so that the upload need not
+ * wait for a round trip per chunk, while a separate thread reads the
+ * following chunks into recycled buffers and computes the checksum.
+ * </p>
  *
  * @since 5.0
  */
 public class UploadFileTransfer extends AbstractFileTransfer {
 
+    /**
+     * System property setting the number of chunks written at once by
+     * instances created with the default constructor.
+     */
+    public static final String WINDOW_PROPERTY = "omero.import.upload_window";
+
+    /**
+     * Default number of chunks written at once. The server may run writes to
+     * the same {@link RawFileStorePrx} concurrently and complete them out of
+     * order, so by default each chunk is written before the next is begun and
+     * only the reading of the file overlaps the writing.
+     */
+    public static final int DEFAULT_WINDOW = 1;
+
+    /** Marks the end of the file in the queue of chunks read. */
+    private static final Chunk END = new Chunk(null, -1, null);
+
+    /** The maximum number of chunks being written at once. */
+    private final int window;
+
+    /**
+     * Creates a transfer writing up to {@link #WINDOW_PROPERTY}, or
+     * {@link #DEFAULT_WINDOW}, chunks at once.
+     */
+    public UploadFileTransfer() {
+        this(Integer.getInteger(WINDOW_PROPERTY, DEFAULT_WINDOW));
+    }
+
+    /**
+     * Creates a transfer writing up to the given number of chunks at once.
+     * A window of more than one should be used only with servers that
+     * serialize the writes to a {@link RawFileStorePrx}.
+     * @param window the number of chunks, <code>1</code> waits for each
+     * chunk to be written before writing the next
+     */
+    public UploadFileTransfer(int window) {
+        this.window = Math.max(1, window);
+    }
+
     public String transfer(TransferState state) throws IOException, ServerError {
 
         final RawFileStorePrx rawFileStore = start(state);
         final File file = state.getFile();
         final byte[] buf = state.getBuffer();
         final ChecksumProvider cp = state.getChecksumProvider();
-        
+
         FileInputStream stream = null;
+        Thread reader = null;
 
         try {
             stream = new FileInputStream(file);
-            int rlen = 0;
             long offset = 0;
 
             state.uploadStarted();
-      
+
             // "touch" the file otherwise zero-length files
             rawFileStore.write(ArrayUtils.EMPTY_BYTE_ARRAY, offset, 0);
             state.stop();
             state.uploadBytes(offset);
-    
+
+            // One more buffer than the window so that the reader may
+            // always be filling one while the window is full.
+            final BlockingQueue<byte[]> free =
+                    new ArrayBlockingQueue<byte[]>(window + 1);
+            free.add(buf);
+            for (int i = 0; i < window; i++) {
+                free.add(new byte[buf.length]);
+            }
+            final BlockingQueue<Chunk> read =
+                    new ArrayBlockingQueue<Chunk>(window + 2);
+            reader = new Reader(stream, cp, free, read);
+            reader.start();
+
+            final Deque<Chunk> written = new ArrayDeque<Chunk>(window);
+            long uploaded = 0;
             while (true) {
                 state.start();
-                rlen = stream.read(buf);
-                if (rlen == -1) {
+                final Chunk chunk = take(read);
+                if (chunk == END) {
                     break;
                 }
-                cp.putBytes(buf, 0, rlen);
+                if (chunk.error != null) {
+                    throw chunk.error;
+                }
                 final byte[] bufferToWrite;
-                if (rlen < buf.length) {
-                    bufferToWrite = new byte[rlen];
-                    System.arraycopy(buf, 0, bufferToWrite, 0, rlen);
+                if (chunk.length < chunk.buffer.length) {
+                    bufferToWrite = Arrays.copyOf(chunk.buffer, chunk.length);
                 } else {
-                    bufferToWrite = buf;
+                    bufferToWrite = chunk.buffer;
+                }
+                chunk.result = rawFileStore.begin_write(bufferToWrite, offset,
+                        chunk.length);
+                offset += chunk.length;
+                written.add(chunk);
+                if (written.size() >= window) {
+                    final int length = complete(rawFileStore, written.poll(), free);
+                    uploaded += length;
+                    state.stop(length);
+                    state.uploadBytes(uploaded);
                 }
-                rawFileStore.write(bufferToWrite, offset, rlen);
-                offset += rlen;
-                state.stop(rlen);
-                state.uploadBytes(offset);
+            }
+            while (!written.isEmpty()) {
+                final int length = complete(rawFileStore, written.poll(), free);
+                uploaded += length;
+                state.stop(length);
+                state.uploadBytes(uploaded);
+                state.start();
             }
 
             return finish(state, offset);
         } finally {
+            if (reader != null) {
+                // The reader must be finished with the stream before it is closed.
+                reader.interrupt();
+                Uninterruptibles.joinUninterruptibly(reader);
+            }
             cleanupUpload(rawFileStore, stream);
         }
     }
 
+    /**
+     * Waits for a chunk to be written and recycles its buffer.
+     * @return the number of bytes written
+     */
+    private int complete(RawFileStorePrx rawFileStore, Chunk chunk,
+            BlockingQueue<byte[]> free) throws ServerError {
+        rawFileStore.end_write(chunk.result);
+        free.add(chunk.buffer);
+        return chunk.length;
+    }
+
+    private static Chunk take(BlockingQueue<Chunk> read) throws IOException {
+        try {
+            return read.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading", e);
+        }
+    }
+
     /**
      * Since the {@link RawFileStorePrx} instances are cleaned up after each
      * transfer, there's no need to cleanup per {@link File}.
@@ -95,4 +203,74 @@ public class UploadFileTransfer extends AbstractFileTransfer {
     public void afterTransfer(int errors, List<String> srcFiles) throws CleanupFailure {
         // no-op
     }
+
+    /**
+     * A chunk of the file, read into a recycled buffer.
+     */
+    private static class Chunk {
+
+        final byte[] buffer;
+
+        final int length;
+
+        final IOException error;
+
+        /** Set once the write of the chunk has begun. */
+        AsyncResult result;
+
+        Chunk(byte[] buffer, int length, IOException error) {
+            this.buffer = buffer;
+            this.length = length;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Reads the file into the free buffers in order, updating the checksum,
+     * until the end of the file, an error or an interruption.
+     */
+    private static class Reader extends Thread {
+
+        private final FileInputStream stream;
+
+        private final ChecksumProvider cp;
+
+        private final BlockingQueue<byte[]> free;
+
+        private final BlockingQueue<Chunk> read;
+
+        Reader(FileInputStream stream, ChecksumProvider cp,
+                BlockingQueue<byte[]> free, BlockingQueue<Chunk> read) {
+            super("UploadReader");
+            setDaemon(true);
+            this.stream = stream;
+            this.cp = cp;
+            this.free = free;
+            this.read = read;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    final byte[] buffer = free.take();
+                    final int rlen;
+                    try {
+                        rlen = stream.read(buffer);
+                    } catch (IOException e) {
+                        read.put(new Chunk(null, -1, e));
+                        return;
+                    }
+                    if (rlen == -1) {
+                        read.put(END);
+                        return;
+                    }
+                    cp.putBytes(buffer, 0, rlen);
+                    read.put(new Chunk(buffer, rlen, null));
+                }
+            } catch (InterruptedException e) {
+                // The upload was abandoned.
+            }
+        }
+    }
 }
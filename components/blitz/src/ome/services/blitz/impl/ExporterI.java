@@ -5,12 +5,15 @@
 
 package ome.services.blitz.impl;
 
+import java.awt.Dimension;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.UUID;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -20,27 +23,27 @@ import javax.xml.transform.TransformerException;
 import loci.common.services.DependencyException;
 import loci.common.services.ServiceException;
 import loci.common.xml.XMLTools;
+import loci.formats.FormatException;
 import loci.formats.FormatTools;
 import loci.formats.IFormatWriter;
 import loci.formats.meta.IMetadata;
 import loci.formats.meta.MetadataRetrieve;
-import loci.formats.out.OMETiffWriter;
+import loci.formats.out.TiffWriter;
 import loci.formats.services.OMEXMLService;
 import loci.formats.tiff.IFD;
-import ome.api.RawPixelsStore;
 import ome.conditions.ApiUsageException;
 import ome.conditions.InternalException;
+import ome.io.nio.PixelBuffer;
 import ome.io.nio.PixelsService;
-import ome.io.nio.RomioPixelBuffer;
 import ome.services.blitz.util.BlitzExecutor;
 import ome.services.blitz.util.BlitzOnly;
 import ome.services.blitz.util.ServiceFactoryAware;
 import ome.services.db.DatabaseIdentity;
-import ome.services.formats.OmeroReader;
 import ome.services.util.Executor;
 import ome.system.ServiceFactory;
 import ome.xml.model.MetadataOnly;
 import ome.xml.model.OME;
+import ome.xml.model.primitives.NonNegativeInteger;
 import omero.ServerError;
 import omero.api.AMD_Exporter_addImage;
 import omero.api.AMD_Exporter_generateTiff;
@@ -80,13 +83,15 @@ public class ExporterI extends AbstractCloseableAmdServant implements
 
     private final static int MAX_SIZE = 1024 * 1024;
 
+    /** The largest width or height of the tiles of generated TIFF files. */
+    private final static int MAX_TILE_SIZE = 1024;
+
     /**
      * The size above which a big tiff should be written as opposed to
      * a normal tiff. This value is checked against the data size PLUS
      * various metadata sizes.
      *
-     * @see #getMetadataBytes(OmeroReader)
-     * @see #getDataBytes(OmeroReader)
+     * @see #getMetadataBytes(String, int, int)
      * @see ticket:6520
      */
     private final static long BIG_TIFF_SIZE = 2L * Integer.MAX_VALUE;
@@ -122,6 +127,15 @@ public class ExporterI extends AbstractCloseableAmdServant implements
      */
     private volatile File file;
 
+    /**
+     * While a TIFF file is being generated, the length of the start of the
+     * file that is final and may be read, otherwise <code>-1</code>.
+     */
+    private volatile long readable = -1;
+
+    /** How many threads read the tiles of a TIFF file being generated. */
+    private int tileThreads = 1;
+
     /**
      * Encapsulates the logic for creating new LSIDs and comparing existing ones
      * to the internal value for this DB.
@@ -131,12 +145,7 @@ public class ExporterI extends AbstractCloseableAmdServant implements
     /** LOCI OME-XML service for working with OME-XML. */
     private final OMEXMLService service;
 
-    /** Access to information about big images to prevent exporting large
-     * files since there is currently no generally readable tiff support
-     * for our tiles.
-     *
-     * @see ticket:6713
-     */
+    /** Access to the pixel data to export. */
     private final PixelsService pixelsService;
 
     public ExporterI(BlitzExecutor be, DatabaseIdentity databaseIdentity,
@@ -155,6 +164,15 @@ public class ExporterI extends AbstractCloseableAmdServant implements
         this.factory = sf;
     }
 
+    /**
+     * @param tileThreads how many threads read the tiles of a TIFF file
+     * being generated; the number of cores if <code>0</code> or lower
+     */
+    public void setTileThreads(int tileThreads) {
+        this.tileThreads = tileThreads > 0 ? tileThreads
+                : Runtime.getRuntime().availableProcessors();
+    }
+
     // Interface methods
     // =========================================================================
 
@@ -331,7 +349,12 @@ public class ExporterI extends AbstractCloseableAmdServant implements
     }
 
     /**
-     * Transitions from config to output.
+     * Transitions from config to output. The pixel data are copied tile by
+     * tile, so planes of any size may be exported, with the tiles read
+     * ahead on several threads. The OME-XML is written with the first plane
+     * rather than on closing the file so that, once a plane has been
+     * followed by another, its bytes are final and may be read while the
+     * later planes are still being written.
      */
     private void do_tiff(final AMD_Exporter_generateTiff __cb) {
         try {
@@ -350,70 +373,107 @@ public class ExporterI extends AbstractCloseableAmdServant implements
                                 return null;
                             }
 
-                            RawPixelsStore raw = null;
-                            OmeroReader reader = null;
-                            OMETiffWriter writer = null;
+                            final OmeroMetadata metadata = retrieve;
+                            final List<PixelBuffer> buffers = new ArrayList<PixelBuffer>();
+                            PixelTileReader tileReader = null;
+                            TiffWriter writer = null;
                             try {
 
-                                Image image = retrieve.getImage(0);
+                                Image image = metadata.getImage(0);
                                 Pixels pix = image.getPixels(0);
-                                if (requiresPyramid(sf, pix.getId().getValue())) {
-                                    long id = image.getId().getValue();
-                                    int x = pix.getSizeX().getValue();
-                                    int y = pix.getSizeY().getValue();
-                                    throw new omero.ApiUsageException(
-                                            null, null, String.format(
-                                            "Image:%s is too large for export (sizeX=%s, sizeY=%s)",
-                                            id, x, y));
+                                ome.model.core.Pixels _p = sf.getQueryService().get(
+                                        ome.model.core.Pixels.class, pix.getId().getValue());
+                                for (int i = 0; i < tileThreads; i++) {
+                                    buffers.add(pixelsService.getPixelBuffer(_p, false));
                                 }
-
-                                file = TempFileManager.create_path("__omero_export__",
-                                        ".ome.tiff");
-
-                                raw = sf.createRawPixelsStore();
-                                raw.setPixelsId(pix.getId().getValue(), true);
-
-                                reader = new OmeroReader(raw, pix);
-                                reader.setId("OMERO");
-
-                                writer = new OMETiffWriter();
-                                writer.setMetadataRetrieve(retrieve);
+                                final PixelBuffer first = buffers.get(0);
+                                final int sizeX = first.getSizeX();
+                                final int sizeY = first.getSizeY();
+                                final int sizeZ = first.getSizeZ();
+                                final int sizeC = first.getSizeC();
+                                final int sizeT = first.getSizeT();
+                                final int planeCount = sizeZ * sizeC * sizeT;
+                                final String order =
+                                        metadata.getPixelsDimensionOrder(0).getValue();
+                                final Dimension tileSize = first.getTileSize();
+                                final int tileWidth = tiffTileSize(tileSize.width);
+                                final int tileHeight = tiffTileSize(tileSize.height);
+                                final int tilesPerPlane =
+                                        ((sizeX + tileWidth - 1) / tileWidth) *
+                                        ((sizeY + tileHeight - 1) / tileHeight);
+
+                                final File tiff = TempFileManager.create_path(
+                                        "__omero_export__", ".ome.tiff");
+
+                                final String xml = tiffXml(metadata, tiff.getName(),
+                                        order, sizeZ, sizeC, sizeT);
+
+                                writer = new TiffWriter();
+                                writer.setMetadataRetrieve(metadata);
                                 writer.setWriteSequentially(true); // ticket:6701
-                                long mSize = getMetadataBytes(reader);
-                                long dSize = getDataBytes(reader);
+                                long mSize = getMetadataBytes(xml, planeCount, tilesPerPlane);
+                                long dSize = (long) planeCount * sizeX * sizeY * first.getByteWidth();
                                 final boolean bigtiff =
                                     ( ( mSize + dSize ) > BIG_TIFF_SIZE );
                                 if (bigtiff) {
                                     writer.setBigTiff(true);
                                 }
-                                writer.setId(file.getAbsolutePath());
+                                writer.setId(tiff.getAbsolutePath());
 
-                                int planeCount = reader.planes;
-                                int planeSize = RomioPixelBuffer.safeLongToInteger(
-                                        raw.getPlaneSize());
                                 log.info(String.format(
                                             "Using big TIFF? %s mSize=%d " +
                                             "dSize=%d planeCount=%d " +
-                                            "planeSize=%d",
+                                            "tileWidth=%d tileHeight=%d",
                                             bigtiff, mSize, dSize,
-                                            planeCount, planeSize));
-                                byte[] plane = new byte[planeSize];
-                                for (int i = 0; i < planeCount; i++) {
-                                    int[] zct = FormatTools.getZCTCoords(
-                                        retrieve.getPixelsDimensionOrder(0).getValue(),
-                                        reader.getSizeZ(), reader.getSizeC(), reader.getSizeT(),
-                                        planeCount, i);
-                                    int readerIndex = reader.getIndex(zct[0], zct[1], zct[2]);
-                                    reader.openBytes(readerIndex, plane);
+                                            planeCount, tileWidth, tileHeight));
 
+                                // From here, the file may be read as it is written
+                                readable = 0;
+                                file = tiff;
+                                retrieve = null;
 
-                                    IFD ifd = new IFD();
-                                    ifd.put(IFD.TILE_WIDTH, 128);
-                                    ifd.put(IFD.TILE_LENGTH, 128);
+                                tileReader = new PixelTileReader(buffers);
+                                buffers.clear();
+                                long planeEnd = 0;
+                                for (int i = 0; i < planeCount; i++) {
+                                    int[] zct = FormatTools.getZCTCoords(order,
+                                        sizeZ, sizeC, sizeT, planeCount, i);
+                                    final List<PixelTileReader.Tile> tiles =
+                                            new ArrayList<PixelTileReader.Tile>(tilesPerPlane);
+                                    for (int y = 0; y < sizeY; y += tileHeight) {
+                                        for (int x = 0; x < sizeX; x += tileWidth) {
+                                            tiles.add(new PixelTileReader.Tile(
+                                                    zct[0], zct[1], zct[2], x, y,
+                                                    Math.min(tileWidth, sizeX - x),
+                                                    Math.min(tileHeight, sizeY - y)));
+                                        }
+                                    }
 
-                                    writer.saveBytes(i, plane, ifd);
+                                    final IFD ifd = new IFD();
+                                    ifd.put(IFD.TILE_WIDTH, tileWidth);
+                                    ifd.put(IFD.TILE_LENGTH, tileHeight);
+                                    if (i == 0) {
+                                        ifd.putIFDValue(IFD.IMAGE_DESCRIPTION, xml);
+                                    }
+
+                                    final int plane = i;
+                                    final TiffWriter planeWriter = writer;
+                                    tileReader.read(tiles, new PixelTileReader.Consumer() {
+                                        public void tile(PixelTileReader.Tile tile, byte[] buf)
+                                                throws IOException {
+                                            try {
+                                                planeWriter.saveBytes(plane, buf, ifd,
+                                                        tile.x, tile.y, tile.w, tile.h);
+                                            } catch (FormatException fe) {
+                                                throw new IOException(fe);
+                                            }
+                                        }
+                                    });
+
+                                    // Writing a plane may still adjust the one before
+                                    readable = planeEnd;
+                                    planeEnd = file.length();
                                 }
-                                retrieve = null;
 
                                 try {
                                     writer.close();
@@ -421,6 +481,7 @@ public class ExporterI extends AbstractCloseableAmdServant implements
                                     // Nulling to prevent another exception
                                     writer = null;
                                 }
+                                readable = -1;
 
                                     __cb.ice_response(file.length());
                                 } catch (Exception e) {
@@ -430,27 +491,24 @@ public class ExporterI extends AbstractCloseableAmdServant implements
                                     IceMapper.fillServerError(ie, e);
                                     __cb.ice_exception(ie);
                                 } finally {
-                                    cleanup(raw, reader, writer);
+                                    readable = -1;
+                                    cleanup(buffers, tileReader, writer);
                                 }
 
                             return null; // see calls to __cb above
                         }
 
-                        private void cleanup(RawPixelsStore raw,
-                                OmeroReader reader, IFormatWriter writer) {
-                            try {
-                                if (raw != null) {
-                                    raw.close();
+                        private void cleanup(List<PixelBuffer> buffers,
+                                PixelTileReader tileReader, IFormatWriter writer) {
+                            for (PixelBuffer buffer : buffers) {
+                                try {
+                                    buffer.close();
+                                } catch (Exception e) {
+                                    log.error("Error closing pix", e);
                                 }
-                            } catch (Exception e) {
-                                log.error("Error closing pix", e);
                             }
-                            try {
-                                if (reader != null) {
-                                    reader.close();
-                                }
-                            } catch (Exception e) {
-                                log.error("Error closing reader", e);
+                            if (tileReader != null) {
+                                tileReader.close();
                             }
                             try {
                                 if (writer != null) {
@@ -484,17 +542,22 @@ public class ExporterI extends AbstractCloseableAmdServant implements
             ra = new RandomAccessFile(file, "r");
 
             long l = ra.length();
+            final long limit = readable;
+            if (limit >= 0 && limit < l) {
+                // the rest of the file may yet change
+                l = limit;
+            }
             if (pos + size > l) {
-                size  = (int) (l - pos);
+                size  = (int) Math.max(0, l - pos);
             }
 
             ra.seek(pos);
-            int read = ra.read(buf);
+            int read = size == 0 ? 0 : ra.read(buf, 0, size);
 
             // Handle end of file
             if (read < 0) {
                 buf = new byte[0];
-            } else if (read < size) {
+            } else if (read < buf.length) {
                 byte[] newBuf = new byte[read];
                 System.arraycopy(buf, 0, newBuf, 0, read);
                 buf = newBuf;
@@ -554,31 +617,51 @@ public class ExporterI extends AbstractCloseableAmdServant implements
     // Misc. helpers.
     // =========================================================================
 
-    private long getMetadataBytes(OmeroReader reader)
-            throws DependencyException, ServiceException {
+    /**
+     * Generates the OME-XML to be held by the first plane of an OME-TIFF
+     * file in which each plane is in its own IFD.
+     */
+    private String tiffXml(MetadataRetrieve retrieve, String fileName,
+            String order, int sizeZ, int sizeC, int sizeT)
+            throws ServiceException {
+        IMetadata xmlMeta = convertXml(retrieve);
+        service.removeBinData(xmlMeta);
+        String uuid = "urn:uuid:" + UUID.randomUUID();
+        xmlMeta.setUUID(uuid);
+        int planeCount = sizeZ * sizeC * sizeT;
+        for (int i = 0; i < planeCount; i++) {
+            int[] zct = FormatTools.getZCTCoords(order, sizeZ, sizeC, sizeT,
+                    planeCount, i);
+            xmlMeta.setTiffDataIFD(new NonNegativeInteger(i), 0, i);
+            xmlMeta.setTiffDataPlaneCount(new NonNegativeInteger(1), 0, i);
+            xmlMeta.setTiffDataFirstZ(new NonNegativeInteger(zct[0]), 0, i);
+            xmlMeta.setTiffDataFirstC(new NonNegativeInteger(zct[1]), 0, i);
+            xmlMeta.setTiffDataFirstT(new NonNegativeInteger(zct[2]), 0, i);
+            xmlMeta.setUUIDFileName(fileName, 0, i);
+            xmlMeta.setUUIDValue(uuid, 0, i);
+        }
+        return service.getOMEXML(xmlMeta);
+    }
 
-        String xml = service.getOMEXML(retrieve);
+    /**
+     * @return the TIFF tile size, a multiple of 16, nearest to the given
+     * tile size of the pixel buffer
+     */
+    private static int tiffTileSize(int bufferTileSize) {
+        int size = Math.min(bufferTileSize, MAX_TILE_SIZE);
+        return Math.max(16, size - size % 16);
+    }
 
+    private long getMetadataBytes(String xml, int planeCount, int tilesPerPlane) {
         long xmlbytes;
         try {
             xmlbytes = xml.getBytes("UTF8").length;
         } catch (UnsupportedEncodingException e) {
             throw new RuntimeException("Failed to convert to UTF-8", e);
         }
-        long planebytes = reader.planes * 512;
+        // each tile has an offset and a byte count in its plane's IFD
+        long planebytes = planeCount * (512 + 16L * tilesPerPlane);
         return planebytes + xmlbytes;
     }
 
-    private long getDataBytes(OmeroReader reader) {
-        return (long) reader.planes * reader.sizeX * reader.sizeY *
-            FormatTools.getBytesPerPixel(reader.getPixelType());
-    }
-
-    private boolean requiresPyramid(ServiceFactory sf, long id) {
-        ome.model.core.Pixels _p =
-            sf.getQueryService().get(ome.model.core.Pixels.class, id);
-        return pixelsService.requiresPixelsPyramid(_p);
-    }
-
-
 }
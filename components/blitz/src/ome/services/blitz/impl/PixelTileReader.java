@@ -0,0 +1,170 @@
+/*
+ *   Copyright 2018 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.blitz.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import ome.io.nio.PixelBuffer;
+import ome.services.blitz.util.OrderedReadAhead;
+import ome.util.PixelData;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Reads tiles of pixel data on several threads, each with its own
+ * {@link PixelBuffer}, while handing the tiles to a single {@link Consumer}
+ * in their original order. Decompressing the tiles of a pyramid thus
+ * proceeds in parallel while the consumer writes them out serially.
+ * @see OrderedReadAhead
+ * @since 5.4.7
+ */
+class PixelTileReader {
+
+    private final static Logger log =
+            LoggerFactory.getLogger(PixelTileReader.class);
+
+    /**
+     * A region of a plane.
+     */
+    static class Tile {
+
+        final int z, c, t, x, y, w, h;
+
+        Tile(int z, int c, int t, int x, int y, int w, int h) {
+            this.z = z;
+            this.c = c;
+            this.t = t;
+            this.x = x;
+            this.y = y;
+            this.w = w;
+            this.h = h;
+        }
+    }
+
+    /**
+     * Receives the tiles in order.
+     */
+    interface Consumer {
+
+        /**
+         * @param tile the tile read
+         * @param buf the pixel data of the tile, big-endian, owned by the
+         * consumer
+         */
+        void tile(Tile tile, byte[] buf) throws IOException;
+    }
+
+    private final OrderedReadAhead<Tile, byte[]> readAhead;
+
+    /** Pixel buffers not currently reading a tile. */
+    private final BlockingQueue<PixelBuffer> idle =
+            new LinkedBlockingQueue<PixelBuffer>();
+
+    private final List<PixelBuffer> buffers;
+
+    /**
+     * @param buffers the pixel buffers from which to read, one per thread,
+     * to be closed by {@link #close()}
+     */
+    PixelTileReader(List<PixelBuffer> buffers) {
+        this.buffers = new ArrayList<PixelBuffer>(buffers);
+        this.readAhead = new OrderedReadAhead<Tile, byte[]>(
+                "PixelTileReader", buffers.size());
+        idle.addAll(buffers);
+    }
+
+    /**
+     * Reads the given tiles, passing each in turn to the consumer on the
+     * calling thread.
+     * @param tiles the tiles, in the order in which they are to be consumed
+     * @param consumer receives the tiles
+     * @throws IOException if a tile could not be read or consumed
+     */
+    void read(List<Tile> tiles, final Consumer consumer) throws IOException {
+        try {
+            readAhead.run(tiles, new OrderedReadAhead.Reader<Tile, byte[]>() {
+                public byte[] read(Tile tile) throws IOException {
+                    final PixelBuffer buffer =
+                            Uninterruptibles.takeUninterruptibly(idle);
+                    try {
+                        final PixelData data = buffer.getTile(tile.z, tile.c,
+                                tile.t, tile.x, tile.y, tile.w, tile.h);
+                        try {
+                            return bigEndianBytes(data);
+                        } finally {
+                            data.dispose();
+                        }
+                    } finally {
+                        idle.add(buffer);
+                    }
+                }
+            }, new OrderedReadAhead.Consumer<Tile, byte[]>() {
+                public void consume(Tile tile, byte[] buf) throws IOException {
+                    consumer.tile(tile, buf);
+                }
+            });
+        } catch (ExecutionException ee) {
+            Throwables.propagateIfPossible(ee.getCause(), IOException.class);
+            throw new RuntimeException(ee.getCause());
+        }
+    }
+
+    /**
+     * Waits for the reading to finish then closes the pixel buffers.
+     */
+    void close() {
+        readAhead.close();
+        for (final PixelBuffer buffer : buffers) {
+            try {
+                buffer.close();
+            } catch (IOException e) {
+                log.warn("Failed to close pixel buffer", e);
+            }
+        }
+    }
+
+    /**
+     * @param data pixel data
+     * @return a copy of the pixel data in big-endian order
+     */
+    private static byte[] bigEndianBytes(PixelData data) {
+        final ByteBuffer source = data.getData().duplicate();
+        source.rewind();
+        final byte[] buf = new byte[source.remaining()];
+        source.get(buf);
+        final int width = data.bytesPerPixel();
+        if (width > 1 && data.getOrder() == ByteOrder.LITTLE_ENDIAN) {
+            swap(buf, width);
+        }
+        return buf;
+    }
+
+    /**
+     * Reverses the bytes of each pixel.
+     * @param buf the pixels
+     * @param width the number of bytes in each pixel
+     */
+    private static void swap(byte[] buf, int width) {
+        for (int offset = 0; offset + width <= buf.length; offset += width) {
+            for (int i = 0, j = width - 1; i < j; i++, j--) {
+                final byte b = buf[offset + i];
+                buf[offset + i] = buf[offset + j];
+                buf[offset + j] = b;
+            }
+        }
+    }
+}
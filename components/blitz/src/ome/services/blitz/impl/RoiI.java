@@ -5,6 +5,8 @@
 
 package ome.services.blitz.impl;
 
+import static omero.rtypes.rint;
+
 import java.awt.Color;
 import java.awt.Point;
 import java.awt.image.BufferedImage;
@@ -30,6 +32,7 @@ import ome.services.blitz.util.BlitzExecutor;
 import ome.services.blitz.util.BlitzOnly;
 import ome.services.blitz.util.ServiceFactoryAware;
 import ome.services.roi.GeomTool;
+import ome.services.roi.ShapeSimplifier;
 import ome.services.throttling.Adapter;
 import ome.services.util.Executor.SimpleWork;
 import ome.system.ServiceFactory;
@@ -39,6 +42,7 @@ import omero.ServerError;
 import omero.api.AMD_IRoi_findByImage;
 import omero.api.AMD_IRoi_findByPlane;
 import omero.api.AMD_IRoi_findByRoi;
+import omero.api.AMD_IRoi_findByViewport;
 import omero.api.AMD_IRoi_getMeasuredRois;
 import omero.api.AMD_IRoi_getMeasuredRoisMap;
 import omero.api.AMD_IRoi_getPoints;
@@ -80,6 +84,9 @@ public class RoiI extends AbstractAmdServant implements _IRoiOperations,
     
     protected final SqlAction sql;
 
+    /** The most shapes that {@link #findByViewport_async} returns at once. */
+    private static final int MAX_VIEWPORT_SHAPES = 5000;
+
     public RoiI(BlitzExecutor be, GeomTool geomTool, SqlAction sql) {
     	super(null, be);
         this.geomTool = geomTool;
@@ -177,6 +184,46 @@ public class RoiI extends AbstractAmdServant implements _IRoiOperations,
         }));
     }
 
+    public void findByViewport_async(AMD_IRoi_findByViewport __cb,
+            final long imageId, final int z, final int t, final double x,
+            final double y, final double width, final double height,
+            final double tolerance, RoiOptions opts, Current __current)
+            throws ServerError {
+
+        final RoiOptions page = viewportPage(opts);
+        final IceMapper mapper = new IceMapper(new RoiResultReturnMapper(page,
+                tolerance > 0 ? new ShapeSimplifier(tolerance) : null));
+
+        runnableCall(__current, new Adapter(__cb, __current, mapper, factory
+                .getExecutor(), factory.principal, new SimpleWork(this,
+                "findByViewport", imageId, z, t, x, y, width, height) {
+
+            @Transactional(readOnly = true)
+            public Object doWork(Session session, ServiceFactory sf) {
+
+                final List<Long> shapeIds = sql.findShapesInViewport(imageId,
+                        z, t, x, y, x + width, y + height,
+                        page.userId == null ? null : page.userId.getValue(),
+                        page.groupId == null ? null : page.groupId.getValue(),
+                        page.offset.getValue(), page.limit.getValue());
+                if (shapeIds.isEmpty()) {
+                    return null;
+                }
+                final QueryBuilder qb = new QueryBuilder();
+                qb.select("distinct r").from("Roi", "r");
+                qb.join("r.shapes", "s", false, true); // fetch
+                qb.join("r.folderLinks", "folderLinks", true, true); // fetch
+                qb.join("folderLinks.parent", "folder", true, true); // fetch
+                qb.where();
+                qb.and("s.id in (:ids)");
+                qb.order("r.id", true); // ascending
+                qb.paramList("ids", shapeIds);
+                return qb.queryWithoutFilter(session).list();
+
+            }
+        }));
+    }
+
     public void getPoints_async(AMD_IRoi_getPoints __cb, final long shapeId,
             Current __current) throws ServerError {
 
@@ -604,6 +651,30 @@ public class RoiI extends AbstractAmdServant implements _IRoiOperations,
         return f;
     }
 
+    /**
+     * @param opts the options given to {@link #findByViewport_async}
+     * @return a copy of the options with a valid offset and limit
+     */
+    private static RoiOptions viewportPage(RoiOptions opts) {
+        final RoiOptions page = new RoiOptions();
+        int offset = 0;
+        int limit = MAX_VIEWPORT_SHAPES;
+        if (opts != null) {
+            page.shapes = opts.shapes;
+            page.userId = opts.userId;
+            page.groupId = opts.groupId;
+            if (opts.offset != null) {
+                offset = Math.max(0, opts.offset.getValue());
+            }
+            if (opts.limit != null && opts.limit.getValue() > 0) {
+                limit = Math.min(limit, opts.limit.getValue());
+            }
+        }
+        page.offset = rint(offset);
+        page.limit = rint(limit);
+        return page;
+    }
+
     private static class RoiQueryBuilder extends QueryBuilder {
 
         final RoiOptions opts;
@@ -639,8 +710,21 @@ public class RoiI extends AbstractAmdServant implements _IRoiOperations,
 
         private final RoiOptions opts;
 
+        private final ShapeSimplifier simplifier;
+
         public RoiResultReturnMapper(RoiOptions opts) {
+            this(opts, null);
+        }
+
+        /**
+         * @param opts the options to return in the result
+         * @param simplifier if not {@code null}, simplifies the returned
+         * shapes
+         */
+        public RoiResultReturnMapper(RoiOptions opts,
+                ShapeSimplifier simplifier) {
             this.opts = opts;
+            this.simplifier = simplifier;
         }
 
         @SuppressWarnings("unchecked")
@@ -669,6 +753,9 @@ public class RoiI extends AbstractAmdServant implements _IRoiOperations,
                     if (shape == null) {
                         continue;
                     }
+                    if (simplifier != null) {
+                        simplifier.simplify(shape);
+                    }
                     if (shape.getTheT() != null) {
                         byT.put(shape.getTheT().getValue(), shape);
                     } else {
@@ -0,0 +1,103 @@
+/*
+ *   Copyright 2018 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.blitz.repo;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ome.util.checksum.ChecksumProvider;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Hashes repository files on a bounded pool of threads, feeding each file
+ * to several checksum providers in a single read so that an existing
+ * checksum may be verified while a new one is calculated. The total rate
+ * at which the files are read may be limited so that audits of a large
+ * repository do not starve imports and other reads of it.
+ * @since 5.4.7
+ */
+public class ChecksumHasher {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final ExecutorService pool;
+
+    private final RateLimiter limiter;
+
+    /**
+     * @param threads how many files may be hashed at once
+     * @param bytesPerSecond the limit on the total rate at which the files
+     * are read, none if <code>0</code> or lower
+     */
+    public ChecksumHasher(int threads, long bytesPerSecond) {
+        pool = Executors.newFixedThreadPool(Math.max(1, threads),
+                new ThreadFactoryBuilder().setDaemon(true)
+                        .setNameFormat("ChecksumHasher-%d").build());
+        limiter = bytesPerSecond > 0 ? RateLimiter.create(bytesPerSecond) : null;
+    }
+
+    /**
+     * Hashes a file on the pool.
+     * @param path the file to read
+     * @param providers the providers to which to feed the file
+     * @return the checksums calculated by the providers, in the same order
+     */
+    public Future<String[]> submit(final String path,
+            final ChecksumProvider... providers) {
+        return pool.submit(new Callable<String[]>() {
+            public String[] call() throws IOException {
+                return hash(path, limiter, providers);
+            }
+        });
+    }
+
+    /**
+     * Stops the threads.
+     */
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Hashes a file on the calling thread.
+     * @param path the file to read
+     * @param limiter the limit on the rate at which to read the file,
+     * may be <code>null</code>
+     * @param providers the providers to which to feed the file
+     * @return the checksums calculated by the providers, in the same order
+     * @throws IOException if the file could not be read
+     */
+    public static String[] hash(String path, RateLimiter limiter,
+            ChecksumProvider... providers) throws IOException {
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        final InputStream in = new FileInputStream(path);
+        try {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                if (limiter != null && read > 0) {
+                    limiter.acquire(read);
+                }
+                for (final ChecksumProvider provider : providers) {
+                    provider.putBytes(buffer, 0, read);
+                }
+            }
+        } finally {
+            in.close();
+        }
+        final String[] checksums = new String[providers.length];
+        for (int i = 0; i < providers.length; i++) {
+            checksums[i] = providers[i].checksumAsString();
+        }
+        return checksums;
+    }
+}
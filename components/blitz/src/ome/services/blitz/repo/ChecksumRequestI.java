@@ -0,0 +1,297 @@
+/*
+ *   Copyright 2018 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.blitz.repo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import ome.model.core.OriginalFile;
+import ome.parameters.Parameters;
+import ome.services.blitz.repo.path.FsFile;
+import ome.services.blitz.repo.path.ServerFilePathTransformer;
+import ome.services.blitz.util.ChecksumAlgorithmMapper;
+import ome.services.util.ReadOnlyStatus;
+import ome.util.checksum.ChecksumProvider;
+import ome.util.checksum.ChecksumProviderFactory;
+import omero.ServerError;
+import omero.cmd.ERR;
+import omero.cmd.HandleI.Cancel;
+import omero.cmd.Helper;
+import omero.cmd.IRequest;
+import omero.cmd.Response;
+import omero.grid.ChecksumRequest;
+import omero.grid.ChecksumResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+/**
+ * Verifies, and optionally sets, the checksums of original files in a
+ * managed repository, one batch of files per step. The files of each batch
+ * are hashed concurrently by the repository's {@link ChecksumHasher}; a
+ * file whose checksum is to be changed is read only once to both verify its
+ * old checksum and calculate its new one. Files whose old checksum does not
+ * match are reported rather than changed.
+ * <p>
+ * The request's own transaction only reads. The files are loaded and their
+ * new checksums saved through the repository's {@link Files}, each call in
+ * a transaction of its own, so the checksums set by the batches already
+ * processed stay set if the request is cancelled or fails. The files
+ * reported so far are then listed in the parameters of the {@link ERR}.
+ * </p>
+ * @since 5.4.7
+ */
+public class ChecksumRequestI extends ChecksumRequest implements IRequest,
+        ReadOnlyStatus.IsAware {
+
+    private static final long serialVersionUID = -1L;
+
+    private static final Logger log = LoggerFactory.getLogger(ChecksumRequestI.class);
+
+    private static final ImmutableMap<String, String> ALL_GROUPS_CONTEXT =
+            ImmutableMap.of(omero.constants.GROUP.value, "-1");
+
+    /** How many files are processed in each step. */
+    private static final int BATCH_SIZE = 256;
+
+    /**
+     * Reads and writes the original files of the repository, each call in
+     * a transaction of its own rather than in that of the request.
+     */
+    public interface Files {
+
+        /**
+         * @param ids the IDs of original files
+         * @return those of the files that are in the repository, with their
+         * hashers
+         * @throws ServerError if the files could not be loaded
+         */
+        List<OriginalFile> load(List<Long> ids) throws ServerError;
+
+        /**
+         * Sets the checksum of a file, as the user in the file's group.
+         * @param file the file whose checksum to set
+         * @param hasher the new checksum algorithm
+         * @param hash the new checksum
+         * @throws ServerError if the checksum could not be set
+         */
+        void setChecksum(OriginalFile file,
+                ome.model.enums.ChecksumAlgorithm hasher, String hash)
+                throws ServerError;
+    }
+
+    private final ServerFilePathTransformer serverPaths;
+
+    private final ChecksumProviderFactory checksumProviderFactory;
+
+    private final ChecksumHasher hasher;
+
+    private final Files files;
+
+    private final List<Long> mismatchFiles = new ArrayList<Long>();
+
+    private final List<Long> adjustedFiles = new ArrayList<Long>();
+
+    private List<List<Long>> batches;
+
+    private ome.model.enums.ChecksumAlgorithm toAlgorithm;
+
+    private Helper helper;
+
+    /** If the database may not be written. */
+    private boolean readOnlyDb;
+
+    /**
+     * @param serverPaths to find the files on disk
+     * @param checksumProviderFactory to calculate checksums
+     * @param hasher to read the files
+     * @param files to load the files of the repository and set their checksums
+     */
+    public ChecksumRequestI(ServerFilePathTransformer serverPaths,
+            ChecksumProviderFactory checksumProviderFactory, ChecksumHasher hasher,
+            Files files) {
+        this.serverPaths = serverPaths;
+        this.checksumProviderFactory = checksumProviderFactory;
+        this.hasher = hasher;
+        this.files = files;
+    }
+
+    //
+    // IRequest methods
+    //
+
+    @Override
+    public Map<String, String> getCallContext() {
+        return new LinkedHashMap<String, String>(ALL_GROUPS_CONTEXT);
+    }
+
+    @Override
+    public void init(Helper helper) throws Cancel {
+        this.helper = helper;
+        if (toHasher != null) {
+            if (readOnlyDb) {
+                throw helper.cancel(new ERR(), null, "read-only-db");
+            }
+            final String name = toHasher.getValue().getValue();
+            toAlgorithm = helper.getServiceFactory().getQueryService().findByQuery(
+                    "FROM ChecksumAlgorithm WHERE value = :value",
+                    new Parameters().addString("value", name));
+            if (toAlgorithm == null) {
+                throw helper.cancel(new ERR(), null, "unknown-hasher", "hasher", name);
+            }
+        }
+        final List<Long> ids = fileIds == null ? Collections.<Long>emptyList() : fileIds;
+        batches = Lists.partition(ids, BATCH_SIZE);
+        helper.setSteps(Math.max(1, batches.size()));
+    }
+
+    @Override
+    public Object step(int step) throws Cancel {
+        helper.assertStep(step);
+        if (step < batches.size()) {
+            processBatch(batches.get(step));
+        }
+        return null;
+    }
+
+    @Override
+    public void finish() throws Cancel {
+        // no-op
+    }
+
+    @Override
+    public void buildResponse(int step, Object object) {
+        helper.assertResponse(step);
+        if (helper.isLast(step)) {
+            final ChecksumResponse rsp = new ChecksumResponse();
+            rsp.mismatchFiles = mismatchFiles;
+            rsp.adjustedFiles = adjustedFiles;
+            helper.setResponseIfNull(rsp);
+        }
+    }
+
+    @Override
+    public Response getResponse() {
+        final Response rsp = helper.getResponse();
+        if (rsp instanceof ERR) {
+            /* report the files processed before the request stopped */
+            final ERR err = (ERR) rsp;
+            if (err.parameters == null) {
+                err.parameters = new HashMap<String, String>();
+            }
+            err.parameters.put("mismatchFiles", Joiner.on(',').join(mismatchFiles));
+            err.parameters.put("adjustedFiles", Joiner.on(',').join(adjustedFiles));
+        }
+        return rsp;
+    }
+
+    @Override
+    public boolean isReadOnly(ReadOnlyStatus readOnly) {
+        /* checksums are set through the files, not in the request's transaction */
+        readOnlyDb = readOnly.isReadOnlyDb();
+        return true;
+    }
+
+    //
+    // HELPERS
+    //
+
+    /**
+     * Hashes those of the given files that are in the repository, then
+     * records which do not match and sets the new checksums of the others.
+     * @param ids the IDs of the files
+     */
+    private void processBatch(List<Long> ids) throws Cancel {
+        final List<OriginalFile> inRepo;
+        try {
+            inRepo = files.load(ids);
+        } catch (ServerError se) {
+            throw helper.cancel(new ERR(), se, "load-failed");
+        }
+
+        /* start reading the files */
+        final Map<OriginalFile, Future<String[]>> hashing =
+                new LinkedHashMap<OriginalFile, Future<String[]>>();
+        for (final OriginalFile file : inRepo) {
+            final List<ChecksumProvider> providers = new ArrayList<ChecksumProvider>(2);
+            if (hasChecksum(file)) {
+                providers.add(checksumProviderFactory.getProvider(
+                        ChecksumAlgorithmMapper.getChecksumType(file.getHasher())));
+            }
+            if (isToChange(file)) {
+                providers.add(checksumProviderFactory.getProvider(
+                        ChecksumAlgorithmMapper.getChecksumType(toAlgorithm)));
+            }
+            if (!providers.isEmpty()) {
+                final FsFile fsPath = new FsFile(file.getPath() + file.getName());
+                final String osPath = serverPaths.getServerFileFromFsFile(fsPath).getAbsolutePath();
+                hashing.put(file, hasher.submit(osPath,
+                        providers.toArray(new ChecksumProvider[providers.size()])));
+            }
+        }
+
+        /* compare and update the checksums as the reads complete */
+        try {
+            for (final Map.Entry<OriginalFile, Future<String[]>> entry : hashing.entrySet()) {
+                final OriginalFile file = entry.getKey();
+                final String[] checksums;
+                try {
+                    checksums = entry.getValue().get();
+                } catch (ExecutionException ee) {
+                    log.warn("Failed to read original file #" + file.getId(), ee.getCause());
+                    mismatchFiles.add(file.getId());
+                    continue;
+                }
+                int index = 0;
+                if (hasChecksum(file) && !checksums[index++].equalsIgnoreCase(file.getHash())) {
+                    mismatchFiles.add(file.getId());
+                    continue;
+                }
+                if (isToChange(file)) {
+                    try {
+                        files.setChecksum(file, toAlgorithm, checksums[index]);
+                    } catch (ServerError se) {
+                        throw helper.cancel(new ERR(), se, "save-failed",
+                                "fileId", Long.toString(file.getId()));
+                    }
+                    adjustedFiles.add(file.getId());
+                }
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw helper.cancel(new ERR(), ie, "interrupted");
+        } finally {
+            for (final Future<String[]> future : hashing.values()) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * @return if the file has a checksum to verify
+     */
+    private static boolean hasChecksum(OriginalFile file) {
+        return file.getHasher() != null && file.getHash() != null;
+    }
+
+    /**
+     * @return if the file's checksum is to be set to {@link #toAlgorithm}
+     */
+    private boolean isToChange(OriginalFile file) {
+        return toAlgorithm != null && (file.getHasher() == null || file.getHash() == null
+                || !toAlgorithm.getValue().equals(file.getHasher().getValue()));
+    }
+}
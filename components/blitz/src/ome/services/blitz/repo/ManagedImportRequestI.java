@@ -79,6 +79,8 @@ import org.slf4j.MDC;
 
 import ch.qos.logback.classic.ClassicConstants;
 
+import com.google.common.base.Supplier;
+
 /**
  * Wrapper around {@link FilesetJobLink} instances which need to be handled
  * on the server-side. This will primarily provide the step-location required
@@ -166,6 +168,12 @@ public class ManagedImportRequestI extends ImportRequest implements IRequest {
 
     private final String token;
 
+    /** Creates the readers decoding pixel data in parallel, if any. */
+    private Supplier<OMEROWrapper> readerFactory;
+
+    /** How many tiles may be decoded at once. */
+    private int pixelDataThreads = 1;
+
 
     /**
      * Set by ManagedImportProcessI when verifyUpload has been called.
@@ -189,6 +197,18 @@ public class ManagedImportRequestI extends ImportRequest implements IRequest {
         this.resources = resources;
     }
 
+    /**
+     * Late injection to not break the constructor
+     * @param threads how many tiles may be decoded at once when the pixel
+     * data is parsed, serially by the import's own reader if one or lower
+     * @param readerFactory creates the additional readers of the file
+     */
+    public void setPixelDataDecoding(int threads,
+            Supplier<OMEROWrapper> readerFactory) {
+        this.pixelDataThreads = threads;
+        this.readerFactory = readerFactory;
+    }
+
     /**
      * @param callContext the call context to set
      */
@@ -655,15 +675,28 @@ public class ManagedImportRequestI extends ImportRequest implements IRequest {
         if (!reader.isMinMaxSet() && !noStatsInfo)
         {
             // Parse the binary data to generate min/max values
-            int seriesCount = reader.getSeriesCount();
-            for (int series = 0; series < seriesCount; series++) {
-                ImportSize size = new ImportSize(fileName,
-                        pixList.get(series), reader.getDimensionOrder());
-                Pixels pixels = pixList.get(series);
-                MessageDigest md = parseData(fileName, series, size);
-                if (md != null) {
-                   final String s = Hex.encodeHexString(md.digest());
-                   pixels.setSha1(store.toRType(s));
+            PixelDataDecoder decoder = null;
+            if (pixelDataThreads > 1 && readerFactory != null) {
+                decoder = new PixelDataDecoder(
+                        file, readerFactory, pixelDataThreads);
+            }
+            try {
+                int seriesCount = reader.getSeriesCount();
+                for (int series = 0; series < seriesCount; series++) {
+                    ImportSize size = new ImportSize(fileName,
+                            pixList.get(series), reader.getDimensionOrder());
+                    Pixels pixels = pixList.get(series);
+                    MessageDigest md = decoder == null ?
+                            parseData(fileName, series, size) :
+                            parseData(fileName, series, size, decoder);
+                    if (md != null) {
+                       final String s = Hex.encodeHexString(md.digest());
+                       pixels.setSha1(store.toRType(s));
+                    }
+                }
+            } finally {
+                if (decoder != null) {
+                    decoder.close();
                 }
             }
         }
@@ -796,6 +829,76 @@ public class ManagedImportRequestI extends ImportRequest implements IRequest {
     }
 
 
+    /**
+     * Parse the binary data to generate min/max values and
+     * allow an md to be calculated, decoding tiles in parallel. The tiles
+     * are consumed in the same order as by
+     * {@link #parseData(String, int, ImportSize)} so the digest and the
+     * min/max values are the same.
+     *
+     * @param series
+     * @param decoder decodes the tiles
+     * @return The SHA1 message digest for the binary data.
+     */
+    private MessageDigest parseData(
+            String fileName, final int series,
+            ImportSize size, PixelDataDecoder decoder)
+        throws FormatException, IOException, ServerError
+    {
+        reader.setSeries(series);
+        int maxPlaneSize = sizes.getMaxPlaneWidth() * sizes.getMaxPlaneHeight();
+        if (((long) reader.getSizeX()
+             * (long) reader.getSizeY()) > maxPlaneSize) {
+            return null;
+        }
+
+        int bytesPerPixel = getBytesPerPixel(reader.getPixelType());
+        final MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-1");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(
+                "Required SHA-1 message digest algorithm unavailable.");
+        }
+        int tileHeight = reader.getOptimalTileHeight();
+        int tileWidth = reader.getOptimalTileWidth();
+        List<PixelDataDecoder.Tile> tiles =
+                new ArrayList<PixelDataDecoder.Tile>();
+        for (int t = 0; t < size.sizeT; t++) {
+            for (int c = 0; c < size.sizeC; c++) {
+                for (int z = 0; z < size.sizeZ; z++) {
+                    int planeNumber = reader.getIndex(z, c, t);
+                    for (int y = 0; y < size.sizeY; y += tileHeight) {
+                        for (int x = 0; x < size.sizeX; x += tileWidth) {
+                            int w = Math.min(tileWidth, size.sizeX - x);
+                            int h = Math.min(tileHeight, size.sizeY - y);
+                            tiles.add(new PixelDataDecoder.Tile(
+                                    planeNumber, x, y, w, h,
+                                    w * h * bytesPerPixel,
+                                    x + w == size.sizeX
+                                    && y + h == size.sizeY));
+                        }
+                    }
+                }
+            }
+        }
+        decoder.decode(series, tiles, new PixelDataDecoder.Consumer() {
+            int planeNo = 1;
+            public void tile(PixelDataDecoder.Tile tile, byte[] buf)
+                    throws FormatException, IOException {
+                md.update(buf);
+                reader.updateMinMax(tile.plane, buf, buf.length);
+                if (tile.last) {
+                    notifyObservers(new ImportEvent.IMPORT_STEP(
+                            planeNo, series, reader.getSeriesCount()));
+                    planeNo++;
+                }
+            }
+        });
+        return md;
+    }
+
     /**
      * Read a plane and update the pixels checksum
      *
@@ -36,6 +36,10 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -47,11 +51,13 @@ import ome.formats.importer.ImportConfig;
 import ome.formats.importer.ImportContainer;
 import ome.model.core.OriginalFile;
 import ome.model.meta.Experimenter;
+import ome.services.blitz.impl.ServiceFactoryI;
 import ome.services.blitz.repo.path.ClientFilePathTransformer;
 import ome.services.blitz.repo.path.FilePathRestrictionInstance;
 import ome.services.blitz.repo.path.FsFile;
 import ome.services.blitz.repo.path.MakeNextDirectory;
 import ome.services.blitz.util.ChecksumAlgorithmMapper;
+import ome.services.blitz.util.FindServiceFactoryMessage;
 import ome.system.Roles;
 import ome.system.ServiceFactory;
 import ome.util.SqlAction;
@@ -62,6 +68,7 @@ import ome.util.checksum.ChecksumType;
 import omero.ResourceError;
 import omero.ServerError;
 import omero.ValidationException;
+import omero.cmd.HandlePrx;
 import omero.grid.ImportLocation;
 import omero.grid.ImportProcessPrx;
 import omero.grid.ImportSettings;
@@ -101,6 +108,8 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Ordering;
 import com.google.common.math.IntMath;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 /**
  * Extension of the PublicRepository API which only manages files
@@ -153,6 +162,16 @@ public class ManagedRepositoryI extends PublicRepositoryI
 
     private final Set<String> managedRepoUuids;
 
+    private int checksumThreads = 2;
+
+    private long checksumBytesPerSecond = 0;
+
+    /* guarded by this */
+    private ChecksumHasher checksumHasher;
+
+    /* guarded by this */
+    private ExecutorService checksumFilesPool;
+
     /**
      * Creates a {@link ProcessContainer} internally that will not be managed
      * by background threads. Used primarily during testing.
@@ -403,16 +422,18 @@ public class ManagedRepositoryI extends PublicRepositoryI
                     fromProvider = checksumProviderFactory.getProvider(ChecksumAlgorithmMapper.getChecksumType(fromHasher));
                 }
             }
-            /* find the new hash */
+            /* find the new hash, checking the old hash in the same read */
             final ChecksumProvider toProvider = checksumProviderFactory.getProvider(toType);
-            toProvider.putFile(osPath);
-            final String toHash = toProvider.checksumAsString();
-            if (fromProvider != null) {
-                /* check old hash after new one is calculated */
-                fromProvider.putFile(osPath);
-                if (!fromProvider.checksumAsString().equals(fromHash)) {
-                    throw new ServerError(null, null, "hash mismatch on file ID " + id);
-                }
+            final String[] hashes;
+            try {
+                hashes = fromProvider == null ? ChecksumHasher.hash(osPath, null, toProvider)
+                        : ChecksumHasher.hash(osPath, null, toProvider, fromProvider);
+            } catch (IOException ioe) {
+                throw new ResourceError(null, null, "cannot read file ID " + id + ": " + ioe.getMessage());
+            }
+            final String toHash = hashes[0];
+            if (fromProvider != null && !hashes[1].equals(fromHash)) {
+                throw new ServerError(null, null, "hash mismatch on file ID " + id);
             }
             /* update the file's checksum */
             file.setHasher(toHasher);
@@ -426,10 +447,129 @@ public class ManagedRepositoryI extends PublicRepositoryI
         return adjustedFiles;
     }
 
+    public HandlePrx auditChecksums(ChecksumAlgorithm toHasher, List<Long> ids, Current __current)
+            throws ServerError {
+        final Ice.Current adjustedCurr = makeAdjustedCurrent(__current);
+        final ChecksumRequestI request = new ChecksumRequestI(serverPaths,
+                checksumProviderFactory, getChecksumHasher(), new RepositoryFiles(__current));
+        request.fileIds = ids == null ? new ArrayList<Long>() : new ArrayList<Long>(ids);
+        request.toHasher = toHasher;
+
+        final FindServiceFactoryMessage msg = new FindServiceFactoryMessage(this, adjustedCurr);
+        publishMessage(msg);
+        final ServiceFactoryI sf = msg.getServiceFactory();
+        return submitRequest(sf, request, adjustedCurr).ret;
+    }
+
     //
     // HELPERS
     //
 
+    /**
+     * Set how many files {@link #auditChecksums(ChecksumAlgorithm, List, Current)}
+     * may hash at once across all requests.
+     * @param checksumThreads the number of threads
+     */
+    public void setChecksumThreads(int checksumThreads) {
+        this.checksumThreads = checksumThreads;
+    }
+
+    /**
+     * Set the limit on the total rate at which
+     * {@link #auditChecksums(ChecksumAlgorithm, List, Current)} reads files.
+     * @param checksumBytesPerSecond the limit, none if <code>0</code> or lower
+     */
+    public void setChecksumBytesPerSecond(long checksumBytesPerSecond) {
+        this.checksumBytesPerSecond = checksumBytesPerSecond;
+    }
+
+    /**
+     * @return the hasher shared by the checksum requests, created on first use
+     */
+    private synchronized ChecksumHasher getChecksumHasher() {
+        if (checksumHasher == null) {
+            checksumHasher = new ChecksumHasher(checksumThreads, checksumBytesPerSecond);
+        }
+        return checksumHasher;
+    }
+
+    /**
+     * @return the threads on which the checksum requests load and save
+     * files, created on first use
+     */
+    private synchronized ExecutorService getChecksumFilesPool() {
+        if (checksumFilesPool == null) {
+            checksumFilesPool = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                    .setDaemon(true).setNameFormat("ChecksumFiles-%d").build());
+        }
+        return checksumFilesPool;
+    }
+
+    /**
+     * Gives a {@link ChecksumRequestI} access to the files of this repository
+     * through the {@link RepositoryDao} in the manner of
+     * {@link #setChecksumAlgorithm(ChecksumAlgorithm, List, Current)}. The
+     * request runs its steps in a transaction of its own so the DAO is called
+     * from another thread, committing each call apart from the request.
+     */
+    private class RepositoryFiles implements ChecksumRequestI.Files {
+
+        /* in which the group may be adjusted freely */
+        private final Current allGroupsCurrent;
+
+        RepositoryFiles(Current __current) {
+            allGroupsCurrent = makeAdjustedCurrent(__current);
+            allGroupsCurrent.ctx = new HashMap<String, String>(__current.ctx);
+            allGroupsCurrent.ctx.put(omero.constants.GROUP.value, "-1");
+        }
+
+        @Override
+        public List<OriginalFile> load(final List<Long> ids) throws ServerError {
+            return call(new Callable<List<OriginalFile>>() {
+                @Override
+                public List<OriginalFile> call() {
+                    final List<Long> inRepo =
+                            repositoryDao.filterFilesByRepository(getRepoUuid(), ids, allGroupsCurrent);
+                    return repositoryDao.getOriginalFilesWithHasher(inRepo, allGroupsCurrent);
+                }
+            });
+        }
+
+        @Override
+        public void setChecksum(final OriginalFile file,
+                final ome.model.enums.ChecksumAlgorithm hasher, final String hash)
+                throws ServerError {
+            call(new Callable<Object>() {
+                @Override
+                public Object call() {
+                    file.setHasher(new ome.model.enums.ChecksumAlgorithm(hasher.getId(), false));
+                    file.setHash(hash);
+                    final Current fileGroupCurrent = makeAdjustedCurrent(allGroupsCurrent);
+                    fileGroupCurrent.ctx = new HashMap<String, String>(allGroupsCurrent.ctx);
+                    fileGroupCurrent.ctx.put(omero.constants.GROUP.value,
+                            Long.toString(file.getDetails().getGroup().getId()));
+                    repositoryDao.saveObject(file, fileGroupCurrent);
+                    return null;
+                }
+            });
+        }
+
+        private <T> T call(Callable<T> work) throws ServerError {
+            try {
+                return Uninterruptibles.getUninterruptibly(getChecksumFilesPool().submit(work));
+            } catch (ExecutionException ee) {
+                final Throwable cause = ee.getCause();
+                if (cause instanceof ServerError) {
+                    throw (ServerError) cause;
+                }
+                final omero.InternalException ie = new omero.InternalException(null, null,
+                        "failed to access the files of the repository");
+                IceMapper.fillServerError(ie, cause);
+                throw ie;
+            }
+        }
+    }
+
     /**
      * Creating the process will register itself in an appropriate
      * container (i.e. a SessionI or similar) for the current
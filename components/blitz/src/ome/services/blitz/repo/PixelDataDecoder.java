@@ -0,0 +1,188 @@
+/*
+ *   Copyright 2018 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.blitz.repo;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import loci.formats.FormatException;
+import ome.formats.importer.OMEROWrapper;
+import ome.services.blitz.util.OrderedReadAhead;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Decodes the tiles of an imported file on several threads, each with its
+ * own reader of the file, while handing the decoded tiles to a single
+ * {@link Consumer} in their original order. A checksum or the minima and
+ * maxima fed by the consumer are thus the same as if the tiles had been read
+ * serially.
+ * @see OrderedReadAhead
+ * @since 5.4.7
+ */
+class PixelDataDecoder {
+
+    private final static Logger log =
+            LoggerFactory.getLogger(PixelDataDecoder.class);
+
+    /**
+     * A region of a plane of the current series.
+     */
+    static class Tile {
+
+        final int plane, x, y, w, h, length;
+
+        /** If this is the last tile of its plane. */
+        final boolean last;
+
+        Tile(int plane, int x, int y, int w, int h, int length,
+                boolean last) {
+            this.plane = plane;
+            this.x = x;
+            this.y = y;
+            this.w = w;
+            this.h = h;
+            this.length = length;
+            this.last = last;
+        }
+    }
+
+    /**
+     * Receives the decoded tiles in order.
+     */
+    interface Consumer {
+
+        /**
+         * @param tile the tile decoded
+         * @param buf the pixel data of the tile, owned by the consumer
+         */
+        void tile(Tile tile, byte[] buf) throws FormatException, IOException;
+    }
+
+    private final CheckedPath file;
+
+    private final Supplier<OMEROWrapper> readerFactory;
+
+    private final int threads;
+
+    private final OrderedReadAhead<Tile, byte[]> readAhead;
+
+    /** Readers not currently decoding a tile. */
+    private final BlockingQueue<OMEROWrapper> idle =
+            new LinkedBlockingQueue<OMEROWrapper>();
+
+    /** All readers opened. Guarded by this. */
+    private final List<OMEROWrapper> opened = new ArrayList<OMEROWrapper>();
+
+    /**
+     * @param file the file to decode
+     * @param readerFactory creates the readers of the file
+     * @param threads how many tiles may be decoded at once
+     */
+    PixelDataDecoder(CheckedPath file, Supplier<OMEROWrapper> readerFactory,
+            int threads) {
+        this.file = file;
+        this.readerFactory = readerFactory;
+        this.threads = threads;
+        this.readAhead =
+                new OrderedReadAhead<Tile, byte[]>("PixelDataDecoder", threads);
+    }
+
+    /**
+     * Decodes the given tiles of a series, passing each in turn to the
+     * consumer on the calling thread.
+     * @param series the series of the tiles
+     * @param tiles the tiles, in the order in which they are to be consumed
+     * @param consumer receives the tiles
+     * @throws FormatException if a tile could not be decoded or consumed
+     * @throws IOException if a tile could not be read or consumed
+     */
+    void decode(final int series, List<Tile> tiles, final Consumer consumer)
+            throws FormatException, IOException {
+        try {
+            readAhead.run(tiles, new OrderedReadAhead.Reader<Tile, byte[]>() {
+                public byte[] read(Tile tile)
+                        throws FormatException, IOException {
+                    final OMEROWrapper reader = borrow();
+                    try {
+                        reader.setSeries(series);
+                        return reader.openBytes(tile.plane,
+                                new byte[tile.length],
+                                tile.x, tile.y, tile.w, tile.h);
+                    } finally {
+                        idle.add(reader);
+                    }
+                }
+            }, new OrderedReadAhead.Consumer<Tile, byte[]>() {
+                public void consume(Tile tile, byte[] buf)
+                        throws FormatException, IOException {
+                    consumer.tile(tile, buf);
+                }
+            });
+        } catch (ExecutionException ee) {
+            Throwables.propagateIfPossible(ee.getCause(),
+                    FormatException.class, IOException.class);
+            throw new RuntimeException(ee.getCause());
+        }
+    }
+
+    /**
+     * @return an idle reader, opening one if there are fewer than threads
+     */
+    private OMEROWrapper borrow() throws FormatException, IOException {
+        OMEROWrapper reader = idle.poll();
+        if (reader != null) {
+            return reader;
+        }
+        synchronized (this) {
+            if (opened.size() < threads) {
+                reader = readerFactory.get();
+                opened.add(reader);
+            }
+        }
+        if (reader == null) {
+            return Uninterruptibles.takeUninterruptibly(idle);
+        }
+        try {
+            file.bfSetId(reader);
+        } catch (FormatException | IOException | RuntimeException e) {
+            synchronized (this) {
+                opened.remove(reader);
+            }
+            reader.close();
+            throw e;
+        }
+        return reader;
+    }
+
+    /**
+     * Waits for the decoding to finish then closes the readers.
+     */
+    void close() {
+        readAhead.close();
+        final List<OMEROWrapper> readers;
+        synchronized (this) {
+            readers = new ArrayList<OMEROWrapper>(opened);
+            opened.clear();
+        }
+        for (final OMEROWrapper reader : readers) {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                log.warn("Failed to close reader of " + file, e);
+            }
+        }
+    }
+}
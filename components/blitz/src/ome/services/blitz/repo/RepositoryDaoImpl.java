@@ -1177,6 +1177,29 @@ public class RepositoryDaoImpl implements RepositoryDao {
         });
     }
 
+    @Override
+    public List<ome.model.core.OriginalFile> getOriginalFilesWithHasher(final List<Long> ids,
+            Ice.Current current) {
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return (List<ome.model.core.OriginalFile>) executor.execute(current.ctx, currentUser(current),
+                new Executor.Work<List<ome.model.core.OriginalFile>>() {
+
+            @Override
+            public String description() {
+                return "get " + ids.size() + " original files, with hashers joined";
+            }
+
+            @Override
+            @Transactional(readOnly = true)
+            public List<ome.model.core.OriginalFile> doWork(Session session, ServiceFactory sf) {
+                final String query = "FROM OriginalFile o LEFT OUTER JOIN FETCH o.hasher WHERE o.id IN (:ids)";
+                return sf.getQueryService().findAllByQuery(query, new Parameters().addIds(ids));
+            }
+        });
+    }
+
     @Override
     public void saveObject(final IObject object, Ice.Current current) {
         executor.execute(current.ctx, currentUser(current),
@@ -35,6 +35,8 @@ import ome.formats.importer.OMEROWrapper;
 
 import omero.util.Resources;
 
+import com.google.common.base.Supplier;
+
 
 /**
  * Requests which are handled by the repository servants.
@@ -56,6 +58,8 @@ public class RequestObjectFactoryRegistry extends
 
     private/* final */OmeroContext ctx;
 
+    private int pixelDataThreads = 1;
+
     public RequestObjectFactoryRegistry(Registry reg, TileSizes sizes,
             RepositoryDao repositoryDao, Ring ring,
             PixelsService pixels) {
@@ -72,6 +76,18 @@ public class RequestObjectFactoryRegistry extends
         this.resources = resources;
     }
 
+    /**
+     * @param pixelDataThreads how many tiles each import may decode at once
+     * while parsing its pixel data, the number of available processors if
+     * <code>0</code> or lower
+     */
+    public void setPixelDataThreads(int pixelDataThreads) {
+        if (pixelDataThreads <= 0) {
+            pixelDataThreads = Runtime.getRuntime().availableProcessors();
+        }
+        this.pixelDataThreads = pixelDataThreads;
+    }
+
     public void setApplicationContext(ApplicationContext ctx)
             throws BeansException {
         this.ctx = (OmeroContext) ctx;
@@ -90,6 +106,15 @@ public class RequestObjectFactoryRegistry extends
                                 pixels.getMemoizerDirectory()),
                         ring.uuid);
                 mir.setResources(resources);
+                mir.setPixelDataDecoding(pixelDataThreads,
+                        new Supplier<OMEROWrapper>() {
+                            public OMEROWrapper get() {
+                                return new OMEROWrapper(
+                                        new ImportConfig(),
+                                        pixels.getMemoizerWait(),
+                                        pixels.getMemoizerDirectory());
+                            }
+                        });
                 return mir;
             }
 
@@ -0,0 +1,147 @@
+/*
+ *   Copyright 2018 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.blitz.util;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Reads items on several threads while handing the results to a single
+ * {@link Consumer} on the calling thread in the items' original order.
+ * Only a bounded number of items are read ahead of the consumer, so the
+ * results held in memory at once are limited.
+ * @param <T> the type of the items
+ * @param <R> the type of the results of reading the items
+ * @since 5.4.7
+ */
+public class OrderedReadAhead<T, R> {
+
+    /**
+     * Reads an item. Called on the threads of the read-ahead, so must be
+     * thread-safe.
+     * @param <T> the type of the items
+     * @param <R> the type of the results of reading the items
+     */
+    public interface Reader<T, R> {
+
+        /**
+         * @param item the item to read
+         * @return the result of reading the item
+         * @throws Exception if the item could not be read
+         */
+        R read(T item) throws Exception;
+    }
+
+    /**
+     * Receives the results in the order of their items.
+     * @param <T> the type of the items
+     * @param <R> the type of the results of reading the items
+     */
+    public interface Consumer<T, R> {
+
+        /**
+         * @param item the item read
+         * @param result the result of reading the item
+         * @throws Exception if the result could not be consumed
+         */
+        void consume(T item, R result) throws Exception;
+    }
+
+    /** How many items may be read ahead of the consumer. */
+    private final int window;
+
+    private final ExecutorService executor;
+
+    /**
+     * @param name the name of the threads, to which their number is appended
+     * @param threads how many items may be read at once
+     */
+    public OrderedReadAhead(String name, int threads) {
+        this.window = threads * 2;
+        this.executor = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setDaemon(true)
+                        .setNameFormat(name + "-%d").build());
+    }
+
+    /**
+     * Reads the given items, passing each result in turn to the consumer on
+     * the calling thread. If an item cannot be read or consumed then the
+     * items not yet being read are not read; the reads under way are left
+     * to finish rather than interrupted.
+     * @param items the items, in the order in which they are to be consumed
+     * @param reader reads the items
+     * @param consumer receives the results
+     * @throws ExecutionException if an item could not be read or consumed,
+     * with the exception thrown as its cause
+     */
+    public void run(List<T> items, Reader<T, R> reader,
+            Consumer<T, R> consumer)
+            throws ExecutionException {
+        final ArrayDeque<Future<R>> pending = new ArrayDeque<Future<R>>();
+        final Iterator<T> toSubmit = items.iterator();
+        try {
+            for (final T item : items) {
+                while (pending.size() < window && toSubmit.hasNext()) {
+                    pending.add(executor.submit(
+                            new Read<T, R>(reader, toSubmit.next())));
+                }
+                final R result =
+                        Uninterruptibles.getUninterruptibly(pending.removeFirst());
+                try {
+                    consumer.consume(item, result);
+                } catch (Exception e) {
+                    throw new ExecutionException(e);
+                }
+            }
+        } finally {
+            // Interrupting a read could leave its reader unusable
+            for (final Future<R> future : pending) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Waits for any reads under way to finish then stops the threads.
+     */
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Reads one item.
+     */
+    private static class Read<T, R> implements Callable<R> {
+
+        private final Reader<T, R> reader;
+
+        private final T item;
+
+        Read(Reader<T, R> reader, T item) {
+            this.reader = reader;
+            this.item = item;
+        }
+
+        public R call() throws Exception {
+            return reader.read(item);
+        }
+    }
+}
@@ -13,6 +13,7 @@ import java.io.IOException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -21,6 +22,7 @@ import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import ome.conditions.ApiUsageException;
+import ome.conditions.ValidationException;
 import ome.io.nio.PixelBuffer;
 import ome.model.IObject;
 import ome.model.core.Pixels;
@@ -247,117 +249,170 @@ public class GeomTool {
         final RoiStats rs = new RoiStats();
         rs.perShape = new ShapeStats[shapeIds.size()];
 
-        for (int i = 0; i < shapeIds.size(); i++) {
-
-            final long shapeId = shapeIds.get(i);
-
-            final ome.model.roi.Shape shape = (ome.model.roi.Shape) session
+        // All the shapes are loaded at once rather than one by one.
+        final Map<Long, ome.model.roi.Shape> shapes =
+                new HashMap<Long, ome.model.roi.Shape>();
+        if (!shapeIds.isEmpty()) {
+            final List<?> results = session
                     .createQuery(
-                            "select s from Shape s "
+                            "select distinct s from Shape s "
                                     + "join fetch s.roi r join fetch r.image i "
                                     + "join fetch i.pixels p join fetch p.channels c "
                                     + "join fetch c.logicalChannel lc "
-                                    + "where s.id = :id").setParameter("id",
-                            shapeId).uniqueResult();
-            final SmartShape smartShape = (SmartShape) new ShapeMapper()
-                    .map(shape);
-
-            final ome.model.roi.Roi roi = shape.getRoi();
-            final ome.model.core.Image img = roi.getImage();
-            final ome.model.core.Pixels pix = img.getPrimaryPixels();
-
-            final long roiId = roi.getId();
-            final long imgId = img.getId();
-            final long pixId = pix.getId();
-
-            final int maxZ = pix.getSizeZ();
-            final int maxT = pix.getSizeT();
-
-            // We only take the values for the first Shape. If this call is
-            // being made with different shapes, then the user will know as
-            // much.
-            if (rs.combined == null) {
-                rs.roiId = roiId;
-                rs.imageId = imgId;
-                rs.pixelsId = pixId;
-
-                int ch = pix.sizeOfChannels();
-                rs.combined = makeStats(ch);
-                rs.combined.shapeId = -1;
-                rs.combined.channelIds = new long[ch];
-                for (int w = 0; w < ch; w++) {
-                    rs.combined.channelIds[w] = pix.getChannel(w)
-                            .getLogicalChannel().getId();
-                }
+                                    + "where s.id in (:ids)")
+                    .setParameterList("ids", new HashSet<Long>(shapeIds))
+                    .list();
+            for (final Object result : results) {
+                final ome.model.roi.Shape shape = (ome.model.roi.Shape) result;
+                shapes.put(shape.getId(), shape);
             }
-            final ShapeStats stats = makeStats(pix, shape);
-            stats.shapeId = shape.getId();
-
-            final int ch = stats.channelIds.length;
-            final double[] sumOfSquares = new double[ch];
+        }
 
-            final Integer theZ = shape.getTheZ(); // May be null
-            final Integer theT = shape.getTheT(); // May be null
+        // Shapes on the same image share a single pixel buffer.
+        final Map<Long, PixelBuffer> buffers = new HashMap<Long, PixelBuffer>();
+        try {
+            for (int i = 0; i < shapeIds.size(); i++) {
 
-            final int startZ = (theZ == null) ? 0 : theZ.intValue();
-            final int startT = (theT == null) ? 0 : theT.intValue();
+                final ome.model.roi.Shape shape = shapes.get(shapeIds.get(i));
+                if (shape == null) {
+                    throw new ApiUsageException("Given shape id invalid: "
+                            + shapeIds.get(i));
+                }
+                final SmartShape smartShape = (SmartShape) new ShapeMapper()
+                        .map(shape);
+
+                final ome.model.roi.Roi roi = shape.getRoi();
+                final ome.model.core.Image img = roi.getImage();
+                final ome.model.core.Pixels pix = img.getPrimaryPixels();
+
+                final long roiId = roi.getId();
+                final long imgId = img.getId();
+                final long pixId = pix.getId();
+
+                final int maxZ = pix.getSizeZ();
+                final int maxT = pix.getSizeT();
+
+                // We only take the values for the first Shape. If this call is
+                // being made with different shapes, then the user will know as
+                // much.
+                if (rs.combined == null) {
+                    rs.roiId = roiId;
+                    rs.imageId = imgId;
+                    rs.pixelsId = pixId;
+
+                    int ch = pix.sizeOfChannels();
+                    rs.combined = makeStats(ch);
+                    rs.combined.shapeId = -1;
+                    rs.combined.channelIds = new long[ch];
+                    for (int w = 0; w < ch; w++) {
+                        rs.combined.channelIds[w] = pix.getChannel(w)
+                                .getLogicalChannel().getId();
+                    }
+                }
+                final ShapeStats stats = makeStats(pix, shape);
+                stats.shapeId = shape.getId();
 
-            final int endZ = (theZ == null) ? (maxZ - 1) : theZ.intValue();
-            final int endT = (theT == null) ? (maxT - 1) : theT.intValue();
+                final int ch = stats.channelIds.length;
+                final double[] sumOfSquares = new double[ch];
 
-            final PixelBuffer buf = data.getBuffer(pixId);
-            try {
-                SmartShape.PointCallback cb = new SmartShape.PointCallback() {
+                final Integer theC = shape.getTheC(); // May be null
+                final Integer theZ = shape.getTheZ(); // May be null
+                final Integer theT = shape.getTheT(); // May be null
 
-                    public void handle(int x, int y) {
+                final int startZ = (theZ == null) ? 0 : theZ.intValue();
+                final int startT = (theT == null) ? 0 : theT.intValue();
 
-                        for (int w = 0; w < ch; w++) {
+                final int endZ = (theZ == null) ? (maxZ - 1) : theZ.intValue();
+                final int endT = (theT == null) ? (maxT - 1) : theT.intValue();
 
-                            for (int z = startZ; z <= endZ; z++) {
-                                for (int t = startT; t <= endT; t++) {
+                PixelBuffer buf = buffers.get(pixId);
+                if (buf == null) {
+                    buf = data.getBuffer(pixId);
+                    buffers.put(pixId, buf);
+                }
 
-                                    // WHAT TO DO ABOUT THE CHANNELS IN AGGREGATION?
-                                    stats.pointsCount[w]++;
-                                    double value = data.get(buf, x, y, z, w, t);
-                                    stats.min[w] = Math.min(value, stats.min[w]);
-                                    stats.max[w] = Math.max(value, stats.max[w]);
-                                    stats.sum[w] += value;
-                                    sumOfSquares[w] += value * value;
+                final ShapeSpans spans = ShapeSpans.of(smartShape);
+                for (int w = 0; w < ch; w++) {
+                    final int c = (theC == null) ? w : theC.intValue();
+                    for (int z = startZ; z <= endZ; z++) {
+                        for (int t = startT; t <= endT; t++) {
+                            accumulate(buf, spans, z, c, t, w, stats,
+                                    sumOfSquares);
+                        }
+                    }
+                }
 
-                                }
-                            }
+                for (int w = 0; w < ch; w++) {
 
+                    stats.mean[w] = stats.sum[w] / stats.pointsCount[w];
+                    if (stats.pointsCount[w] > 1) {
+                        double sigmaSquare = (sumOfSquares[w] - stats.sum[w]
+                                * stats.sum[w] / stats.pointsCount[w])
+                                / (stats.pointsCount[w] - 1);
+                        if (sigmaSquare > 0) {
+                            stats.stdDev[w] = Math.sqrt(sigmaSquare);
                         }
                     }
-                };
+                }
 
-                smartShape.areaPoints(cb);
-            } finally {
+                rs.perShape[i] = stats;
+            }
+        } finally {
+            for (final PixelBuffer buf : buffers.values()) {
                 try {
                     buf.close();
                 } catch (IOException e) {
                     log.error("Error closing " + buf, e);
                 }
             }
+        }
 
-            for (int w = 0; w < ch; w++) {
+        return rs;
+
+    }
 
-                stats.mean[w] = stats.sum[w] / stats.pointsCount[w];
-                if (stats.pointsCount[w] > 1) {
-                    double sigmaSquare = (sumOfSquares[w] - stats.sum[w]
-                            * stats.sum[w] / stats.pointsCount[w])
-                            / (stats.pointsCount[w] - 1);
-                    if (sigmaSquare > 0) {
-                        stats.stdDev[w] = Math.sqrt(sigmaSquare);
+    /**
+     * Accumulates the values of the points of a shape on one plane into the
+     * statistics of a channel, reading each row holding points only once and
+     * iterating over its spans.
+     */
+    private void accumulate(PixelBuffer buf, ShapeSpans spans,
+            int z, int c, int t, int w, ShapeStats stats,
+            double[] sumOfSquares) {
+        double min = stats.min[w];
+        double max = stats.max[w];
+        double sum = stats.sum[w];
+        double squares = sumOfSquares[w];
+        for (int row = 0; row < spans.getRowCount(); row++) {
+            final int start = spans.getRowStart(row);
+            final int end = spans.getRowEnd(row);
+            if (start == end) {
+                continue;
+            }
+            final ome.util.PixelData pd =
+                    data.getRow(buf, spans.getMinY() + row, z, c, t);
+            try {
+                for (int span = start; span < end; span++) {
+                    final int xEnd = spans.getXEnd(span);
+                    for (int x = spans.getXStart(span); x < xEnd; x++) {
+                        final double value = pd.getPixelValue(x);
+                        min = Math.min(value, min);
+                        max = Math.max(value, max);
+                        sum += value;
+                        squares += value * value;
                     }
                 }
+            } catch (IndexOutOfBoundsException iobe) {
+                throw new ValidationException("IndexOutOfBounds: " + iobe);
+            } finally {
+                pd.dispose();
             }
-
-            rs.perShape[i] = stats;
         }
-
-        return rs;
-
+        stats.pointsCount[w] += spans.getPointCount();
+        stats.min[w] = min;
+        stats.max[w] = max;
+        stats.sum[w] = sum;
+        sumOfSquares[w] = squares;
     }
 
     public ShapeStats [] getStatsRestricted(
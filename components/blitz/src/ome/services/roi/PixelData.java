@@ -61,6 +61,29 @@ public class PixelData {
         }
     }
 
+    /**
+     * Returns the {@link ome.util.PixelData} for a row given its y, z, c and
+     * t as well as a {@link PixelBuffer}
+     *
+     * @param buf the {@link PixelBuffer}
+     * @param y the Y
+     * @param z the Z
+     * @param c the C
+     * @param t the T
+     * @return the ome.util.PixelData for the row
+     */
+    public ome.util.PixelData getRow(PixelBuffer buf, int y, int z, int c, int t) {
+        try {
+            return buf.getRow(y, z, c, t);
+        } catch (IOException e) {
+            throw new ResourceError("IOException: " + e);
+        } catch (DimensionsOutOfBoundsException e) {
+            throw new ApiUsageException("DimensionsOutOfBounds: " + e);
+        } catch (IndexOutOfBoundsException iobe) {
+            throw new ValidationException("IndexOutOfBounds: " + iobe);
+        }
+    }
+
     /**
      * Returns the {@link ome.util.PixelData} for plane given its z, c and t
      * as well as a {@link PixelBuffer}
@@ -0,0 +1,198 @@
+/*
+ *   Copyright 2018 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.roi;
+
+import static omero.rtypes.rstring;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+import omero.model.Polygon;
+import omero.model.Polyline;
+import omero.model.Shape;
+
+import org.apache.batik.parser.DefaultPointsHandler;
+import org.apache.batik.parser.ParseException;
+import org.apache.batik.parser.PointsParser;
+
+/**
+ * Reduces the points of polygons and polylines by the Douglas-Peucker
+ * algorithm so that a viewer need not receive, nor draw, detail finer than
+ * it can display. No point of the simplified outline is further than the
+ * tolerance from the original outline.
+ * @since 5.4.7
+ */
+public class ShapeSimplifier {
+
+    private final double tolerance;
+
+    /**
+     * @param tolerance how far, in pixels, the simplified outline may stray
+     * from the original
+     */
+    public ShapeSimplifier(double tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Simplifies the points of a polygon or polyline in place. Other shapes
+     * are left unchanged, as are those whose points cannot be parsed.
+     * @param shape the shape to simplify
+     */
+    public void simplify(Shape shape) {
+        if (shape instanceof Polygon) {
+            final Polygon polygon = (Polygon) shape;
+            if (polygon.getPoints() != null) {
+                final String points = simplify(polygon.getPoints().getValue(), true);
+                if (points != null) {
+                    polygon.setPoints(rstring(points));
+                }
+            }
+        } else if (shape instanceof Polyline) {
+            final Polyline polyline = (Polyline) shape;
+            if (polyline.getPoints() != null) {
+                final String points = simplify(polyline.getPoints().getValue(), false);
+                if (points != null) {
+                    polyline.setPoints(rstring(points));
+                }
+            }
+        }
+    }
+
+    /**
+     * Simplifies a list of points.
+     * @param points the points, as held by {@link Polygon} and {@link Polyline}
+     * @param closed if the last point joins the first
+     * @return the simplified points, or {@code null} if they could not be
+     * parsed or none could be removed
+     */
+    public String simplify(String points, boolean closed) {
+        final Coordinates coordinates = new Coordinates();
+        try {
+            final PointsParser parser = new PointsParser();
+            parser.setPointsHandler(coordinates);
+            parser.parse(points);
+        } catch (ParseException pe) {
+            return null;
+        }
+        final int count = coordinates.count;
+        if (count < (closed ? 4 : 3)) {
+            return null;
+        }
+        /* a ring ends by returning to its first point */
+        final int last = closed ? count : count - 1;
+        final float[] xs = Arrays.copyOf(coordinates.xs, last + 1);
+        final float[] ys = Arrays.copyOf(coordinates.ys, last + 1);
+        if (closed) {
+            xs[last] = xs[0];
+            ys[last] = ys[0];
+        }
+        final boolean[] kept = new boolean[last + 1];
+        kept[0] = true;
+        kept[last] = true;
+        if (closed) {
+            /* split the ring at the point furthest from the first */
+            int far = 0;
+            double farthest = -1;
+            for (int i = 1; i < count; i++) {
+                final double dx = (double) xs[i] - xs[0];
+                final double dy = (double) ys[i] - ys[0];
+                final double distance = dx * dx + dy * dy;
+                if (distance > farthest) {
+                    farthest = distance;
+                    far = i;
+                }
+            }
+            kept[far] = true;
+            mark(xs, ys, 0, far, kept);
+            mark(xs, ys, far, last, kept);
+        } else {
+            mark(xs, ys, 0, last, kept);
+        }
+        final StringBuilder sb = new StringBuilder();
+        int keptCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (kept[i]) {
+                if (keptCount++ > 0) {
+                    sb.append(' ');
+                }
+                sb.append(xs[i]);
+                sb.append(',');
+                sb.append(ys[i]);
+            }
+        }
+        if (keptCount == count || keptCount < (closed ? 3 : 2)) {
+            return null;
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Marks which points between the given ends are to be kept.
+     * @param xs the x coordinates of the points
+     * @param ys the y coordinates of the points
+     * @param first the index of the first end, which is kept
+     * @param last the index of the last end, which is kept
+     * @param kept the points to be kept, to be marked
+     */
+    private void mark(float[] xs, float[] ys, int first, int last, boolean[] kept) {
+        final double toleranceSquared = tolerance * tolerance;
+        final ArrayDeque<int[]> segments = new ArrayDeque<int[]>();
+        segments.push(new int[] {first, last});
+        while (!segments.isEmpty()) {
+            final int[] segment = segments.pop();
+            final int start = segment[0];
+            final int end = segment[1];
+            final double dx = (double) xs[end] - xs[start];
+            final double dy = (double) ys[end] - ys[start];
+            final double lengthSquared = dx * dx + dy * dy;
+            int furthest = -1;
+            double furthestSquared = toleranceSquared;
+            for (int i = start + 1; i < end; i++) {
+                double ex = (double) xs[i] - xs[start];
+                double ey = (double) ys[i] - ys[start];
+                if (lengthSquared > 0) {
+                    final double along = Math.max(0, Math.min(1, (ex * dx + ey * dy) / lengthSquared));
+                    ex -= along * dx;
+                    ey -= along * dy;
+                }
+                final double distanceSquared = ex * ex + ey * ey;
+                if (distanceSquared > furthestSquared) {
+                    furthestSquared = distanceSquared;
+                    furthest = i;
+                }
+            }
+            if (furthest >= 0) {
+                kept[furthest] = true;
+                segments.push(new int[] {start, furthest});
+                segments.push(new int[] {furthest, end});
+            }
+        }
+    }
+
+    /**
+     * Accumulates parsed points into growable primitive arrays.
+     */
+    private static class Coordinates extends DefaultPointsHandler {
+
+        float[] xs = new float[256];
+
+        float[] ys = new float[256];
+
+        int count;
+
+        @Override
+        public void point(float x, float y) {
+            if (count == xs.length) {
+                xs = Arrays.copyOf(xs, 2 * count);
+                ys = Arrays.copyOf(ys, 2 * count);
+            }
+            xs[count] = x;
+            ys[count] = y;
+            count++;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ *   Copyright 2018 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.roi;
+
+import java.util.Arrays;
+
+import omero.model.SmartShape;
+
+/**
+ * The points of a {@link SmartShape} as spans of consecutive points along
+ * each row, so that the pixel values of a shape may be read one row at a
+ * time rather than one point at a time. Only the ends of the spans are
+ * held, so the memory needed follows the height of the shape rather than
+ * its area. The points are those given by
+ * {@link SmartShape#areaPoints(SmartShape.PointCallback)}, each counted
+ * once. Within each row the spans are in increasing order of x and do not
+ * touch.
+ * @since 5.4.7
+ */
+public class ShapeSpans {
+
+    /** The first row holding points. */
+    private final int minY;
+
+    /** The start of each row in the spans, one more than the rows. */
+    private final int[] rowStarts;
+
+    /** The first x of each span, row by row. */
+    private final int[] xStarts;
+
+    /** The x after the last of each span, row by row. */
+    private final int[] xEnds;
+
+    /** The total number of points in the spans. */
+    private final long pointCount;
+
+    private ShapeSpans(int minY, int[] rowStarts, int[] xStarts, int[] xEnds) {
+        this.minY = minY;
+        this.rowStarts = rowStarts;
+        this.xStarts = xStarts;
+        this.xEnds = xEnds;
+        long pointCount = 0;
+        for (int i = 0; i < xStarts.length; i++) {
+            pointCount += xEnds[i] - xStarts[i];
+        }
+        this.pointCount = pointCount;
+    }
+
+    /**
+     * Rasterises a shape.
+     * @param shape the shape
+     * @return the points of the shape as spans along each row
+     */
+    public static ShapeSpans of(SmartShape shape) {
+        final SpanCollector collector = new SpanCollector();
+        shape.areaPoints(collector);
+        return collector.toSpans();
+    }
+
+    /**
+     * @return the total number of points
+     */
+    public long getPointCount() {
+        return pointCount;
+    }
+
+    /**
+     * @return the first row, meaningful only if there are points
+     */
+    public int getMinY() {
+        return minY;
+    }
+
+    /**
+     * @return the number of rows from the first to the last holding points
+     */
+    public int getRowCount() {
+        return rowStarts.length - 1;
+    }
+
+    /**
+     * @param row the row, counted from {@link #getMinY()}
+     * @return the index of the first span of the row
+     */
+    public int getRowStart(int row) {
+        return rowStarts[row];
+    }
+
+    /**
+     * @param row the row, counted from {@link #getMinY()}
+     * @return the index after the last span of the row
+     */
+    public int getRowEnd(int row) {
+        return rowStarts[row + 1];
+    }
+
+    /**
+     * @param span the index of a span
+     * @return the x of the first point of the span
+     */
+    public int getXStart(int span) {
+        return xStarts[span];
+    }
+
+    /**
+     * @param span the index of a span
+     * @return the x after the last point of the span
+     */
+    public int getXEnd(int span) {
+        return xEnds[span];
+    }
+
+    /**
+     * Gathers the points of a shape into spans as they are given. Shapes
+     * rasterised by bounding box give their points row by row in increasing
+     * order of x so make one span per run of points along a row; other
+     * shapes give few points, in any order, which are sorted and merged at
+     * the end.
+     */
+    private static class SpanCollector implements SmartShape.PointCallback {
+
+        int[] ys = new int[64];
+
+        int[] xStarts = new int[64];
+
+        int[] xEnds = new int[64];
+
+        int count;
+
+        public void handle(int x, int y) {
+            if (count > 0) {
+                final int last = count - 1;
+                if (ys[last] == y && x >= xStarts[last] && x <= xEnds[last]) {
+                    if (x == xEnds[last]) {
+                        xEnds[last]++;
+                    }
+                    return;
+                }
+            }
+            if (count == ys.length) {
+                ys = Arrays.copyOf(ys, 2 * count);
+                xStarts = Arrays.copyOf(xStarts, 2 * count);
+                xEnds = Arrays.copyOf(xEnds, 2 * count);
+            }
+            ys[count] = y;
+            xStarts[count] = x;
+            xEnds[count] = x + 1;
+            count++;
+        }
+
+        /**
+         * @return the spans collected, sorted by row then by x, with the
+         * overlapping and touching spans of each row merged
+         */
+        ShapeSpans toSpans() {
+            if (count == 0) {
+                return new ShapeSpans(0, new int[1], new int[0], new int[0]);
+            }
+            int minY = Integer.MAX_VALUE;
+            int maxY = Integer.MIN_VALUE;
+            for (int i = 0; i < count; i++) {
+                minY = Math.min(minY, ys[i]);
+                maxY = Math.max(maxY, ys[i]);
+            }
+            /* counting sort of the spans by row */
+            final int rows = maxY - minY + 1;
+            final int[] rowStarts = new int[rows + 1];
+            for (int i = 0; i < count; i++) {
+                rowStarts[ys[i] - minY + 1]++;
+            }
+            for (int r = 1; r <= rows; r++) {
+                rowStarts[r] += rowStarts[r - 1];
+            }
+            final int[] next = Arrays.copyOf(rowStarts, rows);
+            final int[] order = new int[count];
+            for (int i = 0; i < count; i++) {
+                order[next[ys[i] - minY]++] = i;
+            }
+            /* within each row, sort by start then merge */
+            final int[] mergedStarts = new int[count];
+            final int[] mergedEnds = new int[count];
+            final int[] mergedRowStarts = new int[rows + 1];
+            int merged = 0;
+            for (int r = 0; r < rows; r++) {
+                mergedRowStarts[r] = merged;
+                final int from = rowStarts[r];
+                final int to = rowStarts[r + 1];
+                for (int i = from + 1; i < to; i++) {
+                    final int span = order[i];
+                    int j = i - 1;
+                    while (j >= from && xStarts[order[j]] > xStarts[span]) {
+                        order[j + 1] = order[j];
+                        j--;
+                    }
+                    order[j + 1] = span;
+                }
+                for (int i = from; i < to; i++) {
+                    final int span = order[i];
+                    if (merged > mergedRowStarts[r]
+                            && xStarts[span] <= mergedEnds[merged - 1]) {
+                        mergedEnds[merged - 1] =
+                                Math.max(mergedEnds[merged - 1], xEnds[span]);
+                    } else {
+                        mergedStarts[merged] = xStarts[span];
+                        mergedEnds[merged] = xEnds[span];
+                        merged++;
+                    }
+                }
+            }
+            mergedRowStarts[rows] = merged;
+            return new ShapeSpans(minY, mergedRowStarts,
+                    Arrays.copyOf(mergedStarts, merged),
+                    Arrays.copyOf(mergedEnds, merged));
+        }
+    }
+}
@@ -0,0 +1,409 @@
+/*
+ *   Copyright 2018 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.throttling;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import ome.api.ServiceInterface;
+import ome.conditions.OverUsageException;
+import ome.security.basic.CurrentDetails;
+import ome.services.blitz.util.IceMethodInvoker;
+import ome.services.sessions.SessionManager;
+import ome.system.Principal;
+import ome.system.metrics.Counter;
+import ome.system.metrics.Metrics;
+import ome.system.metrics.Timer;
+import omero.util.IceMapper;
+
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Multiset;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import Ice.Current;
+
+/**
+ * Throttling implementation which runs invocations on a fixed pool of
+ * threads, limiting how many may run at once for any one session and for any
+ * one user. Waiting invocations are held in bounded queues, one per
+ * {@link Lane}: interactive services such as rendering and thumbnails are
+ * always dispatched before the others, while bulk services such as export
+ * may never occupy more than a share of the threads. Within a lane the
+ * invocation of the user with the fewest running is dispatched first. An
+ * invocation which finds its lane full is failed with an
+ * {@link OverUsageException} so that clients back off.
+ * @since 5.4.7
+ */
+public class FairThrottlingStrategy extends AbstractThrottlingStrategy {
+
+    /**
+     * The priority of an invocation, highest first.
+     */
+    enum Lane {
+        INTERACTIVE, DEFAULT, BULK;
+    }
+
+    private final CurrentDetails cd;
+
+    private final SessionManager sessionManager;
+
+    private final int threads;
+
+    private final int bulkThreads;
+
+    private final int maxPerSession;
+
+    private final int maxPerUser;
+
+    private final int queueSize;
+
+    private final ExecutorService pool;
+
+    private final Timer[] queueWait = new Timer[Lane.values().length];
+
+    private final Timer[] serviceTime = new Timer[Lane.values().length];
+
+    private final Counter rejected;
+
+    private Set<String> interactiveServices = Collections.emptySet();
+
+    private Set<String> bulkServices = Collections.emptySet();
+
+    /* guarded by this */
+
+    @SuppressWarnings("unchecked")
+    private final ArrayDeque<Pending>[] lanes =
+            new ArrayDeque[Lane.values().length];
+
+    private final Multiset<String> runningSessions = HashMultiset.create();
+
+    private final Multiset<String> runningUsers = HashMultiset.create();
+
+    private int running;
+
+    private int runningBulk;
+
+    private boolean destroyed;
+
+    /**
+     * @param cd the current details to set up for each invocation
+     * @param sessionManager to find the user of each session
+     * @param metrics to report queue-wait and service times
+     * @param threads how many invocations may run at once
+     * @param bulkThreads how many bulk invocations may run at once
+     * @param maxPerSession how many invocations may run at once per session
+     * @param maxPerUser how many invocations may run at once per user
+     * @param queueSize how many invocations may wait in each lane
+     */
+    public FairThrottlingStrategy(CurrentDetails cd,
+            SessionManager sessionManager, Metrics metrics, int threads,
+            int bulkThreads, int maxPerSession, int maxPerUser,
+            int queueSize) {
+        Assert.isTrue(threads > 0, "threads must be positive");
+        Assert.isTrue(maxPerSession > 0, "maxPerSession must be positive");
+        Assert.isTrue(maxPerUser > 0, "maxPerUser must be positive");
+        Assert.isTrue(queueSize >= 0, "queueSize must not be negative");
+        this.cd = cd;
+        this.sessionManager = sessionManager;
+        this.threads = threads;
+        this.bulkThreads = Math.max(1, Math.min(bulkThreads, threads));
+        this.maxPerSession = maxPerSession;
+        this.maxPerUser = maxPerUser;
+        this.queueSize = queueSize;
+        this.pool = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setDaemon(true)
+                        .setNameFormat("FairThrottling-%d").build());
+        for (Lane lane : Lane.values()) {
+            final String name = lane.name().toLowerCase();
+            lanes[lane.ordinal()] = new ArrayDeque<Pending>();
+            queueWait[lane.ordinal()] = metrics.timer(this, name + "QueueWait");
+            serviceTime[lane.ordinal()] = metrics.timer(this, name + "Service");
+        }
+        rejected = metrics.counter(this, "rejected");
+    }
+
+    /**
+     * @param services comma-separated names of the services whose
+     * invocations go in the {@link Lane#INTERACTIVE} lane,
+     * e.g. <code>omero.api.ThumbnailStore</code>
+     */
+    public void setInteractiveServices(String services) {
+        this.interactiveServices = parse(services);
+    }
+
+    /**
+     * @param services comma-separated names of the services whose
+     * invocations go in the {@link Lane#BULK} lane,
+     * e.g. <code>omero.api.Exporter</code>
+     */
+    public void setBulkServices(String services) {
+        this.bulkServices = parse(services);
+    }
+
+    private static Set<String> parse(String services) {
+        final Set<String> names = new HashSet<String>();
+        for (String name : StringUtils.commaDelimitedListToSet(services)) {
+            name = name.trim();
+            if (!name.isEmpty()) {
+                names.add(name);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Fails the waiting invocations and stops the threads.
+     */
+    public void destroy() {
+        final List<Pending> waiting = new ArrayList<Pending>();
+        synchronized (this) {
+            destroyed = true;
+            for (ArrayDeque<Pending> lane : lanes) {
+                waiting.addAll(lane);
+                lane.clear();
+            }
+        }
+        for (Pending pending : waiting) {
+            pending.waited.stop();
+            pending.fail(new Queue.CancelledException());
+        }
+        pool.shutdown();
+    }
+
+    // BlitzExecutor
+    // =========================================================================
+
+    public void callInvokerOnRawArgs(ServiceInterface service,
+            IceMethodInvoker invoker, Object __cb, Ice.Current __current,
+            Object... args) {
+        IceMapper mapper = new IceMapper();
+        submit(__current, new Callback(service, invoker, mapper, __cb,
+                __current, args));
+    }
+
+    public void callInvokerWithMappedArgs(ServiceInterface service,
+            IceMethodInvoker invoker, IceMapper mapper, Object __cb,
+            Current __current, Object... args) {
+        submit(__current, new Callback(service, invoker, mapper, __cb,
+                __current, args));
+    }
+
+    public <R> void safeRunnableCall(Current __current, Object __cb,
+            boolean isVoid, Callable<R> callable) {
+        submit(__current, new Callback2<R>(__current, __cb, isVoid, callable));
+    }
+
+    public void runnableCall(Current __current, Task runnable) {
+        submit(__current, runnable);
+    }
+
+    // Scheduling
+    // =========================================================================
+
+    /**
+     * Queues a task in its lane then dispatches what may now run.
+     */
+    private void submit(Ice.Current current, Task task) {
+        final String session = current == null ? "" : current.id.category;
+        final Lane lane = laneOf(current);
+        final Pending pending = new Pending(current, task, session,
+                userOf(session), lane, queueWait[lane.ordinal()].time());
+        final boolean accepted;
+        synchronized (this) {
+            final ArrayDeque<Pending> queue = lanes[lane.ordinal()];
+            accepted = !destroyed && queue.size() < queueSize;
+            if (accepted) {
+                queue.add(pending);
+            }
+        }
+        if (accepted) {
+            dispatch();
+        } else {
+            pending.waited.stop();
+            rejected.inc();
+            log.warn(String.format("Rejecting %s: %s queue full",
+                    current == null ? "call" : current.operation,
+                    lane.name().toLowerCase()));
+            pending.fail(new OverUsageException(String.format(
+                    "Server busy: too many %s calls waiting; retry later",
+                    lane.name().toLowerCase())));
+        }
+    }
+
+    private Lane laneOf(Ice.Current current) {
+        if (current != null && current.id != null && current.id.name != null) {
+            final String name = current.id.name;
+            for (String service : interactiveServices) {
+                if (name.endsWith(service)) {
+                    return Lane.INTERACTIVE;
+                }
+            }
+            for (String service : bulkServices) {
+                if (name.endsWith(service)) {
+                    return Lane.BULK;
+                }
+            }
+        }
+        return Lane.DEFAULT;
+    }
+
+    /**
+     * @return the user of the session or, if it cannot be found, the session
+     * itself so that the session is limited on its own
+     */
+    private String userOf(String session) {
+        try {
+            return Long.toString(sessionManager.getEventContext(
+                    new Principal(session)).getCurrentUserId());
+        } catch (RuntimeException e) {
+            return "session:" + session;
+        }
+    }
+
+    /**
+     * Starts as many waiting tasks as the limits allow.
+     */
+    private void dispatch() {
+        while (true) {
+            final Pending next;
+            synchronized (this) {
+                next = destroyed ? null : take();
+                if (next != null) {
+                    running++;
+                    if (next.lane == Lane.BULK) {
+                        runningBulk++;
+                    }
+                    runningSessions.add(next.session);
+                    runningUsers.add(next.user);
+                }
+            }
+            if (next == null) {
+                return;
+            }
+            next.waited.stop();
+            try {
+                pool.execute(next);
+            } catch (RejectedExecutionException ree) {
+                finished(next);
+                next.fail(new Queue.CancelledException());
+            }
+        }
+    }
+
+    /**
+     * Removes from its lane the next task which may be run now, if any.
+     * Lanes are tried in priority order; within a lane the earliest task of
+     * the least busy user is chosen.
+     */
+    private Pending take() {
+        if (running >= threads) {
+            return null;
+        }
+        for (Lane lane : Lane.values()) {
+            if (lane == Lane.BULK && runningBulk >= bulkThreads) {
+                continue;
+            }
+            Pending best = null;
+            int bestCount = Integer.MAX_VALUE;
+            for (Pending pending : lanes[lane.ordinal()]) {
+                if (runningSessions.count(pending.session) >= maxPerSession) {
+                    continue;
+                }
+                final int count = runningUsers.count(pending.user);
+                if (count < maxPerUser && count < bestCount) {
+                    best = pending;
+                    bestCount = count;
+                    if (count == 0) {
+                        break;
+                    }
+                }
+            }
+            if (best != null) {
+                lanes[lane.ordinal()].removeFirstOccurrence(best);
+                return best;
+            }
+        }
+        return null;
+    }
+
+    private synchronized void finished(Pending pending) {
+        running--;
+        if (pending.lane == Lane.BULK) {
+            runningBulk--;
+        }
+        runningSessions.remove(pending.session);
+        runningUsers.remove(pending.user);
+    }
+
+    /**
+     * A task waiting for, or running on, a thread of the pool.
+     */
+    private class Pending implements Runnable {
+
+        final Ice.Current current;
+
+        final Task task;
+
+        final String session;
+
+        final String user;
+
+        final Lane lane;
+
+        final Timer.Context waited;
+
+        Pending(Ice.Current current, Task task, String session, String user,
+                Lane lane, Timer.Context waited) {
+            this.current = current;
+            this.task = task;
+            this.session = session;
+            this.user = user;
+            this.lane = lane;
+            this.waited = waited;
+        }
+
+        public void run() {
+            final Timer.Context served = serviceTime[lane.ordinal()].time();
+            if (current != null) {
+                cd.setContext(current.ctx);
+            }
+            try {
+                task.run(ctx);
+            } catch (Exception e) {
+                log.error("Exception during throttled call", e);
+            } finally {
+                cd.setContext(null);
+                served.stop();
+                finished(this);
+                dispatch();
+            }
+        }
+
+        void fail(Throwable t) {
+            if (task.cb == null) {
+                log.warn("Dropping throttled call without callback", t);
+                return;
+            }
+            try {
+                task.exception(t, ctx);
+            } catch (Exception e) {
+                log.error("Failed to reject throttled call", e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2018 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.formats.utests;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Random;
+
+import ome.formats.importer.transfers.TransferState;
+import ome.formats.importer.transfers.UploadFileTransfer;
+import ome.formats.importer.util.TimeEstimator;
+import ome.util.checksum.ChecksumProviderFactoryImpl;
+import ome.util.checksum.ChecksumType;
+import omero.ServerError;
+import omero.api.RawFileStorePrx;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Checks that {@link UploadFileTransfer} writes each chunk of the file to its
+ * offset, recycles a buffer only once its write has ended and keeps no more
+ * than its window of writes in flight.
+ * @since 5.4.7
+ */
+@Test
+public class UploadFileTransferTest {
+
+    private static final int CHUNK = 1024;
+
+    private final ChecksumProviderFactoryImpl checksums =
+            new ChecksumProviderFactoryImpl();
+
+    private File file;
+
+    @BeforeMethod
+    public void createFile() throws IOException {
+        file = File.createTempFile("UploadFileTransferTest", ".dat");
+    }
+
+    @AfterMethod
+    public void deleteFile() {
+        file.delete();
+    }
+
+    /**
+     * Fill the file with the given number of random bytes.
+     * @return the bytes
+     */
+    private byte[] fill(int length) throws IOException {
+        final byte[] content = new byte[length];
+        new Random(length).nextBytes(content);
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+        return content;
+    }
+
+    /**
+     * Upload the file and check what the store received.
+     * @param transfer the transfer to use
+     * @param content the content of the file
+     * @return the store
+     */
+    private FakeStore upload(UploadFileTransfer transfer, byte[] content)
+            throws IOException, ServerError {
+        final FakeStore store = new FakeStore(content.length);
+        final String checksum = transfer.transfer(new FakeState(file, store));
+        Assert.assertTrue(store.pending.isEmpty());
+        Assert.assertTrue(store.closed);
+        Assert.assertEquals(store.written, content);
+        Assert.assertEquals(checksum, checksums.getProvider(ChecksumType.SHA1)
+                .putBytes(content).checksumAsString());
+        return store;
+    }
+
+    /**
+     * Test that by default each chunk is written before the next is begun.
+     */
+    public void testDefaultWindowWritesOneAtATime() throws Exception {
+        final byte[] content = fill(CHUNK * 10 + CHUNK / 2);
+        final FakeStore store = upload(new UploadFileTransfer(), content);
+        Assert.assertEquals(store.maxPending, 1);
+        Assert.assertEquals(store.writes, 11);
+    }
+
+    /**
+     * Test that a window of writes is kept in flight without corrupting the
+     * file through recycling a buffer too soon.
+     */
+    public void testWindowedWrites() throws Exception {
+        final byte[] content = fill(CHUNK * 10 + CHUNK / 2);
+        final FakeStore store = upload(new UploadFileTransfer(4), content);
+        Assert.assertEquals(store.maxPending, 4);
+        Assert.assertEquals(store.writes, 11);
+    }
+
+    /**
+     * Test that a window larger than the file is not a problem.
+     */
+    public void testWindowLargerThanFile() throws Exception {
+        final byte[] content = fill(CHUNK * 2);
+        final FakeStore store = upload(new UploadFileTransfer(8), content);
+        Assert.assertEquals(store.maxPending, 2);
+        Assert.assertEquals(store.writes, 2);
+    }
+
+    /**
+     * Test that an empty file is still created on the server.
+     */
+    public void testEmptyFile() throws Exception {
+        final FakeStore store = upload(new UploadFileTransfer(4), fill(0));
+        Assert.assertEquals(store.maxPending, 0);
+        Assert.assertEquals(store.writes, 0);
+    }
+
+    /**
+     * A raw file store that writes each chunk only when its write is ended,
+     * reading it from the buffer that was passed to the beginning of the
+     * write.
+     */
+    private static class FakeStore implements InvocationHandler {
+
+        final RawFileStorePrx proxy = (RawFileStorePrx) Proxy.newProxyInstance(
+                RawFileStorePrx.class.getClassLoader(),
+                new Class<?>[] {RawFileStorePrx.class}, this);
+
+        final Deque<Object[]> pending = new ArrayDeque<Object[]>();
+
+        final byte[] written;
+
+        int writes = 0;
+
+        int maxPending = 0;
+
+        boolean closed = false;
+
+        FakeStore(int length) {
+            written = new byte[length];
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            final String name = method.getName();
+            if ("write".equals(name)) {
+                Assert.assertEquals(args[2], 0, "only the touch is synchronous");
+                return null;
+            } else if ("begin_write".equals(name)) {
+                Assert.assertFalse(closed);
+                pending.add(args);
+                maxPending = Math.max(maxPending, pending.size());
+                return null;
+            } else if ("end_write".equals(name)) {
+                final Object[] write = pending.poll();
+                final byte[] buffer = (byte[]) write[0];
+                final int offset = (int) (long) (Long) write[1];
+                final int length = (Integer) write[2];
+                Assert.assertEquals(buffer.length, length);
+                System.arraycopy(buffer, 0, written, offset, length);
+                writes++;
+                return null;
+            } else if ("close".equals(name)) {
+                closed = true;
+                return null;
+            } else if ("toString".equals(name)) {
+                return "FakeStore";
+            }
+            throw new UnsupportedOperationException(name + Arrays.toString(args));
+        }
+    }
+
+    /**
+     * A transfer state that uploads to a fake store and notifies no-one.
+     */
+    private class FakeState extends TransferState {
+
+        private final FakeStore store;
+
+        FakeState(File file, FakeStore store) throws IOException, ServerError {
+            super(file, 0, 1, null, null, new NullEstimator(),
+                    checksums.getProvider(ChecksumType.SHA1),
+                    new byte[CHUNK]);
+            this.store = store;
+        }
+
+        @Override
+        public RawFileStorePrx getUploader(String mode) {
+            return store.proxy;
+        }
+
+        @Override
+        public void save() {
+        }
+
+        @Override
+        public String getChecksum() {
+            return getChecksumProvider().checksumAsString();
+        }
+
+        @Override
+        public void uploadStarted() {
+        }
+
+        @Override
+        public void uploadBytes(long offset) {
+        }
+
+        @Override
+        public void uploadComplete(long offset) {
+        }
+    }
+
+    private static class NullEstimator implements TimeEstimator {
+
+        public void start() {
+        }
+
+        public void stop() {
+        }
+
+        public void stop(long uploadedBytes) {
+        }
+
+        public long getUploadTimeLeft() {
+            return 0;
+        }
+    }
+}
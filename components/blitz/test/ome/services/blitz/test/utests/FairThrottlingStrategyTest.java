@@ -0,0 +1,301 @@
+/*
+ *   Copyright 2018 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.blitz.test.utests;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import ome.conditions.OverUsageException;
+import ome.security.basic.CurrentDetails;
+import ome.services.sessions.SessionManager;
+import ome.services.throttling.FairThrottlingStrategy;
+import ome.services.throttling.Task;
+import ome.system.EventContext;
+import ome.system.OmeroContext;
+import ome.system.Principal;
+import ome.system.metrics.NullMetrics;
+
+import org.jmock.Mock;
+import org.jmock.MockObjectTestCase;
+import org.jmock.core.Invocation;
+import org.jmock.core.Stub;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Checks that {@link FairThrottlingStrategy} applies its per-session,
+ * per-user and bulk limits, dispatches interactive calls before others and
+ * rejects calls whose lane is full.
+ * @since 5.4.7
+ */
+public class FairThrottlingStrategyTest extends MockObjectTestCase {
+
+    private static final String THUMBNAILS = "omero.api.ThumbnailStore";
+
+    private static final String EXPORTER = "omero.api.Exporter";
+
+    private static final String QUERY = "omero.api.IQuery";
+
+    /** The user of each session. */
+    private final Map<String, Long> users = new HashMap<String, Long>();
+
+    /** The event contexts of the users. */
+    private final Map<Long, EventContext> eventContexts =
+            new HashMap<Long, EventContext>();
+
+    /** The names of the tasks in the order in which they started. */
+    private final List<String> started =
+            Collections.synchronizedList(new ArrayList<String>());
+
+    /** A permit for each task started. */
+    private final Semaphore startedCount = new Semaphore(0);
+
+    private final List<FakeTask> tasks = new ArrayList<FakeTask>();
+
+    private SessionManager sessionManager;
+
+    private FairThrottlingStrategy strategy;
+
+    @BeforeMethod
+    public void setup() {
+        users.clear();
+        eventContexts.clear();
+        started.clear();
+        startedCount.drainPermits();
+        tasks.clear();
+        Mock sessionManagerMock = mock(SessionManager.class);
+        sessionManagerMock.stubs().method("getEventContext")
+                .will(new Stub() {
+                    public Object invoke(Invocation invocation) {
+                        final Principal principal =
+                                (Principal) invocation.parameterValues.get(0);
+                        final Long user = users.get(principal.getName());
+                        if (user == null) {
+                            throw new IllegalArgumentException("no such session");
+                        }
+                        return eventContexts.get(user);
+                    }
+
+                    public StringBuffer describeTo(StringBuffer buffer) {
+                        return buffer.append("returns the session's user");
+                    }
+                });
+        sessionManager = (SessionManager) sessionManagerMock.proxy();
+    }
+
+    @AfterMethod
+    public void teardown() {
+        for (FakeTask task : tasks) {
+            task.release.countDown();
+        }
+        if (strategy != null) {
+            strategy.destroy();
+            strategy = null;
+        }
+    }
+
+    /**
+     * Creates the strategy under test.
+     */
+    private void strategy(int threads, int bulkThreads, int maxPerSession,
+            int maxPerUser, int queueSize) {
+        strategy = new FairThrottlingStrategy(new CurrentDetails(),
+                sessionManager, new NullMetrics(), threads, bulkThreads,
+                maxPerSession, maxPerUser, queueSize);
+        strategy.setInteractiveServices(THUMBNAILS);
+        strategy.setBulkServices(EXPORTER);
+    }
+
+    /**
+     * Notes that the given session belongs to the given user.
+     */
+    private void session(String session, long user) {
+        users.put(session, user);
+        if (!eventContexts.containsKey(user)) {
+            Mock ecMock = mock(EventContext.class);
+            ecMock.stubs().method("getCurrentUserId").will(returnValue(user));
+            eventContexts.put(user, (EventContext) ecMock.proxy());
+        }
+    }
+
+    /**
+     * Submits a task which runs until it is released.
+     * @param name the name under which to record its start
+     * @param session the session making the call
+     * @param service the service called
+     * @return the task
+     */
+    private FakeTask call(String name, String session, String service) {
+        final Ice.Current current = new Ice.Current();
+        current.id = new Ice.Identity(service, session);
+        current.operation = "call";
+        current.ctx = new HashMap<String, String>();
+        final FakeTask task = new FakeTask(name, current);
+        tasks.add(task);
+        strategy.runnableCall(current, task);
+        return task;
+    }
+
+    private void assertStarted(int count) throws InterruptedException {
+        assertTrue("expected " + count + " more to start, started " + started,
+                startedCount.tryAcquire(count, 5, TimeUnit.SECONDS));
+    }
+
+    private void assertNoneStarted() throws InterruptedException {
+        assertFalse("expected no more to start, started " + started,
+                startedCount.tryAcquire(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testPerSessionLimit() throws InterruptedException {
+        strategy(4, 4, 1, 4, 10);
+        session("s1", 1);
+        session("s2", 1);
+        final FakeTask first = call("first", "s1", QUERY);
+        call("second", "s1", QUERY);
+        assertStarted(1);
+        assertNoneStarted();
+        /* another session of the same user is not held up */
+        call("other", "s2", QUERY);
+        assertStarted(1);
+        first.release.countDown();
+        assertStarted(1);
+        assertEquals("second", started.get(2));
+    }
+
+    @Test
+    public void testPerUserLimit() throws InterruptedException {
+        strategy(4, 4, 4, 1, 10);
+        session("s1", 1);
+        session("s2", 1);
+        session("s3", 2);
+        final FakeTask first = call("first", "s1", QUERY);
+        call("second", "s2", QUERY);
+        assertStarted(1);
+        assertNoneStarted();
+        /* another user is not held up */
+        call("other", "s3", QUERY);
+        assertStarted(1);
+        first.release.countDown();
+        assertStarted(1);
+        assertEquals("second", started.get(2));
+    }
+
+    @Test
+    public void testBulkLimit() throws InterruptedException {
+        strategy(4, 1, 4, 4, 10);
+        session("s1", 1);
+        session("s2", 2);
+        session("s3", 3);
+        final FakeTask first = call("first", "s1", EXPORTER);
+        call("second", "s2", EXPORTER);
+        assertStarted(1);
+        assertNoneStarted();
+        /* other calls still have threads */
+        call("other", "s3", QUERY);
+        assertStarted(1);
+        first.release.countDown();
+        assertStarted(1);
+        assertEquals("second", started.get(2));
+    }
+
+    @Test
+    public void testInteractiveBeforeDefault() throws InterruptedException {
+        strategy(1, 1, 4, 4, 10);
+        session("s1", 1);
+        session("s2", 2);
+        session("s3", 3);
+        final FakeTask blocker = call("blocker", "s1", QUERY);
+        assertStarted(1);
+        final FakeTask query = call("query", "s2", QUERY);
+        final FakeTask thumbnail = call("thumbnail", "s3", THUMBNAILS);
+        assertNoneStarted();
+        blocker.release.countDown();
+        assertStarted(1);
+        assertEquals("thumbnail", started.get(1));
+        thumbnail.release.countDown();
+        assertStarted(1);
+        assertEquals("query", started.get(2));
+        query.release.countDown();
+    }
+
+    @Test
+    public void testRejectWhenLaneFull() throws InterruptedException {
+        strategy(1, 1, 4, 4, 1);
+        session("s1", 1);
+        session("s2", 2);
+        session("s3", 3);
+        call("blocker", "s1", QUERY);
+        assertStarted(1);
+        final FakeTask queued = call("queued", "s2", QUERY);
+        final FakeTask rejected = call("rejected", "s3", QUERY);
+        assertNull(queued.failure);
+        assertTrue(String.valueOf(rejected.failure),
+                rejected.failure instanceof OverUsageException);
+        /* the other lanes are not full */
+        final FakeTask thumbnail = call("thumbnail", "s3", THUMBNAILS);
+        assertNull(thumbnail.failure);
+        assertNoneStarted();
+        assertFalse(started.contains("rejected"));
+    }
+
+    /**
+     * An AMD callback, as needed by {@link Task} to report failures.
+     */
+    public interface AMD_Fake {
+
+        void ice_response();
+
+        void ice_exception(Exception ex);
+    }
+
+    private static class FakeCallback implements AMD_Fake {
+
+        public void ice_response() {
+        }
+
+        public void ice_exception(Exception ex) {
+        }
+    }
+
+    /**
+     * Records when it starts then waits to be released.
+     */
+    private class FakeTask extends Task {
+
+        final String name;
+
+        final CountDownLatch release = new CountDownLatch(1);
+
+        volatile Throwable failure;
+
+        FakeTask(String name, Ice.Current current) {
+            super(new FakeCallback(), current, true);
+            this.name = name;
+        }
+
+        @Override
+        public void run(OmeroContext ctx) {
+            started.add(name);
+            startedCount.release();
+            Uninterruptibles.awaitUninterruptibly(release);
+        }
+
+        @Override
+        protected void exception(Throwable ex, OmeroContext ctx) {
+            failure = ex;
+        }
+    }
+}
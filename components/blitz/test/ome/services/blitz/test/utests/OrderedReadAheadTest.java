@@ -0,0 +1,170 @@
+/*
+ *   Copyright 2018 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.blitz.test.utests;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ome.services.blitz.util.OrderedReadAhead;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Checks that {@link OrderedReadAhead} hands results to its consumer in
+ * order, bounds how far it reads ahead and stops reading on failure.
+ * @since 5.4.7
+ */
+@Test(groups = { "unit" })
+public class OrderedReadAheadTest {
+
+    private static final int THREADS = 3;
+
+    private OrderedReadAhead<Integer, Integer> readAhead;
+
+    private final AtomicInteger reads = new AtomicInteger();
+
+    @BeforeMethod
+    public void setup() {
+        readAhead = new OrderedReadAhead<Integer, Integer>("ReadAheadTest", THREADS);
+        reads.set(0);
+    }
+
+    @AfterMethod
+    public void teardown() {
+        readAhead.close();
+    }
+
+    private static List<Integer> items(int count) {
+        final List<Integer> items = new ArrayList<Integer>(count);
+        for (int i = 0; i < count; i++) {
+            items.add(i);
+        }
+        return items;
+    }
+
+    /**
+     * Squares the items, the earlier taking longer to read.
+     */
+    private final OrderedReadAhead.Reader<Integer, Integer> squarer =
+            new OrderedReadAhead.Reader<Integer, Integer>() {
+        public Integer read(Integer item) throws InterruptedException {
+            reads.incrementAndGet();
+            Thread.sleep((7 - item % 7) * 2);
+            return item * item;
+        }
+    };
+
+    @Test
+    public void testResultsInOrder() throws ExecutionException {
+        final List<Integer> consumed = new ArrayList<Integer>();
+        readAhead.run(items(50), squarer,
+                new OrderedReadAhead.Consumer<Integer, Integer>() {
+            public void consume(Integer item, Integer result) {
+                Assert.assertEquals(result.intValue(), item * item);
+                consumed.add(item);
+            }
+        });
+        Assert.assertEquals(consumed, items(50));
+        Assert.assertEquals(reads.get(), 50);
+    }
+
+    @Test
+    public void testReadAheadIsBounded() throws ExecutionException {
+        final AtomicInteger consumedCount = new AtomicInteger();
+        final AtomicInteger mostAhead = new AtomicInteger();
+        readAhead.run(items(50), new OrderedReadAhead.Reader<Integer, Integer>() {
+            public Integer read(Integer item) {
+                final int ahead = reads.incrementAndGet() - consumedCount.get();
+                synchronized (mostAhead) {
+                    mostAhead.set(Math.max(mostAhead.get(), ahead));
+                }
+                return item;
+            }
+        }, new OrderedReadAhead.Consumer<Integer, Integer>() {
+            public void consume(Integer item, Integer result) throws InterruptedException {
+                Thread.sleep(1);
+                consumedCount.incrementAndGet();
+            }
+        });
+        Assert.assertTrue(mostAhead.get() <= THREADS * 2, "read ahead " + mostAhead);
+    }
+
+    @Test
+    public void testReadFailurePropagates() {
+        final List<Integer> consumed = new ArrayList<Integer>();
+        try {
+            readAhead.run(items(50), new OrderedReadAhead.Reader<Integer, Integer>() {
+                public Integer read(Integer item) throws IOException {
+                    if (item == 10) {
+                        throw new IOException("bad item");
+                    }
+                    return item;
+                }
+            }, new OrderedReadAhead.Consumer<Integer, Integer>() {
+                public void consume(Integer item, Integer result) {
+                    consumed.add(item);
+                }
+            });
+            Assert.fail("expected the read to fail");
+        } catch (ExecutionException ee) {
+            Assert.assertTrue(ee.getCause() instanceof IOException);
+            Assert.assertEquals(ee.getCause().getMessage(), "bad item");
+        }
+        Assert.assertEquals(consumed, items(10));
+    }
+
+    @Test
+    public void testConsumerFailureStopsReading() {
+        final IllegalStateException failure = new IllegalStateException();
+        try {
+            readAhead.run(items(100), squarer,
+                    new OrderedReadAhead.Consumer<Integer, Integer>() {
+                public void consume(Integer item, Integer result) {
+                    if (item == 5) {
+                        throw failure;
+                    }
+                }
+            });
+            Assert.fail("expected the consumer to fail");
+        } catch (ExecutionException ee) {
+            Assert.assertSame(ee.getCause(), failure);
+        }
+        readAhead.close();
+        /* only items within the window of the failure may have been read */
+        Assert.assertTrue(reads.get() <= 6 + THREADS * 2, "read " + reads);
+    }
+
+    @Test
+    public void testRunsAgainAfterFailure() throws ExecutionException {
+        try {
+            readAhead.run(items(20), squarer,
+                    new OrderedReadAhead.Consumer<Integer, Integer>() {
+                public void consume(Integer item, Integer result) {
+                    throw new IllegalStateException();
+                }
+            });
+            Assert.fail("expected the consumer to fail");
+        } catch (ExecutionException ee) {
+            // expected
+        }
+        final List<Integer> consumed =
+                Collections.synchronizedList(new ArrayList<Integer>());
+        readAhead.run(items(20), squarer,
+                new OrderedReadAhead.Consumer<Integer, Integer>() {
+            public void consume(Integer item, Integer result) {
+                consumed.add(item);
+            }
+        });
+        Assert.assertEquals(consumed, items(20));
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ *   Copyright 2018 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.roi.test;
+
+import static omero.rtypes.rstring;
+
+import junit.framework.TestCase;
+import ome.services.roi.ShapeSimplifier;
+import omero.model.PolygonI;
+import omero.model.PolylineI;
+import omero.model.RectangleI;
+
+import org.testng.annotations.Test;
+
+/**
+ * Checks that {@link ShapeSimplifier} removes only the points that lie within
+ * its tolerance of the simplified outline.
+ * @since 5.4.7
+ */
+@Test(groups = { "rois" })
+public class ShapeSimplifierUnitTest extends TestCase {
+
+    @Test
+    public void testStraightPolylineKeepsEnds() {
+        ShapeSimplifier simplifier = new ShapeSimplifier(0.5);
+        assertEquals("0.0,0.0 4.0,0.0",
+                simplifier.simplify("0,0 1,0.1 2,0 3,-0.1 4,0", false));
+    }
+
+    @Test
+    public void testCornerIsKept() {
+        ShapeSimplifier simplifier = new ShapeSimplifier(0.5);
+        assertEquals("0.0,0.0 2.0,0.0 2.0,2.0",
+                simplifier.simplify("0,0 1,0 2,0 2,1 2,2", false));
+    }
+
+    @Test
+    public void testDetailBeyondToleranceIsKept() {
+        ShapeSimplifier simplifier = new ShapeSimplifier(0.5);
+        assertEquals("0.0,0.0 2.0,1.0 4.0,0.0",
+                simplifier.simplify("0,0 1,0.2 2,1 3,0.2 4,0", false));
+    }
+
+    @Test
+    public void testPolygonKeepsCorners() {
+        ShapeSimplifier simplifier = new ShapeSimplifier(0.5);
+        PolygonI polygon = new PolygonI();
+        polygon.setPoints(rstring("0,0 5,0 10,0 10,5 10,10 5,10 0,10 0,5"));
+        simplifier.simplify(polygon);
+        assertEquals("0.0,0.0 10.0,0.0 10.0,10.0 0.0,10.0",
+                polygon.getPoints().getValue());
+    }
+
+    @Test
+    public void testUnchangedWhenNothingRemoved() {
+        ShapeSimplifier simplifier = new ShapeSimplifier(0.5);
+        PolylineI polyline = new PolylineI();
+        polyline.setPoints(rstring("0,0 5,5 10,0"));
+        simplifier.simplify(polyline);
+        assertEquals("0,0 5,5 10,0", polyline.getPoints().getValue());
+    }
+
+    @Test
+    public void testUnparseablePointsUnchanged() {
+        ShapeSimplifier simplifier = new ShapeSimplifier(0.5);
+        assertNull(simplifier.simplify("points[0,0 1,1]", false));
+    }
+
+    @Test
+    public void testOtherShapesUnchanged() {
+        ShapeSimplifier simplifier = new ShapeSimplifier(0.5);
+        RectangleI rect = new RectangleI();
+        simplifier.simplify(rect);
+        assertNull(rect.getX());
+    }
+}
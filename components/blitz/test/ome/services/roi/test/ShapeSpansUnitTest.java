@@ -0,0 +1,138 @@
+/*
+ *   Copyright 2018 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.roi.test;
+
+import static omero.rtypes.rstring;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+import ome.services.roi.GeomTool;
+import ome.services.roi.ShapeSpans;
+import omero.model.SmartPointI;
+import omero.model.SmartPolygonI;
+import omero.model.SmartShape;
+
+import org.testng.annotations.Test;
+
+/**
+ * Checks that {@link ShapeSpans} holds exactly the points of a shape.
+ * @since 5.4.7
+ */
+@Test(groups = { "rois" })
+public class ShapeSpansUnitTest extends TestCase {
+
+    GeomTool geomTool = new GeomTool(null, null, null);
+
+    private static List<String> areaPoints(SmartShape shape) {
+        final List<String> points = new ArrayList<String>();
+        shape.areaPoints(new SmartShape.PointCallback() {
+            public void handle(int x, int y) {
+                points.add(x + "," + y);
+            }
+        });
+        Collections.sort(points);
+        return points;
+    }
+
+    private static List<String> spanPoints(ShapeSpans spans) {
+        final List<String> points = new ArrayList<String>();
+        for (int row = 0; row < spans.getRowCount(); row++) {
+            int previous = Integer.MIN_VALUE;
+            for (int i = spans.getRowStart(row); i < spans.getRowEnd(row); i++) {
+                /* spans are in order and neither overlap nor touch */
+                assertTrue(spans.getXStart(i) > previous);
+                assertTrue(spans.getXEnd(i) > spans.getXStart(i));
+                previous = spans.getXEnd(i);
+                for (int x = spans.getXStart(i); x < spans.getXEnd(i); x++) {
+                    points.add(x + "," + (spans.getMinY() + row));
+                }
+            }
+        }
+        Collections.sort(points);
+        return points;
+    }
+
+    @Test
+    public void testRectangle() throws Exception {
+        SmartShape rect = (SmartShape) geomTool.rect(2, 3, 4, 5);
+        ShapeSpans spans = ShapeSpans.of(rect);
+        assertEquals(3, spans.getMinY());
+        assertEquals(5, spans.getRowCount());
+        assertEquals(20, spans.getPointCount());
+        /* one span per row */
+        for (int row = 0; row < spans.getRowCount(); row++) {
+            assertEquals(1, spans.getRowEnd(row) - spans.getRowStart(row));
+        }
+        assertEquals(areaPoints(rect), spanPoints(spans));
+    }
+
+    @Test
+    public void testEllipse() throws Exception {
+        SmartShape ellipse = (SmartShape) geomTool.ellipse(10, 10, 6, 3);
+        ShapeSpans spans = ShapeSpans.of(ellipse);
+        assertEquals(areaPoints(ellipse), spanPoints(spans));
+    }
+
+    @Test
+    public void testLine() throws Exception {
+        SmartShape line = (SmartShape) geomTool.ln(0, 0, 7, 3);
+        ShapeSpans spans = ShapeSpans.of(line);
+        assertEquals(areaPoints(line), spanPoints(spans));
+    }
+
+    @Test
+    public void testConcavePolygon() throws Exception {
+        /* a U shape has two spans in its upper rows */
+        SmartPolygonI u = new SmartPolygonI();
+        u.setPoints(rstring("0,0 9,0 9,9 6,9 6,3 3,3 3,9 0,9"));
+        ShapeSpans spans = ShapeSpans.of(u);
+        assertEquals(areaPoints(u), spanPoints(spans));
+        int maxSpans = 0;
+        for (int row = 0; row < spans.getRowCount(); row++) {
+            maxSpans = Math.max(maxSpans,
+                    spans.getRowEnd(row) - spans.getRowStart(row));
+        }
+        assertEquals(2, maxSpans);
+    }
+
+    @Test
+    public void testPointsOutOfOrder() throws Exception {
+        SmartShape shape = new SmartPointI() {
+            @Override
+            public void areaPoints(PointCallback cb) {
+                cb.handle(5, 2);
+                cb.handle(1, 1);
+                cb.handle(4, 2);
+                cb.handle(2, 1);
+                cb.handle(7, 2);
+                cb.handle(6, 2);
+                cb.handle(1, 1);
+            }
+        };
+        ShapeSpans spans = ShapeSpans.of(shape);
+        assertEquals(1, spans.getMinY());
+        assertEquals(2, spans.getRowCount());
+        assertEquals(6, spans.getPointCount());
+        assertEquals(1, spans.getRowEnd(1) - spans.getRowStart(1));
+        assertEquals(4, spans.getXStart(spans.getRowStart(1)));
+        assertEquals(8, spans.getXEnd(spans.getRowStart(1)));
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        SmartShape shape = new SmartPointI() {
+            @Override
+            public void areaPoints(PointCallback cb) {
+            }
+        };
+        ShapeSpans spans = ShapeSpans.of(shape);
+        assertEquals(0, spans.getRowCount());
+        assertEquals(0, spans.getPointCount());
+    }
+}
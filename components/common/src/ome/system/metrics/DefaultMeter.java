@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2018 University of Dundee & Open Microscopy Environment. All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.system.metrics;
+
+
+/**
+ * Thin wrapper around {@link com.codahale.metrics.Meter}
+ */
+public class DefaultMeter implements Meter {
+
+
+    private final com.codahale.metrics.Meter m;
+
+    public DefaultMeter(com.codahale.metrics.Meter m) {
+        this.m = m;
+    }
+
+    /**
+     * @see com.codahale.metrics.Meter#mark()
+     */
+    public void mark() {
+        m.mark();
+    }
+
+    /**
+     * @see com.codahale.metrics.Meter#mark(long)
+     */
+    public void mark(long n) {
+        m.mark(n);
+    }
+
+    /**
+     * @see com.codahale.metrics.Meter#getCount()
+     */
+    public long getCount() {
+        return m.getCount();
+    }
+
+}
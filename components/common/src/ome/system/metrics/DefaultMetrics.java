@@ -162,6 +162,10 @@ public class DefaultMetrics implements Metrics, InitializingBean {
         return new DefaultHistogram(registry.histogram(MetricRegistry.name(obj.getClass(), name)));
     }
 
+    public Meter meter(Object obj, String name) {
+        return new DefaultMeter(registry.meter(MetricRegistry.name(obj.getClass(), name)));
+    }
+
     private void registerAll(String prefix, MetricSet metrics, MetricRegistry registry) {
         for (Map.Entry<String, Metric> entry : metrics.getMetrics().entrySet()) {
           String name = MetricRegistry.name(prefix, entry.getKey());
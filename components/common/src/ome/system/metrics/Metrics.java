@@ -30,4 +30,6 @@ public interface Metrics {
 
     Histogram histogram(Object obj, String name);
 
+    Meter meter(Object obj, String name);
+
 }
@@ -150,6 +150,24 @@ public class NullMetrics implements Metrics {
         }
     }
 
+    private static class NullMeter implements Meter {
+
+        @Override
+        public void mark() {
+            // no-op
+        }
+
+        @Override
+        public void mark(long n) {
+            // no-op
+        }
+
+        @Override
+        public long getCount() {
+            return -1l;
+        }
+    }
+
     private final static NullSnapshots S = new NullSnapshots();
 
     private final static NullTimerContext X = new NullTimerContext();
@@ -160,6 +178,8 @@ public class NullMetrics implements Metrics {
 
     private final static NullTimer T = new NullTimer(X);
 
+    private final static NullMeter M = new NullMeter();
+
     @Override
     public Histogram histogram(Object obj, String name) {
         return H;
@@ -175,4 +195,9 @@ public class NullMetrics implements Metrics {
         return C;
     }
 
+    @Override
+    public Meter meter(Object obj, String name) {
+        return M;
+    }
+
 }
@@ -373,6 +373,251 @@ public class PixelData
         throw new RuntimeException("Unknown pixel type.");
     }
 
+    /**
+     * Copies the intensity values of a run of pixels into an array, as
+     * {@link #getPixelValue(int)} would return them one at a time. The pixel
+     * type is resolved once for the whole run.
+     *
+     * @param offset The relative offset of the first pixel.
+     * @param values The array to copy the values into.
+     * @param start The index in <code>values</code> of the first pixel.
+     * @param count The number of pixels to copy.
+     */
+    public void getPixelValues(int offset, double[] values, int start,
+            int count)
+    {
+        final int end = start + count;
+        int o = offset * bytesPerPixel;
+        switch (javaType)
+        {
+            case BIT:
+                for (int i = start; i < end; i++, o++) {
+                    values[i] = data.get(o / 8) >> (7 - (o % 8)) & 1;
+                }
+                return;
+            case BYTE:
+                if (isSigned) {
+                    for (int i = start; i < end; i++, o++) {
+                        values[i] = data.get(o);
+                    }
+                } else {
+                    for (int i = start; i < end; i++, o++) {
+                        values[i] = data.get(o) & 0xFF;
+                    }
+                }
+                return;
+            case SHORT:
+                if (isSigned) {
+                    for (int i = start; i < end; i++, o += 2) {
+                        values[i] = data.getShort(o);
+                    }
+                } else {
+                    for (int i = start; i < end; i++, o += 2) {
+                        values[i] = data.getShort(o) & 0xFFFF;
+                    }
+                }
+                return;
+            case INT:
+                if (isSigned) {
+                    for (int i = start; i < end; i++, o += 4) {
+                        values[i] = data.getInt(o);
+                    }
+                } else {
+                    for (int i = start; i < end; i++, o += 4) {
+                        values[i] = data.getInt(o) & 0xFFFFFFFFL;
+                    }
+                }
+                return;
+            case FLOAT:
+                for (int i = start; i < end; i++, o += 4) {
+                    values[i] = data.getFloat(o);
+                }
+                return;
+            case DOUBLE:
+                for (int i = start; i < end; i++, o += 8) {
+                    values[i] = data.getDouble(o);
+                }
+                return;
+        }
+        throw new RuntimeException("Unknown pixel type.");
+    }
+
+    /**
+     * Copies the intensity values of a run of pixels into an array, as
+     * {@link #getPixelValue(int)} would return them one at a time but
+     * narrowed to <code>float</code>. Values of 32-bit integer and double
+     * pixel types may lose precision.
+     *
+     * @param offset The relative offset of the first pixel.
+     * @param values The array to copy the values into.
+     * @param start The index in <code>values</code> of the first pixel.
+     * @param count The number of pixels to copy.
+     */
+    public void getPixelValues(int offset, float[] values, int start,
+            int count)
+    {
+        final int end = start + count;
+        int o = offset * bytesPerPixel;
+        switch (javaType)
+        {
+            case FLOAT:
+                for (int i = start; i < end; i++, o += 4) {
+                    values[i] = data.getFloat(o);
+                }
+                return;
+            case DOUBLE:
+                for (int i = start; i < end; i++, o += 8) {
+                    values[i] = (float) data.getDouble(o);
+                }
+                return;
+            case INT:
+                if (isSigned) {
+                    for (int i = start; i < end; i++, o += 4) {
+                        values[i] = data.getInt(o);
+                    }
+                } else {
+                    for (int i = start; i < end; i++, o += 4) {
+                        values[i] = data.getInt(o) & 0xFFFFFFFFL;
+                    }
+                }
+                return;
+            case SHORT:
+                if (isSigned) {
+                    for (int i = start; i < end; i++, o += 2) {
+                        values[i] = data.getShort(o);
+                    }
+                } else {
+                    for (int i = start; i < end; i++, o += 2) {
+                        values[i] = data.getShort(o) & 0xFFFF;
+                    }
+                }
+                return;
+            case BYTE:
+                if (isSigned) {
+                    for (int i = start; i < end; i++, o++) {
+                        values[i] = data.get(o);
+                    }
+                } else {
+                    for (int i = start; i < end; i++, o++) {
+                        values[i] = data.get(o) & 0xFF;
+                    }
+                }
+                return;
+            case BIT:
+                for (int i = start; i < end; i++, o++) {
+                    values[i] = data.get(o / 8) >> (7 - (o % 8)) & 1;
+                }
+                return;
+        }
+        throw new RuntimeException("Unknown pixel type.");
+    }
+
+    /**
+     * Copies the intensity values of a run of pixels of an integer type into
+     * an array, as {@link #getPixelValue(int)} would return them one at a
+     * time: unsigned values are zero-extended so that, for instance,
+     * <code>uint16</code> pixels give values from <code>0</code> to
+     * <code>65535</code>. The values of <code>uint32</code> pixels are
+     * copied as their bits, to be read with
+     * <code>value &amp; 0xFFFFFFFFL</code>.
+     *
+     * @param offset The relative offset of the first pixel.
+     * @param values The array to copy the values into.
+     * @param start The index in <code>values</code> of the first pixel.
+     * @param count The number of pixels to copy.
+     * @throws IllegalStateException If the pixels are floating point.
+     */
+    public void getPixelValues(int offset, int[] values, int start,
+            int count)
+    {
+        final int end = start + count;
+        int o = offset * bytesPerPixel;
+        switch (javaType)
+        {
+            case BIT:
+                for (int i = start; i < end; i++, o++) {
+                    values[i] = data.get(o / 8) >> (7 - (o % 8)) & 1;
+                }
+                return;
+            case BYTE:
+                if (isSigned) {
+                    for (int i = start; i < end; i++, o++) {
+                        values[i] = data.get(o);
+                    }
+                } else {
+                    for (int i = start; i < end; i++, o++) {
+                        values[i] = data.get(o) & 0xFF;
+                    }
+                }
+                return;
+            case SHORT:
+                if (isSigned) {
+                    for (int i = start; i < end; i++, o += 2) {
+                        values[i] = data.getShort(o);
+                    }
+                } else {
+                    for (int i = start; i < end; i++, o += 2) {
+                        values[i] = data.getShort(o) & 0xFFFF;
+                    }
+                }
+                return;
+            case INT:
+                for (int i = start; i < end; i++, o += 4) {
+                    values[i] = data.getInt(o);
+                }
+                return;
+        }
+        throw new IllegalStateException(
+                "Pixels type '" + pixelsType + "' is not an integer type.");
+    }
+
+    /**
+     * Copies the stored values of a run of pixels of an 8-bit or 16-bit
+     * type into an array. 8-bit values are widened as by
+     * {@link #getPixelValues(int, int[], int, int)}; 16-bit values are
+     * copied as stored so <code>uint16</code> values above
+     * <code>32767</code> appear negative and are to be read with
+     * <code>value &amp; 0xFFFF</code>.
+     *
+     * @param offset The relative offset of the first pixel.
+     * @param values The array to copy the values into.
+     * @param start The index in <code>values</code> of the first pixel.
+     * @param count The number of pixels to copy.
+     * @throws IllegalStateException If the pixels are wider than 16 bits.
+     */
+    public void getPixelValues(int offset, short[] values, int start,
+            int count)
+    {
+        final int end = start + count;
+        int o = offset * bytesPerPixel;
+        switch (javaType)
+        {
+            case BIT:
+                for (int i = start; i < end; i++, o++) {
+                    values[i] = (short) (data.get(o / 8) >> (7 - (o % 8)) & 1);
+                }
+                return;
+            case BYTE:
+                if (isSigned) {
+                    for (int i = start; i < end; i++, o++) {
+                        values[i] = data.get(o);
+                    }
+                } else {
+                    for (int i = start; i < end; i++, o++) {
+                        values[i] = (short) (data.get(o) & 0xFF);
+                    }
+                }
+                return;
+            case SHORT:
+                for (int i = start; i < end; i++, o += 2) {
+                    values[i] = data.getShort(o);
+                }
+                return;
+        }
+        throw new IllegalStateException(
+                "Pixels type '" + pixelsType + "' is wider than 16 bits.");
+    }
+
     /**
      * Returns the backing buffer for the pixel data.
      *
@@ -516,6 +516,26 @@ public interface SqlAction {
      */
     List<String> getPixelsNamePathRepo(final long id) throws InternalException;
 
+    /**
+     * Finds the shapes on the given plane of an image whose bounding boxes,
+     * as recorded in <code>_shape_bounds</code>, intersect the given
+     * rectangle. Shapes whose bounds are unknown are always found.
+     * @param imageId the ID of the image
+     * @param z the Z section of the plane
+     * @param t the timepoint of the plane
+     * @param minX the left edge of the rectangle
+     * @param minY the top edge of the rectangle
+     * @param maxX the right edge of the rectangle
+     * @param maxY the bottom edge of the rectangle
+     * @param ownerId if not null, the owner of the shapes
+     * @param groupId if not null, the group of the shapes
+     * @param offset how many of the shapes to skip
+     * @param limit the maximum number of shapes to return
+     * @return the IDs of the shapes, in ascending order
+     */
+    List<Long> findShapesInViewport(long imageId, int z, int t, double minX, double minY,
+            double maxX, double maxY, Long ownerId, Long groupId, int offset, int limit);
+
     Set<String> currentUserNames();
 
     int changeGroupPermissions(Long id, Long internal);
@@ -1111,6 +1131,30 @@ public interface SqlAction {
         }
 
 
+        //
+        // ROIS
+        //
+
+        public List<Long> findShapesInViewport(long imageId, int z, int t,
+                double minX, double minY, double maxX, double maxY,
+                Long ownerId, Long groupId, int offset, int limit) {
+            final MapSqlParameterSource source = new MapSqlParameterSource();
+            source.addValue("image", imageId);
+            source.addValue("z", z);
+            source.addValue("t", t);
+            source.addValue("x1", minX);
+            source.addValue("y1", minY);
+            source.addValue("x2", maxX);
+            source.addValue("y2", maxY);
+            source.addValue("oid", ownerId, Types.BIGINT);
+            source.addValue("gid", groupId, Types.BIGINT);
+            source.addValue("offset", offset);
+            source.addValue("limit", limit);
+            return _jdbc().query(_lookup("find_shapes_in_viewport"), //$NON-NLS-1$
+                    new IdRowMapper(), source);
+        }
+
+
         //
         // CONFIGURATION
         //
@@ -15,6 +15,7 @@ import omeis.providers.re.data.Plane2D;
 import omeis.providers.re.lut.LutReader;
 import omeis.providers.re.quantum.BinaryMaskQuantizer;
 import omeis.providers.re.quantum.QuantizationException;
+import omeis.providers.re.quantum.QuantizationTable;
 import omeis.providers.re.quantum.QuantumStrategy;
 
 /**
@@ -33,6 +34,9 @@ class RenderHSBRegionTask implements RenderingTask {
     /** The logger for this particular class */
     private static Logger log = LoggerFactory.getLogger(RenderHSBRegionTask.class);
 
+    /** The number of discrete values a quantized pixel may take. */
+    private static final int LEVELS = QuantumStrategy.MAX + 1;
+
     /** Buffer to hold the output image's data. */
     private RGBBuffer dataBuffer;
 
@@ -72,6 +76,9 @@ class RenderHSBRegionTask implements RenderingTask {
     /** The collection of readers.*/
     private List<LutReader> readers;
 
+    /** The intensity values of a row of a floating point or 32-bit plane. */
+    private double[] rowValues;
+
     /**
      * Creates a new instance to render a wavelength.
      * 
@@ -133,6 +140,145 @@ class RenderHSBRegionTask implements RenderingTask {
         return null;
     }
 
+    /**
+     * Quantizes a row of the plane, applies the codomain transformations and
+     * stores the resulting values, clamped to the <code>[0, 255]</code>
+     * interval, into <code>row</code>. The pixel type is resolved once per
+     * row so that the inner loops only deal with a single primitive type.
+     *
+     * @param plane The plane to read the values from.
+     * @param qs The quantum strategy of the channel.
+     * @param cc The codomain chain of the channel.
+     * @param table The quantization table of the channel, may be
+     *              <code>null</code>.
+     * @param x2 The <i>X2</i>-axis coordinate of the row.
+     * @param row The array to store the discrete values into.
+     * @throws QuantizationException
+     *             if there is an error during pixel value quantization.
+     */
+    private void quantizeRow(Plane2D plane, QuantumStrategy qs,
+            CodomainChain cc, QuantizationTable table, int x2, int[] row)
+        throws QuantizationException {
+        int n = row.length;
+        if (table != null && plane.isXYPlanar()
+                && quantizeRow(plane, table, x2, row)) {
+            return;
+        }
+        if (!plane.isXYPlanar()) {
+            for (int i = 0; i < n; i++) {
+                row[i] = qs.quantize(plane.getPixelValue(x1Start + i, x2));
+            }
+        } else {
+            PixelData data = plane.getData();
+            int offset = n * x2 + x1Start;
+            if (data.javaType() == PixelData.BYTE
+                    || data.javaType() == PixelData.SHORT) {
+                data.getPixelValues(offset, row, 0, n);
+                for (int i = 0; i < n; i++) {
+                    row[i] = qs.quantize(row[i]);
+                }
+            } else {
+                if (rowValues == null || rowValues.length < n) {
+                    rowValues = new double[n];
+                }
+                data.getPixelValues(offset, rowValues, 0, n);
+                for (int i = 0; i < n; i++) {
+                    row[i] = qs.quantize(rowValues[i]);
+                }
+            }
+        }
+        boolean hasMap = cc.hasMapContext();
+        for (int i = 0; i < n; i++) {
+            int v = hasMap ? cc.transform(row[i]) : row[i];
+            row[i] = Math.max(QuantumStrategy.MIN,
+                    Math.min(QuantumStrategy.MAX, v));
+        }
+    }
+
+    /**
+     * Maps a row of an <i>XY</i> plane through the quantization table which
+     * already accounts for the codomain transformations. Only integer types
+     * of at most 16 bits are handled.
+     *
+     * @param plane The plane to read the values from.
+     * @param table The quantization table of the channel.
+     * @param x2 The <i>X2</i>-axis coordinate of the row.
+     * @param row The array to store the discrete values into.
+     * @return <code>true</code> if the row was handled, <code>false</code>
+     *         if the pixel type is not supported.
+     */
+    private boolean quantizeRow(Plane2D plane, QuantizationTable table,
+            int x2, int[] row) {
+        int n = row.length;
+        PixelData data = plane.getData();
+        if (data.javaType() != PixelData.BYTE
+                && data.javaType() != PixelData.SHORT) {
+            return false;
+        }
+        data.getPixelValues(n * x2 + x1Start, row, 0, n);
+        byte[] values = table.getValues();
+        int min = table.getOffset();
+        for (int i = 0; i < n; i++) {
+            row[i] = values[row[i] - min] & 0xFF;
+        }
+        return true;
+    }
+
+    /**
+     * Fills the colour component tables with the values of the lookup table
+     * so that a discrete value can be mapped by a single array access.
+     *
+     * @param reader The lookup table reader.
+     * @param red The red component table.
+     * @param green The green component table.
+     * @param blue The blue component table.
+     */
+    private static void fillTables(LutReader reader, int[] red, int[] green,
+            int[] blue) {
+        for (int v = 0; v < LEVELS; v++) {
+            red[v] = reader.getRed(v) & 0xFF;
+            green[v] = reader.getGreen(v) & 0xFF;
+            blue[v] = reader.getBlue(v) & 0xFF;
+        }
+    }
+
+    /**
+     * Fills the colour component tables with the contribution of each
+     * discrete value to the packed pixel, the alpha component being
+     * pre-multiplied unless the rendering is alphaless.
+     *
+     * @param color The colour of the channel.
+     * @param isAlphaless Whether or not the alpha component is ignored.
+     * @param red The red component table.
+     * @param green The green component table.
+     * @param blue The blue component table.
+     */
+    private static void fillTables(int[] color, boolean isAlphaless,
+            int[] red, int[] green, int[] blue) {
+        double redRatio = color[ColorsFactory.RED_INDEX] > 0 ?
+                color[ColorsFactory.RED_INDEX] / 255.0 : 0.0;
+        double greenRatio = color[ColorsFactory.GREEN_INDEX] > 0 ?
+                color[ColorsFactory.GREEN_INDEX] / 255.0 : 0.0;
+        double blueRatio = color[ColorsFactory.BLUE_INDEX] > 0 ?
+                color[ColorsFactory.BLUE_INDEX] / 255.0 : 0.0;
+        float alpha = color[ColorsFactory.ALPHA_INDEX] / 255f;
+        for (int v = 0; v < LEVELS; v++) {
+            int r = (int) (redRatio * v);
+            int g = (int) (greenRatio * v);
+            int b = (int) (blueRatio * v);
+            // Pre-multiply the alpha for each colour component if the
+            // image has a non-1.0 alpha component.
+            if (!isAlphaless) {
+                r *= alpha;
+                g *= alpha;
+                b *= alpha;
+            }
+            red[v] = r;
+            green[v] = g;
+            blue[v] = b;
+        }
+    }
+
     /**
      * Renders into a banded byte buffer.
      * 
@@ -140,75 +286,47 @@ class RenderHSBRegionTask implements RenderingTask {
      *             if there is an error during pixel value quantization.
      */
     private void renderBanded() throws QuantizationException {
-        int discreteValue, pix;
-        int rValue, gValue, bValue;
-        float v;
-
         int width = x1End - x1Start;
-        int i = 0;
+        int[] row = new int[width];
+        int[] red = new int[LEVELS];
+        int[] green = new int[LEVELS];
+        int[] blue = new int[LEVELS];
         byte[] r = dataBuffer.getRedBand();
         byte[] g = dataBuffer.getGreenBand();
         byte[] b = dataBuffer.getBlueBand();
-        LutReader reader;
-        CodomainChain cc;
+        int i = 0;
         for (Plane2D plane : wData) {
             int[] color = colors.get(i);
-            reader = readers.get(i);
-            cc = chains.get(i);
-            boolean hasMap = cc.hasMapContext();
+            LutReader reader = readers.get(i);
+            CodomainChain cc = chains.get(i);
             QuantumStrategy qs = strategies.get(i);
-            int rColor = color[ColorsFactory.RED_INDEX];
-            int gColor = color[ColorsFactory.GREEN_INDEX];
-            int bColor = color[ColorsFactory.BLUE_INDEX];
-
-            float alpha = new Float(
-                    color[ColorsFactory.ALPHA_INDEX]).floatValue() / 65025;// 255*255
+            QuantizationTable table = qs.getQuantizationTable(cc);
+            if (reader != null) {
+                fillTables(reader, red, green, blue);
+            } else {
+                // Pre-multiply the alpha component.
+                float alpha = color[ColorsFactory.ALPHA_INDEX] / 65025f;// 255*255
+                for (int v = 0; v < LEVELS; v++) {
+                    float f = v * alpha;
+                    red[v] = (int) (color[ColorsFactory.RED_INDEX] * f);
+                    green[v] = (int) (color[ColorsFactory.GREEN_INDEX] * f);
+                    blue[v] = (int) (color[ColorsFactory.BLUE_INDEX] * f);
+                }
+            }
             for (int x2 = x2Start; x2 < x2End; ++x2) {
-                for (int x1 = x1Start; x1 < x1End; ++x1) {
-                    pix = width * x2 + x1;
-                    discreteValue = qs.quantize(plane.getPixelValue(x1, x2));
-                    if (hasMap) {
-                        discreteValue = cc.transform(discreteValue);
-                    }
-
-                    if (reader != null) {
-                        int r1 = ((r[pix] & 0x00FF0000) >> 16);
-                        int r2 = reader.getRed(discreteValue) & 0xFF;
-                        int g1 = ((g[pix] & 0x0000FF00) >> 8);
-                        int g2 = reader.getGreen(discreteValue) & 0xFF;
-                        int b1 = (b[pix] & 0x000000FF);
-                        int b2 = reader.getBlue(discreteValue) & 0xFF;
-                        r[pix] = (byte) (r1+r2);
-                        g[pix] = (byte) (g1+g2);
-                        b[pix] = (byte) (b1+b2);
-                        continue;
-                    }
-                    // Pre-multiply the alpha component and add the existing
-                    // colour value to the new colour value.
-                    v = discreteValue * alpha;
-                    rValue = (int) (rColor * v) + r[pix];
-                    gValue = (int) (gColor * v) + g[pix];
-                    bValue = (int) (bColor * v) + b[pix];
-
-                    // Ensure that each colour component value is between 0 and
-                    // 255 (byte). We must make *certain* that values to not
-                    // wrap over 255 otherwise there will be corruption
-                    // introduced into the rendered image.
-                    if (rValue > 255) {
-                        rValue = 255;
-                    }
-                    if (gValue > 255) {
-                        gValue = 255;
-                    }
-                    if (bValue > 255) {
-                        bValue = 255;
-                    }
-                    r[pix] = (byte) (rValue & 0xFF);
-                    g[pix] = (byte) (gValue & 0xFF);
-                    b[pix] = (byte) (bValue & 0xFF);
+                quantizeRow(plane, qs, cc, table, x2, row);
+                int pix = width * x2 + x1Start;
+                for (int x = 0; x < width; x++, pix++) {
+                    int v = row[x];
+                    // Add the existing colour value to the new colour value
+                    // ensuring that the result does not wrap over 255,
+                    // otherwise corruption would be introduced into the
+                    // rendered image.
+                    r[pix] = (byte) Math.min(255, (r[pix] & 0xFF) + red[v]);
+                    g[pix] = (byte) Math.min(255, (g[pix] & 0xFF) + green[v]);
+                    b[pix] = (byte) Math.min(255, (b[pix] & 0xFF) + blue[v]);
                 }
             }
-
             i++;
         }
     }
@@ -220,140 +338,61 @@ class RenderHSBRegionTask implements RenderingTask {
      *             if there is an error during pixel value quantization.
      */
     private void renderPackedInt() throws QuantizationException {
-        int discreteValue, pix;
-        double redRatio, greenRatio, blueRatio;
-        int rValue, gValue, bValue;
-        int newRValue, newGValue, newBValue;
-        int colorOffset = 24;  // Only used when we're doing primary color.
-
         int width = x1End - x1Start;
-        int i = 0;
+        int[] row = new int[width];
+        int[] red = new int[LEVELS];
+        int[] green = new int[LEVELS];
+        int[] blue = new int[LEVELS];
         int[] buf = ((RGBIntBuffer) dataBuffer).getDataBuffer();
         boolean isPrimaryColor = optimizations.isPrimaryColorEnabled();
         boolean isAlphaless = optimizations.isAlphalessRendering();
-        LutReader reader;
-        CodomainChain cc;
-
+        int i = 0;
         for (Plane2D plane : wData) {
             int[] color = colors.get(i);
-            reader = readers.get(i);
-            cc = chains.get(i);
-            boolean hasMap = cc.hasMapContext();
+            LutReader reader = readers.get(i);
+            CodomainChain cc = chains.get(i);
             QuantumStrategy qs = strategies.get(i);
-            boolean isMask = qs instanceof BinaryMaskQuantizer? true : false;
-            redRatio = color[ColorsFactory.RED_INDEX] > 0 ? 
-                    color[ColorsFactory.RED_INDEX] / 255.0 : 0.0;
-            greenRatio = color[ColorsFactory.GREEN_INDEX] > 0 ? 
-                     color[ColorsFactory.GREEN_INDEX] / 255.0 : 0.0;
-            blueRatio = color[ColorsFactory.BLUE_INDEX] > 0 ? 
-                     color[ColorsFactory.BLUE_INDEX] / 255.0 : 0.0;
-            boolean isXYPlanar = plane.isXYPlanar();
-            PixelData data = plane.getData();
-            int bytesPerPixel = data.bytesPerPixel();
-
-            // Get our color offset if we've got the primary color optimization
-            // enabled.
-            if (isPrimaryColor && reader == null)
-                colorOffset = getColorOffset(color);
-
-            float alpha = new Integer(
-                    color[ColorsFactory.ALPHA_INDEX]).floatValue() / 255;
+            QuantizationTable table = qs.getQuantizationTable(cc);
+            // A mask mapped through a lookup table is blended like any other
+            // channel.
+            boolean isMask = reader == null
+                    && qs instanceof BinaryMaskQuantizer;
+            // Primary colour optimization is in effect, we don't need to
+            // do any colour mapping, just shift the value into the correct
+            // colour component slot.
+            boolean isPrimary = isPrimaryColor && reader == null;
+            int colorOffset = isPrimary ? getColorOffset(color) : 0;
+            if (reader != null) {
+                fillTables(reader, red, green, blue);
+            } else if (!isPrimary) {
+                fillTables(color, isAlphaless, red, green, blue);
+            }
             for (int x2 = x2Start; x2 < x2End; ++x2) {
-                for (int x1 = x1Start; x1 < x1End; ++x1) {
-                    pix = width * x2 + x1;
-                    if (isXYPlanar)
-                        discreteValue =
-                        qs.quantize(
-                                data.getPixelValueDirect(pix * bytesPerPixel));
-                    else
-                        discreteValue =
-                            qs.quantize(plane.getPixelValue(x1, x2));
-                    if (hasMap) {
-                        discreteValue = cc.transform(discreteValue);
+                quantizeRow(plane, qs, cc, table, x2, row);
+                int pix = width * x2 + x1Start;
+                if (isPrimary) {
+                    for (int x = 0; x < width; x++, pix++) {
+                        buf[pix] |= 0xFF000000 | row[x] << colorOffset;
                     }
-                    if (reader != null) {
-                        int r1 = ((buf[pix] & 0x00FF0000) >> 16);
-                        int r2 = reader.getRed(discreteValue) & 0xFF;
-                        int g1 = ((buf[pix] & 0x0000FF00) >> 8);
-                        int g2 = reader.getGreen(discreteValue) & 0xFF;
-                        int b1 = (buf[pix] & 0x000000FF);
-                        int b2 = reader.getBlue(discreteValue) & 0xFF;
-                        int r = r1+r2;
-                        if (r > 255) {
-                            r = 255;
-                        }
-                        int g = g1+g2;
-                        if (g > 255) {
-                            g = 255;
+                } else if (isMask) {
+                    for (int x = 0; x < width; x++, pix++) {
+                        int v = row[x];
+                        if (v == 255) {
+                            // Since the mask is a hard value, we do not want
+                            // to compromise on colour fidelity.
+                            buf[pix] = 0xFF000000 | red[v] << 16
+                                       | green[v] << 8 | blue[v];
+                        } else {
+                            buf[pix] = blendRGB(buf[pix], red[v], green[v],
+                                    blue[v]);
                         }
-                        int b = b1+b2;
-                        if (b > 255) {
-                            b = 255;
-                        }
-                        buf[pix] = 0xFF000000 | r << 16 | g << 8 | b;
-                        continue;
-                    }
-                    // Primary colour optimization is in effect, we don't need
-                    // to do any of the sillyness below just shift the value
-                    // into the correct colour component slot and move on to
-                    // the next pixel value.
-                    if (colorOffset != 24)
-                    {
-                        buf[pix] |= 0xFF000000;  // Alpha.
-                        buf[pix] |= discreteValue << colorOffset;
-                        continue;
                     }
-                    newRValue = (int) (redRatio * discreteValue);
-                    newGValue = (int) (greenRatio * discreteValue);
-                    newBValue = (int) (blueRatio * discreteValue);
-                    
-                    // Pre-multiply the alpha for each colour component if the
-                    // image has a non-1.0 alpha component.
-                    if (!isAlphaless)
-                    {
-                    	newRValue *= alpha;
-                    	newGValue *= alpha;
-                    	newBValue *= alpha;
+                } else {
+                    for (int x = 0; x < width; x++, pix++) {
+                        int v = row[x];
+                        buf[pix] = blendRGB(buf[pix], red[v], green[v],
+                                blue[v]);
                     }
-
-                    if (isMask && discreteValue == 255) {
-                    	// Since the mask is a hard value, we do not want to
-                    	// compromise on colour fidelity. Packed each colour
-                    	// component along with a 1.0 alpha into the buffer so
-                    	// that buffered images that use this buffer can be
-                    	// type 1 (3 bands, pre-multiplied alpha) or type 2
-                        // (4 bands, alpha component included).
-                        buf[pix] = 0xFF000000 | newRValue << 16
-                                   | newGValue << 8 | newBValue;
-                        continue;
-                    }
-                    // Add the existing colour component values to the new
-                    // colour component values.
-                    rValue = ((buf[pix] & 0x00FF0000) >> 16) + newRValue;
-                    gValue = ((buf[pix] & 0x0000FF00) >> 8) + newGValue;
-                    bValue = (buf[pix] & 0x000000FF) + newBValue;
-
-                    // Ensure that each colour component value is between 0 and
-                    // 255 (byte). We must make *certain* that values do not
-                    // wrap over 255 otherwise there will be corruption
-                    // introduced into the rendered image. The value may be over
-                    // 255 if we have mapped two high intensity channels to
-                    // the same color.
-                    if (rValue > 255) {
-                        rValue = 255;
-                    }
-                    if (gValue > 255) {
-                        gValue = 255;
-                    }
-                    if (bValue > 255) {
-                        bValue = 255;
-                    }
-
-                    // Packed each colour component along with a 1.0 alpha into
-                    // the buffer so that buffered images that use this buffer
-                    // can be type 1 (3 bands, pre-multiplied alpha) or type 2
-                    // (4 bands, alpha component included).
-                    buf[pix] = 0xFF000000 | rValue << 16 | gValue << 8 | bValue;
                 }
             }
             i++;
@@ -367,132 +406,91 @@ class RenderHSBRegionTask implements RenderingTask {
      *             if there is an error during pixel value quantization.
      */
     private void renderPackedIntAsRGBA() throws QuantizationException {
-        int discreteValue, pix;
-        double redRatio, greenRatio, blueRatio;
-        int rValue, gValue, bValue;
-        int newRValue, newGValue, newBValue;
-        int colorOffset = 32;  // Only used when we're doing primary color.
-
         int width = x1End - x1Start;
-        int i = 0;
+        int[] row = new int[width];
+        int[] red = new int[LEVELS];
+        int[] green = new int[LEVELS];
+        int[] blue = new int[LEVELS];
         int[] buf = ((RGBAIntBuffer) dataBuffer).getDataBuffer();
         boolean isPrimaryColor = optimizations.isPrimaryColorEnabled();
         boolean isAlphaless = optimizations.isAlphalessRendering();
-        LutReader reader;
-        CodomainChain cc;
+        int i = 0;
         for (Plane2D plane : wData) {
             int[] color = colors.get(i);
-            reader = readers.get(i);
-            cc = chains.get(i);
-            boolean hasMap = cc.hasMapContext();
+            LutReader reader = readers.get(i);
+            CodomainChain cc = chains.get(i);
             QuantumStrategy qs = strategies.get(i);
-            redRatio = color[ColorsFactory.RED_INDEX] > 0 ? 
-                    color[ColorsFactory.RED_INDEX] / 255.0 : 0.0;
-            greenRatio = color[ColorsFactory.GREEN_INDEX] > 0 ? 
-                    color[ColorsFactory.GREEN_INDEX] / 255.0 : 0.0;
-            blueRatio = color[ColorsFactory.BLUE_INDEX] > 0 ? 
-                    color[ColorsFactory.BLUE_INDEX] / 255.0 : 0.0;
-            boolean isXYPlanar = plane.isXYPlanar();
-            PixelData data = plane.getData();
-            int bytesPerPixel = data.bytesPerPixel();
-
+            QuantizationTable table = qs.getQuantizationTable(cc);
             // Get our color offset if we've got the primary color optimization
             // enabled.
-            if (isPrimaryColor)
-                colorOffset = getColorOffsetAsRGBA(color);
-
-            float alpha = new Integer(color[ColorsFactory.ALPHA_INDEX]).floatValue() / 255;
+            int colorOffset = isPrimaryColor ?
+                    getColorOffsetAsRGBA(color) : 0;
+            boolean isPrimary = isPrimaryColor && reader == null;
+            if (reader != null) {
+                fillTables(reader, red, green, blue);
+            } else if (!isPrimary) {
+                fillTables(color, isAlphaless, red, green, blue);
+            }
             for (int x2 = x2Start; x2 < x2End; ++x2) {
-                for (int x1 = x1Start; x1 < x1End; ++x1) {
-                    pix = width * x2 + x1;
-                    if (isXYPlanar)
-                        discreteValue =
-                        qs.quantize(
-                                data.getPixelValueDirect(pix * bytesPerPixel));
-                    else
-                        discreteValue =
-                            qs.quantize(plane.getPixelValue(x1, x2));
-                    if (hasMap) {
-                        discreteValue = cc.transform(discreteValue);
-                    }
-                    if (reader != null) {
-                        int r1 = ((buf[pix] & 0xFF000000) >> 24);
-                        int r2 = reader.getRed(discreteValue) & 0xFF;
-                        int g1 = ((buf[pix] & 0x00FF0000) >> 16);
-                        int g2 = reader.getGreen(discreteValue) & 0xFF;
-                        int b1 = ((buf[pix] & 0x0000FF00) >> 8);
-                        int b2 = reader.getBlue(discreteValue) & 0xFF;
-                        int r = r1+r2;
-                        if (r > 255) {
-                            r = 255;
-                        }
-                        int g = g1+g2;
-                        if (g > 255) {
-                            g = 255;
-                        }
-                        int b = b1+b2;
-                        if (b > 255) {
-                            b = 255;
-                        }
-                        buf[pix] = 0x000000FF | r << 24 | g << 16 | b << 8;
-                        continue;
-                    }
-                    // Primary colour optimization is in effect, we just shift
-                    // the value into the correct colour component slot and
-                    // move on to the next pixel value.
-                    if (colorOffset != 32)
-                    {
-                        buf[pix] |= 0x000000FF;  // Alpha.
-                        buf[pix] |= discreteValue << colorOffset;
-                        continue;
-                    }
-                    newRValue = (int) (redRatio * discreteValue);
-                    newGValue = (int) (greenRatio * discreteValue);
-                    newBValue = (int) (blueRatio * discreteValue);
-
-                    // Pre-multiply the alpha for each colour component if the
-                    // image has a non-1.0 alpha component.
-                    if (!isAlphaless)
-                    {
-                        newRValue *= alpha;
-                        newGValue *= alpha;
-                        newBValue *= alpha;
-                    }
-
-                    // Add the existing colour component values to the new
-                    // colour component values.
-                    rValue = ((buf[pix] & 0xFF000000) >> 24) + newRValue;
-                    gValue = ((buf[pix] & 0x00FF0000) >> 16) + newGValue;
-                    bValue = ((buf[pix] & 0x0000FF00) >> 8) + newBValue;
-
-                    // Ensure that each colour component value is between 0 and
-                    // 255 (byte). We must make *certain* that values do not
-                    // wrap over 255 otherwise there will be corruption
-                    // introduced into the rendered image. The value may be over
-                    // 255 if we have mapped two high intensity channels to
-                    // the same color.
-                    if (rValue > 255) {
-                        rValue = 255;
-                    }
-                    if (gValue > 255) {
-                        gValue = 255;
+                quantizeRow(plane, qs, cc, table, x2, row);
+                int pix = width * x2 + x1Start;
+                if (isPrimary) {
+                    for (int x = 0; x < width; x++, pix++) {
+                        buf[pix] |= 0x000000FF | row[x] << colorOffset;
                     }
-                    if (bValue > 255) {
-                        bValue = 255;
+                } else {
+                    for (int x = 0; x < width; x++, pix++) {
+                        int v = row[x];
+                        buf[pix] = blendRGBA(buf[pix], red[v], green[v],
+                                blue[v]);
                     }
-
-                    // Packed each colour component along with a 1.0 alpha into
-                    // the buffer so that buffered images that use this buffer
-                    // can be type 1 (3 bands, pre-multiplied alpha) or type 2
-                    // (4 bands, alpha component included).
-                    buf[pix] = 0x000000FF | rValue << 24 | gValue << 16 | bValue<<8;
                 }
             }
-
             i++;
         }
     }
-    
+
+    /**
+     * Adds the colour components to the ones of a packed <i>ARGB</i> pixel.
+     * Each component is clamped to 255, we must make *certain* that values
+     * do not wrap over 255 otherwise there will be corruption introduced into
+     * the rendered image. The value may be over 255 if we have mapped two
+     * high intensity channels to the same color. The pixel is packed along
+     * with a 1.0 alpha so that buffered images that use this buffer can be
+     * type 1 (3 bands, pre-multiplied alpha) or type 2 (4 bands, alpha
+     * component included).
+     *
+     * @param pixel The existing pixel.
+     * @param r The red component to add.
+     * @param g The green component to add.
+     * @param b The blue component to add.
+     * @return The new pixel.
+     */
+    private static int blendRGB(int pixel, int r, int g, int b) {
+        r = Math.min(255, ((pixel >>> 16) & 0xFF) + r);
+        g = Math.min(255, ((pixel >>> 8) & 0xFF) + g);
+        b = Math.min(255, (pixel & 0xFF) + b);
+        return 0xFF000000 | r << 16 | g << 8 | b;
+    }
+
+    /**
+     * Adds the colour components to the ones of a packed <i>RGBA</i> pixel.
+     * Each component is clamped to 255 and the pixel is packed along with a
+     * 1.0 alpha.
+     *
+     * @param pixel The existing pixel.
+     * @param r The red component to add.
+     * @param g The green component to add.
+     * @param b The blue component to add.
+     * @return The new pixel.
+     */
+    private static int blendRGBA(int pixel, int r, int g, int b) {
+        r = Math.min(255, (pixel >>> 24) + r);
+        g = Math.min(255, ((pixel >>> 16) & 0xFF) + g);
+        b = Math.min(255, ((pixel >>> 8) & 0xFF) + b);
+        return 0x000000FF | r << 24 | g << 16 | b << 8;
+    }
+
     /**
      * Returns a color offset based on which color component is 0xFF.
      * @param color the color to check.
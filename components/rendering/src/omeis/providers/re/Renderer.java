@@ -140,6 +140,12 @@ public class Renderer {
     /** Lookup table provider. */
     private LutProvider lutProvider;
 
+    /** The executor the rendering tasks are run on. */
+    private RenderingExecutor renderingExecutor;
+
+    /** The key under which the rendering tasks are accounted. */
+    private String executorKey;
+
     /**
      * Returns a copy of a list of channel bindings with one element removed;
      * the so called "other" channel bindings for the image.
@@ -877,6 +883,44 @@ public class Renderer {
     	return optimizations;
     }
 
+    /**
+     * Sets the executor the rendering tasks are run on.
+     *
+     * @param renderingExecutor The executor to use or <code>null</code> to
+     * use the default one.
+     * @param executorKey The key under which the rendering tasks are
+     * accounted, typically the session UUID. May be <code>null</code>.
+     */
+    public void setRenderingExecutor(RenderingExecutor renderingExecutor,
+            String executorKey)
+    {
+        this.renderingExecutor = renderingExecutor;
+        this.executorKey = executorKey;
+    }
+
+    /**
+     * Returns the executor the rendering tasks are run on.
+     *
+     * @return See above.
+     */
+    RenderingExecutor getRenderingExecutor()
+    {
+        if (renderingExecutor == null) {
+            return RenderingExecutor.getDefault();
+        }
+        return renderingExecutor;
+    }
+
+    /**
+     * Returns the key under which the rendering tasks are accounted.
+     *
+     * @return See above.
+     */
+    String getExecutorKey()
+    {
+        return executorKey;
+    }
+
 	/**
      * Closes the buffer, cleaning up file state.
      * 
@@ -0,0 +1,311 @@
+/*
+ *   Copyright 2018 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package omeis.providers.re;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ome.system.metrics.Counter;
+import ome.system.metrics.Histogram;
+import ome.system.metrics.Metrics;
+import ome.system.metrics.NullMetrics;
+import ome.system.metrics.Timer;
+import omeis.providers.re.quantum.QuantizationException;
+
+/**
+ * Server-wide pool on which {@link RenderingTask}s are executed. One instance
+ * is shared by all {@link Renderer}s so that rendering a plane does not
+ * create and tear down threads.
+ * <p>
+ * The pool is bounded both in threads and in queued tasks. Furthermore, the
+ * number of tasks which may be queued or running for a single key (usually
+ * the session UUID) is limited so that one session cannot monopolize the
+ * pool. Tasks which cannot be handed to the pool are run in the calling
+ * thread, which provides back-pressure.
+ * </p>
+ *
+ * @since 5.4.7
+ */
+public class RenderingExecutor {
+
+    /** The logger for this particular class */
+    private static final Logger log =
+            LoggerFactory.getLogger(RenderingExecutor.class);
+
+    /** Instance used by {@link Renderer}s which were not given one. */
+    private static RenderingExecutor defaultInstance;
+
+    /** The thread pool the tasks are submitted to. */
+    private final ThreadPoolExecutor pool;
+
+    /** Maximum number of pooled tasks per key. */
+    private final int tasksPerKey;
+
+    /** Number of pooled tasks per key. Guarded by itself. */
+    private final Map<String, Integer> inFlight =
+            new HashMap<String, Integer>();
+
+    /** Number of tasks waiting in the queue when a task is submitted. */
+    private final Histogram queueDepth;
+
+    /** Time from the submission of a pooled task to its completion. */
+    private final Timer taskLatency;
+
+    /** Number of tasks run in the calling thread. */
+    private final Counter callerRuns;
+
+    /**
+     * Returns the instance shared by {@link Renderer}s for which no executor
+     * has been set.
+     *
+     * @return See above.
+     */
+    static synchronized RenderingExecutor getDefault() {
+        if (defaultInstance == null) {
+            defaultInstance = new RenderingExecutor(0, 0, 0, new NullMetrics());
+        }
+        return defaultInstance;
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param threads The number of threads. If <code>0</code> or lower, the
+     * number of available processors is used.
+     * @param queueSize The maximum number of tasks waiting for a thread. If
+     * <code>0</code> or lower, four times the number of threads is used.
+     * @param tasksPerKey The maximum number of tasks queued or running for a
+     * single key. If <code>0</code> or lower, the number of threads is used.
+     * @param metrics The metrics the queue depth and task latency are
+     * reported to.
+     */
+    public RenderingExecutor(int threads, int queueSize, int tasksPerKey,
+            Metrics metrics) {
+        if (threads <= 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        if (queueSize <= 0) {
+            queueSize = 4 * threads;
+        }
+        if (tasksPerKey <= 0) {
+            tasksPerKey = threads;
+        }
+        this.tasksPerKey = tasksPerKey;
+        this.queueDepth = metrics.histogram(this, "queueDepth");
+        this.taskLatency = metrics.timer(this, "taskLatency");
+        this.callerRuns = metrics.counter(this, "callerRuns");
+        this.pool = new ThreadPoolExecutor(threads, threads, 60,
+                TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize),
+                new RenderingThreadFactory(),
+                new ThreadPoolExecutor.AbortPolicy());
+        this.pool.allowCoreThreadTimeOut(true);
+        log.info("Rendering executor: threads=" + threads + " queue="
+                + queueSize + " tasksPerKey=" + tasksPerKey);
+    }
+
+    /**
+     * Runs all the tasks, forking as many of them onto the pool as the
+     * limits allow and running the others in the calling thread. Returns
+     * once all the tasks have completed.
+     *
+     * @param key The key under which the tasks are accounted, may be
+     * <code>null</code>.
+     * @param tasks The tasks to run.
+     * @throws QuantizationException If a task failed to quantize a value.
+     */
+    public void execute(String key, RenderingTask[] tasks)
+            throws QuantizationException {
+        List<Future<?>> forked = new ArrayList<Future<?>>(tasks.length);
+        List<RenderingTask> local = new ArrayList<RenderingTask>();
+        // The first task is always run by the calling thread.
+        local.add(tasks[0]);
+        for (int i = 1; i < tasks.length; i++) {
+            Future<?> future = fork(key, tasks[i]);
+            if (future == null) {
+                callerRuns.inc();
+                local.add(tasks[i]);
+            } else {
+                forked.add(future);
+            }
+        }
+
+        // Forked tasks are left to complete on failure rather than being
+        // cancelled so that their per-key reservations are always released.
+        try {
+            for (RenderingTask task : local) {
+                task.call();
+            }
+            for (Future<?> future : forked) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof QuantizationException) {
+                throw (QuantizationException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Submits a task to the pool without waiting for it to complete. If the
+     * limits do not allow the task to be pooled, it is run in the calling
+     * thread before this method returns.
+     *
+     * @param key The key under which the task is accounted, may be
+     * <code>null</code>.
+     * @param task The task to run.
+     * @return The future of the task.
+     */
+    public <T> Future<T> submit(final String key, final Callable<T> task) {
+        if (acquire(key)) {
+            final Timer.Context latency = taskLatency.time();
+            try {
+                queueDepth.update(pool.getQueue().size());
+                return pool.submit(new Callable<T>() {
+                    public T call() throws Exception {
+                        try {
+                            return task.call();
+                        } finally {
+                            latency.stop();
+                            release(key);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                release(key);
+            }
+        }
+        callerRuns.inc();
+        final FutureTask<T> local = new FutureTask<T>(task);
+        local.run();
+        return local;
+    }
+
+    /**
+     * Returns the number of threads of the pool.
+     *
+     * @return See above.
+     */
+    public int getThreads() {
+        return pool.getMaximumPoolSize();
+    }
+
+    /**
+     * Shuts the pool down. Tasks already submitted will be completed.
+     */
+    public void destroy() {
+        pool.shutdown();
+    }
+
+    /**
+     * Submits the task to the pool if neither the per-key limit nor the
+     * queue limit has been reached.
+     *
+     * @param key The key under which the task is accounted.
+     * @param task The task to submit.
+     * @return The future of the task or <code>null</code> if the task has
+     * to be run by the caller.
+     */
+    private Future<?> fork(final String key, final RenderingTask task) {
+        if (!acquire(key)) {
+            return null;
+        }
+        final Timer.Context latency = taskLatency.time();
+        try {
+            queueDepth.update(pool.getQueue().size());
+            return pool.submit(new Callable<Object>() {
+                public Object call() throws Exception {
+                    try {
+                        return task.call();
+                    } finally {
+                        latency.stop();
+                        release(key);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            release(key);
+            return null;
+        }
+    }
+
+    /**
+     * Reserves a pooled task for the given key.
+     *
+     * @param key The key, may be <code>null</code>.
+     * @return <code>true</code> if the key is below its limit.
+     */
+    private boolean acquire(String key) {
+        if (key == null) {
+            return true;
+        }
+        synchronized (inFlight) {
+            Integer count = inFlight.get(key);
+            int value = count == null ? 0 : count;
+            if (value >= tasksPerKey) {
+                return false;
+            }
+            inFlight.put(key, value + 1);
+            return true;
+        }
+    }
+
+    /**
+     * Releases a pooled task reserved by {@link #acquire(String)}.
+     *
+     * @param key The key, may be <code>null</code>.
+     */
+    private void release(String key) {
+        if (key == null) {
+            return;
+        }
+        synchronized (inFlight) {
+            Integer count = inFlight.get(key);
+            if (count == null || count <= 1) {
+                inFlight.remove(key);
+            } else {
+                inFlight.put(key, count - 1);
+            }
+        }
+    }
+
+    /**
+     * Creates named daemon threads so that the pool never prevents the
+     * JVM from exiting.
+     */
+    private static class RenderingThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "Rendering-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
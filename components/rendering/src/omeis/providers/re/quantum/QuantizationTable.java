@@ -0,0 +1,70 @@
+/*
+ *   Copyright 2018 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package omeis.providers.re.quantum;
+
+/**
+ * Materialized quantization of every value of an integer pixels type. Each
+ * entry holds the discrete value, in the <code>[0, 255]</code> interval, that
+ * the window, the mapping family, the noise reduction and the codomain chain
+ * map the corresponding pixel intensity value onto.
+ * <p>
+ * Instances are shared between renderers and must be treated as read-only.
+ * </p>
+ *
+ * @since 5.4.7
+ * @see QuantumStrategy#getQuantizationTable(omeis.providers.re.codomain.CodomainChain)
+ */
+public class QuantizationTable {
+
+    /** The pixel intensity value corresponding to the first entry. */
+    private final int offset;
+
+    /** The discrete values. */
+    private final byte[] values;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param offset The pixel intensity value corresponding to the first
+     *               entry.
+     * @param values The discrete values.
+     */
+    QuantizationTable(int offset, byte[] values)
+    {
+        this.offset = offset;
+        this.values = values;
+    }
+
+    /**
+     * Returns the pixel intensity value corresponding to the first entry of
+     * the table, i.e. the minimum of the pixels type.
+     *
+     * @return See above.
+     */
+    public int getOffset() { return offset; }
+
+    /**
+     * Returns the discrete values, indexed by pixel intensity value minus
+     * {@link #getOffset()}. The values are unsigned bytes. The array must
+     * not be modified.
+     *
+     * @return See above.
+     */
+    public byte[] getValues() { return values; }
+
+    /**
+     * Returns the discrete value the specified pixel intensity value is
+     * mapped onto.
+     *
+     * @param value The pixel intensity value.
+     * @return See above.
+     */
+    public int get(int value)
+    {
+        return values[value - offset] & 0xFF;
+    }
+
+}
@@ -7,6 +7,9 @@
 
 package omeis.providers.re.quantum;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import ome.model.core.Pixels;
 import ome.model.display.QuantumDef;
 
@@ -74,8 +77,9 @@ public class Quantization_8_16_bit extends QuantumStrategy {
     private int cdStart, cdEnd;
 
     /**
-     * Initializes the LUT. Comparable getGlobalMin and getGlobalMax assumed to
-     * be Integer, QuantumStrategy enforces min &lt; max. QuantumFactory makes
+     * Initializes the bounds of the LUT. Comparable getGlobalMin and
+     * getGlobalMax assumed to be Integer, QuantumStrategy enforces
+     * min &lt; max. QuantumFactory makes
      * sure 0 &lt; max-min &lt; 2^N where N = 8 or N = 16. LUT size is at most
      * 256 bytes if N = 8 or 2^16 bytes = 2^6Kb = 64Kb if N = 16.
      *
@@ -109,11 +113,10 @@ public class Quantization_8_16_bit extends QuantumStrategy {
                     "Lookup table of size %d greater than supported size %f",
                     range, MAX_SIZE_LUT));
         }
-        LUT = new byte[lutMax-lutMin+1];
     }
 
     /**
-     * Resets the LUT. We rebuild the LUT if and only if the 
+     * Resets the bounds of the LUT. We rebuild the LUT if and only if the
      * pixels type range was not determined at init time.
      *
      * @param s The lower bound.
@@ -123,17 +126,8 @@ public class Quantization_8_16_bit extends QuantumStrategy {
     {
         int pMax = (int) getPixelsTypeMax();
         if (pMax != 0) return;
-        if (s < lutMin && e > lutMax) {
-            lutMin = s;
-            lutMax = e;
-            LUT = new byte[lutMax-lutMin+1];
-        } else if (s < lutMin && e <= lutMax) {
-            lutMin = s;
-            LUT = new byte[lutMax-lutMin+1];
-        } else if (s >= lutMin && e > lutMax) {
-            lutMax = e;
-            LUT = new byte[lutMax-lutMin+1];
-        }
+        if (s < lutMin) lutMin = s;
+        if (e > lutMax) lutMax = e;
     }
 
     /**
@@ -226,6 +220,18 @@ public class Quantization_8_16_bit extends QuantumStrategy {
         } else {
             resetLUT((int) dStart, (int) dEnd);
         }
+        // The LUT only depends on the state of the strategy so one built
+        // by another renderer for the same settings can be reused as is.
+        List<Object> key = new ArrayList<Object>(getStateKey());
+        key.add(lutMin);
+        key.add(lutMax);
+        byte[] cached = TABLES.getIfPresent(key);
+        if (cached != null) {
+            LUT = cached;
+            return;
+        }
+        // Always build into a new array as the previous one may be shared.
+        LUT = new byte[lutMax-lutMin+1];
         // Comparable assumed to be Integer
         // domain
 
@@ -272,6 +278,7 @@ public class Quantization_8_16_bit extends QuantumStrategy {
         for (; x <= lutMax; ++x) {
             LUT[x - lutMin] = (byte) cdEnd;
         }
+        TABLES.put(key, LUT);
     }
 
     /** The input window size changed, rebuild the LUT. */
@@ -7,13 +7,23 @@
 
 package omeis.providers.re.quantum;
 
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import ome.model.core.Pixels;
 import ome.model.display.QuantumDef;
 import ome.model.enums.Family;
 import ome.model.enums.PixelsType;
+import omeis.providers.re.codomain.CodomainChain;
 import omeis.providers.re.data.PlaneFactory;
 import omeis.providers.re.metadata.StatsFactory;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+
 /**
  * Subclasses Work on explicit pixel types. Taking into
  * account the pixel types, transform the pixel intensity value passed to
@@ -56,6 +66,22 @@ public abstract class QuantumStrategy {
     
     /** The maximum size of the cache.*/
     static final long MAX_SIZE = 1000;
+
+    /** The maximum number of bytes held by the shared tables. */
+    static final long MAX_SIZE_TABLES = 64 * 1024 * 1024;
+
+    /**
+     * Look-up and quantization tables shared by all the strategies, keyed by
+     * the state they were built for. See {@link #getStateKey()}.
+     */
+    static final Cache<List<Object>, byte[]> TABLES = CacheBuilder.newBuilder()
+            .maximumWeight(MAX_SIZE_TABLES)
+            .weigher(new Weigher<List<Object>, byte[]>() {
+                public int weigh(List<Object> key, byte[] value) {
+                    return value.length;
+                }
+            })
+            .build();
     
     /** The minimum value for the pixels type. */
     private double pixelsTypeMin;
@@ -103,6 +129,12 @@ public abstract class QuantumStrategy {
     /** Reference to the value mapper. */
     protected QuantumMap valueMapper;
 
+    /** The quantization table last returned. */
+    private QuantizationTable table;
+
+    /** The key of the quantization table last returned. */
+    private List<Object> tableKey;
+
     /**
      * Defines the value mapper corresponding to the specified family.
      * 
@@ -440,6 +472,95 @@ public abstract class QuantumStrategy {
      */
     public double getWindowEnd() { return windowEnd; }
 
+    /**
+     * Returns the values which fully determine how this strategy maps pixel
+     * intensity values onto the codomain. Two strategies with equal keys
+     * quantize identically, which allows the tables built by one to be
+     * reused by the other.
+     *
+     * @return See above.
+     */
+    protected List<Object> getStateKey()
+    {
+        PixelsType type = pixels.getPixelsType();
+        return Arrays.<Object>asList(getClass().getName(),
+                type == null ? null : type.getValue(),
+                pixelsTypeMin, pixelsTypeMax, globalMin, globalMax,
+                originalGlobalMin, originalGlobalMax, windowStart, windowEnd,
+                family == null ? null : family.getValue(),
+                valueMapper == null ? null : valueMapper.getClass().getName(),
+                curveCoefficient, noiseReduction, qDef.getBitResolution(),
+                qDef.getCdStart(), qDef.getCdEnd());
+    }
+
+    /**
+     * Returns a table mapping every value of the pixels type onto the
+     * discrete value obtained by quantizing it and applying the
+     * transformations of the specified codomain chain. The table is only
+     * available for 8 and 16-bit integer pixels types, <code>null</code> is
+     * returned otherwise.
+     * <p>
+     * Tables are cached by state and shared across strategies so that they
+     * are only built once for a given set of rendering settings.
+     * </p>
+     *
+     * @param chain The codomain chain to apply or <code>null</code>.
+     * @return See above.
+     * @throws QuantizationException
+     *             If a value of the pixels type cannot be quantized.
+     */
+    public synchronized QuantizationTable getQuantizationTable(
+            CodomainChain chain) throws QuantizationException
+    {
+        int min, max;
+        PixelsType type = pixels.getPixelsType();
+        if (type == null) {
+            return null;
+        }
+        String value = type.getValue();
+        if (PixelsType.VALUE_INT8.equals(value)) {
+            min = Byte.MIN_VALUE;
+            max = Byte.MAX_VALUE;
+        } else if (PixelsType.VALUE_UINT8.equals(value)) {
+            min = 0;
+            max = 0xFF;
+        } else if (PixelsType.VALUE_INT16.equals(value)) {
+            min = Short.MIN_VALUE;
+            max = Short.MAX_VALUE;
+        } else if (PixelsType.VALUE_UINT16.equals(value)) {
+            min = 0;
+            max = 0xFFFF;
+        } else {
+            return null;
+        }
+
+        int[] codomain = new int[MAX + 1];
+        boolean hasMap = chain != null && chain.hasMapContext();
+        for (int v = MIN; v <= MAX; v++) {
+            codomain[v] = hasMap ? chain.transform(v) : v;
+        }
+        List<Object> key = new ArrayList<Object>(getStateKey());
+        // IntBuffer compares and hashes the content of the wrapped array.
+        key.add(IntBuffer.wrap(codomain));
+        if (table != null && key.equals(tableKey)) {
+            return table;
+        }
+
+        byte[] values = TABLES.getIfPresent(key);
+        if (values == null) {
+            values = new byte[max - min + 1];
+            for (int x = min; x <= max; x++) {
+                int v = Math.max(MIN, Math.min(MAX, quantize(x)));
+                v = Math.max(MIN, Math.min(MAX, codomain[v]));
+                values[x - min] = (byte) v;
+            }
+            TABLES.put(key, values);
+        }
+        table = new QuantizationTable(min, values);
+        tableKey = key;
+        return table;
+    }
+
     /**
      * Notifies when the input interval has changed or the mapping strategy has
      * changed.
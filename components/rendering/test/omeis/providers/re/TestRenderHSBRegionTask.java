@@ -0,0 +1,601 @@
+/*
+ * Copyright (C) 2018 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package omeis.providers.re;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import ome.model.core.Pixels;
+import ome.model.display.QuantumDef;
+import ome.model.enums.Family;
+import ome.model.enums.PixelsType;
+import ome.util.PixelData;
+import omeis.providers.re.codomain.CodomainChain;
+import omeis.providers.re.codomain.ReverseIntensityContext;
+import omeis.providers.re.data.Plane2D;
+import omeis.providers.re.data.PlaneDef;
+import omeis.providers.re.lut.LutReader;
+import omeis.providers.re.lut.LutReaderFactory;
+import omeis.providers.re.quantum.BinaryMaskQuantizer;
+import omeis.providers.re.quantum.QuantizationException;
+import omeis.providers.re.quantum.Quantization_8_16_bit;
+import omeis.providers.re.quantum.Quantization_float;
+import omeis.providers.re.quantum.QuantumStrategy;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test cases for {@link RenderHSBRegionTask}, comparing its row by row
+ * rendering with the pixel by pixel rendering that it replaced. The packed
+ * <i>ARGB</i> rendering must be identical. The banded and packed
+ * <i>RGBA</i> renderings of a single channel must be identical; for several
+ * channels they now add the channels clamping each component to 255 rather
+ * than wrapping or sign-extending the components already rendered.
+ *
+ * @since 5.4.7
+ */
+@Test
+public class TestRenderHSBRegionTask {
+
+    private static final int SIZE_X = 37;
+
+    private static final int SIZE_Y = 11;
+
+    /** The rows at which the plane is split between two tasks. */
+    private static final int SPLIT_Y = 4;
+
+    /** Pure colors, as the primary color optimization requires. */
+    private static final int[][] PRIMARY = {
+        {255, 0, 0, 255}, {0, 255, 0, 255}, {0, 0, 255, 255}
+    };
+
+    /** Mixed colors with some transparency. */
+    private static final int[][] MIXED = {
+        {255, 128, 0, 200}, {40, 255, 90, 255}, {200, 0, 255, 100}
+    };
+
+    private static final String[] TYPES = {
+        PixelsType.VALUE_INT8, PixelsType.VALUE_UINT8,
+        PixelsType.VALUE_INT16, PixelsType.VALUE_UINT16,
+        PixelsType.VALUE_FLOAT
+    };
+
+    private final Random random = new Random(20180917L);
+
+    /** The channels to render. */
+    private final List<Plane2D> planes = new ArrayList<Plane2D>();
+
+    private final List<QuantumStrategy> strategies =
+            new ArrayList<QuantumStrategy>();
+
+    private final List<CodomainChain> chains = new ArrayList<CodomainChain>();
+
+    private final List<int[]> colors = new ArrayList<int[]>();
+
+    private final List<LutReader> readers = new ArrayList<LutReader>();
+
+    private final Optimizations optimizations = new Optimizations();
+
+    private static Pixels createPixels(String type) {
+        Pixels pixels = new Pixels();
+        pixels.setSizeX(SIZE_X);
+        pixels.setSizeY(SIZE_Y);
+        PixelsType pixelsType = new PixelsType(type);
+        pixelsType.setBitSize(PixelData.getBitDepth(type));
+        pixels.setPixelsType(pixelsType);
+        return pixels;
+    }
+
+    /**
+     * Creates random pixel data of the given type. Floating point values
+     * are in <code>[0, 1)</code>.
+     */
+    private PixelData createData(String type) {
+        int bits = PixelData.getBitDepth(type);
+        ByteBuffer data =
+                ByteBuffer.allocate((SIZE_X * SIZE_Y * bits + 7) / 8);
+        if (PixelsType.VALUE_FLOAT.equals(type)) {
+            while (data.hasRemaining()) {
+                data.putFloat(random.nextFloat());
+            }
+        } else {
+            random.nextBytes(data.array());
+        }
+        return new PixelData(type, data);
+    }
+
+    /**
+     * Adds a channel whose window excludes the lowest and highest values so
+     * that the quantization clamps some of them.
+     */
+    private void addChannel(String type, int[] color, LutReader reader,
+            boolean reverse) {
+        Pixels pixels = createPixels(type);
+        QuantumDef qd = new QuantumDef();
+        qd.setCdStart(QuantumStrategy.MIN);
+        qd.setCdEnd(QuantumStrategy.MAX);
+        qd.setBitResolution(QuantumStrategy.MAX);
+        QuantumStrategy qs;
+        double min, max;
+        if (PixelsType.VALUE_FLOAT.equals(type)) {
+            qs = new Quantization_float(qd, pixels);
+            min = 0;
+            max = 1;
+        } else {
+            qs = new Quantization_8_16_bit(qd, pixels);
+            min = qs.getPixelsTypeMin();
+            max = qs.getPixelsTypeMax();
+        }
+        Family family = new Family(Family.VALUE_LINEAR);
+        qs.setExtent(min, max);
+        qs.setMapping(family, 1.0, false);
+        double quarter = (max - min) / 4;
+        qs.setWindow(min + quarter, max - quarter);
+        CodomainChain cc =
+                new CodomainChain(QuantumStrategy.MIN, QuantumStrategy.MAX);
+        if (reverse) {
+            cc.add(new ReverseIntensityContext());
+        }
+        planes.add(new Plane2D(new PlaneDef(PlaneDef.XY, 0), pixels,
+                createData(type)));
+        strategies.add(qs);
+        chains.add(cc);
+        colors.add(color);
+        readers.add(reader);
+    }
+
+    /**
+     * Adds a binary mask channel.
+     */
+    private void addMask(int[] color, LutReader reader) {
+        Pixels pixels = createPixels(PixelsType.VALUE_BIT);
+        QuantumDef qd = new QuantumDef();
+        qd.setCdStart(QuantumStrategy.MIN);
+        qd.setCdEnd(QuantumStrategy.MAX);
+        qd.setBitResolution(QuantumStrategy.MAX);
+        planes.add(new Plane2D(new PlaneDef(PlaneDef.XY, 0), pixels,
+                createData(PixelsType.VALUE_BIT)));
+        strategies.add(new BinaryMaskQuantizer(qd, pixels));
+        chains.add(new CodomainChain(QuantumStrategy.MIN,
+                QuantumStrategy.MAX));
+        colors.add(color);
+        readers.add(reader);
+    }
+
+    /**
+     * Creates a lookup table of random colors.
+     */
+    private LutReader createLut() throws Exception {
+        byte[] lut = new byte[768];
+        random.nextBytes(lut);
+        File file = File.createTempFile("lut", ".lut");
+        try {
+            Files.write(file.toPath(), lut);
+            return LutReaderFactory.read(file);
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Renders the channels into the given buffer in two tasks splitting the
+     * rows, as the {@link HSBStrategy} does.
+     */
+    private void render(RGBBuffer buffer, int from, int to)
+            throws QuantizationException {
+        List<Plane2D> p = planes.subList(from, to);
+        List<QuantumStrategy> s = strategies.subList(from, to);
+        List<CodomainChain> cc = chains.subList(from, to);
+        List<int[]> c = colors.subList(from, to);
+        List<LutReader> r = readers.subList(from, to);
+        new RenderHSBRegionTask(buffer, p, s, cc, c, optimizations,
+                0, SIZE_X, 0, SPLIT_Y, r).call();
+        new RenderHSBRegionTask(buffer, p, s, cc, c, optimizations,
+                0, SIZE_X, SPLIT_Y, SIZE_Y, r).call();
+    }
+
+    private void render(RGBBuffer buffer) throws QuantizationException {
+        render(buffer, 0, planes.size());
+    }
+
+    /**
+     * Checks that the packed <i>ARGB</i> rendering matches the pixel by
+     * pixel rendering.
+     */
+    private void assertPackedInt() throws QuantizationException {
+        RGBIntBuffer expected = new RGBIntBuffer(SIZE_X, SIZE_Y);
+        new PerPixelRenderer().renderPackedInt(expected);
+        RGBIntBuffer actual = new RGBIntBuffer(SIZE_X, SIZE_Y);
+        render(actual);
+        Assert.assertEquals(actual.getDataBuffer(), expected.getDataBuffer());
+    }
+
+    /**
+     * Checks that the packed <i>RGBA</i> and banded renderings of each
+     * channel alone match the pixel by pixel renderings and that the
+     * renderings of all the channels are the clamped sums of those.
+     */
+    private void assertEachChannel() throws QuantizationException {
+        int n = SIZE_X * SIZE_Y;
+        int[] rgba = new int[n];
+        int[][] bands = new int[3][n];
+        for (int c = 0; c < planes.size(); c++) {
+            PerPixelRenderer reference = new PerPixelRenderer();
+            reference.planes = planes.subList(c, c + 1);
+            reference.strategies = strategies.subList(c, c + 1);
+            reference.chains = chains.subList(c, c + 1);
+            reference.colors = colors.subList(c, c + 1);
+            reference.readers = readers.subList(c, c + 1);
+
+            RGBAIntBuffer expectedRGBA = new RGBAIntBuffer(SIZE_X, SIZE_Y);
+            reference.renderPackedIntAsRGBA(expectedRGBA);
+            RGBAIntBuffer actualRGBA = new RGBAIntBuffer(SIZE_X, SIZE_Y);
+            render(actualRGBA, c, c + 1);
+            Assert.assertEquals(actualRGBA.getDataBuffer(),
+                    expectedRGBA.getDataBuffer());
+
+            RGBBuffer expectedBanded = new RGBBuffer(SIZE_X, SIZE_Y);
+            reference.renderBanded(expectedBanded);
+            RGBBuffer actualBanded = new RGBBuffer(SIZE_X, SIZE_Y);
+            render(actualBanded, c, c + 1);
+            Assert.assertEquals(actualBanded.getRedBand(),
+                    expectedBanded.getRedBand());
+            Assert.assertEquals(actualBanded.getGreenBand(),
+                    expectedBanded.getGreenBand());
+            Assert.assertEquals(actualBanded.getBlueBand(),
+                    expectedBanded.getBlueBand());
+
+            int[] pixels = actualRGBA.getDataBuffer();
+            for (int i = 0; i < n; i++) {
+                rgba[i] = 0x000000FF
+                        | add(rgba[i] >>> 24, pixels[i] >>> 24) << 24
+                        | add(rgba[i] >>> 16 & 0xFF, pixels[i] >>> 16 & 0xFF)
+                                << 16
+                        | add(rgba[i] >>> 8 & 0xFF, pixels[i] >>> 8 & 0xFF)
+                                << 8;
+                bands[0][i] = add(bands[0][i],
+                        actualBanded.getRedBand()[i] & 0xFF);
+                bands[1][i] = add(bands[1][i],
+                        actualBanded.getGreenBand()[i] & 0xFF);
+                bands[2][i] = add(bands[2][i],
+                        actualBanded.getBlueBand()[i] & 0xFF);
+            }
+        }
+        RGBAIntBuffer actualRGBA = new RGBAIntBuffer(SIZE_X, SIZE_Y);
+        render(actualRGBA);
+        Assert.assertEquals(actualRGBA.getDataBuffer(), rgba);
+        RGBBuffer actualBanded = new RGBBuffer(SIZE_X, SIZE_Y);
+        render(actualBanded);
+        for (int i = 0; i < n; i++) {
+            Assert.assertEquals(actualBanded.getRedBand()[i] & 0xFF,
+                    bands[0][i]);
+            Assert.assertEquals(actualBanded.getGreenBand()[i] & 0xFF,
+                    bands[1][i]);
+            Assert.assertEquals(actualBanded.getBlueBand()[i] & 0xFF,
+                    bands[2][i]);
+        }
+    }
+
+    private static int add(int a, int b) {
+        return Math.min(255, a + b);
+    }
+
+    /**
+     * Checks every rendering with and without the optimizations.
+     */
+    private void assertRenderings() throws QuantizationException {
+        assertPackedInt();
+        assertEachChannel();
+        optimizations.setAlphalessRendering(true);
+        assertPackedInt();
+        assertEachChannel();
+        optimizations.setAlphalessRendering(false);
+    }
+
+    public void testColor() throws QuantizationException {
+        for (String type : TYPES) {
+            planes.clear();
+            strategies.clear();
+            chains.clear();
+            colors.clear();
+            readers.clear();
+            for (int[] color : MIXED) {
+                addChannel(type, color, null, false);
+            }
+            assertRenderings();
+        }
+    }
+
+    public void testPrimaryColor() throws QuantizationException {
+        optimizations.setPrimaryColorEnabled(true);
+        for (String type : TYPES) {
+            planes.clear();
+            strategies.clear();
+            chains.clear();
+            colors.clear();
+            readers.clear();
+            for (int[] color : PRIMARY) {
+                addChannel(type, color, null, false);
+            }
+            assertPackedInt();
+            assertEachChannel();
+        }
+    }
+
+    public void testCodomain() throws QuantizationException {
+        for (String type : TYPES) {
+            planes.clear();
+            strategies.clear();
+            chains.clear();
+            colors.clear();
+            readers.clear();
+            addChannel(type, MIXED[0], null, true);
+            addChannel(type, MIXED[1], null, false);
+            assertRenderings();
+        }
+    }
+
+    public void testLut() throws Exception {
+        for (String type : TYPES) {
+            planes.clear();
+            strategies.clear();
+            chains.clear();
+            colors.clear();
+            readers.clear();
+            addChannel(type, MIXED[0], createLut(), false);
+            addChannel(type, MIXED[1], null, true);
+            addChannel(type, MIXED[2], createLut(), true);
+            assertRenderings();
+        }
+    }
+
+    public void testLutWithPrimaryColor() throws Exception {
+        optimizations.setPrimaryColorEnabled(true);
+        addChannel(PixelsType.VALUE_INT16, PRIMARY[1], null, false);
+        addChannel(PixelsType.VALUE_UINT16, PRIMARY[0], createLut(), false);
+        assertPackedInt();
+        assertEachChannel();
+    }
+
+    public void testMask() throws Exception {
+        addChannel(PixelsType.VALUE_UINT8, MIXED[0], null, false);
+        addMask(MIXED[1], null);
+        addMask(MIXED[2], createLut());
+        assertRenderings();
+    }
+
+    /**
+     * The pixel by pixel rendering that {@link RenderHSBRegionTask} performed
+     * before rendering row by row, kept as the reference for its output.
+     */
+    private class PerPixelRenderer {
+
+        List<Plane2D> planes = TestRenderHSBRegionTask.this.planes;
+
+        List<QuantumStrategy> strategies =
+                TestRenderHSBRegionTask.this.strategies;
+
+        List<CodomainChain> chains = TestRenderHSBRegionTask.this.chains;
+
+        List<int[]> colors = TestRenderHSBRegionTask.this.colors;
+
+        List<LutReader> readers = TestRenderHSBRegionTask.this.readers;
+
+        void renderBanded(RGBBuffer dataBuffer)
+                throws QuantizationException {
+            byte[] r = dataBuffer.getRedBand();
+            byte[] g = dataBuffer.getGreenBand();
+            byte[] b = dataBuffer.getBlueBand();
+            for (int i = 0; i < planes.size(); i++) {
+                Plane2D plane = planes.get(i);
+                int[] color = colors.get(i);
+                LutReader reader = readers.get(i);
+                CodomainChain cc = chains.get(i);
+                QuantumStrategy qs = strategies.get(i);
+                float alpha = color[ColorsFactory.ALPHA_INDEX] / 65025f;
+                for (int x2 = 0; x2 < SIZE_Y; ++x2) {
+                    for (int x1 = 0; x1 < SIZE_X; ++x1) {
+                        int pix = SIZE_X * x2 + x1;
+                        int v = qs.quantize(plane.getPixelValue(x1, x2));
+                        if (cc.hasMapContext()) {
+                            v = cc.transform(v);
+                        }
+                        if (reader != null) {
+                            int r1 = ((r[pix] & 0x00FF0000) >> 16);
+                            int g1 = ((g[pix] & 0x0000FF00) >> 8);
+                            int b1 = (b[pix] & 0x000000FF);
+                            r[pix] = (byte) (r1 + (reader.getRed(v) & 0xFF));
+                            g[pix] = (byte) (g1 + (reader.getGreen(v) & 0xFF));
+                            b[pix] = (byte) (b1 + (reader.getBlue(v) & 0xFF));
+                            continue;
+                        }
+                        float f = v * alpha;
+                        int rValue = (int) (color[ColorsFactory.RED_INDEX] * f)
+                                + r[pix];
+                        int gValue =
+                                (int) (color[ColorsFactory.GREEN_INDEX] * f)
+                                + g[pix];
+                        int bValue =
+                                (int) (color[ColorsFactory.BLUE_INDEX] * f)
+                                + b[pix];
+                        r[pix] = (byte) (Math.min(255, rValue) & 0xFF);
+                        g[pix] = (byte) (Math.min(255, gValue) & 0xFF);
+                        b[pix] = (byte) (Math.min(255, bValue) & 0xFF);
+                    }
+                }
+            }
+        }
+
+        void renderPackedInt(RGBIntBuffer dataBuffer)
+                throws QuantizationException {
+            int[] buf = dataBuffer.getDataBuffer();
+            boolean isPrimaryColor = optimizations.isPrimaryColorEnabled();
+            boolean isAlphaless = optimizations.isAlphalessRendering();
+            int colorOffset = 24;
+            for (int i = 0; i < planes.size(); i++) {
+                Plane2D plane = planes.get(i);
+                int[] color = colors.get(i);
+                LutReader reader = readers.get(i);
+                CodomainChain cc = chains.get(i);
+                QuantumStrategy qs = strategies.get(i);
+                boolean isMask = qs instanceof BinaryMaskQuantizer;
+                double redRatio = color[ColorsFactory.RED_INDEX] / 255.0;
+                double greenRatio = color[ColorsFactory.GREEN_INDEX] / 255.0;
+                double blueRatio = color[ColorsFactory.BLUE_INDEX] / 255.0;
+                PixelData data = plane.getData();
+                int bytesPerPixel = data.bytesPerPixel();
+                if (isPrimaryColor && reader == null) {
+                    colorOffset = getColorOffset(color, 16);
+                }
+                float alpha = color[ColorsFactory.ALPHA_INDEX] / 255f;
+                for (int x2 = 0; x2 < SIZE_Y; ++x2) {
+                    for (int x1 = 0; x1 < SIZE_X; ++x1) {
+                        int pix = SIZE_X * x2 + x1;
+                        int v = qs.quantize(
+                                data.getPixelValueDirect(pix * bytesPerPixel));
+                        if (cc.hasMapContext()) {
+                            v = cc.transform(v);
+                        }
+                        if (reader != null) {
+                            int r = Math.min(255, ((buf[pix] & 0x00FF0000) >> 16)
+                                    + (reader.getRed(v) & 0xFF));
+                            int g = Math.min(255, ((buf[pix] & 0x0000FF00) >> 8)
+                                    + (reader.getGreen(v) & 0xFF));
+                            int b = Math.min(255, (buf[pix] & 0x000000FF)
+                                    + (reader.getBlue(v) & 0xFF));
+                            buf[pix] = 0xFF000000 | r << 16 | g << 8 | b;
+                            continue;
+                        }
+                        if (colorOffset != 24) {
+                            buf[pix] |= 0xFF000000;
+                            buf[pix] |= v << colorOffset;
+                            continue;
+                        }
+                        int newR = (int) (redRatio * v);
+                        int newG = (int) (greenRatio * v);
+                        int newB = (int) (blueRatio * v);
+                        if (!isAlphaless) {
+                            newR *= alpha;
+                            newG *= alpha;
+                            newB *= alpha;
+                        }
+                        if (isMask && v == 255) {
+                            buf[pix] = 0xFF000000 | newR << 16 | newG << 8
+                                    | newB;
+                            continue;
+                        }
+                        int r = Math.min(255,
+                                ((buf[pix] & 0x00FF0000) >> 16) + newR);
+                        int g = Math.min(255,
+                                ((buf[pix] & 0x0000FF00) >> 8) + newG);
+                        int b = Math.min(255, (buf[pix] & 0x000000FF) + newB);
+                        buf[pix] = 0xFF000000 | r << 16 | g << 8 | b;
+                    }
+                }
+            }
+        }
+
+        void renderPackedIntAsRGBA(RGBAIntBuffer dataBuffer)
+                throws QuantizationException {
+            int[] buf = dataBuffer.getDataBuffer();
+            boolean isPrimaryColor = optimizations.isPrimaryColorEnabled();
+            boolean isAlphaless = optimizations.isAlphalessRendering();
+            int colorOffset = 32;
+            for (int i = 0; i < planes.size(); i++) {
+                Plane2D plane = planes.get(i);
+                int[] color = colors.get(i);
+                LutReader reader = readers.get(i);
+                CodomainChain cc = chains.get(i);
+                QuantumStrategy qs = strategies.get(i);
+                double redRatio = color[ColorsFactory.RED_INDEX] / 255.0;
+                double greenRatio = color[ColorsFactory.GREEN_INDEX] / 255.0;
+                double blueRatio = color[ColorsFactory.BLUE_INDEX] / 255.0;
+                PixelData data = plane.getData();
+                int bytesPerPixel = data.bytesPerPixel();
+                if (isPrimaryColor) {
+                    colorOffset = getColorOffset(color, 24);
+                }
+                float alpha = color[ColorsFactory.ALPHA_INDEX] / 255f;
+                for (int x2 = 0; x2 < SIZE_Y; ++x2) {
+                    for (int x1 = 0; x1 < SIZE_X; ++x1) {
+                        int pix = SIZE_X * x2 + x1;
+                        int v = qs.quantize(
+                                data.getPixelValueDirect(pix * bytesPerPixel));
+                        if (cc.hasMapContext()) {
+                            v = cc.transform(v);
+                        }
+                        if (reader != null) {
+                            int r = Math.min(255, ((buf[pix] & 0xFF000000) >> 24)
+                                    + (reader.getRed(v) & 0xFF));
+                            int g = Math.min(255, ((buf[pix] & 0x00FF0000) >> 16)
+                                    + (reader.getGreen(v) & 0xFF));
+                            int b = Math.min(255, ((buf[pix] & 0x0000FF00) >> 8)
+                                    + (reader.getBlue(v) & 0xFF));
+                            buf[pix] = 0x000000FF | r << 24 | g << 16 | b << 8;
+                            continue;
+                        }
+                        if (colorOffset != 32) {
+                            buf[pix] |= 0x000000FF;
+                            buf[pix] |= v << colorOffset;
+                            continue;
+                        }
+                        int newR = (int) (redRatio * v);
+                        int newG = (int) (greenRatio * v);
+                        int newB = (int) (blueRatio * v);
+                        if (!isAlphaless) {
+                            newR *= alpha;
+                            newG *= alpha;
+                            newB *= alpha;
+                        }
+                        int r = Math.min(255,
+                                ((buf[pix] & 0xFF000000) >> 24) + newR);
+                        int g = Math.min(255,
+                                ((buf[pix] & 0x00FF0000) >> 16) + newG);
+                        int b = Math.min(255,
+                                ((buf[pix] & 0x0000FF00) >> 8) + newB);
+                        buf[pix] = 0x000000FF | r << 24 | g << 16 | b << 8;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Returns the offset of the color component that is 0xFF.
+         */
+        private int getColorOffset(int[] color, int redOffset) {
+            if (color[ColorsFactory.RED_INDEX] == 255) {
+                return redOffset;
+            }
+            if (color[ColorsFactory.GREEN_INDEX] == 255) {
+                return redOffset - 8;
+            }
+            if (color[ColorsFactory.BLUE_INDEX] == 255) {
+                return redOffset - 16;
+            }
+            throw new IllegalArgumentException(
+                    "Unable to find color component offset in color.");
+        }
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ *   Copyright 2018 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package omeis.providers.re;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import ome.system.metrics.NullMetrics;
+import omeis.providers.re.quantum.QuantizationException;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit test cases for {@link RenderingExecutor}: the limit on the tasks
+ * pooled for a key, running in the calling thread the tasks which may not
+ * be pooled and passing on the failures of tasks.
+ *
+ * @since 5.4.7
+ */
+@Test(timeOut = 10000)
+public class TestRenderingExecutor {
+
+    private RenderingExecutor executor;
+
+    @AfterMethod
+    public void tearDown() {
+        if (executor != null) {
+            executor.destroy();
+            executor = null;
+        }
+    }
+
+    /**
+     * A task which notes the thread it runs in then optionally waits for a
+     * latch and fails.
+     */
+    private static class Task implements RenderingTask {
+
+        private final CountDownLatch latch;
+
+        private final Exception failure;
+
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private volatile Thread thread;
+
+        Task(CountDownLatch latch, Exception failure) {
+            this.latch = latch;
+            this.failure = failure;
+        }
+
+        Task() {
+            this(null, null);
+        }
+
+        public Object call() throws QuantizationException {
+            thread = Thread.currentThread();
+            try {
+                if (latch != null) {
+                    latch.await();
+                }
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            } finally {
+                done.countDown();
+            }
+            if (failure instanceof QuantizationException) {
+                throw (QuantizationException) failure;
+            }
+            if (failure != null) {
+                throw (RuntimeException) failure;
+            }
+            return thread;
+        }
+
+        /**
+         * @return the task as submitted to the executor
+         */
+        Callable<Object> callable() {
+            return new Callable<Object>() {
+                public Object call() throws QuantizationException {
+                    return Task.this.call();
+                }
+            };
+        }
+
+        /**
+         * @return if the task ran in the calling thread
+         */
+        boolean ranInCaller() {
+            return thread == Thread.currentThread();
+        }
+
+        /**
+         * @return if the task ran in a thread of the pool
+         */
+        boolean ranInPool() throws InterruptedException {
+            done.await();
+            return thread != null && thread != Thread.currentThread()
+                    && thread.getName().startsWith("Rendering-");
+        }
+    }
+
+    /**
+     * Test that no more than the limit of tasks are pooled for a key, that
+     * other keys are not affected and that completed tasks free the key.
+     */
+    public void testTasksPerKey() throws Exception {
+        executor = new RenderingExecutor(4, 16, 2, new NullMetrics());
+        CountDownLatch latch = new CountDownLatch(1);
+        Task a1 = new Task(latch, null);
+        Task a2 = new Task(latch, null);
+        Future<Object> f1 = executor.submit("a", a1.callable());
+        Future<Object> f2 = executor.submit("a", a2.callable());
+        Task a3 = new Task();
+        executor.submit("a", a3.callable()).get();
+        Assert.assertTrue(a3.ranInCaller());
+        Task b1 = new Task();
+        executor.submit("b", b1.callable()).get();
+        Assert.assertTrue(b1.ranInPool());
+        latch.countDown();
+        f1.get();
+        f2.get();
+        Assert.assertTrue(a1.ranInPool());
+        Assert.assertTrue(a2.ranInPool());
+        Task a4 = new Task();
+        executor.submit("a", a4.callable()).get();
+        Assert.assertTrue(a4.ranInPool());
+    }
+
+    /**
+     * Test that tasks without a key are only limited by the pool.
+     */
+    public void testNullKey() throws Exception {
+        executor = new RenderingExecutor(2, 2, 1, new NullMetrics());
+        CountDownLatch latch = new CountDownLatch(1);
+        Task t1 = new Task(latch, null);
+        Task t2 = new Task(latch, null);
+        Future<Object> f1 = executor.submit(null, t1.callable());
+        Future<Object> f2 = executor.submit(null, t2.callable());
+        latch.countDown();
+        f1.get();
+        f2.get();
+        Assert.assertTrue(t1.ranInPool());
+        Assert.assertTrue(t2.ranInPool());
+    }
+
+    /**
+     * Test that a task is run in the calling thread once the threads are busy
+     * and the queue is full.
+     */
+    public void testCallerRunsWhenQueueFull() throws Exception {
+        executor = new RenderingExecutor(1, 1, 10, new NullMetrics());
+        CountDownLatch latch = new CountDownLatch(1);
+        Task running = new Task(latch, null);
+        Future<Object> f1 = executor.submit("a", running.callable());
+        Task queued = new Task();
+        Future<Object> f2 = executor.submit("a", queued.callable());
+        Task rejected = new Task();
+        Future<Object> f3 = executor.submit("a", rejected.callable());
+        Assert.assertTrue(f3.isDone());
+        Assert.assertTrue(rejected.ranInCaller());
+        latch.countDown();
+        f1.get();
+        f2.get();
+        Assert.assertTrue(running.ranInPool());
+        Assert.assertTrue(queued.ranInPool());
+    }
+
+    /**
+     * Test that {@link RenderingExecutor#execute(String, RenderingTask[])}
+     * runs the first task and the tasks over the key's limit in the calling
+     * thread, the others in the pool.
+     */
+    public void testExecute() throws Exception {
+        executor = new RenderingExecutor(4, 16, 1, new NullMetrics());
+        // The pooled task holds the key's only reservation until the last
+        // task has run.
+        final CountDownLatch latch = new CountDownLatch(1);
+        Task first = new Task();
+        Task pooled = new Task(latch, null);
+        Task last = new Task() {
+            @Override
+            public Object call() throws QuantizationException {
+                Object result = super.call();
+                latch.countDown();
+                return result;
+            }
+        };
+        executor.execute("a", new RenderingTask[] {first, pooled, last});
+        Assert.assertTrue(first.ranInCaller());
+        Assert.assertTrue(pooled.ranInPool());
+        Assert.assertTrue(last.ranInCaller());
+    }
+
+    /**
+     * Test that a quantization failure of a pooled task is rethrown as is by
+     * {@link RenderingExecutor#execute(String, RenderingTask[])} and that
+     * the key is freed.
+     */
+    public void testExecutePooledQuantizationFailure() throws Exception {
+        executor = new RenderingExecutor(4, 16, 1, new NullMetrics());
+        QuantizationException failure = new QuantizationException("pooled");
+        Task pooled = new Task(null, failure);
+        try {
+            executor.execute("a", new RenderingTask[] {new Task(), pooled});
+            Assert.fail("expected the failure of the pooled task");
+        } catch (QuantizationException e) {
+            Assert.assertSame(e, failure);
+        }
+        Assert.assertTrue(pooled.ranInPool());
+        Task next = new Task();
+        executor.submit("a", next.callable()).get();
+        Assert.assertTrue(next.ranInPool());
+    }
+
+    /**
+     * Test that a runtime failure of a pooled task is rethrown as is.
+     */
+    public void testExecutePooledRuntimeFailure() throws Exception {
+        executor = new RenderingExecutor(4, 16, 1, new NullMetrics());
+        IllegalStateException failure = new IllegalStateException("pooled");
+        try {
+            executor.execute("a", new RenderingTask[] {
+                    new Task(), new Task(null, failure)});
+            Assert.fail("expected the failure of the pooled task");
+        } catch (IllegalStateException e) {
+            Assert.assertSame(e, failure);
+        }
+    }
+
+    /**
+     * Test that the failure of a task run in the calling thread is thrown.
+     */
+    public void testExecuteLocalFailure() throws Exception {
+        executor = new RenderingExecutor(4, 16, 1, new NullMetrics());
+        QuantizationException failure = new QuantizationException("local");
+        try {
+            executor.execute("a", new RenderingTask[] {
+                    new Task(null, failure), new Task()});
+            Assert.fail("expected the failure of the first task");
+        } catch (QuantizationException e) {
+            Assert.assertSame(e, failure);
+        }
+    }
+
+    /**
+     * Test that the futures returned by
+     * {@link RenderingExecutor#submit(String, Callable)} carry the failure
+     * whether the task was pooled or run in the calling thread.
+     */
+    public void testSubmitFailure() throws Exception {
+        executor = new RenderingExecutor(4, 16, 1, new NullMetrics());
+        CountDownLatch latch = new CountDownLatch(1);
+        QuantizationException pooledFailure =
+                new QuantizationException("pooled");
+        QuantizationException localFailure =
+                new QuantizationException("local");
+        Task pooled = new Task(latch, pooledFailure);
+        Future<Object> f1 = executor.submit("a", pooled.callable());
+        Task local = new Task(null, localFailure);
+        Future<Object> f2 = executor.submit("a", local.callable());
+        Assert.assertTrue(local.ranInCaller());
+        latch.countDown();
+        try {
+            f1.get(5, TimeUnit.SECONDS);
+            Assert.fail("expected the failure of the pooled task");
+        } catch (ExecutionException e) {
+            Assert.assertSame(e.getCause(), pooledFailure);
+        }
+        try {
+            f2.get();
+            Assert.fail("expected the failure of the local task");
+        } catch (ExecutionException e) {
+            Assert.assertSame(e.getCause(), localFailure);
+        }
+        Assert.assertTrue(pooled.ranInPool());
+    }
+}
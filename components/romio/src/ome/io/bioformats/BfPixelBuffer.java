@@ -14,6 +14,7 @@ import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
 import loci.formats.CoreMetadata;
@@ -47,6 +48,15 @@ public class BfPixelBuffer implements PixelBuffer, Serializable {
 
     private int seriesIndex = 0;
 
+    /** The pool to give {@link #bfReader} back to on close, if any. */
+    private final transient BfReaderPool pool;
+
+    /** The series {@link #bfReader} was borrowed for. */
+    private final int pooledSeries;
+
+    /** Whether {@link #bfReader} has been given back to {@link #pool}. */
+    private final AtomicBoolean released = new AtomicBoolean();
+
     /**
      * We may want a constructor that takes the id of an imported file
      * or that takes a File object?
@@ -54,8 +64,26 @@ public class BfPixelBuffer implements PixelBuffer, Serializable {
      * file is in a/the repository.
      */
     public BfPixelBuffer(String filePath, IFormatReader bfReader) throws IOException, FormatException {
+        this(filePath, bfReader, null, 0);
+    }
+
+    /**
+     * Creates a pixel buffer reading with a reader leased from a pool. The
+     * reader is given back to the pool, rather than closed, when the pixel
+     * buffer is closed.
+     * @param filePath the path of the file the reader was borrowed for
+     * @param bfReader the reader
+     * @param pool the pool the reader was borrowed from, may be
+     * <code>null</code> if it was not
+     * @param series the series the reader was borrowed for
+     * @see BfReaderPool#borrow(String, int, BfReaderPool.ReaderFactory)
+     */
+    public BfPixelBuffer(String filePath, IFormatReader bfReader,
+            BfReaderPool pool, int series) throws IOException, FormatException {
         this.filePath = filePath;
         this.bfReader = bfReader;
+        this.pool = pool;
+        this.pooledSeries = series;
     }
 
     /**
@@ -66,6 +94,10 @@ public class BfPixelBuffer implements PixelBuffer, Serializable {
         BfPixelsWrapper wrapper = reader.get();
         if (wrapper == null) {
 
+            if (released.get()) {
+                // The reader may now be leased by another pixel buffer
+                throw new ResourceError("Pixel buffer closed: " + filePath);
+            }
             try {
                 // Note: the call to bfReader.setid inside the BfPixelsWrapper
                 // ctor should be a no-op since the filePath is the same for
@@ -147,6 +179,13 @@ public class BfPixelBuffer implements PixelBuffer, Serializable {
     }
 
     public void close() throws IOException {
+        if (pool != null) {
+            if (released.compareAndSet(false, true)) {
+                reader.set(null);
+                pool.release(filePath, pooledSeries, bfReader);
+            }
+            return;
+        }
         BfPixelsWrapper wrapper = reader.get();
         if (wrapper != null) {
             try {
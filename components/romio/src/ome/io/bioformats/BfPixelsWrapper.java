@@ -45,6 +45,10 @@ public class BfPixelsWrapper {
     public BfPixelsWrapper(String path, IFormatReader reader) throws IOException, FormatException {
         this.path = path;
         this.reader = reader; // don't re-memoize
+        if (path.equals(reader.getCurrentFile())) {
+            // Already initialized, e.g. borrowed from a BfReaderPool
+            return;
+        }
         reader.setFlattenedResolutions(false);
         try {
             // An exception here could conceivably leave
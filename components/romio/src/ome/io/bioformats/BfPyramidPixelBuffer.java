@@ -14,7 +14,12 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.channels.FileLock;
 import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import loci.formats.FormatException;
 import loci.formats.FormatTools;
@@ -61,6 +66,19 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
      */
     protected OmeroPixelsPyramidReader reader;
 
+    /**
+     * Readers, {@link #delegate} being the first of them, which serve all
+     * reads once the pyramid has been written. <code>null</code> until then
+     * and after {@link #close()}.
+     */
+    private volatile ReaderPool readerPool;
+
+    /** Maximum number of readers which may serve concurrent reads. */
+    private volatile int maxReaders = 1;
+
+    /** The resolution level applied to a reader before each read. */
+    private volatile int resolutionLevel;
+
     /**
      * File's who absolute path will be passed to
      * {@link TiffReader#setId(String)} for reading.
@@ -100,7 +118,7 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
      * non-null, then a move from this location to the {@link #filePath} (the
      * reader path) will be attempted.
      */
-    private File writerFile;
+    private volatile File writerFile;
 
     /**
      * Lock file used both for the {@link TiffReader} and {@link TiffWriter}
@@ -186,13 +204,22 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
 
         else
         {
-            final File readerDir = readerFile.getParentFile();
-            writerFile = File.createTempFile("." + readerFile.getName(), ".tmp", readerDir);
-            writerFile.deleteOnExit();
             acquireLock();
+            // The name is fixed, and the file is kept if the server stops,
+            // so that an interrupted write can be resumed. See resume().
+            writerFile = partialFile();
         }
     }
 
+    /**
+     * @return the file to which the pyramid is written until it is complete
+     */
+    private File partialFile()
+    {
+        return new File(readerFile.getParentFile(),
+                "." + readerFile.getName() + ".tmp");
+    }
+
     /**
      * If the pyramid file exists (which the constructor guarantees) then we
      * assume that even if a lock file is present, that it's no longer valid.
@@ -204,10 +231,29 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
             // note: we double checked readerFile exists just in case.
             lockFile.delete();
         }
+        if (readerFile.exists()) {
+            // Likewise any partial file is left from an abandoned write.
+            FileUtils.deleteQuietly(partialFile());
+        }
         reader = new OmeroPixelsPyramidReader();
         delegate = new BfPixelBuffer(readerFile.getAbsolutePath(), reader);
         byteOrder = delegate.isLittleEndian()? ByteOrder.LITTLE_ENDIAN
                 : ByteOrder.BIG_ENDIAN;
+        resolutionLevel = delegate.getResolutionLevel();
+        readerPool = new ReaderPool(delegate);
+    }
+
+    /**
+     * Sets the maximum number of readers opened on the backing TIFF to serve
+     * concurrent reads. Additional readers are only opened when all the
+     * others are in use. Defaults to <code>1</code>, in which case reads
+     * are serialized.
+     * @param maxReaders The maximum number of readers. Values lower than
+     * <code>1</code> are treated as <code>1</code>.
+     */
+    public void setMaxReaders(int maxReaders)
+    {
+        this.maxReaders = Math.max(1, maxReaders);
     }
 
     /**
@@ -227,6 +273,28 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
                                                boolean bigTiff,
                                                int tileWidth, int tileLength)
         throws FormatException
+    {
+        initializeWriter(output, compression, bigTiff, tileWidth, tileLength,
+                         true);
+    }
+
+    /**
+     * Initializes the writer.
+     *
+     * @param output The file where to write the compressed data.
+     * @param compression The compression to use.
+     * @param bigTiff Pass <code>true</code> to set the <code>bigTiff</code>
+     * flag, <code>false</code> otherwise.
+     * @param sequential Pass <code>false</code> when appending to a
+     * partially written file, so that the writer locates its last IFD.
+     * @throws Exception Thrown if an error occurred.
+     */
+    protected synchronized void initializeWriter(String output,
+                                               String compression,
+                                               boolean bigTiff,
+                                               int tileWidth, int tileLength,
+                                               boolean sequential)
+        throws FormatException
     {
         try
         {
@@ -242,7 +310,7 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
             writer = new OmeroPixelsPyramidWriter();
             writer.setMetadataRetrieve(metadata);
             writer.setCompression(compression);
-            writer.setWriteSequentially(true);
+            writer.setWriteSequentially(sequential);
             writer.setInterleaved(true);
             writer.setBigTiff(bigTiff);
             writer.setId(output);
@@ -440,6 +508,10 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
             try {
                 if (writerFile != null) {
                     try {
+                        if (!writerFile.exists()) {
+                            // No tiles were set; leave an empty pyramid.
+                            FileUtils.touch(writerFile);
+                        }
                         FileUtils.moveFile(writerFile, readerFile);
                     } finally {
                         writerFile = null;
@@ -461,6 +533,108 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
         return writerFile != null;
     }
 
+    /**
+     * Resumes a write which was interrupted after the first
+     * <code>planeCount</code> planes had been fully written, as recorded by
+     * {@link #checkpoint()}. Must be called before any tile is set. Planes
+     * are numbered in XYZCT order.
+     * @param planeCount The number of planes fully written.
+     * @param length The length returned by {@link #checkpoint()} once the
+     * last of those planes had been written.
+     * @param tileWidth The tile width used by the interrupted write.
+     * @param tileLength The tile length used by the interrupted write.
+     * @return <code>true</code> if the write was resumed,
+     * <code>false</code> if there is nothing to resume from, in which case
+     * the partially written file is discarded and writing starts from the
+     * first plane.
+     * @throws IOException If the partially written file cannot be reused.
+     */
+    public synchronized boolean resume(int planeCount, long length,
+            int tileWidth, int tileLength) throws IOException
+    {
+        if (!isWrite())
+        {
+            throw new ApiUsageException("In read-only mode!");
+        }
+        if (writer != null)
+        {
+            throw new ApiUsageException("Tiles already written!");
+        }
+        if (planeCount <= 0 || !writerFile.exists()
+            || writerFile.length() < length)
+        {
+            discardInterruptedWrite();
+            return false;
+        }
+        // Drop whatever was written after the checkpoint.
+        RandomAccessFile raf = new RandomAccessFile(writerFile, "rw");
+        try
+        {
+            raf.setLength(length);
+        }
+        finally
+        {
+            raf.close();
+        }
+        try
+        {
+            initializeWriter(writerFile.getAbsolutePath(),
+                    TiffCompression.JPEG_2000.getCodecName(), true,
+                    tileWidth, tileLength, false);
+        }
+        catch (FormatException e)
+        {
+            throw new IOException(e);
+        }
+        // Pretend the last fully written plane was the last one set so that
+        // getIFD() neither re-initializes the writer nor reuses its IFD.
+        final int last = planeCount - 1;
+        lastZ = last % getSizeZ();
+        lastC = (last / getSizeZ()) % getSizeC();
+        lastT = last / (getSizeZ() * getSizeC());
+        log.info(String.format("Resuming %s after %d planes",
+                readerFile, planeCount));
+        return true;
+    }
+
+    /**
+     * Deletes the file partially written by an interrupted write which is
+     * not to be resumed. Must be called before any tile is set.
+     */
+    public synchronized void discardInterruptedWrite()
+    {
+        if (!isWrite())
+        {
+            throw new ApiUsageException("In read-only mode!");
+        }
+        if (writer != null)
+        {
+            throw new ApiUsageException("Tiles already written!");
+        }
+        if (writerFile.exists())
+        {
+            log.info("Discarding partially written " + writerFile);
+            FileUtils.deleteQuietly(writerFile);
+        }
+    }
+
+    /**
+     * Flushes the tiles set so far to the partially written file. If called
+     * after the last tile of a plane has been set, the returned length may
+     * be given to {@link #resume(int, long, int, int)} should the write be
+     * interrupted.
+     * @return The length of the partially written file.
+     * @throws IOException If the tiles could not be flushed.
+     */
+    public synchronized long checkpoint() throws IOException
+    {
+        if (!isWrite() || writer == null)
+        {
+            throw new ApiUsageException("No tiles written!");
+        }
+        return writer.checkpoint();
+    }
+
     private BfPixelBuffer delegate()
     {
         if (isWrite())
@@ -489,6 +663,25 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
         return delegate;
     }
 
+    /**
+     * Returns the readers serving reads, initializing them (and thereby
+     * disabling writes) if required.
+     * @return See above.
+     */
+    private ReaderPool readerPool()
+    {
+        ReaderPool pool = readerPool;
+        if (pool == null)
+        {
+            synchronized (this)
+            {
+                delegate();
+                pool = readerPool;
+            }
+        }
+        return pool;
+    }
+
     /* (non-Javadoc)
      * @see ome.io.bioformats.BfPixelBuffer#setTile(byte[], java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer)
      */
@@ -537,6 +730,9 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
         {
             try
             {
+                // Discard anything written by a previous run which is not
+                // being resumed; the writer would append to it otherwise.
+                FileUtils.deleteQuietly(writerFile);
                 initializeWriter(writerFile.getAbsolutePath(),
                         TiffCompression.JPEG_2000.getCodecName(), true, w, h);
             }
@@ -596,7 +792,7 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
      * @throws IOException If there is a problem with the parameters or a
      * problem checking them.
      */
-    private synchronized void checkTileParameters(int x, int y, int w, int h)
+    private void checkTileParameters(int x, int y, int w, int h)
         throws IOException
     {
         // No-op.
@@ -623,21 +819,39 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#calculateMessageDigest()
      */
-    public synchronized byte[] calculateMessageDigest() throws IOException
+    public byte[] calculateMessageDigest() throws IOException
     {
-        return delegate().calculateMessageDigest();
+        final ReaderPool pool = readerPool();
+        final BfPixelBuffer pooled = pool.borrow(resolutionLevel);
+        try
+        {
+            return pooled.calculateMessageDigest();
+        }
+        finally
+        {
+            pool.release(pooled);
+        }
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#checkBounds(java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer)
      */
-    public synchronized void checkBounds(Integer x, Integer y, Integer z,
+    public void checkBounds(Integer x, Integer y, Integer z,
             Integer c, Integer t) throws DimensionsOutOfBoundsException
     {
         t = getRasterizedT(z, c, t);
         c = 0;
         z = 0;
-        delegate().checkBounds(x, y, z, c, t);
+        final ReaderPool pool = readerPool();
+        final BfPixelBuffer pooled = pool.borrow(resolutionLevel);
+        try
+        {
+            pooled.checkBounds(x, y, z, c, t);
+        }
+        finally
+        {
+            pool.release(pooled);
+        }
     }
 
     /* (non-Javadoc)
@@ -645,6 +859,15 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
      */
     public synchronized void close() throws IOException
     {
+        if (readerPool != null)
+        {
+            // The pool owns the delegate and its reader. Those readers in
+            // use by other threads are closed when they are handed back.
+            readerPool.close();
+            readerPool = null;
+            delegate = null;
+            reader = null;
+        }
         try
         {
             if (delegate != null)
@@ -675,45 +898,72 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getByteWidth()
      */
-    public synchronized int getByteWidth()
+    public int getByteWidth()
     {
-        return delegate().getByteWidth();
+        return readerPool().byteWidth;
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getCol(java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer)
      */
-    public synchronized PixelData getCol(Integer x, Integer z, Integer c,
+    public PixelData getCol(Integer x, Integer z, Integer c,
                                          Integer t)
             throws IOException, DimensionsOutOfBoundsException
     {
         t = getRasterizedT(z, c, t);
         c = 0;
         z = 0;
-        PixelData data = delegate().getCol(x, z, c, t);
-        data.setOrder(byteOrder);
-        return data;
+        final ReaderPool pool = readerPool();
+        final BfPixelBuffer pooled = pool.borrow(resolutionLevel);
+        try
+        {
+            PixelData data = pooled.getCol(x, z, c, t);
+            data.setOrder(byteOrder);
+            return data;
+        }
+        finally
+        {
+            pool.release(pooled);
+        }
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getColDirect(java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, byte[])
      */
-    public synchronized byte[] getColDirect(Integer x, Integer z, Integer c,
+    public byte[] getColDirect(Integer x, Integer z, Integer c,
             Integer t, byte[] buffer)
         throws IOException, DimensionsOutOfBoundsException
     {
         t = getRasterizedT(z, c, t);
         c = 0;
         z = 0;
-        return delegate().getColDirect(x, z, c, t, buffer);
+        final ReaderPool pool = readerPool();
+        final BfPixelBuffer pooled = pool.borrow(resolutionLevel);
+        try
+        {
+            return pooled.getColDirect(x, z, c, t, buffer);
+        }
+        finally
+        {
+            pool.release(pooled);
+        }
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getColSize()
      */
-    public synchronized Integer getColSize()
+    public Integer getColSize()
     {
-        return delegate().getColSize();
+        final ReaderPool pool = readerPool();
+        final BfPixelBuffer pooled = pool.borrow(resolutionLevel);
+        try
+        {
+            return pooled.getColSize();
+        }
+        finally
+        {
+            pool.release(pooled);
+        }
     }
 
     /* (non-Javadoc)
@@ -749,62 +999,107 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getId()
      */
-    public synchronized long getId()
+    public long getId()
     {
-        return delegate().getId();
+        final ReaderPool pool = readerPool();
+        final BfPixelBuffer pooled = pool.borrow(resolutionLevel);
+        try
+        {
+            return pooled.getId();
+        }
+        finally
+        {
+            pool.release(pooled);
+        }
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getPath()
      */
-    public synchronized String getPath()
+    public String getPath()
     {
-        return delegate().getPath();
+        final ReaderPool pool = readerPool();
+        final BfPixelBuffer pooled = pool.borrow(resolutionLevel);
+        try
+        {
+            return pooled.getPath();
+        }
+        finally
+        {
+            pool.release(pooled);
+        }
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getPlane(java.lang.Integer, java.lang.Integer, java.lang.Integer)
      */
-    public synchronized PixelData getPlane(Integer z, Integer c, Integer t)
+    public PixelData getPlane(Integer z, Integer c, Integer t)
             throws IOException, DimensionsOutOfBoundsException
     {
         t = getRasterizedT(z, c, t);
         c = 0;
         z = 0;
-        PixelData data = delegate().getPlane(z, c, t);
-        data.setOrder(byteOrder);
-        return data;
+        final ReaderPool pool = readerPool();
+        final BfPixelBuffer pooled = pool.borrow(resolutionLevel);
+        try
+        {
+            PixelData data = pooled.getPlane(z, c, t);
+            data.setOrder(byteOrder);
+            return data;
+        }
+        finally
+        {
+            pool.release(pooled);
+        }
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getPlaneDirect(java.lang.Integer, java.lang.Integer, java.lang.Integer, byte[])
      */
-    public synchronized byte[] getPlaneDirect(Integer z, Integer c, Integer t,
+    public byte[] getPlaneDirect(Integer z, Integer c, Integer t,
                                               byte[] buffer)
             throws IOException, DimensionsOutOfBoundsException
     {
         t = getRasterizedT(z, c, t);
         c = 0;
         z = 0;
-        return delegate().getPlaneDirect(z, c, t, buffer);
+        final ReaderPool pool = readerPool();
+        final BfPixelBuffer pooled = pool.borrow(resolutionLevel);
+        try
+        {
+            return pooled.getPlaneDirect(z, c, t, buffer);
+        }
+        finally
+        {
+            pool.release(pooled);
+        }
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getPlaneOffset(java.lang.Integer, java.lang.Integer, java.lang.Integer)
      */
-    public synchronized Long getPlaneOffset(Integer z, Integer c, Integer t)
+    public Long getPlaneOffset(Integer z, Integer c, Integer t)
             throws DimensionsOutOfBoundsException
     {
         t = getRasterizedT(z, c, t);
         c = 0;
         z = 0;
-        return delegate().getPlaneOffset(z, c, t);
+        final ReaderPool pool = readerPool();
+        final BfPixelBuffer pooled = pool.borrow(resolutionLevel);
+        try
+        {
+            return pooled.getPlaneOffset(z, c, t);
+        }
+        finally
+        {
+            pool.release(pooled);
+        }
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getPlaneRegion(java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer)
      */
-    public synchronized PixelData getPlaneRegion(Integer x, Integer y,
+    public PixelData getPlaneRegion(Integer x, Integer y,
             Integer width, Integer height, Integer z, Integer c, Integer t,
             Integer stride)
             throws IOException, DimensionsOutOfBoundsException
@@ -812,10 +1107,18 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
         t = getRasterizedT(z, c, t);
         c = 0;
         z = 0;
-        PixelData data =
-            delegate().getPlaneRegion(x, y, width, height, z, c, t, stride);
-        data.setOrder(byteOrder);
-        return data;
+        final ReaderPool pool = readerPool();
+        final BfPixelBuffer pooled = pool.borrow(resolutionLevel);
+        try
+        {
+            PixelData data = pooled.getPlaneRegion(x, y, width, height, z, c, t, stride);
+            data.setOrder(byteOrder);
+            return data;
+        }
+        finally
+        {
+            pool.release(pooled);
+        }
     }
 
     /* (non-Javadoc)
@@ -834,9 +1137,18 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getPlaneSize()
      */
-    public synchronized Long getPlaneSize()
+    public Long getPlaneSize()
     {
-        return delegate().getPlaneSize();
+        final ReaderPool pool = readerPool();
+        final BfPixelBuffer pooled = pool.borrow(resolutionLevel);
+        try
+        {
+            return pooled.getPlaneSize();
+        }
+        finally
+        {
+            pool.release(pooled);
+        }
     }
 
     /* (non-Javadoc)
@@ -859,50 +1171,86 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getRow(java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer)
      */
-    public synchronized PixelData getRow(Integer y, Integer z, Integer c,
+    public PixelData getRow(Integer y, Integer z, Integer c,
                                          Integer t)
             throws IOException, DimensionsOutOfBoundsException
     {
         t = getRasterizedT(z, c, t);
         c = 0;
         z = 0;
-        PixelData data = delegate().getRow(y, z, c, t);
-        data.setOrder(byteOrder);
-        return data;
+        final ReaderPool pool = readerPool();
+        final BfPixelBuffer pooled = pool.borrow(resolutionLevel);
+        try
+        {
+            PixelData data = pooled.getRow(y, z, c, t);
+            data.setOrder(byteOrder);
+            return data;
+        }
+        finally
+        {
+            pool.release(pooled);
+        }
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getRowDirect(java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, byte[])
      */
-    public synchronized byte[] getRowDirect(Integer y, Integer z, Integer c,
+    public byte[] getRowDirect(Integer y, Integer z, Integer c,
             Integer t, byte[] buffer)
         throws IOException, DimensionsOutOfBoundsException
     {
         t = getRasterizedT(z, c, t);
         c = 0;
         z = 0;
-        return delegate().getRowDirect(y, z, c, t, buffer);
+        final ReaderPool pool = readerPool();
+        final BfPixelBuffer pooled = pool.borrow(resolutionLevel);
+        try
+        {
+            return pooled.getRowDirect(y, z, c, t, buffer);
+        }
+        finally
+        {
+            pool.release(pooled);
+        }
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getRowOffset(java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer)
      */
-    public synchronized Long getRowOffset(Integer y, Integer z, Integer c,
+    public Long getRowOffset(Integer y, Integer z, Integer c,
                                           Integer t)
             throws DimensionsOutOfBoundsException
     {
         t = getRasterizedT(z, c, t);
         c = 0;
         z = 0;
-        return delegate().getRowOffset(y, z, c, t);
+        final ReaderPool pool = readerPool();
+        final BfPixelBuffer pooled = pool.borrow(resolutionLevel);
+        try
+        {
+            return pooled.getRowOffset(y, z, c, t);
+        }
+        finally
+        {
+            pool.release(pooled);
+        }
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getRowSize()
      */
-    public synchronized Integer getRowSize()
+    public Integer getRowSize()
     {
-        return delegate().getRowSize();
+        final ReaderPool pool = readerPool();
+        final BfPixelBuffer pooled = pool.borrow(resolutionLevel);
+        try
+        {
+            return pooled.getRowSize();
+        }
+        finally
+        {
+            pool.release(pooled);
+        }
     }
 
     /* (non-Javadoc)
@@ -928,31 +1276,35 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getSizeX()
      */
-    public synchronized int getSizeX()
+    public int getSizeX()
     {
-        if (delegate == null || delegate.reader.get() == null)
+        final ReaderPool pool = readerPool;
+        if (pool == null)
         {
             // The downstream reader has not been initialized, we don't need to
             // delegate and can't even if we wanted to because no data has
             // actually been written yet.
             return pixels.getSizeX();
         }
-        return delegate.getSizeX();
+        return pool.descriptions.get(
+                pool.levels - 1 - resolutionLevel).get(0);
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getSizeY()
      */
-    public synchronized int getSizeY()
+    public int getSizeY()
     {
-        if (delegate == null || delegate.reader.get() == null)
+        final ReaderPool pool = readerPool;
+        if (pool == null)
         {
             // The downstream reader has not been initialized, we don't need to
             // delegate and can't even if we wanted to because no data has
             // actually been written yet.
             return pixels.getSizeY();
         }
-        return delegate.getSizeY();
+        return pool.descriptions.get(
+                pool.levels - 1 - resolutionLevel).get(1);
     }
 
     /* (non-Javadoc)
@@ -995,30 +1347,48 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getStackSize()
      */
-    public synchronized Long getStackSize()
+    public Long getStackSize()
     {
-        return delegate().getStackSize();
+        final ReaderPool pool = readerPool();
+        final BfPixelBuffer pooled = pool.borrow(resolutionLevel);
+        try
+        {
+            return pooled.getStackSize();
+        }
+        finally
+        {
+            pool.release(pooled);
+        }
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getTile(java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer)
      */
-    public synchronized PixelData getTile(Integer z, Integer c, Integer t,
+    public PixelData getTile(Integer z, Integer c, Integer t,
             Integer x, Integer y, Integer w, Integer h) throws IOException
     {
         checkTileParameters(x, y, w, h);
         t = getRasterizedT(z, c, t);
         c = 0;
         z = 0;
-        PixelData data = delegate().getTile(z, c, t, x, y, w, h);
-        data.setOrder(byteOrder);
-        return data;
+        final ReaderPool pool = readerPool();
+        final BfPixelBuffer pooled = pool.borrow(resolutionLevel);
+        try
+        {
+            PixelData data = pooled.getTile(z, c, t, x, y, w, h);
+            data.setOrder(byteOrder);
+            return data;
+        }
+        finally
+        {
+            pool.release(pooled);
+        }
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getTileDirect(java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, java.lang.Integer, byte[])
      */
-    public synchronized byte[] getTileDirect(Integer z, Integer c, Integer t,
+    public byte[] getTileDirect(Integer z, Integer c, Integer t,
             Integer x, Integer y, Integer w, Integer h, byte[] buffer)
         throws IOException
     {
@@ -1026,7 +1396,16 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
         t = getRasterizedT(z, c, t);
         c = 0;
         z = 0;
-        return delegate().getTileDirect(z, c, t, x, y, w, h, buffer);
+        final ReaderPool pool = readerPool();
+        final BfPixelBuffer pooled = pool.borrow(resolutionLevel);
+        try
+        {
+            return pooled.getTileDirect(z, c, t, x, y, w, h, buffer);
+        }
+        finally
+        {
+            pool.release(pooled);
+        }
     }
 
     /* (non-Javadoc)
@@ -1059,41 +1438,59 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getTimepointSize()
      */
-    public synchronized Long getTimepointSize()
+    public Long getTimepointSize()
     {
-        return delegate().getTimepointSize();
+        final ReaderPool pool = readerPool();
+        final BfPixelBuffer pooled = pool.borrow(resolutionLevel);
+        try
+        {
+            return pooled.getTimepointSize();
+        }
+        finally
+        {
+            pool.release(pooled);
+        }
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getTotalSize()
      */
-    public synchronized Long getTotalSize()
+    public Long getTotalSize()
     {
-        return delegate().getTotalSize();
+        final ReaderPool pool = readerPool();
+        final BfPixelBuffer pooled = pool.borrow(resolutionLevel);
+        try
+        {
+            return pooled.getTotalSize();
+        }
+        finally
+        {
+            pool.release(pooled);
+        }
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#isFloat()
      */
-    public synchronized boolean isFloat()
+    public boolean isFloat()
     {
-        return delegate().isFloat();
+        return readerPool().isFloat;
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#isSigned()
      */
-    public synchronized boolean isSigned()
+    public boolean isSigned()
     {
-        return delegate().isSigned();
+        return readerPool().isSigned;
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#isLittleEndian()
      */
-    public synchronized boolean isLittleEndian()
+    public boolean isLittleEndian()
     {
-        return delegate().isLittleEndian();
+        return readerPool().isLittleEndian;
     }
 
     /* (non-Javadoc)
@@ -1194,57 +1591,255 @@ public class BfPyramidPixelBuffer implements PixelBuffer {
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getResolutionLevel()
      */
-    public synchronized int getResolutionLevel()
+    public int getResolutionLevel()
     {
         if (isWrite())
         {
             throw new ApiUsageException("In write mode!");
         }
-        return delegate().getResolutionLevel();
+        readerPool();
+        return resolutionLevel;
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getResolutionLevels()
      */
-    public synchronized int getResolutionLevels()
+    public int getResolutionLevels()
     {
         if (isWrite())
         {
             throw new ApiUsageException("In write mode!");
         }
-        return delegate().getResolutionLevels();
+        return readerPool().levels;
     }
 
-    public synchronized List<List<Integer>> getResolutionDescriptions()
+    public List<List<Integer>> getResolutionDescriptions()
     {
         if (isWrite())
         {
             throw new ApiUsageException("In write mode!");
         }
-        return delegate().getResolutionDescriptions();
+        return readerPool().descriptions;
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#getTileSize()
      */
-    public synchronized Dimension getTileSize()
+    public Dimension getTileSize()
     {
         if (isWrite())
         {
             return new Dimension(sizes.getTileWidth(), sizes.getTileHeight());
         }
-        return delegate().getTileSize();
+        final ReaderPool pool = readerPool();
+        final Dimension tileSize = pool.tileSizes[resolutionLevel];
+        return new Dimension(tileSize);
     }
 
     /* (non-Javadoc)
      * @see ome.io.nio.PixelBuffer#setResolutionLevel(int)
      */
-    public synchronized void setResolutionLevel(int resolutionLevel)
+    public void setResolutionLevel(int resolutionLevel)
     {
         if (isWrite())
         {
             throw new ApiUsageException("In write mode!");
         }
-        delegate().setResolutionLevel(resolutionLevel);
+        final ReaderPool pool = readerPool();
+        if (resolutionLevel < 0 || resolutionLevel >= pool.levels)
+        {
+            throw new IllegalArgumentException(
+                    "Invalid resolution level: " + resolutionLevel);
+        }
+        this.resolutionLevel = resolutionLevel;
+    }
+
+    /**
+     * Readers on the backing TIFF along with the metadata which cannot change
+     * once the pyramid has been written, so that neither reads nor metadata
+     * queries need to hold the lock on the pixel buffer.
+     */
+    private class ReaderPool
+    {
+        /** Number of resolution levels. */
+        final int levels;
+
+        /** Sizes of the resolution levels, largest first. */
+        final List<List<Integer>> descriptions;
+
+        /** Tile sizes, indexed by resolution level. */
+        final Dimension[] tileSizes;
+
+        final int byteWidth;
+
+        final boolean isFloat;
+
+        final boolean isSigned;
+
+        final boolean isLittleEndian;
+
+        /** The delegate, closed along with the other readers. */
+        private final BfPixelBuffer first;
+
+        /** Readers not currently in use. */
+        private final BlockingQueue<BfPixelBuffer> idle =
+            new LinkedBlockingQueue<BfPixelBuffer>();
+
+        /** Number of readers opened. Guarded by this. */
+        private int opened = 1;
+
+        /** Whether the pixel buffer has been closed. Guarded by this. */
+        private boolean closed = false;
+
+        ReaderPool(BfPixelBuffer first)
+        {
+            this.first = first;
+            levels = first.getResolutionLevels();
+            final int current = first.getResolutionLevel();
+            tileSizes = new Dimension[levels];
+            for (int i = 0; i < levels; i++)
+            {
+                first.setResolutionLevel(i);
+                tileSizes[i] = first.getTileSize();
+            }
+            first.setResolutionLevel(current);
+            final List<List<Integer>> copy = new ArrayList<List<Integer>>();
+            for (List<Integer> description :
+                first.getResolutionDescriptions())
+            {
+                copy.add(Collections.unmodifiableList(
+                        new ArrayList<Integer>(description)));
+            }
+            descriptions = Collections.unmodifiableList(copy);
+            byteWidth = first.getByteWidth();
+            isFloat = first.isFloat();
+            isSigned = first.isSigned();
+            isLittleEndian = first.isLittleEndian();
+            idle.add(first);
+        }
+
+        /**
+         * Takes a reader out of the pool, opening a new one if all are in
+         * use and the maximum has not been reached, waiting otherwise.
+         * @param resolutionLevel The resolution level to read at.
+         * @return A reader which must be handed back with
+         * {@link #release(BfPixelBuffer)}.
+         */
+        BfPixelBuffer borrow(int resolutionLevel)
+        {
+            // Once closed the idle queue stays empty.
+            BfPixelBuffer pooled = idle.poll();
+            if (pooled == null)
+            {
+                pooled = openOrWait();
+            }
+            pooled.setResolutionLevel(resolutionLevel);
+            return pooled;
+        }
+
+        /**
+         * Hands back a reader taken with {@link #borrow(int)}.
+         * @param pooled The reader.
+         */
+        void release(BfPixelBuffer pooled)
+        {
+            synchronized (this)
+            {
+                if (!closed)
+                {
+                    idle.add(pooled);
+                    return;
+                }
+            }
+            closeReader(pooled);
+        }
+
+        /**
+         * Closes the idle readers, the delegate among them if it is not in
+         * use. The readers in use are closed when handed back.
+         */
+        void close()
+        {
+            final List<BfPixelBuffer> toClose = new ArrayList<BfPixelBuffer>();
+            synchronized (this)
+            {
+                closed = true;
+                idle.drainTo(toClose);
+            }
+            for (BfPixelBuffer pooled : toClose)
+            {
+                closeReader(pooled);
+            }
+        }
+
+        private BfPixelBuffer openOrWait()
+        {
+            boolean open = false;
+            synchronized (this)
+            {
+                if (closed)
+                {
+                    throw new ApiUsageException("Pixel buffer closed.");
+                }
+                if (opened < maxReaders)
+                {
+                    opened++;
+                    open = true;
+                }
+            }
+            if (open)
+            {
+                try
+                {
+                    return new BfPixelBuffer(readerFile.getAbsolutePath(),
+                            new OmeroPixelsPyramidReader());
+                }
+                catch (Exception e)
+                {
+                    synchronized (this)
+                    {
+                        opened--;
+                    }
+                    throw new RuntimeException(e);
+                }
+            }
+            try
+            {
+                while (true)
+                {
+                    synchronized (this)
+                    {
+                        if (closed)
+                        {
+                            throw new ApiUsageException(
+                                    "Pixel buffer closed.");
+                        }
+                    }
+                    BfPixelBuffer pooled =
+                        idle.poll(100, TimeUnit.MILLISECONDS);
+                    if (pooled != null)
+                    {
+                        return pooled;
+                    }
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+
+        private void closeReader(BfPixelBuffer pooled)
+        {
+            try
+            {
+                pooled.close();
+            }
+            catch (IOException e)
+            {
+                log.warn("Failed to close pooled reader", e);
+            }
+        }
     }
 }
@@ -0,0 +1,291 @@
+/*
+ *   Copyright 2018 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.io.bioformats;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import loci.formats.FormatException;
+import loci.formats.IFormatReader;
+import ome.system.metrics.Counter;
+import ome.system.metrics.Metrics;
+import ome.system.metrics.Timer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Pool of Bio-Formats readers on which {@link IFormatReader#setId(String)}
+ * has already been called, so that a {@link BfPixelBuffer} for a recently
+ * read image need not parse its files, or load its memo file, again. Readers
+ * are keyed by file path and series and are leased exclusively: a reader
+ * taken by {@link #borrow(String, int, ReaderFactory)} belongs to the caller
+ * until it is given back to {@link #release(String, int, IFormatReader)}.
+ * At most the configured number of readers are kept idle; the least recently
+ * released are closed first, as are those idle for longer than the
+ * configured time.
+ *
+ * @since 5.4.7
+ */
+public class BfReaderPool
+{
+    /** The logger for this class. */
+    private final static Logger log =
+        LoggerFactory.getLogger(BfReaderPool.class);
+
+    /**
+     * Creates readers, ready for {@link IFormatReader#setId(String)}, when
+     * none are idle in the pool.
+     */
+    public interface ReaderFactory
+    {
+        /**
+         * Creates a new reader.
+         * @return See above.
+         */
+        IFormatReader createReader();
+    }
+
+    /** An initialized reader not currently leased. */
+    private static class Idle
+    {
+        final String path;
+
+        final int series;
+
+        final IFormatReader reader;
+
+        final long since;
+
+        Idle(String path, int series, IFormatReader reader, long since)
+        {
+            this.path = path;
+            this.series = series;
+            this.reader = reader;
+            this.since = since;
+        }
+    }
+
+    /** Maximum number of idle readers. */
+    private final int maxIdle;
+
+    /** Time in ms. after which an idle reader is closed. */
+    private final long idleTime;
+
+    /** The idle readers, least recently released first. Guarded by this. */
+    private final ArrayDeque<Idle> idle = new ArrayDeque<Idle>();
+
+    /** Whether the pool has been closed. Guarded by this. */
+    private boolean closed;
+
+    /** Closes readers which have been idle for too long. */
+    private final ScheduledExecutorService evictor;
+
+    private final Counter hits;
+
+    private final Counter misses;
+
+    private final Counter evictions;
+
+    private final Timer openTimes;
+
+    /**
+     * Creates a new instance.
+     * @param maxIdle The maximum number of idle readers. The pool keeps no
+     * readers if not positive.
+     * @param idleTime The time in ms. after which an idle reader is closed.
+     * @param metrics To report hits, misses, evictions and the time taken to
+     * open readers.
+     */
+    public BfReaderPool(int maxIdle, long idleTime, Metrics metrics)
+    {
+        this.maxIdle = Math.max(0, maxIdle);
+        this.idleTime = idleTime;
+        hits = metrics.counter(this, "hits");
+        misses = metrics.counter(this, "misses");
+        evictions = metrics.counter(this, "evictions");
+        openTimes = metrics.timer(this, "openTimes");
+        if (this.maxIdle > 0 && idleTime > 0)
+        {
+            evictor = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setDaemon(true)
+                        .setNameFormat("BfReaderPool-%d").build());
+            final long period = Math.max(1000, idleTime / 2);
+            evictor.scheduleWithFixedDelay(new Runnable() {
+                public void run()
+                {
+                    evictIdle();
+                }
+            }, period, period, TimeUnit.MILLISECONDS);
+        }
+        else
+        {
+            evictor = null;
+        }
+        log.info(String.format("Bio-Formats reader pool: maxIdle=%d " +
+                "idleTime=%d", this.maxIdle, idleTime));
+    }
+
+    /**
+     * Leases a reader initialized for the given file and set to the given
+     * series, opening a new one if none is idle.
+     * @param path The path of the file to read.
+     * @param series The series to read.
+     * @param factory Creates a reader if none is idle.
+     * @return See above.
+     * @throws IOException If a new reader cannot open the file.
+     * @throws FormatException If a new reader cannot parse the file.
+     */
+    public IFormatReader borrow(String path, int series,
+            ReaderFactory factory) throws IOException, FormatException
+    {
+        synchronized (this)
+        {
+            final Iterator<Idle> it = idle.descendingIterator();
+            while (it.hasNext())
+            {
+                final Idle candidate = it.next();
+                if (candidate.series == series
+                        && candidate.path.equals(path))
+                {
+                    it.remove();
+                    hits.inc();
+                    return candidate.reader;
+                }
+            }
+        }
+        misses.inc();
+        final IFormatReader reader = factory.createReader();
+        final Timer.Context ctx = openTimes.time();
+        try
+        {
+            reader.setId(path);
+            reader.setSeries(series);
+        }
+        catch (RuntimeException|IOException|FormatException e)
+        {
+            reader.close();
+            throw e;
+        }
+        finally
+        {
+            ctx.stop();
+        }
+        return reader;
+    }
+
+    /**
+     * Gives back a reader leased by {@link #borrow(String, int,
+     * ReaderFactory)}, resetting it to the series and full resolution of
+     * its key. The reader is closed instead if it cannot be reset or is not
+     * to be kept.
+     * @param path The path of the file the reader was borrowed for.
+     * @param series The series the reader was borrowed for.
+     * @param reader The reader.
+     */
+    public void release(String path, int series, IFormatReader reader)
+    {
+        try
+        {
+            reader.setSeries(series);
+            reader.setResolution(0);
+        }
+        catch (RuntimeException e)
+        {
+            log.warn("Failed to reset reader for: " + path, e);
+            close(reader);
+            return;
+        }
+        final List<IFormatReader> evicted = new ArrayList<IFormatReader>();
+        synchronized (this)
+        {
+            if (closed || maxIdle == 0)
+            {
+                evicted.add(reader);
+            }
+            else
+            {
+                idle.addLast(new Idle(path, series, reader,
+                        System.currentTimeMillis()));
+                while (idle.size() > maxIdle)
+                {
+                    evicted.add(idle.removeFirst().reader);
+                }
+            }
+        }
+        closeAll(evicted);
+    }
+
+    /**
+     * Closes the readers which have been idle for longer than the
+     * configured time.
+     */
+    public void evictIdle()
+    {
+        final long oldest = System.currentTimeMillis() - idleTime;
+        final List<IFormatReader> evicted = new ArrayList<IFormatReader>();
+        synchronized (this)
+        {
+            while (!idle.isEmpty() && idle.peekFirst().since < oldest)
+            {
+                evicted.add(idle.removeFirst().reader);
+            }
+        }
+        closeAll(evicted);
+    }
+
+    /**
+     * Closes all the idle readers. Readers released later are closed rather
+     * than kept.
+     */
+    public void close()
+    {
+        final List<IFormatReader> evicted = new ArrayList<IFormatReader>();
+        synchronized (this)
+        {
+            closed = true;
+            for (Idle entry : idle)
+            {
+                evicted.add(entry.reader);
+            }
+            idle.clear();
+        }
+        if (evictor != null)
+        {
+            evictor.shutdownNow();
+        }
+        closeAll(evicted);
+    }
+
+    private void closeAll(List<IFormatReader> readers)
+    {
+        for (IFormatReader reader : readers)
+        {
+            evictions.inc();
+            close(reader);
+        }
+    }
+
+    private static void close(IFormatReader reader)
+    {
+        try
+        {
+            reader.close();
+        }
+        catch (IOException e)
+        {
+            log.warn("Failed to close reader", e);
+        }
+    }
+}
@@ -72,6 +72,18 @@ public class OmeroPixelsPyramidWriter extends TiffWriter {
         super.setId(id);
     }
 
+    /**
+     * Flushes the data written so far to disk.
+     * @return The length of the file, that is the position from which
+     * writing may be resumed.
+     * @throws IOException If the data could not be flushed.
+     */
+    public long checkpoint() throws IOException
+    {
+        out.flush();
+        return out.length();
+    }
+
     /**
      * Performs re-compression post processing on the pixel pyramid.
      * @throws IOException
@@ -0,0 +1,28 @@
+/*
+ *   Copyright 2018 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.io.messages;
+
+import ome.util.messages.InternalMessage;
+
+/**
+ * Published when pixel data of a pixels set is written or its pyramid is
+ * built so that anything derived from the former data, e.g. cached rendered
+ * tiles, can be discarded.
+ *
+ * @since 5.4.7
+ */
+public class PixelDataWrittenMessage extends InternalMessage {
+
+    private static final long serialVersionUID = 2874617723413450112L;
+
+    final public long pixelsID;
+
+    public PixelDataWrittenMessage(Object source, long pixelsID) {
+        super(source);
+        this.pixelsID = pixelsID;
+    }
+
+}
@@ -0,0 +1,305 @@
+/*
+ *   Copyright 2018 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.io.nio;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import ome.util.PixelData;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache of read-only memory mappings of whole ROMIO pixels files, shared by
+ * all the read-only {@link RomioPixelBuffer} instances of a server so that
+ * planes, stacks and rows may be served as slices of long-lived mappings
+ * rather than mapping each region afresh. Each mapping is reference counted
+ * by the pixel buffers using it; once the total size of the mappings exceeds
+ * the configured maximum, the least recently used unreferenced mappings are
+ * released. Released mappings are never unmapped explicitly, whatever
+ * {@link PixelData#CONFIG_KEY}, because slices of them may still be held by
+ * the callers of {@link RomioPixelBuffer#getRegion(Integer, Long)}; the
+ * garbage collector unmaps each once neither it nor any of its slices is
+ * reachable.
+ *
+ * @since 5.4.7
+ */
+public class MappedPixelsCache
+{
+    /** The logger for this class. */
+    private final static Logger log =
+        LoggerFactory.getLogger(MappedPixelsCache.class);
+
+    /** Maximum total size of the cached mappings. */
+    private final long maxBytes;
+
+    /** The mappings, in least recently used order. */
+    private final LinkedHashMap<String, Mapping> mappings =
+        new LinkedHashMap<String, Mapping>(16, 0.75f, true);
+
+    /**
+     * Total size of the mappings that are cached or still acquired. Released
+     * mappings awaiting garbage collection are not counted.
+     */
+    private long mappedBytes;
+
+    /**
+     * Creates a new instance.
+     * @param maxBytes The maximum total size of the cached mappings. The
+     * cache is disabled if not positive.
+     */
+    public MappedPixelsCache(long maxBytes)
+    {
+        this.maxBytes = maxBytes;
+        log.info("Mapped pixels cache: maxBytes=" + maxBytes);
+    }
+
+    /**
+     * Returns whether pixels files may be mapped by this cache.
+     * @return See above.
+     */
+    public boolean isEnabled()
+    {
+        return maxBytes > 0;
+    }
+
+    /**
+     * Acquires a mapping of a pixels file, mapping the file if it is not
+     * already mapped or if it has changed since it was mapped. Every
+     * mapping returned must be given back to {@link #release(Mapping)}.
+     * @param path The path to the pixels file.
+     * @return See above. <code>null</code> if the file cannot be mapped as a
+     * whole, in which case the caller should read it directly.
+     * @throws IOException If the file cannot be mapped.
+     */
+    public Mapping acquire(String path) throws IOException
+    {
+        if (!isEnabled())
+        {
+            return null;
+        }
+        final File file = new File(path);
+        final long length = file.length();
+        final long lastModified = file.lastModified();
+        if (length <= 0 || length > Integer.MAX_VALUE || length > maxBytes)
+        {
+            return null;
+        }
+        synchronized (this)
+        {
+            Mapping mapping = mappings.get(path);
+            if (mapping != null && mapping.isCurrent(length, lastModified))
+            {
+                mapping.references++;
+                return mapping;
+            }
+            if (mapping != null)
+            {
+                // Stale; released once its last user releases it.
+                mapping.cached = false;
+                mappings.remove(path);
+                dispose(mapping);
+            }
+        }
+        final Mapping mapping = map(path, length, lastModified);
+        synchronized (this)
+        {
+            final Mapping other = mappings.get(path);
+            if (other != null && other.isCurrent(length, lastModified))
+            {
+                // Mapped concurrently by another buffer: keep the first one.
+                other.references++;
+                dispose(mapping);
+                return other;
+            }
+            if (other != null)
+            {
+                other.cached = false;
+                dispose(other);
+            }
+            mapping.references++;
+            mappings.put(path, mapping);
+            evict();
+            return mapping;
+        }
+    }
+
+    /**
+     * Releases a mapping acquired from {@link #acquire(String)}. The slices
+     * obtained from the mapping remain readable.
+     * @param mapping The mapping to release, may be <code>null</code>.
+     */
+    public synchronized void release(Mapping mapping)
+    {
+        if (mapping == null)
+        {
+            return;
+        }
+        mapping.references--;
+        if (mapping.cached)
+        {
+            evict();
+        }
+        else
+        {
+            dispose(mapping);
+        }
+    }
+
+    /**
+     * Discards the mapping of a pixels file, for instance when the file is
+     * deleted. The mapping is released once its last user releases it.
+     * @param path The path to the pixels file.
+     */
+    public synchronized void invalidate(String path)
+    {
+        final Mapping mapping = mappings.remove(path);
+        if (mapping != null)
+        {
+            mapping.cached = false;
+            dispose(mapping);
+        }
+    }
+
+    /**
+     * Returns the total size of the live mappings.
+     * @return See above.
+     */
+    public synchronized long getMappedBytes()
+    {
+        return mappedBytes;
+    }
+
+    /**
+     * Maps the whole of a pixels file.
+     */
+    private Mapping map(String path, long length, long lastModified)
+        throws IOException
+    {
+        final RandomAccessFile file = new RandomAccessFile(path, "r");
+        try
+        {
+            // The mapping remains valid once the file has been closed.
+            final MappedByteBuffer buffer =
+                file.getChannel().map(MapMode.READ_ONLY, 0, length);
+            synchronized (this)
+            {
+                mappedBytes += length;
+            }
+            if (log.isDebugEnabled())
+            {
+                log.debug("Mapped " + length + " bytes of " + path);
+            }
+            return new Mapping(buffer, length, lastModified);
+        }
+        finally
+        {
+            file.close();
+        }
+    }
+
+    /**
+     * Releases the least recently used unreferenced mappings until the total
+     * size of the mappings no longer exceeds the maximum.
+     */
+    private void evict()
+    {
+        final Iterator<Map.Entry<String, Mapping>> entries =
+            mappings.entrySet().iterator();
+        while (mappedBytes > maxBytes && entries.hasNext())
+        {
+            final Mapping mapping = entries.next().getValue();
+            if (mapping.references == 0)
+            {
+                entries.remove();
+                mapping.cached = false;
+                mappedBytes -= mapping.length;
+                mapping.length = 0;
+            }
+        }
+    }
+
+    /**
+     * Stops counting a mapping no longer cached once it is unreferenced,
+     * leaving it to be unmapped by the garbage collector.
+     */
+    private void dispose(Mapping mapping)
+    {
+        if (mapping.references == 0 && mapping.length > 0)
+        {
+            mappedBytes -= mapping.length;
+            mapping.length = 0;
+        }
+    }
+
+    /**
+     * A read-only mapping of a whole pixels file.
+     */
+    public static class Mapping
+    {
+        /** The mapped file. */
+        private final MappedByteBuffer buffer;
+
+        /** The last modification time of the file when it was mapped. */
+        private final long lastModified;
+
+        /** The size of the mapping, <code>0</code> once released. */
+        private long length;
+
+        /** The number of pixel buffers using the mapping. */
+        private int references;
+
+        /** Whether the mapping may still be acquired. */
+        private boolean cached = true;
+
+        private Mapping(MappedByteBuffer buffer, long length,
+                long lastModified)
+        {
+            this.buffer = buffer;
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+
+        private boolean isCurrent(long length, long lastModified)
+        {
+            return this.length == length && this.lastModified == lastModified;
+        }
+
+        /**
+         * Returns whether a region lies within the mapped file.
+         * @param offset The offset of the region.
+         * @param size The size of the region.
+         * @return See above.
+         */
+        public boolean contains(long offset, int size)
+        {
+            return offset >= 0 && size >= 0
+                && offset + size <= buffer.capacity();
+        }
+
+        /**
+         * Returns a zero-copy, read-only view of a region of the file.
+         * @param offset The offset of the region.
+         * @param size The size of the region.
+         * @return See above.
+         */
+        public ByteBuffer slice(long offset, int size)
+        {
+            final ByteBuffer view = buffer.duplicate();
+            view.limit((int) offset + size);
+            view.position((int) offset);
+            return view.slice();
+        }
+    }
+}
@@ -10,9 +10,22 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import loci.formats.ChannelFiller;
 import loci.formats.ChannelSeparator;
@@ -28,12 +41,14 @@ import ome.conditions.MissingPyramidException;
 import ome.conditions.ResourceError;
 import ome.io.bioformats.BfPixelBuffer;
 import ome.io.bioformats.BfPyramidPixelBuffer;
+import ome.io.bioformats.BfReaderPool;
 import ome.io.bioformats.MemoizerFallback;
 import ome.io.bioformats.MemoizerReadOnly;
 import ome.io.messages.MissingPyramidMessage;
 import ome.io.messages.MissingStatsInfoMessage;
-import ome.io.nio.Utils.FailedTileLoopException;
+import ome.io.messages.PixelDataWrittenMessage;
 import ome.parameters.Parameters;
+import ome.system.metrics.Meter;
 import ome.system.metrics.Metrics;
 import ome.system.metrics.Timer;
 import ome.model.core.Pixels;
@@ -103,9 +118,30 @@ public class PixelsService extends AbstractFileSystemService
 	private Timer tileTimes;
 
 	private Timer minmaxTimes;
+
+	/** Tiles written to pyramids, for throughput in tiles per second. */
+	private Meter pyramidTiles;
+
+	/** Bytes written to pyramids, for throughput in bytes per second. */
+	private Meter pyramidBytes;
+
+	/** Number of threads reading tiles for each pyramid being generated. */
+	private int pyramidThreads = 1;
+
+	/** Number of tiles each pyramid thread may read ahead of the writer. */
+	private static final int MAX_PENDING_TILES_PER_THREAD = 4;
 	
 	private IQuery iQuery;
 
+	/** Maximum number of readers serving concurrent reads of a pyramid. */
+	private int pyramidReaders = 1;
+
+	/** Mappings of pixels files shared by the read-only pixel buffers. */
+	private MappedPixelsCache mappedPixelsCache;
+
+	/** Initialized readers of original files, may be <code>null</code>. */
+	private BfReaderPool readerPool;
+
 	/** Null plane byte array. */
 	public static final byte[] nullPlane = new byte[] { -128, 127, -128, 127,
 			-128, 127, -128, 127, -128, 127, // 10
@@ -220,6 +256,58 @@ public class PixelsService extends AbstractFileSystemService
     public void setMetrics(Metrics metrics) {
         this.tileTimes = metrics.timer(this, "tileTimes");
         this.minmaxTimes = metrics.timer(this, "minmaxTimes");
+        this.pyramidTiles = metrics.meter(this, "pyramidTiles");
+        this.pyramidBytes = metrics.meter(this, "pyramidBytes");
+    }
+
+    /**
+     * Sets the maximum number of readers each pyramid pixel buffer may open
+     * to serve concurrent tile reads.
+     * @param pyramidReaders the maximum number of readers, the number of
+     * available processors if <code>0</code> or lower
+     * @see BfPyramidPixelBuffer#setMaxReaders(int)
+     */
+    public void setPyramidReaders(int pyramidReaders) {
+        if (pyramidReaders <= 0) {
+            pyramidReaders = Runtime.getRuntime().availableProcessors();
+        }
+        this.pyramidReaders = pyramidReaders;
+    }
+
+    /**
+     * Sets the maximum total size of the memory mappings of pixels files
+     * shared by the read-only ROMIO pixel buffers.
+     * @param mappedPixelsSize the maximum size in bytes, the mappings are
+     * not shared if <code>0</code> or lower
+     * @see MappedPixelsCache
+     */
+    public void setMappedPixelsSize(long mappedPixelsSize) {
+        this.mappedPixelsCache = mappedPixelsSize > 0 ?
+                new MappedPixelsCache(mappedPixelsSize) : null;
+    }
+
+    /**
+     * Sets the pool of initialized Bio-Formats readers from which the pixel
+     * buffers reading original files borrow their readers.
+     * @param readerPool the pool, readers are opened afresh for every pixel
+     * buffer if <code>null</code>
+     */
+    public void setReaderPool(BfReaderPool readerPool) {
+        this.readerPool = readerPool;
+    }
+
+    /**
+     * Sets the number of threads reading, and computing the minima and
+     * maxima of, the tiles of each pyramid being generated. The tiles are
+     * still written to the pyramid in order by a single thread.
+     * @param pyramidThreads the number of threads, the number of available
+     * processors if <code>0</code> or lower
+     */
+    public void setPyramidThreads(int pyramidThreads) {
+        if (pyramidThreads <= 0) {
+            pyramidThreads = Runtime.getRuntime().availableProcessors();
+        }
+        this.pyramidThreads = pyramidThreads;
     }
 
     public long getMemoizerWait() {
@@ -237,6 +325,21 @@ public class PixelsService extends AbstractFileSystemService
 	    this.pub = pub;
 	}
 
+    /**
+     * Publishes a {@link PixelDataWrittenMessage} for the given pixels set
+     * so that anything derived from its former pixel data, e.g. cached
+     * rendered tiles, is discarded. To be called whenever pixel data is
+     * written through a buffer from this service.
+     *
+     * @param pixelsId the ID of the pixels set that was written
+     * @since 5.4.7
+     */
+    public void pixelDataWritten(long pixelsId) {
+        if (pub != null) {
+            pub.publishEvent(new PixelDataWrittenMessage(this, pixelsId));
+        }
+    }
+
     public void setFilePathResolver(FilePathResolver resolver)
     {
         this.resolver = resolver;
@@ -369,6 +472,8 @@ public class PixelsService extends AbstractFileSystemService
                     log.error("Error closing pixel pyramid.", e);
                 }
             }
+            // Tiles rendered from the former pixel data are now stale.
+            pixelDataWritten(pixels.getId());
         }
     }
 
@@ -380,10 +485,12 @@ public class PixelsService extends AbstractFileSystemService
         final PixelBuffer source;
         final Dimension tileSize;
         final PixelsPyramidMinMaxStore minMaxStore;
+        final int series;
 
         if (pixelsFile.exists())
         {
             minMaxStore = null;
+            series = -1;
             source = createRomioPixelBuffer(pixelsFilePath, pixels, false);
             // FIXME: This should be configuration or service driven
             // FIXME: Also implemented in RenderingBean.getTileSize()
@@ -393,9 +500,12 @@ public class PixelsService extends AbstractFileSystemService
         else
         {
             minMaxStore = new PixelsPyramidMinMaxStore(pixels.getSizeC());
-            int series = getSeries(pixels);
-            BfPixelBuffer bfPixelBuffer = createMinMaxBfPixelBuffer(
-                    originalFilePath, series, minMaxStore);
+            series = getSeries(pixels);
+            // The minima and maxima are computed from the tiles as they are
+            // read rather than by a MinMaxCalculator, as the tiles are read
+            // by several readers and the computation may be resumed.
+            BfPixelBuffer bfPixelBuffer = createBfPixelBuffer(
+                    originalFilePath, series);
             pixelsPyramid.setByteOrder(
                     bfPixelBuffer.isLittleEndian()? ByteOrder.LITTLE_ENDIAN
                             : ByteOrder.BIG_ENDIAN);
@@ -435,78 +545,254 @@ public class PixelsService extends AbstractFileSystemService
         }
         log.info("Destination pyramid tile size: " + tileSize);
 
+        final int tileWidth = (int) tileSize.getWidth();
+        final int tileHeight = (int) tileSize.getHeight();
+        final int sizeX = source.getSizeX();
+        final int sizeY = source.getSizeY();
+        final int sizeZ = source.getSizeZ();
+        final int sizeC = source.getSizeC();
+        final int planeCount = sizeZ * sizeC * source.getSizeT();
+        final int tilesPerRow = (sizeX + tileWidth - 1) / tileWidth;
+        final int tilesPerColumn = (sizeY + tileHeight - 1) / tileHeight;
+        final int tilesPerPlane = tilesPerRow * tilesPerColumn;
+        final long totalTiles = (long) planeCount * tilesPerPlane;
+        final long tenPercent = Math.max(totalTiles / 10, 1);
+        final TileMinMax minMax =
+            minMaxStore == null? null : new TileMinMax(sizeC);
+        final PyramidCheckpoint checkpoint =
+            new PyramidCheckpoint(pixelsPyramidFile);
+
+        // Sources other than the first one are opened by the reading threads
+        // as needed and closed with it.
+        final BlockingQueue<PixelBuffer> sources =
+            new LinkedBlockingQueue<PixelBuffer>();
+        final List<PixelBuffer> opened =
+            Collections.synchronizedList(new ArrayList<PixelBuffer>());
+        sources.add(source);
+        opened.add(source);
+        final ExecutorService readers = Executors.newFixedThreadPool(
+                pyramidThreads, new PyramidThreadFactory(pixels.getId()));
+        final Deque<Future<PyramidTile>> pending =
+            new ArrayDeque<Future<PyramidTile>>();
+        long tileCount = 0;
         try
         {
-            final double totalTiles =
-                source.getSizeZ() * source.getSizeC() * source.getSizeT() *
-                (Math.ceil(source.getSizeX() / tileSize.getWidth())) *
-                (Math.ceil(source.getSizeY() / tileSize.getHeight()));
-            final int tenPercent = Math.max((int) totalTiles / 10, 1);
-            Utils.forEachTile(new TileLoopIteration() {
-                public void run(int z, int c, int t, int x, int y, int w,
-                            int h, int tileCount) throws FailedTileLoopException
-            {
-                if (log.isInfoEnabled()
-                    && tileCount % tenPercent == 0)
+            int firstPlane = 0;
+            if (checkpoint.load()
+                && checkpoint.getTileWidth() == tileWidth
+                && checkpoint.getTileHeight() == tileHeight
+                && (minMax == null || checkpoint.getMinMax() != null)
+                && checkpoint.getPlaneCount() < planeCount
+                && pixelsPyramid.resume(checkpoint.getPlaneCount(),
+                        checkpoint.getLength(), tileWidth, tileHeight))
+            {
+                firstPlane = checkpoint.getPlaneCount();
+                tileCount = (long) firstPlane * tilesPerPlane;
+                if (minMax != null)
                 {
-                    log.info(String.format(
-                            "Pyramid creation for Pixels:%d %d/%d (%d%%).",
-                            pixels.getId(), tileCount + 1, (int) totalTiles,
-                            (int) (tileCount / totalTiles * 100)));
+                    minMax.merge(checkpoint.getMinMax());
                 }
-                try
+            }
+            else
+            {
+                // Any checkpoint does not fit this write; neither it nor
+                // the file it describes is of further use.
+                checkpoint.delete();
+                pixelsPyramid.discardInterruptedWrite();
+            }
+
+            for (int plane = firstPlane; plane < planeCount; plane++)
+            {
+                final int z = plane % sizeZ;
+                final int c = (plane / sizeZ) % sizeC;
+                final int t = plane / (sizeZ * sizeC);
+                for (int tile = 0; tile < tilesPerPlane; tile++)
                 {
-                    Timer.Context ctx = tileTimes == null ? null : tileTimes.time();
-                    try {
-                        PixelData tile = source.getTile(z, c, t, x, y, w, h);
-                        pixelsPyramid.setTile(
-                            tile.getData().array(), z, c, t, x, y, w, h);
-                        tile.dispose();
-                    } finally {
-                        if (ctx != null) {
-                            ctx.stop();
+                    final int x = (tile % tilesPerRow) * tileWidth;
+                    final int y = (tile / tilesPerRow) * tileHeight;
+                    final int w = Math.min(tileWidth, sizeX - x);
+                    final int h = Math.min(tileHeight, sizeY - y);
+                    final int lastOfPlane =
+                        tile == tilesPerPlane - 1? plane + 1 : -1;
+                    pending.add(readers.submit(new Callable<PyramidTile>() {
+                        public PyramidTile call() throws Exception
+                        {
+                            return readTile(sources, opened, pixels, series,
+                                    pixelsFilePath, originalFilePath, minMax,
+                                    z, c, t, x, y, w, h, lastOfPlane);
                         }
+                    }));
+                    // Reading runs ahead of writing by a bounded number of
+                    // tiles; the tiles are written in order.
+                    if (pending.size() >= MAX_PENDING_TILES_PER_THREAD
+                                          * pyramidThreads)
+                    {
+                        writeTile(pending.removeFirst(), pixelsPyramid,
+                                checkpoint, minMax, tileWidth, tileHeight);
+                        logProgress(pixels, ++tileCount, totalTiles,
+                                tenPercent);
                     }
                 }
-                catch (IOException e1)
+            }
+            while (!pending.isEmpty())
+            {
+                writeTile(pending.removeFirst(), pixelsPyramid, checkpoint,
+                        minMax, tileWidth, tileHeight);
+                logProgress(pixels, ++tileCount, totalTiles, tenPercent);
+            }
+            if (minMax != null)
+            {
+                minMax.copyTo(minMaxStore);
+            }
+            checkpoint.delete();
+            log.info("SUCCESS -- Pyramid created for pixels id:" + pixels.getId());
+        }
+        catch (IOException e1)
+        {
+            log.error("FAIL -- Error during tile population", e1);
+            log.error("Failed: completed tile count = " + tileCount);
+            checkpoint.delete();
+            try
+            {
+                pixelsPyramidFile.delete();
+                FileUtils.touch(pixelsPyramidFile); // ticket:5189
+            }
+            catch (Exception e2)
+            {
+                log.warn("Error clearing empty or incomplete pixel " +
+                         "buffer.", e2);
+            }
+        }
+        finally
+        {
+            for (Future<PyramidTile> future : pending)
+            {
+                future.cancel(false);
+            }
+            readers.shutdown();
+            try
+            {
+                readers.awaitTermination(1, TimeUnit.MINUTES);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (opened)
+            {
+                for (PixelBuffer buffer : opened)
                 {
-                    log.error("FAIL -- Error during tile population", e1);
                     try
                     {
-                        pixelsPyramidFile.delete();
-                        FileUtils.touch(pixelsPyramidFile); // ticket:5189
+                        buffer.close();
                     }
-                    catch (Exception e2)
+                    catch (IOException e)
                     {
-                        log.warn("Error clearing empty or incomplete pixel " +
-                                 "buffer.", e2);
+                        log.error("Error closing pixel pyramid.", e);
                     }
-                    throw new FailedTileLoopException();
                 }
             }
-            }, source, (int) tileSize.getWidth(), (int) tileSize.getHeight());
-
-            log.info("SUCCESS -- Pyramid created for pixels id:" + pixels.getId());
-
-        } catch (FailedTileLoopException ftle) {
-            log.error("Failed: completed tile count = " + ftle.getTileCount());
         }
+        return minMaxStore;
+    }
 
+    /**
+     * Reads a tile for the pyramid with one of the sources, opening a new
+     * source if all the others are in use by other threads.
+     */
+    private PyramidTile readTile(BlockingQueue<PixelBuffer> sources,
+            List<PixelBuffer> opened, Pixels pixels, int series,
+            String pixelsFilePath, String originalFilePath, TileMinMax minMax,
+            int z, int c, int t, int x, int y, int w, int h, int lastOfPlane)
+        throws IOException
+    {
+        PixelBuffer source = sources.poll();
+        if (source == null)
+        {
+            source = series < 0?
+                createRomioPixelBuffer(pixelsFilePath, pixels, false)
+                : createBfPixelBuffer(originalFilePath, series);
+            opened.add(source);
+        }
+        Timer.Context ctx = tileTimes == null ? null : tileTimes.time();
+        try
+        {
+            PixelData tile = source.getTile(z, c, t, x, y, w, h);
+            if (minMax != null)
+            {
+                minMax.update(c, tile);
+            }
+            return new PyramidTile(tile, z, c, t, x, y, w, h, lastOfPlane);
+        }
         finally
         {
-            if (source != null)
+            if (ctx != null)
             {
-                try
-                {
-                    source.close();
-                }
-                catch (IOException e)
-                {
-                    log.error("Error closing pixel pyramid.", e);
-                }
+                ctx.stop();
             }
+            sources.add(source);
+        }
+    }
+
+    /**
+     * Writes a tile read by {@link #readTile} to the pyramid and records a
+     * checkpoint if it completes a plane.
+     */
+    private void writeTile(Future<PyramidTile> future,
+            BfPyramidPixelBuffer pixelsPyramid, PyramidCheckpoint checkpoint,
+            TileMinMax minMax, int tileWidth, int tileHeight)
+        throws IOException
+    {
+        final PyramidTile tile;
+        try
+        {
+            tile = future.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+            {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+        final byte[] data = tile.data.getData().array();
+        pixelsPyramid.setTile(data, tile.z, tile.c, tile.t,
+                tile.x, tile.y, tile.w, tile.h);
+        tile.data.dispose();
+        if (pyramidTiles != null)
+        {
+            pyramidTiles.mark();
+            pyramidBytes.mark(data.length);
+        }
+        if (tile.lastOfPlane > 0)
+        {
+            checkpoint.save(tile.lastOfPlane, pixelsPyramid.checkpoint(),
+                    tileWidth, tileHeight,
+                    minMax == null? null : minMax.snapshot());
+        }
+    }
+
+    private void logProgress(Pixels pixels, long tileCount, long totalTiles,
+            long tenPercent)
+    {
+        if (log.isInfoEnabled() && tileCount % tenPercent == 0)
+        {
+            log.info(String.format(
+                    "Pyramid creation for Pixels:%d %d/%d (%d%%).",
+                    pixels.getId(), tileCount, totalTiles,
+                    tileCount * 100 / totalTiles));
         }
-        return minMaxStore;
     }
 
     /**
@@ -855,8 +1141,20 @@ public class PixelsService extends AbstractFileSystemService
                                               final int series) {
         try
         {
-            IFormatReader reader = createBfReader();
-            BfPixelBuffer pixelBuffer = new BfPixelBuffer(filePath, reader);
+            BfPixelBuffer pixelBuffer;
+            if (readerPool == null) {
+                IFormatReader reader = createBfReader();
+                pixelBuffer = new BfPixelBuffer(filePath, reader);
+            } else {
+                IFormatReader reader = readerPool.borrow(filePath, series,
+                        new BfReaderPool.ReaderFactory() {
+                            public IFormatReader createReader() {
+                                return createBfReader();
+                            }
+                        });
+                pixelBuffer = new BfPixelBuffer(filePath, reader,
+                        readerPool, series);
+            }
             pixelBuffer.setSeries(series);
             log.info(String.format("Creating BfPixelBuffer: %s Series: %d",
                     filePath, series));
@@ -885,7 +1183,10 @@ public class PixelsService extends AbstractFileSystemService
                 // #5159. Creating the path if we need to write.
                 createSubpath(filePath);
             }
-            return new BfPyramidPixelBuffer(pixels, filePath, write);
+            BfPyramidPixelBuffer pixelBuffer =
+                    new BfPyramidPixelBuffer(pixels, filePath, write);
+            pixelBuffer.setMaxReaders(pyramidReaders);
+            return pixelBuffer;
         }
         catch (Exception e)
         {
@@ -907,7 +1208,8 @@ public class PixelsService extends AbstractFileSystemService
      */
     protected PixelBuffer createRomioPixelBuffer(String pixelsFilePath,
         Pixels pixels, boolean allowModification) {
-        return new RomioPixelBuffer(pixelsFilePath, pixels, allowModification);
+        return new RomioPixelBuffer(pixelsFilePath, pixels, allowModification,
+                mappedPixelsCache);
     }
 
     /**
@@ -928,6 +1230,9 @@ public class PixelsService extends AbstractFileSystemService
 			String pixelPath = getPixelsPath(id);
 			file = new File(pixelPath);
 			fileName = file.getName();
+			if (mappedPixelsCache != null) {
+				mappedPixelsCache.invalidate(pixelPath);
+			}
 			if (file.exists()) {
 				success = file.delete();
 				if (!success) {
@@ -942,6 +1247,135 @@ public class PixelsService extends AbstractFileSystemService
 		}
 	}
 
+    /**
+     * A tile read for a pyramid, waiting to be written.
+     */
+    private static class PyramidTile
+    {
+        final PixelData data;
+
+        final int z, c, t, x, y, w, h;
+
+        /**
+         * Number of planes complete once this tile is written if it is the
+         * last tile of its plane, <code>-1</code> otherwise.
+         */
+        final int lastOfPlane;
+
+        PyramidTile(PixelData data, int z, int c, int t, int x, int y,
+                int w, int h, int lastOfPlane)
+        {
+            this.data = data;
+            this.z = z;
+            this.c = c;
+            this.t = t;
+            this.x = x;
+            this.y = y;
+            this.w = w;
+            this.h = h;
+            this.lastOfPlane = lastOfPlane;
+        }
+    }
+
+    /**
+     * Minimum and maximum of each channel, accumulated from the tiles read
+     * for a pyramid by several threads.
+     */
+    static class TileMinMax
+    {
+        /** Guarded by this. */
+        private final double[][] minMax;
+
+        TileMinMax(int sizeC)
+        {
+            minMax = new double[sizeC][2];
+            for (double[] channel : minMax)
+            {
+                channel[0] = Double.POSITIVE_INFINITY;
+                channel[1] = Double.NEGATIVE_INFINITY;
+            }
+        }
+
+        void update(int c, PixelData tile)
+        {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            final int size = tile.size();
+            for (int i = 0; i < size; i++)
+            {
+                final double value = tile.getPixelValue(i);
+                if (value < min)
+                {
+                    min = value;
+                }
+                if (value > max)
+                {
+                    max = value;
+                }
+            }
+            merge(c, min, max);
+        }
+
+        synchronized void merge(int c, double min, double max)
+        {
+            minMax[c][0] = Math.min(minMax[c][0], min);
+            minMax[c][1] = Math.max(minMax[c][1], max);
+        }
+
+        synchronized void merge(double[][] other)
+        {
+            for (int c = 0; c < minMax.length && c < other.length; c++)
+            {
+                merge(c, other[c][0], other[c][1]);
+            }
+        }
+
+        synchronized double[][] snapshot()
+        {
+            final double[][] copy = new double[minMax.length][];
+            for (int c = 0; c < minMax.length; c++)
+            {
+                copy[c] = minMax[c].clone();
+            }
+            return copy;
+        }
+
+        synchronized void copyTo(IMinMaxStore store)
+        {
+            for (int c = 0; c < minMax.length; c++)
+            {
+                if (minMax[c][0] <= minMax[c][1])
+                {
+                    store.setChannelGlobalMinMax(
+                            c, minMax[c][0], minMax[c][1], 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates named daemon threads for reading the tiles of a pyramid.
+     */
+    private static class PyramidThreadFactory implements ThreadFactory
+    {
+        private final AtomicInteger count = new AtomicInteger();
+
+        private final long pixelsId;
+
+        PyramidThreadFactory(long pixelsId)
+        {
+            this.pixelsId = pixelsId;
+        }
+
+        public Thread newThread(Runnable r)
+        {
+            Thread thread = new Thread(r, "PyramidTile-" + pixelsId + "-"
+                    + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
     class PixelsPyramidMinMaxStore implements IMinMaxStore
     {
         final double[][] channelGlobalMinMax;
@@ -0,0 +1,169 @@
+/*
+ *   Copyright 2018 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.io.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import ome.model.core.Pixels;
+import ome.model.enums.PixelsType;
+import ome.util.PixelData;
+
+/**
+ * Reduces planes of a {@link PixelBuffer} by an integer factor, averaging
+ * each square block of pixels into one pixel of the same type. The source is
+ * read in strips of whole rows so that the full plane is never held in memory
+ * at once. Used to render small images, such as thumbnails, of pixels which
+ * have no pyramid of lower resolution levels.
+ * @since 5.4.7
+ */
+public class PlaneDecimator {
+
+    /** How many source pixels to read in each strip, at least one row of blocks. */
+    private static final int STRIP_PIXELS = 1 << 20;
+
+    private final PixelBuffer source;
+
+    private final int factor;
+
+    private final int sizeX;
+
+    private final int sizeY;
+
+    private final Pixels decimated;
+
+    /**
+     * @param source the pixel buffer to read
+     * @param pixels the metadata of the source's pixels
+     * @param factor by how much to reduce each dimension, at least one
+     * @throws IllegalArgumentException if the factor is not positive or the
+     * pixels are of the bit type, which cannot be averaged
+     */
+    public PlaneDecimator(PixelBuffer source, Pixels pixels, int factor) {
+        if (factor < 1) {
+            throw new IllegalArgumentException(
+                    "Decimation factor must be positive: " + factor);
+        }
+        if (source.getByteWidth() < 1) {
+            throw new IllegalArgumentException(
+                    "Cannot decimate pixels of less than one byte");
+        }
+        this.source = source;
+        this.factor = factor;
+        this.sizeX = source.getSizeX();
+        this.sizeY = source.getSizeY();
+        decimated = new Pixels();
+        decimated.setSizeX(getSizeX());
+        decimated.setSizeY(getSizeY());
+        decimated.setSizeZ(source.getSizeZ());
+        decimated.setSizeC(source.getSizeC());
+        decimated.setSizeT(source.getSizeT());
+        decimated.setPixelsType(pixels.getPixelsType());
+    }
+
+    /**
+     * @param sizeX the width of the source
+     * @param sizeY the height of the source
+     * @param targetX the width wanted
+     * @param targetY the height wanted
+     * @return the largest factor by which the source may be decimated and
+     * remain at least as large as wanted in both dimensions
+     */
+    public static int factor(int sizeX, int sizeY, int targetX, int targetY) {
+        return Math.max(1, Math.min(sizeX / Math.max(1, targetX),
+                                    sizeY / Math.max(1, targetY)));
+    }
+
+    /**
+     * @return the width of the decimated planes
+     */
+    public int getSizeX() {
+        return (sizeX + factor - 1) / factor;
+    }
+
+    /**
+     * @return the height of the decimated planes
+     */
+    public int getSizeY() {
+        return (sizeY + factor - 1) / factor;
+    }
+
+    /**
+     * Decimates the given channels of one plane.
+     * @param z the Z section
+     * @param t the timepoint
+     * @param channels which channels to decimate; the others are left empty
+     * and may not be read from the returned buffer
+     * @return a read-only buffer holding the decimated planes
+     * @throws IOException if the source could not be read
+     * @throws DimensionsOutOfBoundsException if the plane is out of bounds
+     */
+    public PixelBuffer decimate(int z, int t, boolean[] channels)
+            throws IOException, DimensionsOutOfBoundsException {
+        final byte[][][][] planes = new byte[decimated.getSizeZ()]
+                [decimated.getSizeC()][decimated.getSizeT()][];
+        for (int c = 0; c < channels.length; c++) {
+            if (channels[c]) {
+                planes[z][c][t] = decimate(z, c, t);
+            }
+        }
+        return new InMemoryPlanarPixelBuffer(decimated, planes);
+    }
+
+    /**
+     * Decimates one plane, averaging the blocks of each strip of rows.
+     */
+    private byte[] decimate(int z, int c, int t)
+            throws IOException, DimensionsOutOfBoundsException {
+        final String type = decimated.getPixelsType().getValue();
+        final int outX = getSizeX();
+        final int outY = getSizeY();
+        final byte[] plane = new byte[outX * outY * source.getByteWidth()];
+        final PixelData out = new PixelData(type, ByteBuffer.wrap(plane));
+        final boolean isInteger = !out.isFloat();
+        final boolean isUnsignedInt = PixelsType.VALUE_UINT32.equals(type);
+        final int blockRows =
+                Math.max(1, STRIP_PIXELS / (factor * Math.max(1, sizeX)));
+        final double[] row = new double[sizeX];
+        final double[] sums = new double[outX];
+        for (int outRow = 0; outRow < outY; outRow += blockRows) {
+            final int y = outRow * factor;
+            final int h = Math.min(blockRows * factor, sizeY - y);
+            final PixelData strip = source.getTile(z, c, t, 0, y, sizeX, h);
+            try {
+                for (int by = 0; by * factor < h; by++) {
+                    final int rows = Math.min(factor, h - by * factor);
+                    Arrays.fill(sums, 0);
+                    for (int r = 0; r < rows; r++) {
+                        strip.getPixelValues(
+                                (by * factor + r) * sizeX, row, 0, sizeX);
+                        for (int x = 0; x < sizeX; x++) {
+                            sums[x / factor] += row[x];
+                        }
+                    }
+                    final int offset = (outRow + by) * outX;
+                    for (int bx = 0; bx < outX; bx++) {
+                        final int cols = Math.min(factor, sizeX - bx * factor);
+                        double value = sums[bx] / (cols * rows);
+                        if (isInteger) {
+                            value = Math.rint(value);
+                        }
+                        if (isUnsignedInt) {
+                            out.getData().putInt((offset + bx) * 4,
+                                    (int) (long) value);
+                        } else {
+                            out.setPixelValue(offset + bx, value);
+                        }
+                    }
+                }
+            } finally {
+                strip.dispose();
+            }
+        }
+        return plane;
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ *   Copyright 2018 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.io.nio;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records the progress of the generation of a pixels pyramid so that an
+ * interrupted generation can be resumed. The checkpoint is stored next to
+ * the pyramid, in a hidden properties file, and holds the number of planes
+ * fully written, the length of the partially written pyramid at that point,
+ * the tile size used and, if they are being computed, the channel minima
+ * and maxima found so far.
+ *
+ * @since 5.4.7
+ * @see ome.io.bioformats.BfPyramidPixelBuffer#resume(int, long, int, int)
+ */
+public class PyramidCheckpoint
+{
+    /** The logger for this class. */
+    private final static Logger log =
+        LoggerFactory.getLogger(PyramidCheckpoint.class);
+
+    /** Suffix of the checkpoint file. */
+    public static final String CHECKPOINT_SUFFIX = ".checkpoint";
+
+    /** The checkpoint file. */
+    private final File file;
+
+    /** Number of planes fully written. */
+    private int planeCount;
+
+    /** Length of the partially written pyramid. */
+    private long length;
+
+    /** Tile width used by the generation. */
+    private int tileWidth;
+
+    /** Tile height used by the generation. */
+    private int tileHeight;
+
+    /** Minimum and maximum of each channel, <code>null</code> if unknown. */
+    private double[][] minMax;
+
+    /**
+     * Creates a new instance.
+     * @param pyramidFile The pyramid being generated.
+     */
+    public PyramidCheckpoint(File pyramidFile)
+    {
+        file = new File(pyramidFile.getParentFile(),
+                "." + pyramidFile.getName() + CHECKPOINT_SUFFIX);
+    }
+
+    /**
+     * Loads the checkpoint, if any.
+     * @return <code>true</code> if a readable checkpoint exists,
+     * <code>false</code> otherwise.
+     */
+    public boolean load()
+    {
+        if (!file.exists())
+        {
+            return false;
+        }
+        InputStream in = null;
+        try
+        {
+            in = new FileInputStream(file);
+            Properties p = new Properties();
+            p.load(in);
+            planeCount = Integer.parseInt(p.getProperty("planes"));
+            length = Long.parseLong(p.getProperty("length"));
+            tileWidth = Integer.parseInt(p.getProperty("tileWidth"));
+            tileHeight = Integer.parseInt(p.getProperty("tileHeight"));
+            minMax = null;
+            String channels = p.getProperty("channels");
+            if (channels != null)
+            {
+                minMax = new double[Integer.parseInt(channels)][2];
+                for (int c = 0; c < minMax.length; c++)
+                {
+                    minMax[c][0] = Double.parseDouble(p.getProperty("min." + c));
+                    minMax[c][1] = Double.parseDouble(p.getProperty("max." + c));
+                }
+            }
+            return true;
+        }
+        catch (Exception e)
+        {
+            log.warn("Ignoring unreadable pyramid checkpoint: " + file, e);
+            return false;
+        }
+        finally
+        {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Saves the checkpoint, replacing the previous one.
+     * @param planeCount The number of planes fully written.
+     * @param length The length of the partially written pyramid.
+     * @param tileWidth The tile width used.
+     * @param tileHeight The tile height used.
+     * @param minMax The minimum and maximum of each channel found so far or
+     * <code>null</code> if they are not being computed.
+     * @throws IOException If the checkpoint cannot be written.
+     */
+    public void save(int planeCount, long length, int tileWidth,
+            int tileHeight, double[][] minMax) throws IOException
+    {
+        Properties p = new Properties();
+        p.setProperty("planes", Integer.toString(planeCount));
+        p.setProperty("length", Long.toString(length));
+        p.setProperty("tileWidth", Integer.toString(tileWidth));
+        p.setProperty("tileHeight", Integer.toString(tileHeight));
+        if (minMax != null)
+        {
+            p.setProperty("channels", Integer.toString(minMax.length));
+            for (int c = 0; c < minMax.length; c++)
+            {
+                p.setProperty("min." + c, Double.toString(minMax[c][0]));
+                p.setProperty("max." + c, Double.toString(minMax[c][1]));
+            }
+        }
+        // Written aside and moved so that a crash never leaves a truncated
+        // checkpoint behind.
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        OutputStream out = new FileOutputStream(tmp);
+        try
+        {
+            p.store(out, null);
+        }
+        finally
+        {
+            out.close();
+        }
+        if (!tmp.renameTo(file))
+        {
+            FileUtils.deleteQuietly(file);
+            FileUtils.moveFile(tmp, file);
+        }
+        this.planeCount = planeCount;
+        this.length = length;
+        this.tileWidth = tileWidth;
+        this.tileHeight = tileHeight;
+        this.minMax = minMax;
+    }
+
+    /**
+     * Deletes the checkpoint once the pyramid has been completed or
+     * abandoned.
+     */
+    public void delete()
+    {
+        FileUtils.deleteQuietly(file);
+    }
+
+    /**
+     * Returns the number of planes fully written.
+     * @return See above.
+     */
+    public int getPlaneCount() { return planeCount; }
+
+    /**
+     * Returns the length of the partially written pyramid.
+     * @return See above.
+     */
+    public long getLength() { return length; }
+
+    /**
+     * Returns the tile width used.
+     * @return See above.
+     */
+    public int getTileWidth() { return tileWidth; }
+
+    /**
+     * Returns the tile height used.
+     * @return See above.
+     */
+    public int getTileHeight() { return tileHeight; }
+
+    /**
+     * Returns the minimum and maximum of each channel found so far.
+     * @return See above. <code>null</code> if they were not computed.
+     */
+    public double[][] getMinMax() { return minMax; }
+}
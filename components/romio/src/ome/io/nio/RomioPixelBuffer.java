@@ -80,6 +80,15 @@ public class RomioPixelBuffer extends AbstractBuffer implements PixelBuffer {
      */
     private final boolean permitModification;
 
+    /** Cache of the mappings of read-only pixels files, may be null. */
+    private final MappedPixelsCache mappedPixelsCache;
+
+    /** The mapping of the whole pixels file, if acquired. */
+    private MappedPixelsCache.Mapping mapping;
+
+    /** Whether the mapping was already looked for. */
+    private boolean mappingAcquired;
+
     /**
      * Creates a new instance. {@link #permitModification} defaults to false.
      * 
@@ -97,6 +106,20 @@ public class RomioPixelBuffer extends AbstractBuffer implements PixelBuffer {
      * @param pixels The pixels object to handle.
      */
     public RomioPixelBuffer(String path, Pixels pixels, boolean permitModification) {
+        this(path, pixels, permitModification, null);
+    }
+
+    /**
+     * Creates a new instance, with manual setting of {@link #permitModification}.
+     * If read-only, regions are served as slices of the mapping of the whole
+     * file held by the given cache whenever the file can be mapped.
+     *
+     * @param path The path to the file.
+     * @param pixels The pixels object to handle.
+     * @param mappedPixelsCache The cache of mappings, may be <code>null</code>.
+     */
+    public RomioPixelBuffer(String path, Pixels pixels,
+            boolean permitModification, MappedPixelsCache mappedPixelsCache) {
         super(path);
         if (pixels == null) {
             throw new NullPointerException(
@@ -104,6 +127,7 @@ public class RomioPixelBuffer extends AbstractBuffer implements PixelBuffer {
         }
         this.pixels = pixels;
         this.permitModification = permitModification;
+        this.mappedPixelsCache = permitModification ? null : mappedPixelsCache;
     }
 
     private void throwIfReadOnly() {
@@ -171,6 +195,19 @@ public class RomioPixelBuffer extends AbstractBuffer implements PixelBuffer {
         return channel;
     }
 
+    /**
+     * Acquires the cached mapping of the whole file on first use.
+     * @return See above. <code>null</code> if the file is not to be mapped.
+     */
+    private synchronized MappedPixelsCache.Mapping getMapping()
+            throws IOException {
+        if (!mappingAcquired) {
+            mappingAcquired = true;
+            mapping = mappedPixelsCache.acquire(getPath());
+        }
+        return mapping;
+    }
+
     /**
      * Closes the buffer, cleaning up file state.
      * 
@@ -178,6 +215,14 @@ public class RomioPixelBuffer extends AbstractBuffer implements PixelBuffer {
      *             if an I/O error occurs.
      */
     public void close() throws IOException {
+        synchronized (this) {
+            if (mapping != null) {
+                mappedPixelsCache.release(mapping);
+                mapping = null;
+            }
+            mappingAcquired = false;
+        }
+
         if (channel != null) {
             try {
                 channel.close();
@@ -335,6 +380,13 @@ public class RomioPixelBuffer extends AbstractBuffer implements PixelBuffer {
 	 */
     public PixelData getRegion(Integer size, Long offset)
             throws IOException {
+        if (mappedPixelsCache != null) {
+            final MappedPixelsCache.Mapping m = getMapping();
+            if (m != null && m.contains(offset, size)) {
+                return new PixelData(pixels.getPixelsType().getValue(),
+                        m.slice(offset, size));
+            }
+        }
         FileChannel fileChannel = getFileChannel();
 
         /*
@@ -876,7 +928,25 @@ public class RomioPixelBuffer extends AbstractBuffer implements PixelBuffer {
     public PixelData getTile(Integer z, Integer c, Integer t, Integer x,
             Integer y, Integer w, Integer h) throws IOException
     {
-        return getPlaneRegion(x, y, w, h, z, c, t, 0);
+        checkBounds(x, y, z, c, t);
+        checkBounds(x + w - 1, y + h - 1, null, null, null);
+        // Only the rows spanned by the tile are read, not the whole plane.
+        Integer rowSize = getRowSize();
+        PixelData rows = getRegion(rowSize * h, getRowOffset(y, z, c, t));
+        // Even full-width tiles are copied: the rows may be a read-only
+        // mapping and callers expect a heap buffer that they may keep.
+        int byteWidth = getByteWidth();
+        int tileRowSize = w * byteWidth;
+        byte[] tile = new byte[tileRowSize * h];
+        ByteBuffer b = rows.getData();
+        for (int i = 0; i < h; i++)
+        {
+            b.position(i * rowSize + x * byteWidth);
+            b.get(tile, i * tileRowSize, tileRowSize);
+        }
+        rows.dispose();
+        return new PixelData(pixels.getPixelsType().getValue(),
+                ByteBuffer.wrap(tile));
     }
 
     /* (non-Javadoc)
@@ -0,0 +1,108 @@
+/*
+ *   Copyright 2018 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.io.nio.utests;
+
+import loci.formats.IFormatReader;
+import loci.formats.in.FakeReader;
+import ome.io.bioformats.BfReaderPool;
+import ome.system.metrics.NullMetrics;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Checks the leasing and eviction of initialized readers by
+ * {@link BfReaderPool}.
+ * @since 5.4.7
+ */
+public class BfReaderPoolUnitTest
+{
+    private static final String A = "a&series=2.fake";
+
+    private static final String B = "b&series=2.fake";
+
+    private static final BfReaderPool.ReaderFactory FACTORY =
+        new BfReaderPool.ReaderFactory() {
+            public IFormatReader createReader()
+            {
+                return new FakeReader();
+            }
+        };
+
+    private BfReaderPool pool;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        pool = new BfReaderPool(2, 0, new NullMetrics());
+    }
+
+    @AfterMethod
+    public void tearDown()
+    {
+        pool.close();
+    }
+
+    @Test
+    public void testBorrowOpensReader() throws Exception
+    {
+        IFormatReader reader = pool.borrow(A, 1, FACTORY);
+        Assert.assertEquals(reader.getCurrentFile(), A);
+        Assert.assertEquals(reader.getSeries(), 1);
+    }
+
+    @Test
+    public void testReleasedReaderIsReused() throws Exception
+    {
+        IFormatReader reader = pool.borrow(A, 1, FACTORY);
+        pool.release(A, 1, reader);
+        Assert.assertSame(pool.borrow(A, 1, FACTORY), reader);
+        Assert.assertNotSame(pool.borrow(A, 1, FACTORY), reader);
+    }
+
+    @Test
+    public void testReleaseResetsSeries() throws Exception
+    {
+        IFormatReader reader = pool.borrow(A, 1, FACTORY);
+        reader.setSeries(0);
+        pool.release(A, 1, reader);
+        Assert.assertEquals(pool.borrow(A, 1, FACTORY).getSeries(), 1);
+    }
+
+    @Test
+    public void testReadersAreKeyedBySeriesAndPath() throws Exception
+    {
+        IFormatReader reader = pool.borrow(A, 1, FACTORY);
+        pool.release(A, 1, reader);
+        Assert.assertNotSame(pool.borrow(A, 0, FACTORY), reader);
+        Assert.assertNotSame(pool.borrow(B, 1, FACTORY), reader);
+        Assert.assertSame(pool.borrow(A, 1, FACTORY), reader);
+    }
+
+    @Test
+    public void testLeastRecentlyReleasedIsEvicted() throws Exception
+    {
+        IFormatReader first = pool.borrow(A, 0, FACTORY);
+        IFormatReader second = pool.borrow(A, 1, FACTORY);
+        IFormatReader third = pool.borrow(B, 0, FACTORY);
+        pool.release(A, 0, first);
+        pool.release(A, 1, second);
+        pool.release(B, 0, third);
+        Assert.assertNull(first.getCurrentFile());
+        Assert.assertSame(pool.borrow(A, 1, FACTORY), second);
+        Assert.assertSame(pool.borrow(B, 0, FACTORY), third);
+    }
+
+    @Test
+    public void testClosedPoolClosesReleasedReaders() throws Exception
+    {
+        IFormatReader reader = pool.borrow(A, 1, FACTORY);
+        pool.close();
+        pool.release(A, 1, reader);
+        Assert.assertNull(reader.getCurrentFile());
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ *   Copyright 2018 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.io.nio.utests;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import ome.io.nio.MappedPixelsCache;
+import ome.util.PixelData;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the sharing and release of mappings by {@link MappedPixelsCache}.
+ * @since 5.4.7
+ */
+public class MappedPixelsCacheUnitTest {
+
+    private File root;
+
+    @BeforeMethod
+    public void setup() {
+        root = new File(PathUtil.getInstance().getTemporaryDataFilePath());
+        root.mkdirs();
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(root);
+    }
+
+    private String createFile(String name, int size) throws IOException {
+        final byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) i;
+        }
+        final File file = new File(root, name);
+        FileUtils.writeByteArrayToFile(file, data);
+        return file.getAbsolutePath();
+    }
+
+    @Test
+    public void testDisabled() throws IOException {
+        final String path = createFile("1", 64);
+        final MappedPixelsCache cache = new MappedPixelsCache(0);
+        Assert.assertFalse(cache.isEnabled());
+        Assert.assertNull(cache.acquire(path));
+    }
+
+    @Test
+    public void testSharedMapping() throws IOException {
+        final String path = createFile("1", 64);
+        final MappedPixelsCache cache = new MappedPixelsCache(1024);
+        final MappedPixelsCache.Mapping first = cache.acquire(path);
+        final MappedPixelsCache.Mapping second = cache.acquire(path);
+        Assert.assertSame(second, first);
+        Assert.assertEquals(cache.getMappedBytes(), 64);
+        cache.release(first);
+        cache.release(second);
+        Assert.assertEquals(cache.getMappedBytes(), 64);
+    }
+
+    @Test
+    public void testSlice() throws IOException {
+        final String path = createFile("1", 64);
+        final MappedPixelsCache cache = new MappedPixelsCache(1024);
+        final MappedPixelsCache.Mapping mapping = cache.acquire(path);
+        Assert.assertTrue(mapping.contains(16, 48));
+        Assert.assertFalse(mapping.contains(16, 49));
+        final ByteBuffer slice = mapping.slice(16, 8);
+        Assert.assertEquals(slice.remaining(), 8);
+        for (int i = 0; i < 8; i++) {
+            Assert.assertEquals(slice.get(i), (byte) (16 + i));
+        }
+        cache.release(mapping);
+    }
+
+    @Test
+    public void testEvictsUnreferenced() throws IOException {
+        final String one = createFile("1", 64);
+        final String two = createFile("2", 64);
+        final MappedPixelsCache cache = new MappedPixelsCache(100);
+        final MappedPixelsCache.Mapping first = cache.acquire(one);
+        final MappedPixelsCache.Mapping second = cache.acquire(two);
+        /* the first mapping is still in use */
+        Assert.assertEquals(cache.getMappedBytes(), 128);
+        cache.release(first);
+        Assert.assertEquals(cache.getMappedBytes(), 64);
+        Assert.assertNotSame(cache.acquire(one), first);
+        cache.release(second);
+    }
+
+    @Test
+    public void testChangedFileIsRemapped() throws IOException {
+        final String path = createFile("1", 64);
+        final MappedPixelsCache cache = new MappedPixelsCache(1024);
+        final MappedPixelsCache.Mapping first = cache.acquire(path);
+        createFile("1", 32);
+        final MappedPixelsCache.Mapping second = cache.acquire(path);
+        Assert.assertNotSame(second, first);
+        Assert.assertFalse(second.contains(0, 64));
+        cache.release(first);
+        Assert.assertEquals(cache.getMappedBytes(), 32);
+        cache.release(second);
+    }
+
+    @Test
+    public void testSliceOutlivesReleaseAndEviction() throws IOException {
+        final String one = createFile("1", 64);
+        final String two = createFile("2", 64);
+        final MappedPixelsCache cache = new MappedPixelsCache(100);
+        final MappedPixelsCache.Mapping first = cache.acquire(one);
+        final ByteBuffer slice = first.slice(32, 16);
+        cache.release(first);
+        /* mapping the second file evicts the first */
+        final MappedPixelsCache.Mapping second = cache.acquire(two);
+        Assert.assertEquals(cache.getMappedBytes(), 64);
+        cache.release(second);
+        final MappedPixelsCache.Mapping third = cache.acquire(one);
+        Assert.assertNotSame(third, first);
+        cache.release(third);
+        /* neither the cache nor disposing the slice may unmap it */
+        new PixelData("uint8", slice).dispose();
+        for (int i = 0; i < 16; i++) {
+            Assert.assertEquals(slice.get(i), (byte) (32 + i));
+        }
+    }
+
+    @Test
+    public void testInvalidate() throws IOException {
+        final String path = createFile("1", 64);
+        final MappedPixelsCache cache = new MappedPixelsCache(1024);
+        cache.release(cache.acquire(path));
+        cache.invalidate(path);
+        Assert.assertEquals(cache.getMappedBytes(), 0);
+    }
+
+}
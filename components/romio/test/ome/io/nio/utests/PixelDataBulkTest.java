@@ -0,0 +1,128 @@
+/*
+ *   Copyright 2018 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.io.nio.utests;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import ome.util.PixelData;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Checks that the bulk accessors of {@link PixelData} give the same values as
+ * {@link PixelData#getPixelValue(int)}.
+ * @since 5.4.7
+ */
+public class PixelDataBulkTest
+{
+    private static final int COUNT = 100;
+
+    private static final int OFFSET = 7;
+
+    private static final int START = 3;
+
+    @DataProvider(name = "types")
+    public Object[][] types()
+    {
+        return new Object[][] {
+            {"bit"}, {"int8"}, {"uint8"}, {"int16"}, {"uint16"},
+            {"int32"}, {"uint32"}, {"float"}, {"double"}
+        };
+    }
+
+    private PixelData data(String type)
+    {
+        final byte[] bytes = new byte[
+                (OFFSET + COUNT) * PixelData.getBitDepth(type) / 8 + 1];
+        new Random(type.hashCode()).nextBytes(bytes);
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (type.equals("float")) {
+            for (int i = 0; i + 4 <= bytes.length; i += 4) {
+                buffer.putFloat(i, (i - 100) / 3f);
+            }
+        } else if (type.equals("double")) {
+            for (int i = 0; i + 8 <= bytes.length; i += 8) {
+                buffer.putDouble(i, (i - 100) / 3.0);
+            }
+        }
+        return new PixelData(type, buffer);
+    }
+
+    @Test(dataProvider = "types")
+    public void testDoubleValues(String type)
+    {
+        final PixelData data = data(type);
+        final double[] values = new double[START + COUNT];
+        data.getPixelValues(OFFSET, values, START, COUNT);
+        for (int i = 0; i < COUNT; i++) {
+            Assert.assertEquals(values[START + i],
+                    data.getPixelValue(OFFSET + i), 0.0);
+        }
+    }
+
+    @Test(dataProvider = "types")
+    public void testFloatValues(String type)
+    {
+        final PixelData data = data(type);
+        final float[] values = new float[START + COUNT];
+        data.getPixelValues(OFFSET, values, START, COUNT);
+        for (int i = 0; i < COUNT; i++) {
+            Assert.assertEquals(values[START + i],
+                    (float) data.getPixelValue(OFFSET + i), 0.0f);
+        }
+    }
+
+    @Test(dataProvider = "types")
+    public void testIntValues(String type)
+    {
+        final PixelData data = data(type);
+        final int[] values = new int[START + COUNT];
+        if (data.isFloat()) {
+            try {
+                data.getPixelValues(OFFSET, values, START, COUNT);
+                Assert.fail("floating point values must not be copied to int");
+            } catch (IllegalStateException ise) {
+                return;
+            }
+        }
+        data.getPixelValues(OFFSET, values, START, COUNT);
+        for (int i = 0; i < COUNT; i++) {
+            final double expected = data.getPixelValue(OFFSET + i);
+            if (type.equals("uint32")) {
+                Assert.assertEquals(values[START + i] & 0xFFFFFFFFL,
+                        (long) expected);
+            } else {
+                Assert.assertEquals(values[START + i], (int) expected);
+            }
+        }
+    }
+
+    @Test(dataProvider = "types")
+    public void testShortValues(String type)
+    {
+        final PixelData data = data(type);
+        final short[] values = new short[START + COUNT];
+        if (data.bytesPerPixel() > 2 || data.isFloat()) {
+            try {
+                data.getPixelValues(OFFSET, values, START, COUNT);
+                Assert.fail("wide values must not be copied to short");
+            } catch (IllegalStateException ise) {
+                return;
+            }
+        }
+        data.getPixelValues(OFFSET, values, START, COUNT);
+        for (int i = 0; i < COUNT; i++) {
+            final double expected = data.getPixelValue(OFFSET + i);
+            if (type.equals("uint16")) {
+                Assert.assertEquals(values[START + i] & 0xFFFF, (int) expected);
+            } else {
+                Assert.assertEquals(values[START + i], (short) expected);
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ *   Copyright 2018 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.io.nio.utests;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+
+import ome.io.nio.PixelBuffer;
+import ome.io.nio.PlaneDecimator;
+import ome.io.nio.RomioPixelBuffer;
+import ome.model.core.Pixels;
+import ome.model.enums.PixelsType;
+import ome.util.PixelData;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Checks that {@link PlaneDecimator} averages blocks of pixels, including
+ * the partial blocks at the right and bottom edges.
+ * @since 5.4.7
+ */
+public class PlaneDecimatorTest
+{
+    private static final int SIZE_X = 5;
+
+    private static final int SIZE_Y = 3;
+
+    private static final int SIZE_C = 2;
+
+    private PixelBuffer buffer(String type, File file) throws Exception
+    {
+        final Pixels pixels = new Pixels();
+        pixels.setSizeX(SIZE_X);
+        pixels.setSizeY(SIZE_Y);
+        pixels.setSizeZ(1);
+        pixels.setSizeC(SIZE_C);
+        pixels.setSizeT(1);
+        final PixelsType pixelsType = new PixelsType();
+        pixelsType.setValue(type);
+        pixels.setPixelsType(pixelsType);
+        final int count = SIZE_X * SIZE_Y * SIZE_C;
+        final PixelData data = new PixelData(type, ByteBuffer.allocate(
+                count * PixelData.getBitDepth(type) / 8));
+        for (int i = 0; i < count; i++) {
+            data.setPixelValue(i, i);
+        }
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data.getData().array());
+        } finally {
+            out.close();
+        }
+        return new RomioPixelBuffer(file.getPath(), pixels);
+    }
+
+    /**
+     * @return the average of the values of the given block of channel 1
+     */
+    private static double average(int x0, int y0, int w, int h)
+    {
+        double sum = 0;
+        for (int y = y0; y < y0 + h; y++) {
+            for (int x = x0; x < x0 + w; x++) {
+                sum += SIZE_X * SIZE_Y + y * SIZE_X + x;
+            }
+        }
+        return sum / (w * h);
+    }
+
+    private void assertDecimated(String type, double delta) throws Exception
+    {
+        final File file = File.createTempFile("decimator", ".pixels");
+        final PixelBuffer source = buffer(type, file);
+        try {
+            final Pixels pixels = new Pixels();
+            final PixelsType pixelsType = new PixelsType();
+            pixelsType.setValue(type);
+            pixels.setPixelsType(pixelsType);
+            final PlaneDecimator decimator =
+                    new PlaneDecimator(source, pixels, 2);
+            Assert.assertEquals(decimator.getSizeX(), 3);
+            Assert.assertEquals(decimator.getSizeY(), 2);
+            final PixelBuffer decimated =
+                    decimator.decimate(0, 0, new boolean[] {false, true});
+            Assert.assertEquals(decimated.getSizeX(), 3);
+            Assert.assertEquals(decimated.getSizeY(), 2);
+            final PixelData plane = decimated.getPlane(0, 1, 0);
+            for (int y = 0; y < 2; y++) {
+                for (int x = 0; x < 3; x++) {
+                    final int w = Math.min(2, SIZE_X - 2 * x);
+                    final int h = Math.min(2, SIZE_Y - 2 * y);
+                    Assert.assertEquals(plane.getPixelValue(y * 3 + x),
+                            average(2 * x, 2 * y, w, h), delta);
+                }
+            }
+        } finally {
+            source.close();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testUint8()
+            throws Exception
+    {
+        assertDecimated("uint8", 0.5);
+    }
+
+    @Test
+    public void testUint16()
+            throws Exception
+    {
+        assertDecimated("uint16", 0.5);
+    }
+
+    @Test
+    public void testFloat()
+            throws Exception
+    {
+        assertDecimated("float", 1e-5);
+    }
+
+    @Test
+    public void testFactor()
+    {
+        Assert.assertEquals(PlaneDecimator.factor(1024, 512, 96, 96), 5);
+        Assert.assertEquals(PlaneDecimator.factor(50, 50, 96, 96), 1);
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ *   Copyright 2018 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.io.nio.utests;
+
+import java.io.File;
+import java.io.IOException;
+
+import ome.io.nio.PyramidCheckpoint;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the persistence of {@link PyramidCheckpoint} instances.
+ * @since 5.4.7
+ */
+public class PyramidCheckpointUnitTest {
+
+    private File root;
+
+    private File pyramid;
+
+    @BeforeMethod
+    public void setup() {
+        root = new File(PathUtil.getInstance().getTemporaryDataFilePath());
+        root.mkdirs();
+        pyramid = new File(root, "1_pyramid");
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(root);
+    }
+
+    @Test
+    public void testNoCheckpoint() {
+        Assert.assertFalse(new PyramidCheckpoint(pyramid).load());
+    }
+
+    @Test
+    public void testSaveAndLoad() throws IOException {
+        double[][] minMax = new double[][] {
+                { 0, 255 },
+                { Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY } };
+        new PyramidCheckpoint(pyramid).save(3, 12345L, 256, 512, minMax);
+        Assert.assertFalse(pyramid.exists());
+
+        PyramidCheckpoint checkpoint = new PyramidCheckpoint(pyramid);
+        Assert.assertTrue(checkpoint.load());
+        Assert.assertEquals(checkpoint.getPlaneCount(), 3);
+        Assert.assertEquals(checkpoint.getLength(), 12345L);
+        Assert.assertEquals(checkpoint.getTileWidth(), 256);
+        Assert.assertEquals(checkpoint.getTileHeight(), 512);
+        Assert.assertEquals(checkpoint.getMinMax()[0], minMax[0]);
+        Assert.assertEquals(checkpoint.getMinMax()[1], minMax[1]);
+    }
+
+    @Test
+    public void testSaveWithoutMinMax() throws IOException {
+        new PyramidCheckpoint(pyramid).save(1, 10L, 256, 256, null);
+        PyramidCheckpoint checkpoint = new PyramidCheckpoint(pyramid);
+        Assert.assertTrue(checkpoint.load());
+        Assert.assertNull(checkpoint.getMinMax());
+    }
+
+    @Test
+    public void testDelete() throws IOException {
+        PyramidCheckpoint checkpoint = new PyramidCheckpoint(pyramid);
+        checkpoint.save(1, 10L, 256, 256, null);
+        checkpoint.delete();
+        Assert.assertFalse(new PyramidCheckpoint(pyramid).load());
+    }
+
+}
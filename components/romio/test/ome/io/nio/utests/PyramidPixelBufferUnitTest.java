@@ -9,7 +9,12 @@ package ome.io.nio.utests;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import ome.conditions.ApiUsageException;
 import ome.io.bioformats.BfPyramidPixelBuffer;
 import ome.io.nio.TileLoopIteration;
 import ome.io.nio.Utils;
@@ -135,4 +140,82 @@ public class PyramidPixelBufferUnitTest extends AbstractPyramidPixelBufferUnitTe
         Assert.assertEquals(tileCount, 192);
     }
 
+    @Test(dependsOnMethods={"testPyramidWriteTiles"}, enabled=true)
+    public void testPyramidConcurrentReadTiles() throws Exception {
+        final BfPyramidPixelBuffer pyramid =
+                (BfPyramidPixelBuffer) pixelBuffer;
+        pyramid.setMaxReaders(4);
+        pyramid.setResolutionLevel(pyramid.getResolutionLevels() - 1);
+        final int tileSize = tileWidth * tileHeight * bytesPerPixel;
+        final byte[] expected = pyramid.getTileDirect(
+                0, 1, 0, tileWidth, 0, tileWidth, tileHeight,
+                new byte[tileSize]);
+        ExecutorService threads = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<byte[]>> reads = new ArrayList<Future<byte[]>>();
+            for (int i = 0; i < 16; i++) {
+                reads.add(threads.submit(new Callable<byte[]>() {
+                    public byte[] call() throws Exception {
+                        return pyramid.getTileDirect(
+                                0, 1, 0, tileWidth, 0, tileWidth, tileHeight,
+                                new byte[tileSize]);
+                    }
+                }));
+            }
+            for (Future<byte[]> read : reads) {
+                Assert.assertEquals(read.get(), expected);
+            }
+        } finally {
+            threads.shutdown();
+        }
+        Assert.assertEquals(pyramid.getSizeX(), sizeX);
+        Assert.assertEquals(pyramid.getSizeY(), sizeY);
+    }
+
+    @Test(dependsOnMethods={"testPyramidConcurrentReadTiles"}, enabled=true)
+    public void testPyramidCloseDuringConcurrentReads() throws Exception {
+        final BfPyramidPixelBuffer pyramid =
+                (BfPyramidPixelBuffer) pixelBuffer;
+        pyramid.setMaxReaders(4);
+        final int tileSize = tileWidth * tileHeight * bytesPerPixel;
+        final byte[] expected = pyramid.getTileDirect(
+                0, 1, 0, tileWidth, 0, tileWidth, tileHeight,
+                new byte[tileSize]);
+        ExecutorService threads = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Integer>> reads = new ArrayList<Future<Integer>>();
+            for (int i = 0; i < 4; i++) {
+                reads.add(threads.submit(new Callable<Integer>() {
+                    public Integer call() throws Exception {
+                        // Reads either complete or find the buffer closed;
+                        // readers are never closed while in use.
+                        int closedCount = 0;
+                        for (int j = 0; j < 50; j++) {
+                            try {
+                                Assert.assertEquals(pyramid.getTileDirect(
+                                        0, 1, 0, tileWidth, 0, tileWidth,
+                                        tileHeight, new byte[tileSize]),
+                                        expected);
+                            } catch (ApiUsageException e) {
+                                closedCount++;
+                            }
+                        }
+                        return closedCount;
+                    }
+                }));
+            }
+            Thread.sleep(50);
+            pyramid.close();
+            for (Future<Integer> read : reads) {
+                read.get();
+            }
+        } finally {
+            threads.shutdown();
+        }
+        // The buffer reopens its readers on the next read.
+        Assert.assertEquals(pyramid.getTileDirect(
+                0, 1, 0, tileWidth, 0, tileWidth, tileHeight,
+                new byte[tileSize]), expected);
+    }
+
 }
@@ -0,0 +1,218 @@
+/*
+ *   Copyright 2018 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.io.nio.utests;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import ome.io.bioformats.BfPyramidPixelBuffer;
+import ome.model.core.Pixels;
+import ome.model.enums.PixelsType;
+import ome.util.PixelData;
+import ome.util.checksum.ChecksumProviderFactory;
+import ome.util.checksum.ChecksumProviderFactoryImpl;
+import ome.util.checksum.ChecksumType;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that a pyramid write interrupted after a checkpoint and resumed
+ * from it produces the same pyramid as a write that was not interrupted,
+ * and that partially written files which are not resumed are discarded.
+ * @since 5.4.7
+ */
+public class PyramidResumeUnitTest {
+
+    private static final int SIZE_X = 1000;
+
+    private static final int SIZE_Y = 1010;
+
+    private static final int SIZE_T = 3;
+
+    private static final int TILE_SIZE = 256;
+
+    private static final ChecksumProviderFactory CHECKSUMS =
+            new ChecksumProviderFactoryImpl();
+
+    private File root;
+
+    private Pixels pixels;
+
+    @BeforeMethod
+    public void setup() {
+        root = new File(PathUtil.getInstance().getTemporaryDataFilePath());
+        root.mkdirs();
+        pixels = new Pixels();
+        pixels.setId(1L);
+        pixels.setSizeX(SIZE_X);
+        pixels.setSizeY(SIZE_Y);
+        pixels.setSizeZ(1);
+        pixels.setSizeC(1);
+        pixels.setSizeT(SIZE_T);
+        PixelsType type = new PixelsType();
+        type.setValue("uint16");
+        pixels.setPixelsType(type);
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(root);
+    }
+
+    /**
+     * @param pyramid a pyramid file
+     * @return the file to which the pyramid is written until it is complete
+     */
+    private static File partialFile(File pyramid) {
+        return new File(pyramid.getParentFile(), "." + pyramid.getName() + ".tmp");
+    }
+
+    /**
+     * Sets tiles of the given planes, each holding its plane and tile
+     * number.
+     * @param buffer the pyramid to write
+     * @param fromPlane the first plane to write
+     * @param toPlane the plane after the last to write
+     * @param tileLimit the most tiles of the last plane to write
+     */
+    private static void writePlanes(BfPyramidPixelBuffer buffer, int fromPlane,
+            int toPlane, int tileLimit) throws IOException {
+        for (int t = fromPlane; t < toPlane; t++) {
+            int tileCount = 0;
+            for (int y = 0; y < SIZE_Y; y += TILE_SIZE) {
+                for (int x = 0; x < SIZE_X; x += TILE_SIZE) {
+                    if (t == toPlane - 1 && tileCount == tileLimit) {
+                        return;
+                    }
+                    final int w = Math.min(TILE_SIZE, SIZE_X - x);
+                    final int h = Math.min(TILE_SIZE, SIZE_Y - y);
+                    final byte[] tile = new byte[w * h * 2];
+                    ByteBuffer.wrap(tile).asShortBuffer()
+                            .put(0, (short) t).put(1, (short) tileCount);
+                    buffer.setTile(tile, 0, 0, t, x, y, w, h);
+                    tileCount++;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param pyramid a complete pyramid file
+     * @return the digests of the pyramid's full-resolution tiles, in order
+     */
+    private List<String> readTiles(File pyramid) throws Exception {
+        final List<String> digests = new ArrayList<String>();
+        final BfPyramidPixelBuffer buffer =
+                new BfPyramidPixelBuffer(pixels, pyramid.getPath(), false);
+        try {
+            for (int t = 0; t < SIZE_T; t++) {
+                for (int y = 0; y < SIZE_Y; y += TILE_SIZE) {
+                    for (int x = 0; x < SIZE_X; x += TILE_SIZE) {
+                        final PixelData tile = buffer.getTile(0, 0, t, x, y,
+                                Math.min(TILE_SIZE, SIZE_X - x),
+                                Math.min(TILE_SIZE, SIZE_Y - y));
+                        try {
+                            digests.add(CHECKSUMS.getProvider(ChecksumType.MD5)
+                                    .putBytes(tile.getData()).checksumAsString());
+                        } finally {
+                            tile.dispose();
+                        }
+                    }
+                }
+            }
+        } finally {
+            buffer.close();
+        }
+        return digests;
+    }
+
+    @Test
+    public void testResumedWriteMatchesUninterrupted() throws Exception {
+        /* write a pyramid without interruption */
+        final File whole = new File(root, "whole_pyramid");
+        BfPyramidPixelBuffer buffer =
+                new BfPyramidPixelBuffer(pixels, whole.getPath(), true);
+        writePlanes(buffer, 0, SIZE_T, Integer.MAX_VALUE);
+        buffer.close();
+
+        /* write the first plane and part of the next then take a copy of
+         * the partial file as a stopped server would leave it */
+        final File resumed = new File(root, "resumed_pyramid");
+        final File partial = partialFile(resumed);
+        final File stopped = new File(root, "stopped");
+        buffer = new BfPyramidPixelBuffer(pixels, resumed.getPath(), true);
+        writePlanes(buffer, 0, 1, Integer.MAX_VALUE);
+        final long length = buffer.checkpoint();
+        writePlanes(buffer, 1, 2, 5);
+        FileUtils.copyFile(partial, stopped);
+        try {
+            buffer.close();
+        } catch (IOException e) {
+            // the incomplete pyramid is discarded below
+        }
+        FileUtils.deleteQuietly(resumed);
+        FileUtils.moveFile(stopped, partial);
+
+        /* resume the write from the checkpoint */
+        buffer = new BfPyramidPixelBuffer(pixels, resumed.getPath(), true);
+        Assert.assertTrue(buffer.resume(1, length, TILE_SIZE, TILE_SIZE));
+        writePlanes(buffer, 1, SIZE_T, Integer.MAX_VALUE);
+        buffer.close();
+        Assert.assertFalse(partial.exists());
+
+        Assert.assertEquals(readTiles(resumed), readTiles(whole));
+    }
+
+    @Test
+    public void testRejectedCheckpointDiscardsPartialFile() throws Exception {
+        final File pyramid = new File(root, "pyramid");
+        final File partial = partialFile(pyramid);
+        FileUtils.writeByteArrayToFile(partial, new byte[16]);
+        final BfPyramidPixelBuffer buffer =
+                new BfPyramidPixelBuffer(pixels, pyramid.getPath(), true);
+        try {
+            /* the partial file is shorter than the checkpoint claims */
+            Assert.assertFalse(buffer.resume(1, 1024, TILE_SIZE, TILE_SIZE));
+            Assert.assertFalse(partial.exists());
+        } finally {
+            buffer.close();
+        }
+    }
+
+    @Test
+    public void testDiscardInterruptedWrite() throws Exception {
+        final File pyramid = new File(root, "pyramid");
+        final File partial = partialFile(pyramid);
+        FileUtils.writeByteArrayToFile(partial, new byte[16]);
+        final BfPyramidPixelBuffer buffer =
+                new BfPyramidPixelBuffer(pixels, pyramid.getPath(), true);
+        try {
+            buffer.discardInterruptedWrite();
+            Assert.assertFalse(partial.exists());
+        } finally {
+            buffer.close();
+        }
+    }
+
+    @Test
+    public void testCompletePyramidDiscardsPartialFile() throws Exception {
+        final File pyramid = new File(root, "pyramid");
+        final BfPyramidPixelBuffer buffer =
+                new BfPyramidPixelBuffer(pixels, pyramid.getPath(), true);
+        writePlanes(buffer, 0, SIZE_T, Integer.MAX_VALUE);
+        buffer.close();
+        final File partial = partialFile(pyramid);
+        FileUtils.writeByteArrayToFile(partial, new byte[16]);
+        readTiles(pyramid);
+        Assert.assertFalse(partial.exists());
+    }
+}
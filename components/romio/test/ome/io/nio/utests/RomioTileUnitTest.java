@@ -0,0 +1,113 @@
+/*
+ *   Copyright 2018 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package ome.io.nio.utests;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import ome.io.nio.MappedPixelsCache;
+import ome.io.nio.RomioPixelBuffer;
+import ome.model.core.Pixels;
+import ome.model.enums.PixelsType;
+import ome.util.PixelData;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that the tiles read from a {@link RomioPixelBuffer} are heap copies of
+ * the rows they span, whether or not the pixels file is mapped.
+ * @since 5.4.7
+ */
+public class RomioTileUnitTest {
+
+    private static final int SIZE_X = 16;
+
+    private static final int SIZE_Y = 8;
+
+    private File root;
+
+    private String path;
+
+    private Pixels pixels;
+
+    @BeforeMethod
+    public void setup() throws IOException {
+        root = new File(PathUtil.getInstance().getTemporaryDataFilePath());
+        root.mkdirs();
+        final byte[] data = new byte[SIZE_X * SIZE_Y];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        final File file = new File(root, "1");
+        FileUtils.writeByteArrayToFile(file, data);
+        path = file.getAbsolutePath();
+
+        pixels = new Pixels();
+        pixels.setId(1L);
+        pixels.setSizeX(SIZE_X);
+        pixels.setSizeY(SIZE_Y);
+        pixels.setSizeZ(1);
+        pixels.setSizeC(1);
+        pixels.setSizeT(1);
+        final PixelsType type = new PixelsType();
+        type.setValue("uint8");
+        pixels.setPixelsType(type);
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(root);
+    }
+
+    /**
+     * Check that a tile is held in a heap buffer with the expected pixels.
+     */
+    private void assertTile(PixelData tile, int x, int y, int w, int h) {
+        final ByteBuffer data = tile.getData();
+        Assert.assertTrue(data.hasArray(), "tile should be on the heap");
+        Assert.assertFalse(data.isReadOnly());
+        Assert.assertEquals(data.array().length, w * h);
+        for (int row = 0; row < h; row++) {
+            for (int column = 0; column < w; column++) {
+                Assert.assertEquals(data.get(row * w + column),
+                        (byte) ((y + row) * SIZE_X + x + column));
+            }
+        }
+    }
+
+    private void assertTiles(MappedPixelsCache cache) throws IOException {
+        final RomioPixelBuffer buffer =
+                new RomioPixelBuffer(path, pixels, false, cache);
+        try {
+            assertTile(buffer.getTile(0, 0, 0, 0, 2, SIZE_X, 3),
+                    0, 2, SIZE_X, 3);
+            assertTile(buffer.getTile(0, 0, 0, 4, 1, 8, 5), 4, 1, 8, 5);
+        } finally {
+            buffer.close();
+        }
+    }
+
+    /**
+     * Test that tiles are copied from the file.
+     */
+    @Test
+    public void testTileUnmapped() throws IOException {
+        assertTiles(null);
+    }
+
+    /**
+     * Test that tiles, including full-width ones, are copied out of a shared
+     * mapping.
+     */
+    @Test
+    public void testTileMapped() throws IOException {
+        assertTiles(new MappedPixelsCache(1024));
+    }
+}
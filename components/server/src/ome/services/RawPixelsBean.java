@@ -13,10 +13,14 @@ import java.io.IOException;
 import java.nio.BufferOverflowException;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import ome.annotations.RolesAllowed;
 import ome.api.IPixels;
@@ -34,10 +38,13 @@ import ome.io.nio.RomioPixelBuffer;
 import ome.model.core.Channel;
 import ome.model.core.Pixels;
 import ome.parameters.Parameters;
+import ome.services.util.TileAccumulator;
 import ome.util.PixelData;
 import ome.util.ShallowCopy;
 import ome.util.SqlAction;
+import omeis.providers.re.RenderingExecutor;
 import omeis.providers.re.data.PlaneDef;
+import omeis.providers.re.data.RegionDef;
 import omeis.providers.re.metadata.StatsFactory;
 
 import org.apache.commons.codec.binary.Hex;
@@ -67,6 +74,12 @@ public class RawPixelsBean extends AbstractStatefulBean implements
 
     /** The default bin size used for histograms */
     private static final int DEFAULT_HISTOGRAM_BINSIZE = 256;
+
+    /**
+     * The maximum number of pixels read to find the minimum and maximum of a
+     * plane of a pyramid.
+     */
+    private static final long MAX_PLANE_SCAN_PIXELS = 4096L * 4096L;
     
     private Long id;
 
@@ -98,6 +111,9 @@ public class RawPixelsBean extends AbstractStatefulBean implements
     /** The server's OMERO data directory. */
     private transient String omeroDataDir;
 
+    /** Executor on which the channels of a histogram are accumulated. */
+    private transient RenderingExecutor renderingExecutor;
+
     /**
      * default constructor
      */
@@ -149,6 +165,20 @@ public class RawPixelsBean extends AbstractStatefulBean implements
         this.sql = sql;
     }
 
+    /**
+     * Rendering executor Bean injector.
+     *
+     * @param renderingExecutor
+     *          The executor on which the channels of histograms are
+     *          accumulated in parallel.
+     */
+    public synchronized final void setRenderingExecutor(
+            RenderingExecutor renderingExecutor) {
+        getBeanHelper().throwIfAlreadySet(this.renderingExecutor,
+                renderingExecutor);
+        this.renderingExecutor = renderingExecutor;
+    }
+
     // ~ Lifecycle methods
     // =========================================================================
 
@@ -169,6 +199,16 @@ public class RawPixelsBean extends AbstractStatefulBean implements
         }
     }
 
+    /**
+     * Also has the pixels service discard anything derived from the pixel
+     * data as it was before this write, e.g. cached rendered tiles.
+     */
+    @Override
+    protected void modified() {
+        super.modified();
+        dataService.pixelDataWritten(pixelsInstance.getId());
+    }
+
     @RolesAllowed("user")
     @Transactional(readOnly = false)
     public synchronized Pixels save() {
@@ -677,66 +717,75 @@ public class RawPixelsBean extends AbstractStatefulBean implements
         }
     }
     
+    /**
+     * Computes the histogram of a region of a plane, streaming only the
+     * tiles which cover the region. The histogram is computed at the
+     * current resolution level: clients wanting an approximate histogram of
+     * a large pyramid may lower the resolution level first, in which case
+     * the region is given in the coordinates of that level.
+     */
     @RolesAllowed("user")
     public synchronized Map<Integer, int[]> getHistogram(int[] channels,
             int binCount, boolean globalRange, PlaneDef plane) {
         errorIfNotLoaded();
 
-        if (requiresPixelsPyramid())
-            throw new ApiUsageException(
-                    "This method can not handle tiled images yet.");
-
         if (binCount <= 0)
             binCount = DEFAULT_HISTOGRAM_BINSIZE;
 
-        int imgWidth = buffer.getSizeX();
+        int sizeX = buffer.getSizeX();
+        int sizeY = buffer.getSizeY();
+        RegionDef region = plane != null ? plane.getRegion() : null;
 
         int z = (plane != null && plane.getZ() >= 0) ? plane.getZ() : 0;
         int t = (plane != null && plane.getT() >= 0) ? plane.getT() : 0;
-        int x = (plane != null && plane.getRegion() != null && plane
-                .getRegion().getX() >= 0) ? plane.getRegion().getX() : 0;
-        int y = (plane != null && plane.getRegion() != null && plane
-                .getRegion().getY() >= 0) ? plane.getRegion().getY() : 0;
-        int w = (plane != null && plane.getRegion() != null && plane
-                .getRegion().getWidth() > 0) ? plane.getRegion().getWidth()
-                : imgWidth;
-        int h = (plane != null && plane.getRegion() != null && plane
-                .getRegion().getHeight() > 0) ? plane.getRegion().getHeight()
-                : buffer.getSizeY();
+        int x = (region != null && region.getX() >= 0) ? region.getX() : 0;
+        int y = (region != null && region.getY() >= 0) ? region.getY() : 0;
+        int w = (region != null && region.getWidth() > 0) ? region.getWidth()
+                : sizeX;
+        int h = (region != null && region.getHeight() > 0) ? region
+                .getHeight() : sizeY;
+        // Only the part of the region lying within the plane is counted.
+        w = Math.max(0, Math.min(sizeX, x + w) - x);
+        h = Math.max(0, Math.min(sizeY, y + h) - y);
 
         Map<Integer, int[]> result = new HashMap<Integer, int[]>();
 
         try {
-            for (int ch : channels) {
-                Channel channel = pixelsInstance.getChannel(ch);
+            double[][] ranges = new double[channels.length][];
+            TileAccumulator.MinMax[] planeRanges =
+                    new TileAccumulator.MinMax[channels.length];
+            boolean scanPlane = false;
+            for (int i = 0; i < channels.length; i++) {
+                Channel channel = pixelsInstance.getChannel(channels[i]);
                 if (channel == null)
                     continue;
-                PixelData px = buffer.getPlane(z, ch, t);
-                int[] data = new int[binCount];
-
-                double[] minmax = determineHistogramMinMax(px, channel,
-                        globalRange);
-                double min = minmax[0];
-                double max = minmax[1];
-
-                double range = max - min + 1;
-                double binRange = range / binCount;
-                for (int i = 0; i < px.size(); i++) {
-                    int pxx = i % imgWidth;
-                    int pxy = i / imgWidth;
-                    if (pxx >= x && pxx < (x + w) && pxy >= y && pxy < (y + h)) {
-                        int bin = (int) ((px.getPixelValue(i) - min) / binRange);
-                        // if there are more bins than values (binRange < 1) the bin will be offset by -1.
-                        // e.g. min=0.0, max=127.0, binCount=256: a pixel with max value 127.0 would go
-                        // into bin 254 (expected: 255). Therefore increment by one for these cases.
-                        if (bin > 0 && binRange < 1)
-                            bin++;
-
-                        if (bin >= 0 && bin < binCount)
-                            data[bin]++;
-                    }
+                ranges[i] = globalRange ? globalMinMax(channel) : null;
+                if (ranges[i] == null) {
+                    planeRanges[i] = newMinMax(channel);
+                    scanPlane = true;
+                }
+            }
+            if (scanPlane) {
+                scanPlane(z, t, channels, planeRanges);
+            }
+
+            TileAccumulator.Histogram[] histograms =
+                    new TileAccumulator.Histogram[channels.length];
+            for (int i = 0; i < channels.length; i++) {
+                if (planeRanges[i] != null) {
+                    ranges[i] = planeRanges[i].getMinMax();
+                }
+                if (ranges[i] != null) {
+                    histograms[i] = new TileAccumulator.Histogram(ranges[i][0],
+                            ranges[i][1], binCount);
+                }
+            }
+            streamTiles(z, t, x, y, w, h, channels, histograms);
+
+            for (int i = 0; i < channels.length; i++) {
+                if (histograms[i] != null) {
+                    result.put(channels[i], histograms[i].getData());
                 }
-                result.put(ch, data);
             }
         } catch (Exception e) {
             handleException(e);
@@ -747,23 +796,26 @@ public class RawPixelsBean extends AbstractStatefulBean implements
 
     @RolesAllowed("user")
     public synchronized Map<Integer, double[]> findMinMax(int[] channels) {
+        errorIfNotLoaded();
+
         Map<Integer, double[]> result = new HashMap<Integer, double[]>();
-        
-        if (requiresPixelsPyramid())
-            return result;
 
         try {
-            for (int ch : channels) {
-                Channel channel = pixelsInstance.getChannel(ch);
-                if (channel == null)
-                    continue;
-                int z = buffer.getSizeZ() > 1 ? (buffer.getSizeZ() - 1) / 2 : 0;
-                int t = buffer.getSizeT() > 1 ? (buffer.getSizeT() - 1) / 2 : 0;
-                PixelData px = buffer.getPlane(z, ch, t);
-                double[] minmax = determineHistogramMinMax(px, channel, false);
-                result.put(ch, minmax);
+            TileAccumulator.MinMax[] minMax =
+                    new TileAccumulator.MinMax[channels.length];
+            for (int i = 0; i < channels.length; i++) {
+                Channel channel = pixelsInstance.getChannel(channels[i]);
+                if (channel != null)
+                    minMax[i] = newMinMax(channel);
             }
-        } catch (IOException e) {
+            int z = buffer.getSizeZ() > 1 ? (buffer.getSizeZ() - 1) / 2 : 0;
+            int t = buffer.getSizeT() > 1 ? (buffer.getSizeT() - 1) / 2 : 0;
+            scanPlane(z, t, channels, minMax);
+            for (int i = 0; i < channels.length; i++) {
+                if (minMax[i] != null)
+                    result.put(channels[i], minMax[i].getMinMax());
+            }
+        } catch (Exception e) {
             handleException(e);
         }
         return result;
@@ -773,46 +825,211 @@ public class RawPixelsBean extends AbstractStatefulBean implements
     // =========================================================================
     
     /**
-     * Get the minimum and maximum value to use for the histogram. If useGlobal
-     * is <code>true</code> and the channel has stats calculated the global
-     * minimum and maximum will be used, otherwise the minimum and maximum value
-     * of the plane will be used.
+     * Returns the global minimum and maximum of a channel, if they have been
+     * calculated.
      * 
-     * @param px
-     *            The {@link PixelData}
      * @param channel
      *            The {@link Channel}
-     * @param useGlobal
-     *            Try to use the global minimum/maximum
-     * @return See above
+     * @return See above. <code>null</code> if the channel has no stats.
      */
-    private double[] determineHistogramMinMax(PixelData px, Channel channel,
-            boolean useGlobal) {
-        double min, max;
-
-        if (useGlobal && channel != null && channel.getStatsInfo() != null) {
-            min = channel.getStatsInfo().getGlobalMin();
-            max = channel.getStatsInfo().getGlobalMax();
-            // if max == 1.0 the global min/max probably has not been
-            // calculated; fall back to plane min/max
-            if (max != 1.0)
-                return new double[] { min, max };
-        }
+    private double[] globalMinMax(Channel channel) {
+        if (channel.getStatsInfo() == null)
+            return null;
+        double min = channel.getStatsInfo().getGlobalMin();
+        double max = channel.getStatsInfo().getGlobalMax();
+        // if max == 1.0 the global min/max probably has not been
+        // calculated; fall back to plane min/max
+        if (max == 1.0)
+            return null;
+        return new double[] { min, max };
+    }
 
-        StatsFactory sf = new StatsFactory();
-        double[] pixelMinMax = sf.initPixelsRange(channel.getPixels());
+    /**
+     * Creates an accumulator of the minimum and maximum of a channel,
+     * starting from the range of its pixel type.
+     * 
+     * @param channel
+     *            The {@link Channel}
+     * @return See above.
+     */
+    private TileAccumulator.MinMax newMinMax(Channel channel) {
+        return new TileAccumulator.MinMax(
+                new StatsFactory().initPixelsRange(channel.getPixels()));
+    }
 
-        min = pixelMinMax[1];
-        max = pixelMinMax[0];
+    /**
+     * Streams a whole plane through accumulators. The plane of a pyramid is
+     * read at the largest resolution level, no larger than the current one,
+     * whose planes hold at most {@link #MAX_PLANE_SCAN_PIXELS} pixels, so
+     * the results are then an approximation.
+     * 
+     * @param z
+     *            The Z-section
+     * @param t
+     *            The timepoint
+     * @param channels
+     *            The channels
+     * @param accumulators
+     *            The accumulator of each channel, <code>null</code> for the
+     *            channels to skip
+     * @throws IOException
+     *             If the pixels cannot be read
+     */
+    private void scanPlane(int z, int t, int[] channels,
+            TileAccumulator[] accumulators) throws IOException {
+        int level = buffer.getResolutionLevel();
+        int scanLevel = level;
+        int levels = buffer.getResolutionLevels();
+        if (levels > 1) {
+            // Descriptions are ordered from the highest resolution down.
+            List<List<Integer>> descriptions =
+                    buffer.getResolutionDescriptions();
+            for (int i = levels - 1 - level; i < levels; i++) {
+                scanLevel = levels - 1 - i;
+                List<Integer> size = descriptions.get(i);
+                if ((long) size.get(0) * size.get(1) <= MAX_PLANE_SCAN_PIXELS)
+                    break;
+            }
+        }
+        if (scanLevel != level) {
+            buffer.setResolutionLevel(scanLevel);
+        }
+        try {
+            streamTiles(z, t, 0, 0, buffer.getSizeX(), buffer.getSizeY(),
+                    channels, accumulators);
+        } finally {
+            if (scanLevel != level) {
+                buffer.setResolutionLevel(level);
+            }
+        }
+    }
 
-        for (int i = 0; i < px.size(); i++) {
-            min = Math.min(min, px.getPixelValue(i));
-            max = Math.max(max, px.getPixelValue(i));
+    /**
+     * Streams a region of a plane through accumulators, tile by tile. Only
+     * the parts of the tiles lying within the region are read, so that the
+     * pixels need no bounds test. Where a rendering executor is set, the
+     * tiles of the different channels are accumulated in parallel.
+     * 
+     * @param z
+     *            The Z-section
+     * @param t
+     *            The timepoint
+     * @param x
+     *            The left of the region, within the plane
+     * @param y
+     *            The top of the region, within the plane
+     * @param w
+     *            The width of the region, within the plane
+     * @param h
+     *            The height of the region, within the plane
+     * @param channels
+     *            The channels
+     * @param accumulators
+     *            The accumulator of each channel, <code>null</code> for the
+     *            channels to skip
+     * @throws IOException
+     *             If the pixels cannot be read
+     */
+    private void streamTiles(int z, int t, int x, int y, int w, int h,
+            int[] channels, TileAccumulator[] accumulators)
+            throws IOException {
+        Dimension tileSize = buffer.getTileSize();
+        int tileWidth = Math.max(1, (int) tileSize.getWidth());
+        int tileHeight = Math.max(1, (int) tileSize.getHeight());
+        String key = renderingExecutor == null ? null
+                : sec.getEventContext().getCurrentSessionUuid();
+        PixelData[] tiles = new PixelData[channels.length];
+        // Tiles are aligned on the tile grid of the pixel buffer.
+        for (int ty = y - y % tileHeight; ty < y + h; ty += tileHeight) {
+            int top = Math.max(ty, y);
+            int bottom = Math.min(ty + tileHeight, y + h);
+            for (int tx = x - x % tileWidth; tx < x + w; tx += tileWidth) {
+                int left = Math.max(tx, x);
+                int right = Math.min(tx + tileWidth, x + w);
+                try {
+                    for (int i = 0; i < channels.length; i++) {
+                        tiles[i] = accumulators[i] == null ? null : buffer
+                                .getTile(z, channels[i], t, left, top,
+                                        right - left, bottom - top);
+                    }
+                    accumulate(key, tiles, accumulators);
+                } finally {
+                    for (int i = 0; i < tiles.length; i++) {
+                        if (tiles[i] != null) {
+                            tiles[i].dispose();
+                            tiles[i] = null;
+                        }
+                    }
+                }
+            }
         }
+    }
 
-        return new double[] { min, max };
+    /**
+     * Accumulates a tile of each channel, forking the channels other than
+     * the first onto the rendering executor if there is one.
+     * 
+     * @param key
+     *            The key under which the forked tasks are accounted
+     * @param tiles
+     *            The tile of each channel
+     * @param accumulators
+     *            The accumulator of each channel, <code>null</code> for the
+     *            channels to skip
+     */
+    private void accumulate(String key, final PixelData[] tiles,
+            final TileAccumulator[] accumulators) {
+        List<Future<Object>> forked = new ArrayList<Future<Object>>();
+        boolean local = true;
+        for (int i = 0; i < tiles.length; i++) {
+            if (accumulators[i] == null)
+                continue;
+            if (local || renderingExecutor == null) {
+                accumulators[i].accumulate(tiles[i]);
+                local = false;
+            } else {
+                final int channel = i;
+                forked.add(renderingExecutor.submit(key,
+                        new Callable<Object>() {
+                            public Object call() {
+                                accumulators[channel]
+                                        .accumulate(tiles[channel]);
+                                return null;
+                            }
+                        }));
+            }
+        }
+        // Every forked task is waited for, even after a failure, so that
+        // the tiles are no longer in use once this returns.
+        Throwable failure = null;
+        boolean interrupted = false;
+        for (Future<Object> future : forked) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+            throw new ResourceError("Interrupted while computing histogram.");
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if (failure != null) {
+            throw new RuntimeException(failure);
+        }
     }
-    
+
     private synchronized byte[] bufferAsByteArrayWithExceptionIfNull(ByteBuffer buffer) {
         byte[] b = new byte[buffer.capacity()];
         buffer.get(b, 0, buffer.capacity());
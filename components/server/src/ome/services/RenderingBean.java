@@ -43,6 +43,7 @@ import ome.model.roi.Mask;
 import ome.parameters.Parameters;
 import ome.security.SecuritySystem;
 import ome.services.util.Executor;
+import ome.services.util.RenderedTileCache;
 import ome.system.EventContext;
 import ome.system.ServiceFactory;
 import ome.system.SimpleEventContext;
@@ -50,6 +51,7 @@ import ome.util.ImageUtil;
 import ome.util.ShallowCopy;
 import omeis.providers.re.RGBBuffer;
 import omeis.providers.re.Renderer;
+import omeis.providers.re.RenderingExecutor;
 import omeis.providers.re.RenderingEngine;
 import omeis.providers.re.codomain.CodomainChain;
 import omeis.providers.re.codomain.CodomainMapContext;
@@ -67,6 +69,7 @@ import org.perf4j.StopWatch;
 import org.perf4j.slf4j.Slf4JStopWatch;
 import org.springframework.transaction.annotation.Transactional;
 
+
 /**
  * Provides the {@link RenderingEngine} service. This class is an Adapter to
  * wrap the {@link Renderer} so to make it thread-safe.
@@ -155,6 +158,12 @@ public class RenderingBean implements RenderingEngine, Serializable {
     /** Reference to the helper used to retrieve luts.*/
     private final LutProvider lutProvider;
 
+    /** Reference to the executor the rendering tasks are run on. */
+    private transient RenderingExecutor renderingExecutor;
+
+    /** Reference to the cache of compressed rendered tiles. */
+    private transient RenderedTileCache tileCache;
+
     /** Notification that the bean has just returned from passivation. */
     private transient boolean wasPassivated = false;
 
@@ -192,6 +201,27 @@ public class RenderingBean implements RenderingEngine, Serializable {
         this.lutProvider = lutProvider;
     }
 
+    /**
+     * Rendering executor Bean injector.
+     *
+     * @param renderingExecutor
+     *          The executor shared by all the renderers.
+     */
+    public void setRenderingExecutor(RenderingExecutor renderingExecutor) {
+        this.renderingExecutor = renderingExecutor;
+    }
+
+    /**
+     * Rendered tile cache Bean injector.
+     *
+     * @param tileCache
+     *          The cache of compressed rendered tiles shared by all the
+     *          rendering engines.
+     */
+    public void setTileCache(RenderedTileCache tileCache) {
+        this.tileCache = tileCache;
+    }
+
     @RolesAllowed("user")
     public long getRenderingDefId() {
         if (rendDefObj == null || rendDefObj.getId() == null) {
@@ -417,6 +447,8 @@ public class RenderingBean implements RenderingEngine, Serializable {
             PixelBuffer buffer = getPixelBuffer();
             renderer = new Renderer(quantumFactory, renderingModels, pixelsObj,
                     rendDefObj, buffer, lutProvider);
+            renderer.setRenderingExecutor(renderingExecutor,
+                    secSys.getEventContext().getCurrentSessionUuid());
         } finally {
             rwl.writeLock().unlock();
         }
@@ -536,6 +568,14 @@ public class RenderingBean implements RenderingEngine, Serializable {
             if (overlays.size() > 0) {
                 renderer.setOverlays(overlays);
             }
+            String tileKey = null;
+            if (isTileCacheable(pd)) {
+                tileKey = tileKey(pd);
+                byte[] tile = tileCache.get(tileKey);
+                if (tile != null) {
+                    return tile;
+                }
+            }
             int stride = pd.getStride();
             if (stride < 0) stride = 0;
             stride++;
@@ -553,7 +593,11 @@ public class RenderingBean implements RenderingEngine, Serializable {
                     sizeY);
             byteStream = new ByteArrayOutputStream();
             compressionSrv.compressToStream(image, byteStream);
-            return byteStream.toByteArray();
+            byte[] tile = byteStream.toByteArray();
+            if (tileKey != null) {
+                tileCache.put(tileKey, tile);
+            }
+            return tile;
         } catch (IOException e) {
             log.error("Could not compress rendered image.", e);
             throw new ResourceError(e.getMessage());
@@ -718,6 +762,7 @@ public class RenderingBean implements RenderingEngine, Serializable {
                         rendDefObj = createNewRenderingDef(pixelsObj);
                     }
                     _resetDefaults(rendDefObj, pixelsObj);
+                    invalidateTiles();
 
                     rendDefObj = retrieveRndSettings(pixelsObj.getId());
                     // The above save step sets the rendDefObj instance (for which
@@ -1005,6 +1050,7 @@ public class RenderingBean implements RenderingEngine, Serializable {
                             IUpdate update = sf.getUpdateService();
                             return update.saveAndReturnObject(rendDefObj).getId();
                         }});
+            invalidateTiles();
 
             if (saveAs) {
                 loadRenderingDef(id);
@@ -2338,6 +2384,75 @@ public class RenderingBean implements RenderingEngine, Serializable {
         });
     }
 
+    /**
+     * Returns <code>true</code> if the compressed rendering of the specified
+     * plane may be looked up in and stored into the tile cache. Planes with
+     * overlays are never cached as the masks are not part of the key.
+     *
+     * @param pd The plane to render.
+     * @return See above.
+     */
+    private boolean isTileCacheable(PlaneDef pd) {
+        if (tileCache == null || !tileCache.isEnabled()) {
+            return false;
+        }
+        Map<byte[], Integer> overlays = renderer.getOverlays();
+        return overlays == null || overlays.isEmpty();
+    }
+
+    /**
+     * Builds the tile cache key of the specified plane. The key starts with
+     * the pixels ID, as expected by {@link RenderedTileCache#invalidate(long)},
+     * followed by the resolution level, the compression level, the plane and
+     * region, and a hash of the current rendering settings.
+     *
+     * @param pd The plane to render.
+     * @return See above.
+     */
+    private String tileKey(PlaneDef pd) {
+        StringBuilder key = new StringBuilder();
+        key.append(pixelsObj.getId()).append(':');
+        key.append(resolutionLevel).append(':');
+        key.append(compressionSrv.getCompressionLevel()).append(':');
+        key.append(pd.getSlice()).append('/').append(pd.getZ()).append('/');
+        key.append(pd.getT()).append('/').append(pd.getX()).append('/');
+        key.append(pd.getY()).append('/').append(pd.getStride());
+        RegionDef region = pd.getRegion();
+        if (region != null) {
+            key.append('/').append(region.getX()).append(',');
+            key.append(region.getY()).append(',');
+            key.append(region.getWidth()).append(',');
+            key.append(region.getHeight());
+        }
+        key.append(':').append(settingsHash());
+        return key.toString();
+    }
+
+    /**
+     * Returns a hash of the rendering settings currently used by the
+     * renderer, including the unsaved ones.
+     *
+     * @return See above.
+     */
+    private String settingsHash() {
+        ChannelBinding[] bindings = renderer.getChannelBindings();
+        CodomainChain[] chains = new CodomainChain[bindings.length];
+        for (int w = 0; w < bindings.length; w++) {
+            chains[w] = renderer.getCodomainChain(w);
+        }
+        return RenderedTileCache.settingsHash(renderer.getRenderingDef(),
+                bindings, chains);
+    }
+
+    /**
+     * Discards the cached tiles of the current pixels set.
+     */
+    private void invalidateTiles() {
+        if (tileCache != null && pixelsObj != null) {
+            tileCache.invalidate(pixelsObj.getId());
+        }
+    }
+
     /**
      * Get Mask attached to the image for rendering.
      */
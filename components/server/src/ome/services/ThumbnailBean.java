@@ -17,9 +17,13 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import ome.annotations.RolesAllowed;
@@ -36,10 +40,13 @@ import ome.conditions.InternalException;
 import ome.conditions.ReadOnlyGroupSecurityViolation;
 import ome.conditions.ResourceError;
 import ome.conditions.ValidationException;
+import ome.io.nio.DimensionsOutOfBoundsException;
 import ome.io.nio.PixelBuffer;
 import ome.io.nio.PixelsService;
+import ome.io.nio.PlaneDecimator;
 import ome.io.nio.ThumbnailService;
 import ome.logic.AbstractLevel2Service;
+import ome.model.core.Channel;
 import ome.model.core.Pixels;
 import ome.model.display.RenderingDef;
 import ome.model.display.Thumbnail;
@@ -48,11 +55,14 @@ import ome.model.enums.RenderingModel;
 import ome.parameters.Parameters;
 import ome.services.ThumbnailCtx.NoThumbnail;
 import ome.services.messages.ContextMessage;
+import ome.services.util.PendingResults;
 import ome.system.EventContext;
 import ome.system.OmeroContext;
 import ome.system.SimpleEventContext;
 import ome.util.ImageUtil;
+import ome.util.ShallowCopy;
 import omeis.providers.re.Renderer;
+import omeis.providers.re.RenderingExecutor;
 import omeis.providers.re.data.PlaneDef;
 import omeis.providers.re.lut.LutProvider;
 import omeis.providers.re.quantum.QuantizationException;
@@ -182,6 +192,12 @@ public class ThumbnailBean extends AbstractLevel2Service
 
     private LutProvider lutProvider;
 
+    /** The executor the rendering tasks are run on. */
+    private transient RenderingExecutor renderingExecutor;
+
+    /** The executor missing thumbnails of a set are rendered on. */
+    private transient RenderingExecutor thumbnailExecutor;
+
     private OmeroContext applicationContext = null;
 
     /**
@@ -354,6 +370,8 @@ public class ThumbnailBean extends AbstractLevel2Service
         PixelBuffer buffer = pixelDataService.getPixelBuffer(pixels, false);
         renderer = new Renderer(quantumFactory, renderingModels, pixels,
                 settings, buffer, lutProvider);
+        renderer.setRenderingExecutor(renderingExecutor,
+                getSecuritySystem().getEventContext().getCurrentSessionUuid());
         dirty = false;
     }
 
@@ -382,6 +400,28 @@ public class ThumbnailBean extends AbstractLevel2Service
         this.lutProvider = lutProvider;
     }
 
+    /**
+     * Rendering executor Bean injector.
+     * @param renderingExecutor The executor shared by all the renderers.
+     */
+    public void setRenderingExecutor(RenderingExecutor renderingExecutor) {
+        getBeanHelper().throwIfAlreadySet(
+                this.renderingExecutor, renderingExecutor);
+        this.renderingExecutor = renderingExecutor;
+    }
+
+    /**
+     * Thumbnail executor Bean injector.
+     * @param thumbnailExecutor The executor on which the missing thumbnails
+     * of a set are rendered. It must not be the executor shared by the
+     * renderers as the thumbnail renderers submit their own tasks to it.
+     */
+    public void setThumbnailExecutor(RenderingExecutor thumbnailExecutor) {
+        getBeanHelper().throwIfAlreadySet(
+                this.thumbnailExecutor, thumbnailExecutor);
+        this.thumbnailExecutor = thumbnailExecutor;
+    }
+
     /**
      * In-progress image resource Bean injector.
      * @param inProgressImageResource The in-progress image resource we'll be
@@ -483,6 +523,23 @@ public class ThumbnailBean extends AbstractLevel2Service
      */
     private void compressThumbnailToDisk(Thumbnail thumb, BufferedImage image)
     throws IOException {
+        compressThumbnailToDisk(thumb, image, inProgress);
+    }
+
+    /**
+     * Compresses a buffered image thumbnail to disk.
+     *
+     * @param thumb
+     *            the thumbnail metadata.
+     * @param image
+     *            the thumbnail's buffered image.
+     * @param inProgress
+     *            if the <i>in progress</i> image is to be written instead.
+     * @throws IOException
+     *             if there is a problem writing to disk.
+     */
+    private void compressThumbnailToDisk(Thumbnail thumb, BufferedImage image,
+            boolean inProgress) throws IOException {
 
         if (diskSpaceChecking) {
             iRepositoryInfo.sanityCheckRepository();
@@ -589,7 +646,29 @@ public class ThumbnailBean extends AbstractLevel2Service
         {
             return null;
         }
+        return createScaledImage(renderer, pixels, settings, thumbnailMetadata,
+                theZ, theT);
+    }
 
+    /**
+     * Creates a scaled buffered image with the given renderer. Does not use
+     * the state of the service so that thumbnails may be rendered
+     * concurrently.
+     *
+     * @param renderer the renderer to use.
+     * @param pixels the pixels set rendered.
+     * @param settings the rendering settings used by the renderer.
+     * @param thumbnailMetadata the metadata of the thumbnail to create.
+     * @param theZ the optical section (offset across the Z-axis) requested.
+     * <pre>null</pre> signifies the rendering engine default.
+     * @param theT the timepoint (offset across the T-axis) requested.
+     * <pre>null</pre> signifies the rendering engine default.
+     * @return a scaled buffered image.
+     */
+    private BufferedImage createScaledImage(Renderer renderer, Pixels pixels,
+            RenderingDef settings, Thumbnail thumbnailMetadata,
+            Integer theZ, Integer theT)
+    {
         // Retrieve our rendered data
         if (theZ == null)
             theZ = settings.getDefaultZ();
@@ -627,11 +706,33 @@ public class ThumbnailBean extends AbstractLevel2Service
         Pixels rendererPixels = renderer.getMetadata();
         try
         {
+            // Without a pyramid, average the planes down to about our
+            // requested size before rendering rather than after
+            PixelBuffer decimatedBuffer = null;
+            int factor = PlaneDecimator.factor(
+                    pixelBufferSizeX, pixelBufferSizeY,
+                    thumbnailMetadata.getSizeX(), thumbnailMetadata.getSizeY());
+            if (pixelBuffer.getResolutionLevels() == 1 && factor > 1
+                && pixelBuffer.getByteWidth() > 0)
+            {
+                PlaneDecimator decimator =
+                        new PlaneDecimator(pixelBuffer, pixels, factor);
+                boolean[] active = new boolean[pixels.getSizeC()];
+                for (int c = 0; c < active.length; c++)
+                {
+                    active[c] = settings.getChannelBinding(c).getActive();
+                }
+                decimatedBuffer = decimator.decimate(theZ, theT, active);
+                pixelBufferSizeX = decimator.getSizeX();
+                pixelBufferSizeY = decimator.getSizeY();
+                log.debug(String.format("Decimated by %d -- %dx%d",
+                        factor, pixelBufferSizeX, pixelBufferSizeY));
+            }
             log.debug(String.format("Setting renderer Pixel sizeX:%d sizeY:%d",
                     pixelBufferSizeX, pixelBufferSizeY));
             rendererPixels.setSizeX(pixelBufferSizeX);
             rendererPixels.setSizeY(pixelBufferSizeY);
-            int[] buf = renderer.renderAsPackedInt(pd, null);
+            int[] buf = renderer.renderAsPackedInt(pd, decimatedBuffer);
             BufferedImage image = ImageUtil.createBufferedImage(
                     buf, pixelBufferSizeX, pixelBufferSizeY);
 
@@ -651,6 +752,13 @@ public class ThumbnailBean extends AbstractLevel2Service
             re.initCause(e);
             throw re;
         }
+        catch (DimensionsOutOfBoundsException e)
+        {
+            ApiUsageException aue = new ApiUsageException(
+                    "Plane out of bounds while rendering: " + e.getMessage());
+            aue.initCause(e);
+            throw aue;
+        }
         catch (QuantizationException e)
         {
             InternalException ie = new InternalException(
@@ -822,6 +930,25 @@ public class ThumbnailBean extends AbstractLevel2Service
     /** Actually does the work specified by {@link #createThumbnail(Integer, Integer)}. */
     private Thumbnail _createThumbnail() {
         StopWatch s1 = new Slf4JStopWatch("omero._createThumbnail");
+        prepareThumbnailMetadata();
+
+        BufferedImage image = createScaledImage(null, null);
+        try {
+            compressThumbnailToDisk(thumbnailMetadata, image);
+            s1.stop();
+            return thumbnailMetadata;
+        } catch (IOException e) {
+            log.error("Thumbnail could not be compressed.", e);
+            throw new ResourceError(e.getMessage());
+        }
+    }
+
+    /**
+     * Increments the version of the thumbnail metadata, or creates new
+     * metadata for the owner of the rendering settings, if the rendering
+     * settings changed since the thumbnail was created.
+     */
+    private void prepareThumbnailMetadata() {
         if (thumbnailMetadata == null) {
             throw new ValidationException("Missing thumbnail metadata.");
         } else if (ctx.dirtyMetadata(pixels.getId())) {
@@ -871,16 +998,6 @@ public class ThumbnailBean extends AbstractLevel2Service
         // dirtyMetadata is left false here because we may be creating a
         // thumbnail for the first time and the Thumbnail object has just been
         // created upstream of us.
-
-        BufferedImage image = createScaledImage(null, null);
-        try {
-            compressThumbnailToDisk(thumbnailMetadata, image);
-            s1.stop();
-            return thumbnailMetadata;
-        } catch (IOException e) {
-            log.error("Thumbnail could not be compressed.", e);
-            throw new ResourceError(e.getMessage());
-        }
     }
 
     private static void _setMetadataVersion(Thumbnail tb, boolean inProgress) {
@@ -988,6 +1105,16 @@ public class ThumbnailBean extends AbstractLevel2Service
             @Override
             protected void actOnOneGroup(Set<Long> pixelsIds) {
                 final List<Thumbnail> toSave = new ArrayList<Thumbnail>();
+                // Missing thumbnails are rendered concurrently while the
+                // others are read; a bounded number are pending at once as
+                // each holds a renderer and its pixel buffer open.
+                final PendingResults<ThumbnailRender, byte[]> pending =
+                        new PendingResults<ThumbnailRender, byte[]>(
+                                thumbnailExecutor == null ?
+                                        1 : 2 * thumbnailExecutor.getThreads(),
+                                new ThumbnailRenderHandler(toReturn, toSave));
+                final String sessionUuid =
+                        getSecuritySystem().getEventContext().getCurrentSessionUuid();
                 for (final Long pixelsId : pixelsIds) {
                     // Ensure that the renderer has been made dirty otherwise the
                     // same renderer will be used to return all thumbnails with dirty
@@ -1006,6 +1133,13 @@ public class ThumbnailBean extends AbstractLevel2Service
                         pixels = ctx.getPixels(pixelsId);
                         settings = ctx.getSettings(pixelsId);
                         thumbnailMetadata = ctx.getMetadata(pixelsId);
+                        if (!inProgress && !ctx.isThumbnailCached(pixelsId)) {
+                            final ThumbnailRender render = prepareThumbnailRender(sessionUuid);
+                            if (render != null) {
+                                pending.add(render, submitThumbnailRender(sessionUuid, render));
+                                continue;
+                            }
+                        }
                         if (inProgress && !PROGRESS_VERSION.equals(thumbnailMetadata.getVersion())) {
                             thumbnailMetadata.setVersion(PROGRESS_VERSION);
                             dirtyMetadata = true;
@@ -1028,6 +1162,7 @@ public class ThumbnailBean extends AbstractLevel2Service
                         toReturn.put(pixelsId, null);
                     }
                 }
+                pending.collectAll();
                 // We're doing the update or creation and save as a two-step
                 // process due to the possible unloaded Pixels. If we do not,
                 // Pixels will be unloaded and we will hit
@@ -1042,6 +1177,164 @@ public class ThumbnailBean extends AbstractLevel2Service
         return toReturn;
     }
 
+    /**
+     * Prepares the rendering of the missing thumbnail of the current pixels
+     * set by a renderer of its own, so that it may be rendered by another
+     * thread while the service moves on to the next pixels set. The pixels
+     * set and rendering settings are loaded, and the thumbnail metadata
+     * updated, by the calling thread.
+     * @param sessionUuid The session the renderer submits its tasks for.
+     * @return See above. <code>null</code> if a pyramid is being generated
+     * for the pixels set, in which case {@link #inProgress} is set.
+     */
+    private ThumbnailRender prepareThumbnailRender(String sessionUuid)
+    {
+        final ThumbnailRender render = new ThumbnailRender();
+        final Pixels loadedPixels =
+                iPixels.retrievePixDescription(pixels.getId());
+        // The renderer temporarily resizes its pixels set so it is given a
+        // copy detached from the session.
+        render.pixels = copyPixels(loadedPixels);
+        render.settings = iPixels.loadRndSettings(settings.getId());
+        final PixelBuffer buffer;
+        try {
+            // Loading last to try to ensure that the buffer will get closed.
+            buffer = pixelDataService.getPixelBuffer(loadedPixels, false);
+        } catch (ConcurrencyException e) {
+            inProgress = true;
+            log.info("ConcurrencyException on prepareThumbnailRender()");
+            return null;
+        }
+        render.renderer = new Renderer(new QuantumFactory(getFamilies()),
+                getRenderingModels(), render.pixels, render.settings, buffer,
+                lutProvider);
+        render.renderer.setRenderingExecutor(renderingExecutor, sessionUuid);
+        try {
+            prepareThumbnailMetadata();
+            render.thumbnailMetadata = thumbnailMetadata;
+            render.dirtyMetadata = dirtyMetadata;
+            return render;
+        } catch (RuntimeException e) {
+            render.renderer.close();
+            throw e;
+        } finally {
+            dirtyMetadata = false;
+        }
+    }
+
+    /**
+     * Submits the rendering of a missing thumbnail to the thumbnail executor
+     * or, if there is none, renders it in the calling thread.
+     * @param sessionUuid The session the rendering is accounted to.
+     * @param render The rendering to perform.
+     * @return The future of the thumbnail bytes.
+     */
+    private Future<byte[]> submitThumbnailRender(String sessionUuid,
+            ThumbnailRender render)
+    {
+        if (thumbnailExecutor != null) {
+            return thumbnailExecutor.submit(sessionUuid, render);
+        }
+        final FutureTask<byte[]> local = new FutureTask<byte[]>(render);
+        local.run();
+        return local;
+    }
+
+    /**
+     * Adds the renderings of missing thumbnails to the results as they
+     * complete, closing their renderers.
+     */
+    private class ThumbnailRenderHandler
+            implements PendingResults.Handler<ThumbnailRender, byte[]>
+    {
+        private final Map<Long, byte[]> toReturn;
+
+        private final List<Thumbnail> toSave;
+
+        /**
+         * @param toReturn Map of Pixels ID vs. thumbnail bytes.
+         * @param toSave The thumbnail metadata to save.
+         */
+        ThumbnailRenderHandler(Map<Long, byte[]> toReturn,
+                List<Thumbnail> toSave)
+        {
+            this.toReturn = toReturn;
+            this.toSave = toSave;
+        }
+
+        public void succeeded(ThumbnailRender render, byte[] thumbnail)
+        {
+            render.renderer.close();
+            toReturn.put(render.pixels.getId(), thumbnail);
+            if (render.dirtyMetadata) {
+                toSave.add(render.thumbnailMetadata);
+            }
+        }
+
+        public void failed(ThumbnailRender render, Throwable cause)
+        {
+            render.renderer.close();
+            final Long pixelsId = render.pixels.getId();
+            log.warn("Retrieving thumbnail in set for " + "Pixels ID " + pixelsId + " failed.", cause);
+            toReturn.put(pixelsId, null);
+        }
+    }
+
+    /**
+     * Copies a pixels set with its type and channels, so that it may be used
+     * apart from the session.
+     *
+     * @param pixels The pixels set to copy.
+     * @return See above.
+     */
+    private static Pixels copyPixels(Pixels pixels)
+    {
+        final Pixels newPixels = new ShallowCopy().copy(pixels);
+        newPixels.putAt(Pixels.CHANNELS, new ArrayList<Channel>());
+        final Iterator<Channel> it = pixels.iterateChannels();
+        while (it.hasNext()) {
+            final Channel channel = it.next();
+            final Channel newChannel = new ShallowCopy().copy(channel);
+            newChannel.setLogicalChannel(
+                    new ShallowCopy().copy(channel.getLogicalChannel()));
+            if (channel.getStatsInfo() != null) {
+                newChannel.setStatsInfo(
+                        new ShallowCopy().copy(channel.getStatsInfo()));
+            }
+            newPixels.addChannel(newChannel);
+        }
+        newPixels.setPixelsType(new ShallowCopy().copy(pixels.getPixelsType()));
+        return newPixels;
+    }
+
+    /**
+     * The rendering of a missing thumbnail of a set by a renderer of its own.
+     * Only the rendering, compression and writing of the thumbnail are
+     * performed by this task so that it need not access the database.
+     */
+    private class ThumbnailRender implements Callable<byte[]>
+    {
+        Pixels pixels;
+
+        RenderingDef settings;
+
+        Thumbnail thumbnailMetadata;
+
+        boolean dirtyMetadata;
+
+        Renderer renderer;
+
+        public byte[] call() throws IOException
+        {
+            StopWatch s1 = new Slf4JStopWatch("omero._createThumbnail");
+            BufferedImage image = createScaledImage(renderer, pixels, settings,
+                    thumbnailMetadata, null, null);
+            compressThumbnailToDisk(thumbnailMetadata, image, false);
+            s1.stop();
+            return ioService.getThumbnail(thumbnailMetadata);
+        }
+    }
+
     /*
      * (non-Javadoc)
      *
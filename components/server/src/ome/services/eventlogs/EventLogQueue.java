@@ -488,11 +488,12 @@ public class EventLogQueue extends PersistentEventLogLoader {
         if (arg0 instanceof EventLogFailure) {
             EventLogFailure failure = (EventLogFailure) arg0;
             if (failure.wasSource(this)) {
-                if (lastReturned != failure.log) {
-                    log.error("lastReturned is not failure item!");
+                // The indexer may report the failure of an item returned
+                // earlier in the batch, which has then already passed.
+                if (lastReturned == failure.log) {
+                    lastReturned.timer.stop(); // In case of fail
+                    lastReturned = null; // Prevent success later
                 }
-                lastReturned.timer.stop(); // In case of fail
-                lastReturned = null; // Prevent success later
                 data.fail(failure);
             }
         } else {
@@ -11,6 +11,7 @@ import java.io.StringReader;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 import ome.conditions.ApiUsageException;
 import ome.io.nio.OriginalFilesService;
@@ -260,4 +261,52 @@ public abstract class BridgeHelper implements FieldBridge,
         }
         return FileParser.EMPTY;
     }
+
+    /**
+     * Starts extracting the text of the given {@link OriginalFile} on the
+     * given pool, choosing the {@link FileParser} as
+     * {@link #parse(OriginalFile, OriginalFilesService, Map)} does. Must be
+     * matched by a call to
+     * {@link #release(OriginalFile, OriginalFilesService, Map)}.
+     *
+     * @param file
+     *            Can be null.
+     * @see FileParser#prefetch(File, ExecutorService)
+     */
+    protected void prefetch(final OriginalFile file,
+            final OriginalFilesService files,
+            final Map<String, FileParser> parsers, final ExecutorService pool) {
+        final FileParser parser = parser(file, files, parsers);
+        if (parser != null) {
+            parser.prefetch(new File(files.getFilesPath(file.getId())), pool);
+        }
+    }
+
+    /**
+     * Releases the text extracted by
+     * {@link #prefetch(OriginalFile, OriginalFilesService, Map, ExecutorService)}.
+     *
+     * @param file
+     *            Can be null.
+     * @see FileParser#release(File)
+     */
+    protected void release(final OriginalFile file,
+            final OriginalFilesService files,
+            final Map<String, FileParser> parsers) {
+        final FileParser parser = parser(file, files, parsers);
+        if (parser != null) {
+            parser.release(new File(files.getFilesPath(file.getId())));
+        }
+    }
+
+    private FileParser parser(final OriginalFile file,
+            final OriginalFilesService files,
+            final Map<String, FileParser> parsers) {
+        if (files == null || parsers == null || file == null
+                || file.getMimetype() == null) {
+            return null;
+        }
+        final FileParser parser = parsers.get(file.getMimetype());
+        return parser != null ? parser : parsers.get("*");
+    }
 }
@@ -9,8 +9,18 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import ome.services.messages.ParserOpenFileMessage;
 import ome.system.OmeroContext;
@@ -39,6 +49,25 @@ public class FileParser implements ApplicationContextAware {
 
     protected long maxFileSize = 10000L; // default test is 8.8KB
 
+    /**
+     * Largest file whose text will be extracted ahead of indexing by
+     * {@link #prefetch(File, ExecutorService)}, since that text is held in
+     * memory until the file is {@link #release(File) released}.
+     */
+    public final static long MAX_PREFETCH_SIZE = 10L * 1024 * 1024;
+
+    /**
+     * Text being extracted ahead of indexing, by file path.
+     */
+    private final Map<String, Prefetch> prefetched = new HashMap<String, Prefetch>();
+
+    /**
+     * The files opened by {@link #doParse(File)} while extracting text on a
+     * prefetching thread, otherwise null.
+     */
+    private final ThreadLocal<List<ParserOpenFileMessage>> extracting =
+            new ThreadLocal<List<ParserOpenFileMessage>>();
+
     public void setApplicationContext(ApplicationContext arg0)
             throws BeansException {
         context = (OmeroContext) arg0;
@@ -112,6 +141,15 @@ public class FileParser implements ApplicationContextAware {
             return EMPTY;
         }
 
+        final List<String> texts = prefetched(file);
+        if (texts != null) {
+            final List<Reader> readers = new ArrayList<Reader>(texts.size());
+            for (String text : texts) {
+                readers.add(new StringReader(text));
+            }
+            return wrap(readers.iterator());
+        }
+
         try {
             Iterable<Reader> it = doParse(file);
             if (it == null) {
@@ -127,6 +165,149 @@ public class FileParser implements ApplicationContextAware {
 
     }
 
+    /**
+     * Starts extracting the text of a file on the given pool so that a later
+     * {@link #parse(File)} of the same file need not wait on
+     * {@link #doParse(File)}. Files which {@link #parse(File)} would skip or
+     * which are larger than {@link #MAX_PREFETCH_SIZE} are ignored. Each call
+     * must be matched by a call to {@link #release(File)} once the file has
+     * been indexed.
+     *
+     * @param file
+     *            Can be null.
+     * @param pool
+     *            where the text is extracted.
+     */
+    public void prefetch(final File file, ExecutorService pool) {
+        if (file == null || !file.canRead() || file.length() > maxFileSize
+                || file.length() > MAX_PREFETCH_SIZE) {
+            return;
+        }
+        synchronized (prefetched) {
+            final Prefetch prefetch = prefetched.get(file.getPath());
+            if (prefetch != null) {
+                prefetch.users++;
+                return;
+            }
+            prefetched.put(file.getPath(), new Prefetch(pool.submit(
+                    new Callable<List<String>>() {
+                        public List<String> call() throws Exception {
+                            return extract(file);
+                        }
+                    })));
+        }
+    }
+
+    /**
+     * Discards the text extracted by {@link #prefetch(File, ExecutorService)}
+     * once every caller of that method has released the file.
+     *
+     * @param file
+     *            Can be null.
+     */
+    public void release(File file) {
+        if (file == null) {
+            return;
+        }
+        synchronized (prefetched) {
+            final Prefetch prefetch = prefetched.get(file.getPath());
+            if (prefetch != null && --prefetch.users == 0) {
+                prefetched.remove(file.getPath());
+                prefetch.texts.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Waits for the text extracted by
+     * {@link #prefetch(File, ExecutorService)}, if any.
+     *
+     * @return null if the file was not prefetched or if the extraction
+     *         failed, in which case {@link #parse(File)} should parse it as
+     *         usual.
+     */
+    private List<String> prefetched(File file) {
+        final Prefetch prefetch;
+        synchronized (prefetched) {
+            prefetch = prefetched.get(file.getPath());
+        }
+        if (prefetch == null) {
+            return null;
+        }
+        try {
+            return prefetch.texts.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            log.debug("Prefetching failed for " + file, e.getCause());
+            return null;
+        } catch (CancellationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Arranges for a file opened by {@link #doParse(File)} to be closed. The
+     * files opened while prefetching are closed once their text has been
+     * extracted, rather than being published to the {@link ParserSession}
+     * of the indexing thread.
+     *
+     * @param message
+     *            closes the file.
+     */
+    protected void publishOpenFile(ParserOpenFileMessage message) {
+        final List<ParserOpenFileMessage> opened = extracting.get();
+        if (opened != null) {
+            opened.add(message);
+        } else {
+            context.publishEvent(message);
+        }
+    }
+
+    /**
+     * Reads all the chunks from {@link #doParse(File)} into memory.
+     */
+    private List<String> extract(File file) throws Exception {
+        final List<ParserOpenFileMessage> opened =
+                new ArrayList<ParserOpenFileMessage>();
+        extracting.set(opened);
+        try {
+            return extractTexts(file);
+        } finally {
+            extracting.remove();
+            for (ParserOpenFileMessage message : opened) {
+                message.close();
+            }
+        }
+    }
+
+    private List<String> extractTexts(File file) throws Exception {
+        final List<String> texts = new ArrayList<String>();
+        final Iterable<Reader> it = doParse(file);
+        if (it == null) {
+            return texts;
+        }
+        final char[] buf = new char[8192];
+        for (Reader reader : it) {
+            try {
+                final StringBuilder sb = new StringBuilder();
+                int rv;
+                while ((rv = reader.read(buf)) != -1) {
+                    sb.append(buf, 0, rv);
+                }
+                texts.add(sb.toString());
+            } finally {
+                try {
+                    reader.close();
+                } catch (Exception e) {
+                    log.debug("Error closing " + reader, e);
+                }
+            }
+        }
+        return texts;
+    }
+
     /**
      * Template method to parse a {@link File} into manageable chunks.
      * 
@@ -146,7 +327,7 @@ public class FileParser implements ApplicationContextAware {
     public Iterable<Reader> doParse(File file) throws Exception {
         FileReader reader = new FileReader(file);
         BufferedReader buffered = new BufferedReader(reader);
-        context.publishEvent(new ParserOpenFileMessage(this, buffered) {
+        publishOpenFile(new ParserOpenFileMessage(this, buffered) {
             @Override
             public void close() {
                 try {
@@ -184,6 +365,18 @@ public class FileParser implements ApplicationContextAware {
         return wrap(new SingleIterator(r));
     }
 
+    private static class Prefetch {
+
+        final Future<List<String>> texts;
+
+        /** Guarded by {@link FileParser#prefetched}. */
+        int users = 1;
+
+        Prefetch(Future<List<String>> texts) {
+            this.texts = texts;
+        }
+    }
+
     private static class SingleIterator implements Iterator<Reader> {
 
         Reader r;
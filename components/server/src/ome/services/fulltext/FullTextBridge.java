@@ -6,9 +6,11 @@
 package ome.services.fulltext;
 
 import java.io.Reader;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 import ome.io.nio.OriginalFilesService;
 import ome.model.IAnnotated;
@@ -132,6 +134,66 @@ public class FullTextBridge extends BridgeHelper {
 
     }
 
+    /**
+     * Lists the {@link OriginalFile files} whose contents will be parsed when
+     * indexing the given object: the object itself if it is an
+     * {@link OriginalFile}, as well as the files of its own or linked
+     * {@link FileAnnotation file annotations}.
+     *
+     * @param object
+     * @return See above.
+     */
+    public List<OriginalFile> parsedFiles(final IObject object) {
+        final List<OriginalFile> parsed = new ArrayList<OriginalFile>();
+        if (object instanceof OriginalFile) {
+            parsed.add((OriginalFile) object);
+        }
+        if (object instanceof IAnnotated) {
+            for (Annotation annotation : ((IAnnotated) object)
+                    .linkedAnnotationList()) {
+                if (annotation instanceof FileAnnotation
+                        && ((FileAnnotation) annotation).getFile() != null) {
+                    parsed.add(((FileAnnotation) annotation).getFile());
+                }
+            }
+        }
+        if (object instanceof FileAnnotation
+                && ((FileAnnotation) object).getFile() != null) {
+            parsed.add(((FileAnnotation) object).getFile());
+        }
+        return parsed;
+    }
+
+    /**
+     * Starts extracting the contents of the given files on the given pool
+     * ahead of {@link #set(String, Object, Document, LuceneOptions)}.
+     * Must be matched by a call to {@link #release(List)}.
+     *
+     * @param parsedFiles
+     *            as returned by {@link #parsedFiles(IObject)}.
+     * @param pool
+     *            where the contents are extracted.
+     */
+    public void prefetch(final List<OriginalFile> parsedFiles,
+            final ExecutorService pool) {
+        for (OriginalFile file : parsedFiles) {
+            prefetch(file, files, parsers, pool);
+        }
+    }
+
+    /**
+     * Releases the contents extracted by
+     * {@link #prefetch(List, ExecutorService)}.
+     *
+     * @param parsedFiles
+     *            as passed to {@link #prefetch(List, ExecutorService)}.
+     */
+    public void release(final List<OriginalFile> parsedFiles) {
+        for (OriginalFile file : parsedFiles) {
+            release(file, files, parsers);
+        }
+    }
+
     /**
      * Uses {@link BridgeHelper#parse(OriginalFile, OriginalFilesService, Map)}
      * to get a {@link Reader} for the given
@@ -19,11 +19,21 @@
 
 package ome.services.fulltext;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import ome.model.IAnnotated;
 import ome.model.IGlobal;
 import ome.model.IMutable;
 import ome.model.IObject;
+import ome.model.core.OriginalFile;
 import ome.model.meta.EventLog;
 import ome.services.eventlogs.EventLogFailure;
 import ome.services.eventlogs.EventLogLoader;
@@ -38,6 +48,9 @@ import ome.system.metrics.Timer;
 import ome.tools.hibernate.QueryBuilder;
 import ome.util.SqlAction;
 
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 import org.hibernate.CacheMode;
 import org.hibernate.FlushMode;
 import org.hibernate.Session;
@@ -68,10 +81,16 @@ public class FullTextIndexer extends SimpleWork implements ApplicationContextAwa
      */
     public final static int DEFAULT_REPORTING_LOOPS = 100;
 
+    /**
+     * Maximum number of ids of one type to load per query.
+     */
+    public final static int BULK_LOAD_SIZE = 500;
+
     abstract class Action {
         Class type;
         long id;
         IObject obj;
+        EventLog eventLog;
 
         abstract void go(FullTextSession session);
 
@@ -139,6 +158,16 @@ public class FullTextIndexer extends SimpleWork implements ApplicationContextAwa
 
     protected OmeroContext context = null;
 
+    protected FullTextBridge bridge = null;
+
+    /**
+     * Number of threads extracting the text of files ahead of indexing.
+     * Files are parsed by the indexing thread itself if not positive.
+     */
+    protected int parserThreads = 0;
+
+    private ExecutorService parserPool = null;
+
     /**
      * Spring injector. Sets the number of indexing runs will be made if there
      * is a substantial backlog.
@@ -159,6 +188,32 @@ public class FullTextIndexer extends SimpleWork implements ApplicationContextAwa
         this.context = (OmeroContext) ctx;
     }
 
+    /**
+     * Spring injector. Sets the bridge which will be asked for the files to
+     * parse ahead of indexing. Without it, files are not prefetched.
+     */
+    public void setFullTextBridge(FullTextBridge bridge) {
+        this.bridge = bridge;
+    }
+
+    /**
+     * Spring injector. Sets the number of threads which parse files ahead of
+     * indexing.
+     */
+    public void setParserThreads(int parserThreads) {
+        this.parserThreads = parserThreads;
+    }
+
+    /**
+     * Stops the threads parsing files, if any were started.
+     */
+    public synchronized void destroy() {
+        if (parserPool != null) {
+            parserPool.shutdownNow();
+            parserPool = null;
+        }
+    }
+
     public FullTextIndexer(EventLogLoader ll) {
         this(ll, new NullMetrics());
     }
@@ -261,7 +316,7 @@ public class FullTextIndexer extends SimpleWork implements ApplicationContextAwa
 
     public int doIndexing(FullTextSession session) {
 
-        int count = 0;
+        final List<EventLog> eventLogs = new ArrayList<EventLog>();
 
         for (EventLog eventLog : loader) {
 
@@ -270,60 +325,152 @@ public class FullTextIndexer extends SimpleWork implements ApplicationContextAwa
             }
 
             if (eventLog != null) {
-                handleEventLog(session, eventLog);
-                count++;
+                eventLogs.add(eventLog);
             }
+
+        }
+
+        if (!eventLogs.isEmpty()) {
+            handleEventLogs(session, eventLogs);
             session.flush();
             parserSession.closeParsedFiles();
-
         }
-        return count;
+        return eventLogs.size();
     }
 
-    protected void handleEventLog(FullTextSession session, EventLog eventLog) {
-        String act = eventLog.getAction();
-        Class type = asClassOrNull(eventLog.getEntityType());
-        if (type != null) {
-            long id = eventLog.getEntityId();
-
-            Action action = null;
-            if ("DELETE".equals(act)) {
-                action = new Purge(type, id);
-            } else if ("REINDEX".equals(act) || "UPDATE".equals(act) || "INSERT".equals(act)) {
-                IObject obj = get(session, type, id);
-                if (obj == null) {
-                    // This object was deleted before the indexer caught up with
-                    // the INSERT/UDPDATE log. Though this isn't a problem itself,
-                    // this does mean that the indexer is likely going too slow.
-                    log.debug(String.format("Null returned! Purging "
-                            + "since cannot index %s:Id_%s for %s", type
-                            .getName(), id, eventLog));
-                    action = new Purge(type, id);
-                } else {
-                    action = new Index(obj);
-                }
-            } else {
+    /**
+     * Handles a batch of {@link EventLog} instances. Only the last log of
+     * each object is acted upon, and the objects to index are loaded with a
+     * query per {@link #BULK_LOAD_SIZE} ids of each type rather than with a
+     * query each. Failures are reported per object against its last log.
+     */
+    protected void handleEventLogs(FullTextSession session,
+            List<EventLog> eventLogs) {
+
+        final Map<Class, Map<Long, EventLog>> latest =
+                new LinkedHashMap<Class, Map<Long, EventLog>>();
+        for (EventLog eventLog : eventLogs) {
+            String act = eventLog.getAction();
+            if (!("DELETE".equals(act) || "REINDEX".equals(act)
+                    || "UPDATE".equals(act) || "INSERT".equals(act))) {
                 // Likely CHGRP-VALIDATION, PIXELDATA or similar.
                 if (log.isDebugEnabled()) {
                     log.debug("Unknown action type: " + act);
                 }
+                continue;
             }
+            Class type = asClassOrNull(eventLog.getEntityType());
+            if (type != null) {
+                Map<Long, EventLog> byId = latest.get(type);
+                if (byId == null) {
+                    byId = new LinkedHashMap<Long, EventLog>();
+                    latest.put(type, byId);
+                }
+                byId.put(eventLog.getEntityId(), eventLog);
+            }
+        }
 
-            if (action != null) {
-                try {
-                    action.go(session);
-                } catch (Exception e) {
-                    try {
-                        this.context.publishMessage(new EventLogFailure(loader, eventLog, e));
-                    } catch (RuntimeException re) {
-                        throw re;
-                    } catch (Throwable e1) {
-                        throw new RuntimeException(e1);
+        final List<Action> actions = new ArrayList<Action>();
+        for (Map.Entry<Class, Map<Long, EventLog>> entry : latest.entrySet()) {
+            final Class type = entry.getKey();
+            final List<Long> ids = new ArrayList<Long>();
+            for (EventLog eventLog : entry.getValue().values()) {
+                if (!"DELETE".equals(eventLog.getAction())) {
+                    ids.add(eventLog.getEntityId());
+                }
+            }
+            final Map<Long, IObject> objs = get(session, type, ids);
+            for (EventLog eventLog : entry.getValue().values()) {
+                long id = eventLog.getEntityId();
+                Action action;
+                if ("DELETE".equals(eventLog.getAction())) {
+                    action = new Purge(type, id);
+                } else {
+                    IObject obj = objs.get(id);
+                    if (obj == null) {
+                        // This object was deleted before the indexer caught up with
+                        // the INSERT/UDPDATE log. Though this isn't a problem itself,
+                        // this does mean that the indexer is likely going too slow.
+                        log.debug(String.format("Null returned! Purging "
+                                + "since cannot index %s:Id_%s for %s", type
+                                .getName(), id, eventLog));
+                        action = new Purge(type, id);
+                    } else {
+                        action = new Index(obj);
                     }
                 }
-                action.log(log);
+                action.eventLog = eventLog;
+                actions.add(action);
             }
         }
+
+        // Files are parsed on the pool a window of objects ahead.
+        final int window = 2 * parserThreads;
+        final List<List<OriginalFile>> parsedFiles =
+                new ArrayList<List<OriginalFile>>(actions.size());
+        for (int i = 0; i < actions.size(); i++) {
+            while (parsedFiles.size() < actions.size()
+                    && parsedFiles.size() <= i + window) {
+                parsedFiles.add(prefetch(actions.get(parsedFiles.size())));
+            }
+            final Action action = actions.get(i);
+            try {
+                action.go(session);
+            } catch (Exception e) {
+                try {
+                    this.context.publishMessage(new EventLogFailure(loader, action.eventLog, e));
+                } catch (RuntimeException re) {
+                    throw re;
+                } catch (Throwable e1) {
+                    throw new RuntimeException(e1);
+                }
+            } finally {
+                parserSession.closeParsedFiles();
+                release(parsedFiles.set(i, null));
+            }
+            action.log(log);
+        }
+    }
+
+    protected void handleEventLog(FullTextSession session, EventLog eventLog) {
+        handleEventLogs(session, Collections.singletonList(eventLog));
+    }
+
+    /**
+     * Starts parsing the files of the object to be indexed by an
+     * {@link Action} on {@link #parserPool}.
+     *
+     * @return the files to {@link #release(List)} once indexed.
+     */
+    private List<OriginalFile> prefetch(Action action) {
+        if (bridge == null || parserThreads < 1 || action.obj == null) {
+            return Collections.emptyList();
+        }
+        try {
+            final List<OriginalFile> files = bridge.parsedFiles(action.obj);
+            bridge.prefetch(files, parserPool());
+            return files;
+        } catch (RuntimeException e) {
+            // The files will be parsed while indexing instead.
+            log.debug("Failed to prefetch files of " + action.obj, e);
+            return Collections.emptyList();
+        }
+    }
+
+    private void release(List<OriginalFile> files) {
+        if (files != null && !files.isEmpty()) {
+            bridge.release(files);
+        }
+    }
+
+    private synchronized ExecutorService parserPool() {
+        if (parserPool == null) {
+            parserPool = Executors.newFixedThreadPool(parserThreads,
+                    new ThreadFactoryBuilder()
+                            .setNameFormat("FullTextParser-%d")
+                            .setDaemon(true).build());
+        }
+        return parserPool;
     }
 
     /**
@@ -356,6 +503,37 @@ public class FullTextIndexer extends SimpleWork implements ApplicationContextAwa
     }
 
     protected IObject get(Session session, Class type, long id) {
+        QueryBuilder qb = query(type);
+        qb.where().and("this.id = :id");
+        qb.param("id", id);
+
+        return (IObject) qb.query(session).uniqueResult();
+    }
+
+    /**
+     * Loads the objects of a type with the same joins as
+     * {@link #get(Session, Class, long)}, {@link #BULK_LOAD_SIZE} at a time.
+     *
+     * @return the objects found, by id.
+     */
+    protected Map<Long, IObject> get(Session session, Class type,
+            Collection<Long> ids) {
+        final Map<Long, IObject> objs = new HashMap<Long, IObject>();
+        for (List<Long> batch : Lists.partition(new ArrayList<Long>(ids),
+                BULK_LOAD_SIZE)) {
+            QueryBuilder qb = query(type);
+            qb.where().and("this.id in (:ids)");
+            qb.paramList("ids", batch);
+            // The fetched collections repeat rows of the same object.
+            for (Object o : qb.query(session).list()) {
+                IObject obj = (IObject) o;
+                objs.put(obj.getId(), obj);
+            }
+        }
+        return objs;
+    }
+
+    private QueryBuilder query(Class type) {
         QueryBuilder qb = new QueryBuilder();
         qb.select("this").from(type.getName(), "this");
         if (IAnnotated.class.isAssignableFrom(type)) {
@@ -372,9 +550,6 @@ public class FullTextIndexer extends SimpleWork implements ApplicationContextAwa
             qb.join("this.details.owner", "owner", false, true);
             qb.join("this.details.group", "group", false, true);
         }
-        qb.where().and("this.id = :id");
-        qb.param("id", id);
-
-        return (IObject) qb.query(session).uniqueResult();
+        return qb;
     }
 }
@@ -33,7 +33,7 @@ public class PdfParser extends FileParser {
     public Iterable<Reader> doParse(File file) throws Exception {
 
         final PdfThread pdfThread = new PdfThread(file);
-        this.context.publishEvent(new ParserOpenFileMessage(this,
+        publishOpenFile(new ParserOpenFileMessage(this,
                 pdfThread) {
             @Override
             public void close() {
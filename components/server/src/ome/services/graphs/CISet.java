@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2018 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.services.graphs;
+
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+
+import ome.services.graphs.GraphTraversal.CI;
+
+/**
+ * A set of {@link CI}s that holds the IDs of each class in a {@link LongSet} rather than holding {@link CI} instances,
+ * for compactness in planning operations on very large graphs.
+ * Its iterator constructs the {@link CI}s afresh.
+ * It may not be modified while iterating over it other than by {@link Iterator#remove()}:
+ * its iterators are fail-fast, throwing {@link ConcurrentModificationException} if it is.
+ * @since 5.4.7
+ */
+final class CISet extends AbstractSet<CI> {
+    private final Map<String, LongSet> idsByClass = new HashMap<String, LongSet>();
+    private int size = 0;
+    /* count of changes to the set, for detecting concurrent modification */
+    private int modCount = 0;
+
+    /**
+     * Construct an empty set.
+     */
+    CISet() {
+    }
+
+    /**
+     * Construct a set of the given objects.
+     * @param objects some objects
+     */
+    CISet(Collection<CI> objects) {
+        addAll(objects);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean contains(Object object) {
+        if (object instanceof CI) {
+            final CI ci = (CI) object;
+            final LongSet ids = idsByClass.get(ci.className);
+            return ids != null && ids.contains(ci.id);
+        } else {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean add(CI object) {
+        LongSet ids = idsByClass.get(object.className);
+        if (ids == null) {
+            ids = new LongSet();
+            idsByClass.put(object.className, ids);
+        }
+        if (ids.add(object.id)) {
+            size++;
+            modCount++;
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean remove(Object object) {
+        if (object instanceof CI) {
+            final CI ci = (CI) object;
+            final LongSet ids = idsByClass.get(ci.className);
+            if (ids != null && ids.remove(ci.id)) {
+                size--;
+                modCount++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void clear() {
+        idsByClass.clear();
+        size = 0;
+        modCount++;
+    }
+
+    @Override
+    public Iterator<CI> iterator() {
+        final Iterator<Entry<String, LongSet>> classes = idsByClass.entrySet().iterator();
+        return new Iterator<CI>() {
+            private int expectedModCount = modCount;
+            private String className = null;
+            private LongSet ids = null;
+            private int nextSlot = -1;
+            private int lastSlot = -1;
+
+            private void checkForComodification() {
+                if (modCount != expectedModCount) {
+                    throw new ConcurrentModificationException();
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                checkForComodification();
+                while (nextSlot < 0) {
+                    if (!classes.hasNext()) {
+                        return false;
+                    }
+                    final Entry<String, LongSet> next = classes.next();
+                    className = next.getKey();
+                    ids = next.getValue();
+                    nextSlot = ids.nextSlot(0);
+                }
+                return true;
+            }
+
+            @Override
+            public CI next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                lastSlot = nextSlot;
+                nextSlot = ids.nextSlot(nextSlot + 1);
+                return new CI(className, ids.idAt(lastSlot));
+            }
+
+            @Override
+            public void remove() {
+                if (lastSlot < 0) {
+                    throw new IllegalStateException();
+                }
+                checkForComodification();
+                ids.removeAt(lastSlot);
+                lastSlot = -1;
+                size--;
+                expectedModCount = ++modCount;
+            }
+        };
+    }
+}
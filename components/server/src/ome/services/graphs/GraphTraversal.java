@@ -1,5 +1,5 @@
 /*
- * Copyright (C) 2014-2017 University of Dundee & Open Microscopy Environment.
+ * Copyright (C) 2014-2018 University of Dundee & Open Microscopy Environment.
  * All rights reserved.
  *
  * This program is free software; you can redistribute it and/or modify
@@ -152,9 +152,10 @@ public class GraphTraversal {
      * @author m.t.b.carroll@dundee.ac.uk
      * @since 5.1.0
      */
-    private static final class CI {
+    static final class CI {
         final String className;
         final long id;
+        private final int hashCode;
 
         /**
          * Construct an instance with the given field values.
@@ -164,6 +165,7 @@ public class GraphTraversal {
         CI(String className, long id) {
             this.className = className;
             this.id = id;
+            this.hashCode = hashCode(className, id);
         }
 
         /**
@@ -177,6 +179,11 @@ public class GraphTraversal {
                 this.className = object.getClass().getName();
             }
             this.id = object.getId();
+            this.hashCode = hashCode(className, id);
+        }
+
+        private static int hashCode(String className, long id) {
+            return 31 * className.hashCode() + (int) (id ^ (id >>> 32));
         }
 
         /**
@@ -209,7 +216,7 @@ public class GraphTraversal {
 
         @Override
         public int hashCode() {
-            return Objects.hashCode(getClass(), className, id);
+            return hashCode;
         }
 
         @Override
@@ -262,7 +269,7 @@ public class GraphTraversal {
 
         @Override
         public int hashCode() {
-            return Objects.hashCode(getClass(), className, propertyName);
+            return 31 * className.hashCode() + propertyName.hashCode();
         }
 
         @Override
@@ -324,7 +331,7 @@ public class GraphTraversal {
 
         @Override
         public int hashCode() {
-            return Objects.hashCode(getClass(), className, propertyName, id);
+            return 31 * (31 * className.hashCode() + propertyName.hashCode()) + (int) (id ^ (id >>> 32));
         }
 
         @Override
@@ -375,17 +382,17 @@ public class GraphTraversal {
      */
     private static class Planning {
         /* process state */
-        final Set<CI> toProcess = new HashSet<CI>();
-        final Set<CI> included = new HashSet<CI>();
-        final Set<CI> deleted = new HashSet<CI>();
-        final Set<CI> outside = new HashSet<CI>();
-        final Set<CI> unchanged = new HashSet<CI>();
+        final Set<CI> toProcess = new CISet();
+        final Set<CI> included = new CISet();
+        final Set<CI> deleted = new CISet();
+        final Set<CI> outside = new CISet();
+        final Set<CI> unchanged = new CISet();
         /* orphan checks */
-        final Set<CI> findIfLast = new HashSet<CI>();
+        final Set<CI> findIfLast = new CISet();
         final Map<CI, Boolean> foundIfLast = new HashMap<CI, Boolean>();
         /* links */
         final Map<CI, CI> aliases = new HashMap<CI, CI>();
-        final Set<CI> cached = new HashSet<CI>();
+        final Set<CI> cached = new CISet();
         final SetMultimap<CPI, CI> forwardLinksCached = HashMultimap.create();
         final SetMultimap<CPI, CI> backwardLinksCached = HashMultimap.create();
         final SetMultimap<CI, CI> befores = HashMultimap.create();
@@ -393,13 +400,13 @@ public class GraphTraversal {
         final Map<CI, Set<CI>> blockedBy = new HashMap<CI, Set<CI>>();
         /* permissions, unused for system users */
         final Map<CI, ome.model.internal.Details> detailsNoted = new HashMap<CI, ome.model.internal.Details>();
-        final Set<CI> mayUpdate = new HashSet<CI>();
-        final Set<CI> mayDelete = new HashSet<CI>();
-        final Set<CI> mayChmod = new HashSet<CI>();
-        final Set<CI> mayChgrp = new HashSet<CI>();
-        final Set<CI> mayChown = new HashSet<CI>();
-        final Set<CI> owns = new HashSet<CI>();
-        final Set<CI> overrides = new HashSet<CI>();
+        final Set<CI> mayUpdate = new CISet();
+        final Set<CI> mayDelete = new CISet();
+        final Set<CI> mayChmod = new CISet();
+        final Set<CI> mayChgrp = new CISet();
+        final Set<CI> mayChown = new CISet();
+        final Set<CI> owns = new CISet();
+        final Set<CI> overrides = new CISet();
     }
 
     /**
@@ -518,7 +525,7 @@ public class GraphTraversal {
         } else {
             /* act as if the target objects have no links and no rules match them */
             for (final CI targetObject : targetSet) {
-                planning.blockedBy.put(targetObject, new HashSet<CI>());
+                planning.blockedBy.put(targetObject, new CISet());
             }
         }
         progress.add(Milestone.PLANNED);
@@ -567,7 +574,7 @@ public class GraphTraversal {
         } else {
             /* act as if the target objects have no links and no rules match them */
             for (final CI targetObject : targetSet) {
-                planning.blockedBy.put(targetObject, new HashSet<CI>());
+                planning.blockedBy.put(targetObject, new CISet());
             }
         }
         progress.add(Milestone.PLANNED);
@@ -597,9 +604,15 @@ public class GraphTraversal {
             /* process any pending objects */
             while (!(planning.toProcess.isEmpty() && planning.findIfLast.isEmpty())) {
                 /* first process any cached objects that do not await orphan status determination */
-                final Set<CI> toProcess = new HashSet<CI>(planning.toProcess);
-                toProcess.retainAll(planning.cached);
-                toProcess.removeAll(planning.findIfLast);
+                final Set<CI> toProcess = new CISet();
+                final Set<CI> toCache = new CISet();
+                for (final CI object : planning.toProcess) {
+                    if (!planning.cached.contains(object)) {
+                        toCache.add(object);
+                    } else if (!planning.findIfLast.contains(object)) {
+                        toProcess.add(object);
+                    }
+                }
                 if (!toProcess.isEmpty()) {
                     if (optimisticReprocess != null && !Sets.difference(planning.toProcess, optimisticReprocess).isEmpty()) {
                         /* processing something beyond optimistic suggestion, so circumstances have changed */
@@ -611,8 +624,6 @@ public class GraphTraversal {
                     continue;
                 }
                 /* if none of the above exist, then fill the cache */
-                final Set<CI> toCache = new HashSet<CI>(planning.toProcess);
-                toCache.removeAll(planning.cached);
                 if (!toCache.isEmpty()) {
                     optimisticReprocess = null;
                     cache(toCache);
@@ -620,8 +631,8 @@ public class GraphTraversal {
                 }
                 /* try processing the findIfLast in case of any changes */
                 if (!planning.toProcess.isEmpty()) {
-                    final Set<CI> previousToProcess = new HashSet<CI>(planning.toProcess);
-                    final Set<CI> previousFindIfLast = new HashSet<CI>(planning.findIfLast);
+                    final Set<CI> previousToProcess = new CISet(planning.toProcess);
+                    final Set<CI> previousFindIfLast = new CISet(planning.findIfLast);
                     for (final CI nextObject : previousToProcess) {
                         reviewObject(nextObject, false);
                     }
@@ -631,7 +642,7 @@ public class GraphTraversal {
                             (optimisticReprocess == null ||
                              !Sets.symmetricDifference(planning.toProcess, optimisticReprocess).isEmpty()) &&
                             !Sets.symmetricDifference(previousToProcess, planning.toProcess).isEmpty()) {
-                        optimisticReprocess = new HashSet<CI>(planning.toProcess);
+                        optimisticReprocess = new CISet(planning.toProcess);
                         continue;
                     }   
                 }
@@ -648,7 +659,7 @@ public class GraphTraversal {
                 planning.findIfLast.clear();
             }
             /* determine which objects are now not last */
-            final Set<CI> latestIsNotLast = new HashSet<CI>();
+            final Set<CI> latestIsNotLast = new CISet();
             for (final Entry<CI, Boolean> objectAndIsLast : planning.foundIfLast.entrySet()) {
                 if (!objectAndIsLast.getValue()) {
                     latestIsNotLast.add(objectAndIsLast.getKey());
@@ -693,6 +704,18 @@ public class GraphTraversal {
      * @throws GraphException if the object could not be converted to an unloaded instance
      */
     private void noteDetails(CI object, ome.model.internal.Details objectDetails) throws GraphException {
+        noteDetails(object, objectDetails, null);
+    }
+
+    /**
+     * Note the details of the given object.
+     * @param object the class and ID of the object instance
+     * @param objectDetails the details of the object instance
+     * @param files original files already loaded as required by the ACL voter, indexed by ID, may be {@code null}
+     * @throws GraphException if the object could not be converted to an unloaded instance
+     */
+    private void noteDetails(CI object, ome.model.internal.Details objectDetails, Map<Long, OriginalFile> files)
+            throws GraphException {
         IObject objectInstance = object.toIObject();
 
         if (planning.detailsNoted.put(object, objectDetails) != null) {
@@ -701,7 +724,9 @@ public class GraphTraversal {
 
         if (isCheckUserPermissions) {
             /* BasicACLVoter needs to check fuller instances of some objects */
-            if (objectInstance instanceof OriginalFile) {
+            if (objectInstance instanceof OriginalFile && files != null && files.containsKey(object.id)) {
+                objectInstance = files.get(object.id);
+            } else if (objectInstance instanceof OriginalFile) {
                 final String query = "SELECT mimetype, repo FROM OriginalFile WHERE id = :id";
                 final Object[] result = (Object[]) session.createQuery(query).setLong("id", object.id).uniqueResult();
                 final OriginalFile file = new OriginalFile(object.id, true);
@@ -816,7 +841,10 @@ public class GraphTraversal {
                     "SELECT " + Joiner.on(',').join(selectTerms) + " FROM " + className +" AS root WHERE root.id IN (:ids)";
 
             /* query and note details of objects */
+            final boolean isFiles = isCheckUserPermissions &&
+                    model.getSuperclassesOfReflexive(className).contains(OriginalFile.class.getName());
             for (final List<Long> idsBatch : Iterables.partition(idsToQuery, BATCH_SIZE)) {
+                final Map<Long, OriginalFile> files = isFiles ? findOriginalFiles(idsBatch) : null;
                 final Query hibernateQuery = session.createQuery(detailsQuery).setParameterList("ids", idsBatch);
                 for (final Object[] result : (List<Object[]>) hibernateQuery.list()) {
                     final ome.model.internal.Details details = ome.model.internal.Details.create();
@@ -824,7 +852,7 @@ public class GraphTraversal {
                     details.setOwner((Experimenter) result[1]);
                     details.setGroup((ExperimenterGroup) result[2]);
                     details.setPermissions((Permissions) result[3]);
-                    noteDetails(objectsById.get(id), details);
+                    noteDetails(objectsById.get(id), details, files);
                 }
             }
         }
@@ -832,6 +860,23 @@ public class GraphTraversal {
         return objectsById;
     }
 
+    /**
+     * Load the original files with the properties that {@link ACLVoter} needs to check them.
+     * @param ids the IDs of the original files, no more than {@link #BATCH_SIZE}
+     * @return the original files indexed by ID
+     */
+    private Map<Long, OriginalFile> findOriginalFiles(Collection<Long> ids) {
+        final Map<Long, OriginalFile> files = new HashMap<Long, OriginalFile>();
+        final String query = "SELECT id, mimetype, repo FROM OriginalFile WHERE id IN (:ids)";
+        for (final Object[] result : (List<Object[]>) session.createQuery(query).setParameterList("ids", ids).list()) {
+            final OriginalFile file = new OriginalFile((Long) result[0], true);
+            file.setMimetype((String) result[1]);
+            file.setRepo((String) result[2]);
+            files.put(file.getId(), file);
+        }
+        return files;
+    }
+
     /**
      * Convert the indicated objects to {@link CI}s with their actual class identified.
      * @param objects the objects to query
@@ -1206,7 +1251,7 @@ public class GraphTraversal {
         final Action chosenAction = getAction(object);
         if ((chosenAction == Action.DELETE || chosenAction == Action.INCLUDE) && !planning.blockedBy.containsKey(object)) {
             final Set<CI> queuedItems = planning.blockedBy.keySet();
-            planning.blockedBy.put(object, new HashSet<CI>(Sets.intersection(planning.befores.get(object), queuedItems)));
+            planning.blockedBy.put(object, new CISet(Sets.intersection(planning.befores.get(object), queuedItems)));
             for (final CI afterItem : Sets.intersection(planning.afters.get(object), queuedItems)) {
                 planning.blockedBy.get(afterItem).add(object);
             }
@@ -1380,7 +1425,7 @@ public class GraphTraversal {
      * @return objects of the given class and IDs
      */
     private static Set<CI> idsToCIs(String className, Collection<Long> ids) {
-        final Set<CI> objects = new HashSet<CI>();
+        final Set<CI> objects = new CISet();
         for (final Long id : ids) {
             objects.add(new CI(className, id));
         }
@@ -1529,7 +1574,7 @@ public class GraphTraversal {
         /* process the targets forward across links */
         while (!planning.blockedBy.isEmpty()) {
             /* determine which objects can be processed in this step */
-            final Collection<CI> nowUnblocked = new HashSet<CI>();
+            final Collection<CI> nowUnblocked = new CISet();
             final Iterator<Entry<CI, Set<CI>>> blocks = planning.blockedBy.entrySet().iterator();
             while (blocks.hasNext()) {
                 final Entry<CI, Set<CI>> block = blocks.next();
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2018 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.services.graphs;
+
+/**
+ * A set of IDs, held in a primitive open-addressed hash table.
+ * Removals leave tombstones so that the slots of the other IDs do not move until the table is next resized,
+ * so the slots may be visited with {@link #nextSlot(int)} while removing IDs but not while adding them.
+ * @since 5.4.7
+ */
+final class LongSet {
+    private static final byte FREE = 0;
+    private static final byte FULL = 1;
+    private static final byte REMOVED = 2;
+
+    private long[] ids = new long[8];
+    private byte[] states = new byte[8];
+    private int size = 0;
+    /* count of slots that are not FREE */
+    private int used = 0;
+
+    private int firstSlot(long id) {
+        final long hash = id * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & (ids.length - 1);
+    }
+
+    /**
+     * @param id an ID
+     * @return the slot holding the ID, or {@code -1} if the ID is not in the set
+     */
+    private int find(long id) {
+        final int mask = ids.length - 1;
+        for (int slot = firstSlot(id); states[slot] != FREE; slot = (slot + 1) & mask) {
+            if (states[slot] == FULL && ids[slot] == id) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param id an ID
+     * @return if the set contains the ID
+     */
+    boolean contains(long id) {
+        return find(id) >= 0;
+    }
+
+    /**
+     * @param id an ID
+     * @return if the ID was added, not being already in the set
+     */
+    boolean add(long id) {
+        if (find(id) >= 0) {
+            return false;
+        }
+        if ((used + 1) * 4 > ids.length * 3) {
+            resize();
+        }
+        final int mask = ids.length - 1;
+        int slot = firstSlot(id);
+        while (states[slot] == FULL) {
+            slot = (slot + 1) & mask;
+        }
+        if (states[slot] == FREE) {
+            used++;
+        }
+        ids[slot] = id;
+        states[slot] = FULL;
+        size++;
+        return true;
+    }
+
+    /**
+     * @param id an ID
+     * @return if the ID was removed, having been in the set
+     */
+    boolean remove(long id) {
+        final int slot = find(id);
+        if (slot < 0) {
+            return false;
+        }
+        removeAt(slot);
+        return true;
+    }
+
+    /**
+     * Remove the ID in the given slot.
+     * @param slot a slot that holds an ID
+     */
+    void removeAt(int slot) {
+        if (states[slot] != FULL) {
+            throw new IllegalStateException("slot " + slot + " holds no ID");
+        }
+        states[slot] = REMOVED;
+        size--;
+    }
+
+    /**
+     * @return how many IDs are in the set
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param from the slot from which to search
+     * @return the first slot from the given one that holds an ID, or {@code -1} if there is none
+     */
+    int nextSlot(int from) {
+        for (int slot = from; slot < ids.length; slot++) {
+            if (states[slot] == FULL) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param slot a slot that holds an ID
+     * @return the ID held in the slot
+     */
+    long idAt(int slot) {
+        return ids[slot];
+    }
+
+    /**
+     * Rehash into a table that is no more than half full, dropping the tombstones.
+     */
+    private void resize() {
+        int length = 8;
+        while (length < (size + 1) * 2) {
+            length <<= 1;
+        }
+        final long[] oldIds = ids;
+        final byte[] oldStates = states;
+        ids = new long[length];
+        states = new byte[length];
+        used = size;
+        final int mask = length - 1;
+        for (int oldSlot = 0; oldSlot < oldIds.length; oldSlot++) {
+            if (oldStates[oldSlot] == FULL) {
+                int slot = firstSlot(oldIds[oldSlot]);
+                while (states[slot] == FULL) {
+                    slot = (slot + 1) & mask;
+                }
+                ids[slot] = oldIds[oldSlot];
+                states[slot] = FULL;
+            }
+        }
+    }
+}
@@ -9,7 +9,15 @@ package ome.services.projection;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import com.google.common.util.concurrent.Uninterruptibles;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,6 +39,7 @@ import ome.model.core.Image;
 import ome.model.core.Pixels;
 import ome.model.enums.PixelsType;
 import ome.model.stats.StatsInfo;
+import omeis.providers.re.RenderingExecutor;
 
 /**
  * Implements projection functionality for Pixels sets as declared in {@link
@@ -51,6 +60,12 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
     
     /** Reference to the service used to retrieve the pixels data. */
     protected transient PixelsService pixelsService;
+
+    /**
+     * Executor on which the stacks of the different channels and timepoints
+     * are projected.
+     */
+    protected transient RenderingExecutor renderingExecutor;
     
     /**
      * Returns the interface this implementation is for.
@@ -80,6 +95,17 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
         getBeanHelper().throwIfAlreadySet(this.pixelsService, pixelsService);
         this.pixelsService = pixelsService;
     }
+
+    /**
+     * RenderingExecutor bean injector. For use during configuration. Can only
+     * be called once. If not set, stacks are projected one at a time.
+     */
+    public void setRenderingExecutor(RenderingExecutor renderingExecutor)
+    {
+        getBeanHelper().throwIfAlreadySet(this.renderingExecutor,
+                renderingExecutor);
+        this.renderingExecutor = renderingExecutor;
+    }
     
     /* (non-Javadoc)
      * @see ome.api.IProjection#projectStack(long, ome.model.enums.PixelsType, int, int, int, int, int, int)
@@ -115,37 +141,17 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
                 pixelsType = iQuery.get(PixelsType.class, pixelsType.getId());
             }
 
-            ctx.planeSizeInPixels = 
-                ctx.pixels.getSizeX() * ctx.pixels.getSizeY();
+            ctx.sizeX = ctx.pixels.getSizeX();
+            ctx.sizeY = ctx.pixels.getSizeY();
+            ctx.stripHeight = pixelBuffer.getTileSize().height;
+            ctx.planeSizeInPixels = ctx.sizeX * ctx.sizeY;
             int planeSize = 
                 ctx.planeSizeInPixels * (iPixels.getBitDepth(pixelsType) / 8);
             byte[] buf = new byte[planeSize];
-            ctx.from = pixelBuffer.getStack(channelIndex, timepoint);
+            ctx.from = pixelBuffer;
             ctx.to = new PixelData(pixelsType.getValue(), ByteBuffer.wrap(buf));
-
-            switch (algorithm)
-            {
-                case IProjection.MAXIMUM_INTENSITY:
-                {
-                    projectStackMax(ctx, stepping, start, end, false);
-                    break;
-                }
-                case IProjection.MEAN_INTENSITY:
-                {
-                    projectStackMean(ctx, stepping, start, end, false);
-                    break;
-                }
-                case IProjection.SUM_INTENSITY:
-                {
-                    projectStackSum(ctx, stepping, start, end, false);
-                    break;
-                }
-                default:
-                {
-                    throw new IllegalArgumentException(
-                            "Unknown algorithm: " + algorithm);
-                }
-            }
+            projectStack(ctx, algorithm, channelIndex, timepoint, stepping,
+                    start, end, false);
             return buf;
         }
         catch (IOException e)
@@ -176,9 +182,6 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
                 throw new ResourceError(
                         e.getMessage() + " Please check server log.");
             }
-            if (ctx.from != null) {
-                ctx.from.dispose();
-            }
         }
     }
 
@@ -232,64 +235,57 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
                     newPixels, true);
             try
             {
-                ctx.planeSizeInPixels = ctx.pixels.getSizeX() * ctx.pixels.getSizeY();
-                int planeSize =
+                ctx.sizeX = ctx.pixels.getSizeX();
+                ctx.sizeY = ctx.pixels.getSizeY();
+                ctx.stripHeight = sourceBuffer.getTileSize().height;
+                ctx.planeSizeInPixels = ctx.sizeX * ctx.sizeY;
+                ctx.from = sourceBuffer;
+                final int planeSize =
                     ctx.planeSizeInPixels * (iPixels.getBitDepth(pixelsType) / 8);
-                byte[] buf = new byte[planeSize];
-                ctx.to = new PixelData(pixelsType.getValue(), ByteBuffer.wrap(buf));
+                final String key = renderingExecutor == null ? null
+                        : sec.getEventContext().getCurrentSessionUuid();
+                // Each stack is projected into its own plane, the stacks of
+                // the different channels and timepoints concurrently.
+                List<List<Future<ProjectionContext>>> projections =
+                    new ArrayList<List<Future<ProjectionContext>>>();
                 int newC = 0;
                 for (Integer c : channels)
+                {
+                    List<Future<ProjectionContext>> stacks =
+                        new ArrayList<Future<ProjectionContext>>();
+                    for (int t = tStart; t <= tEnd; t++)
+                    {
+                        stacks.add(submit(key, projectPlane(ctx,
+                                destinationBuffer, pixelsType.getValue(),
+                                planeSize, algorithm, c, t, newC, t - tStart,
+                                stepping, zStart, zEnd)));
+                    }
+                    projections.add(stacks);
+                    newC++;
+                }
+                RuntimeException failure = null;
+                for (newC = 0; newC < projections.size(); newC++)
                 {
                     ctx.minimum = Double.MAX_VALUE;
                     ctx.maximum = Double.MIN_VALUE;
-                    for (int t = tStart; t <= tEnd; t++)
+                    for (Future<ProjectionContext> stack : projections.get(newC))
                     {
                         try
                         {
-                            ctx.from = sourceBuffer.getStack(c, t);
-                            switch (algorithm)
-                            {
-                                case IProjection.MAXIMUM_INTENSITY:
-                                {
-                                    projectStackMax(ctx, stepping, zStart, zEnd, true);
-                                    break;
-                                }
-                                case IProjection.MEAN_INTENSITY:
-                                {
-                                    projectStackMean(ctx, stepping, zStart, zEnd, true);
-                                    break;
-                                }
-                                case IProjection.SUM_INTENSITY:
-                                {
-                                    projectStackSum(ctx, stepping, zStart, zEnd, true);
-                                    break;
-                                }
-                                default:
-                                {
-                                    throw new IllegalArgumentException(
-                                            "Unknown algorithm: " + algorithm);
-                                }
-                            }
-                            destinationBuffer.setPlane(buf, 0, newC, t-tStart);
+                            ProjectionContext projected =
+                                Uninterruptibles.getUninterruptibly(stack);
+                            ctx.minimum = Math.min(ctx.minimum, projected.minimum);
+                            ctx.maximum = Math.max(ctx.maximum, projected.maximum);
                         }
-                        catch (IOException e)
+                        catch (ExecutionException e)
                         {
-                            String error = String.format(
-                                    "I/O error retrieving stack C=%d T=%d: %s",
-                                    c, t, e.getMessage());
-                            log.error(error, e);
-                            throw new ResourceError(error);
-                        }
-                        catch (DimensionsOutOfBoundsException e)
-                        {
-                            String error = String.format(
-                                    "C=%d or T=%d out of range for Pixels Id %d: %s",
-                                    c, t, ctx.pixels.getId(), e.getMessage());
-                            log.error(error, e);
-                            throw new ValidationException(error);
-                        } finally {
-                            if (ctx.from != null) {
-                                ctx.from.dispose();
+                            // Wait for the other stacks before the buffers
+                            // are closed.
+                            if (failure == null)
+                            {
+                                failure = e.getCause() instanceof RuntimeException?
+                                        (RuntimeException) e.getCause() :
+                                        new RuntimeException(e.getCause());
                             }
                         }
                     }
@@ -302,7 +298,10 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
                     // Set our methodology
                     newPixels.setMethodology(
                             IProjection.METHODOLOGY_STRINGS[algorithm]);
-                    newC++;
+                }
+                if (failure != null)
+                {
+                    throw failure;
                 }
             }
             finally
@@ -379,96 +378,102 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
     }
     
     /**
-     * Projects a stack based on the maximum intensity at each XY coordinate.
-     * @param ctx The context of our projection.
-     * @param stepping Stepping value to use while calculating the projection.
-     * For example, <code>stepping=1</code> will use every optical section from
-     * <code>start</code> to <code>end</code> where <code>stepping=2</code> will
-     * use every other section from <code>start</code> to <code>end</code> to
-     * perform the projection.
-     * @param start Optical section to start projecting from.
-     * @param end Optical section to finish projecting.
-     * @param doMinMax Whether or not to calculate the minimum and maximum of
-     * the projected pixel data.
+     * Submits a task to the rendering executor, or runs it in the calling
+     * thread if there is none.
+     * @param key The key under which the task is accounted.
+     * @param task The task to run.
+     * @return The future of the task.
      */
-    private void projectStackMax(ProjectionContext ctx, int stepping,
-                                 int start, int end, boolean doMinMax)
+    private <T> Future<T> submit(String key, Callable<T> task)
     {
-        int currentPlaneStart;
-        double projectedValue, stackValue;
-        double minimum = ctx.minimum;
-        double maximum = ctx.maximum;
-        for (int i = 0; i < ctx.planeSizeInPixels; i++)
+        if (renderingExecutor != null)
         {
-            projectedValue = 0;
-            for (int z = start; z <= end; z += stepping)
-            {
-                currentPlaneStart = ctx.planeSizeInPixels * z;
-                stackValue = ctx.from.getPixelValue(currentPlaneStart + i);
-                if (stackValue > projectedValue)
-                {
-                    projectedValue = stackValue;
-                }
-            }
-            ctx.to.setPixelValue(i, projectedValue);
-            if (doMinMax)
-            {
-                minimum = projectedValue < minimum? projectedValue : minimum;
-                maximum = projectedValue > maximum? projectedValue : maximum;
-            }
+            return renderingExecutor.submit(key, task);
         }
-        ctx.minimum = minimum;
-        ctx.maximum = maximum;
-    }
-    
-    /**
-     * Projects a stack based on the mean intensity at each XY coordinate.
-     * @param from The raw pixel data from the stack to project from.
-     * @param ctx The context of our projection.
-     * source Pixels set pixels type will be used.
-     * @param stepping Stepping value to use while calculating the projection.
-     * For example, <code>stepping=1</code> will use every optical section from
-     * <code>start</code> to <code>end</code> where <code>stepping=2</code> will
-     * use every other section from <code>start</code> to <code>end</code> to
-     * perform the projection.
-     * @param start Optical section to start projecting from.
-     * @param end Optical section to finish projecting.
-     * @param doMinMax Whether or not to calculate the minimum and maximum of
-     * the projected pixel data.
-     */
-    private void projectStackMean(ProjectionContext ctx, int stepping, 
-                                  int start, int end, boolean doMinMax)
-    {
-        projectStackMeanOrSum(ctx, stepping, start, end, true, doMinMax);
+        FutureTask<T> local = new FutureTask<T>(task);
+        local.run();
+        return local;
     }
-    
+
     /**
-     * Projects a stack based on the sum intensity at each XY coordinate.
-     * @param ctx The context of our projection.
-     * @param pixelsType The destination Pixels type. If <code>null</code>, the
-     * source Pixels set pixels type will be used.
+     * Creates a task projecting the stack of a channel at a timepoint into a
+     * plane of the destination buffer. The task touches neither the
+     * Hibernate session nor the context it is given.
+     * @param shared The context of our projection.
+     * @param destination The buffer the projected plane is written to.
+     * @param pixelsType The destination pixels type.
+     * @param planeSize The size in bytes of a destination plane.
+     * @param algorithm The projection algorithm.
+     * @param c The channel to project.
+     * @param t The timepoint to project.
+     * @param newC The channel of the projected plane.
+     * @param newT The timepoint of the projected plane.
      * @param stepping Stepping value to use while calculating the projection.
-     * For example, <code>stepping=1</code> will use every optical section from
-     * <code>start</code> to <code>end</code> where <code>stepping=2</code> will
-     * use every other section from <code>start</code> to <code>end</code> to
-     * perform the projection.
-     * @param start Optical section to start projecting from.
-     * @param end Optical section to finish projecting.
-     * @param doMinMax Whether or not to calculate the minimum and maximum of
-     * the projected pixel data.
+     * @param zStart Optical section to start projecting from.
+     * @param zEnd Optical section to finish projecting.
+     * @return A task returning the context of the projected stack, holding
+     * the minimum and maximum of the projected pixel data.
      */
-    private void projectStackSum(ProjectionContext ctx, int stepping, 
-                                 int start, int end, boolean doMinMax)
+    private Callable<ProjectionContext> projectPlane(
+            final ProjectionContext shared, final PixelBuffer destination,
+            final String pixelsType, final int planeSize, final int algorithm,
+            final int c, final int t, final int newC, final int newT,
+            final int stepping, final int zStart, final int zEnd)
     {
-        projectStackMeanOrSum(ctx, stepping, start, end, false, doMinMax);
+        final ProjectionContext ctx = new ProjectionContext();
+        ctx.pixelsId = shared.pixels.getId();
+        ctx.sizeX = shared.sizeX;
+        ctx.sizeY = shared.sizeY;
+        ctx.stripHeight = shared.stripHeight;
+        ctx.planeSizeInPixels = shared.planeSizeInPixels;
+        ctx.from = shared.from;
+        return new Callable<ProjectionContext>()
+        {
+            public ProjectionContext call()
+            {
+                byte[] buf = new byte[planeSize];
+                ctx.to = new PixelData(pixelsType, ByteBuffer.wrap(buf));
+                try
+                {
+                    projectStack(ctx, algorithm, c, t, stepping, zStart, zEnd,
+                            true);
+                    synchronized (destination)
+                    {
+                        destination.setPlane(buf, 0, newC, newT);
+                    }
+                }
+                catch (DimensionsOutOfBoundsException e)
+                {
+                    String error = String.format(
+                            "C=%d or T=%d out of range for Pixels Id %d: %s",
+                            c, t, ctx.pixelsId, e.getMessage());
+                    log.error(error, e);
+                    throw new ValidationException(error);
+                }
+                catch (IOException e)
+                {
+                    String error = String.format(
+                            "I/O error retrieving stack C=%d T=%d: %s",
+                            c, t, e.getMessage());
+                    log.error(error, e);
+                    throw new ResourceError(error);
+                }
+                ctx.to = null;
+                return ctx;
+            }
+        };
     }
-    
+
     /**
-     * Projects a stack based on the sum intensity at each XY coordinate with
-     * the option to also average the sum intensity.
+     * Projects a stack into {@link ProjectionContext#to}. The stack is read
+     * one strip of rows at a time, each strip being folded into a running
+     * projection, so that memory use does not depend on the number of
+     * optical sections. Reads from the source buffer are serialized on it.
      * @param ctx The context of our projection.
-     * @param pixelsType The destination Pixels type. If <code>null</code>, the
-     * source Pixels set pixels type will be used.
+     * @param algorithm The projection algorithm: the maximum, mean or sum
+     * intensity at each XY coordinate.
+     * @param c The channel to project.
+     * @param t The timepoint to project.
      * @param stepping Stepping value to use while calculating the projection.
      * For example, <code>stepping=1</code> will use every optical section from
      * <code>start</code> to <code>end</code> where <code>stepping=2</code> will
@@ -476,51 +481,110 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
      * perform the projection.
      * @param start Optical section to start projecting from.
      * @param end Optical section to finish projecting.
-     * @param mean Whether or not we're performing an average post sum
-     * intensity projection.
      * @param doMinMax Whether or not to calculate the minimum and maximum of
      * the projected pixel data.
+     * @throws IOException If the stack cannot be read.
      */
-    private void projectStackMeanOrSum(ProjectionContext ctx, int stepping,
-                                       int start, int end, 
-                                       boolean mean, boolean doMinMax)
+    private void projectStack(ProjectionContext ctx, int algorithm, int c,
+                              int t, int stepping, int start, int end,
+                              boolean doMinMax)
+        throws IOException
     {
-        double planeMaximum = ctx.to.getMaximum();
-
-        int currentPlaneStart;
-        double projectedValue, stackValue;
-        double minimum = ctx.minimum;
-        double maximum = ctx.maximum;
-        for (int i = 0; i < ctx.planeSizeInPixels; i++)
+        boolean max = false;
+        boolean mean = false;
+        switch (algorithm)
         {
-            projectedValue = 0;
-            int projectedPlaneCount = 0;
-            for (int z = start; z < end; z += stepping)
+            case IProjection.MAXIMUM_INTENSITY:
             {
-                currentPlaneStart = ctx.planeSizeInPixels * z;
-                stackValue = ctx.from.getPixelValue(currentPlaneStart + i);
-                projectedValue += stackValue;
-                projectedPlaneCount++;
+                max = true;
+                break;
             }
-            if (mean)
+            case IProjection.MEAN_INTENSITY:
             {
-                projectedValue = projectedValue / projectedPlaneCount;
+                mean = true;
+                break;
             }
-            if (projectedValue > planeMaximum)
+            case IProjection.SUM_INTENSITY:
             {
-                projectedValue = planeMaximum;
+                break;
             }
-            ctx.to.setPixelValue(i, projectedValue);
-            if (doMinMax)
+            default:
             {
-                minimum = projectedValue < minimum? projectedValue : minimum;
-                maximum = projectedValue > maximum? projectedValue : maximum;
+                throw new IllegalArgumentException(
+                        "Unknown algorithm: " + algorithm);
+            }
+        }
+        // The mean and sum intensity projections exclude the last section.
+        int last = max? end : end - 1;
+        int projectedPlaneCount = 0;
+        for (int z = start; z <= last; z += stepping)
+        {
+            projectedPlaneCount++;
+        }
+        double planeMaximum = ctx.to.getMaximum();
+        double minimum = ctx.minimum;
+        double maximum = ctx.maximum;
+        int stripHeight = Math.max(1, Math.min(ctx.stripHeight, ctx.sizeY));
+        double[] projected = new double[ctx.sizeX * stripHeight];
+        double[] stack = new double[projected.length];
+        double projectedValue, stackValue;
+        for (int y = 0; y < ctx.sizeY; y += stripHeight)
+        {
+            int height = Math.min(stripHeight, ctx.sizeY - y);
+            int stripSizeInPixels = ctx.sizeX * height;
+            Arrays.fill(projected, 0, stripSizeInPixels, 0);
+            for (int z = start; z <= last; z += stepping)
+            {
+                PixelData strip;
+                synchronized (ctx.from)
+                {
+                    strip = ctx.from.getTile(z, c, t, 0, y, ctx.sizeX, height);
+                }
+                try
+                {
+                    strip.getPixelValues(0, stack, 0, stripSizeInPixels);
+                }
+                finally
+                {
+                    strip.dispose();
+                }
+                for (int i = 0; i < stripSizeInPixels; i++)
+                {
+                    stackValue = stack[i];
+                    if (!max)
+                    {
+                        projected[i] += stackValue;
+                    }
+                    else if (stackValue > projected[i])
+                    {
+                        projected[i] = stackValue;
+                    }
+                }
+            }
+            int stripStart = ctx.sizeX * y;
+            for (int i = 0; i < stripSizeInPixels; i++)
+            {
+                projectedValue = projected[i];
+                if (mean)
+                {
+                    projectedValue = projectedValue / projectedPlaneCount;
+                }
+                if (!max && projectedValue > planeMaximum)
+                {
+                    projectedValue = planeMaximum;
+                }
+                ctx.to.setPixelValue(stripStart + i, projectedValue);
+                if (doMinMax)
+                {
+                    minimum = projectedValue < minimum? projectedValue : minimum;
+                    maximum = projectedValue > maximum? projectedValue : maximum;
+                }
             }
         }
         ctx.minimum = minimum;
         ctx.maximum = maximum;
     }
-    
+
     /**
      * Stores the context of a projection operation.
      * 
@@ -535,6 +599,18 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
     {
         /** The Pixels set we're currently working on. */
         public Pixels pixels;
+
+        /** The id of <code>pixels</code>, for use outside of the session. */
+        public long pixelsId;
+
+        /** Width of a plane of <code>pixels</code>. */
+        public int sizeX;
+
+        /** Height of a plane of <code>pixels</code>. */
+        public int sizeY;
+
+        /** Number of rows read at once from <code>from</code>. */
+        public int stripHeight;
         
         /** Count of the number of pixels per plane for <code>pixels</code>. */
         public int planeSizeInPixels;
@@ -545,8 +621,8 @@ public class ProjectionBean extends AbstractLevel2Service implements IProjection
         /** Current maximum for the projected pixel data. */
         public double maximum = Double.MIN_VALUE;
         
-        /** The raw pixel data from the stack to project from. */
-        public PixelData from;
+        /** The buffer holding the stack to project from. */
+        public PixelBuffer from;
         
         /** The raw pixel data buffer to project into. */
         public PixelData to;
@@ -22,6 +22,7 @@ import net.sf.ehcache.Ehcache;
 import net.sf.ehcache.Element;
 
 import ome.api.local.LocalAdmin;
+import ome.api.local.LocalQuery;
 import ome.conditions.ApiUsageException;
 import ome.conditions.AuthenticationException;
 import ome.conditions.InternalException;
@@ -90,7 +91,7 @@ import com.google.common.collect.MapMaker;
  * @author Josh Moore, josh at glencoesoftware.com
  * @since 3.0-Beta3
  */
-public class SessionManagerImpl implements SessionManager, SessionCache.StaleCacheListener,
+public class SessionManagerImpl implements SessionManager, SessionCache.BulkStaleCacheListener,
         ApplicationContextAware, ApplicationListener<ApplicationEvent> {
 
     public final static String GROUP_SUDO_NS = "openmicroscopy.org/security/group-sudo";
@@ -1084,6 +1085,34 @@ public class SessionManagerImpl implements SessionManager, SessionCache.StaleCac
         return createSessionContext(list, ctx);
     }
 
+    /**
+     * Reloads a batch of sessions in a single transaction with set-based
+     * queries for the sessions, their users and groups and the memberships
+     * of those users. The sessions which cannot be looked up in this way
+     * are left out of the returned map so that {@link SessionCache} reloads
+     * them one at a time with {@link #reload(SessionContext)}.
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, SessionContext> reloadAll(final Collection<SessionContext> contexts) {
+        final Map<String, List<Object>> lists = (Map<String, List<Object>>) executor.execute(asroot,
+                new Executor.SimpleWork(this, "reloadAll", contexts.size()) {
+            @Transactional(readOnly = true)
+            public Object doWork(org.hibernate.Session session,
+                    ServiceFactory sf) {
+                return executeSessionContextLookups(sf, contexts);
+            }
+        });
+        final Map<String, SessionContext> replacements = new HashMap<String, SessionContext>();
+        for (final SessionContext ctx : contexts) {
+            final String uuid = ctx.getSession().getUuid();
+            final List<Object> list = lists.get(uuid);
+            if (list != null) {
+                replacements.put(uuid, createSessionContext(list, ctx));
+            }
+        }
+        return replacements;
+    }
+
     // Executor methods
     // =========================================================================
 
@@ -1375,6 +1404,100 @@ public class SessionManagerImpl implements SessionManager, SessionCache.StaleCac
         }
     }
 
+    /**
+     * Returns the state for creating a new {@link SessionContext} for each of
+     * the given sessions, as {@link #executeSessionContextLookup(ServiceFactory,
+     * Principal, Experimenter, ExperimenterGroup, Session)} would, but with a
+     * few queries for all the sessions together. The sessions whose user,
+     * group or database row cannot be found are left out.
+     */
+    private Map<String, List<Object>> executeSessionContextLookups(ServiceFactory sf,
+            Collection<SessionContext> contexts) {
+        final LocalQuery iQuery = (LocalQuery) sf.getQueryService();
+        final Set<Long> sessionIds = new HashSet<Long>();
+        final Set<Long> userIds = new HashSet<Long>();
+        final Set<Long> groupIds = new HashSet<Long>();
+        for (final SessionContext ctx : contexts) {
+            sessionIds.add(ctx.getSession().getId());
+            userIds.add(ctx.getCurrentUserId());
+            groupIds.add(ctx.getCurrentGroupId());
+        }
+        final Map<String, List<Object>> lists = new HashMap<String, List<Object>>();
+        if (contexts.isEmpty()) {
+            return lists;
+        }
+
+        final Map<Long, Session> sessions = sessionProvider.findSessionsByIds(sessionIds, sf);
+        final Set<Long> memberIds = new HashSet<Long>(userIds);
+        for (final Session reloaded : sessions.values()) {
+            if (reloaded.getSudoer() != null) {
+                memberIds.add(reloaded.getSudoer().getId());
+            }
+        }
+
+        /* user and group names may change while the session is open */
+        final Map<Long, Experimenter> users = new HashMap<Long, Experimenter>();
+        for (final Experimenter exp : iQuery.<Experimenter>findAllByQuery(
+                "select e from Experimenter e where e.id in (:ids)",
+                new Parameters().addIds(userIds))) {
+            users.put(exp.getId(), exp);
+        }
+        final Map<Long, ExperimenterGroup> groups = new HashMap<Long, ExperimenterGroup>();
+        for (final ExperimenterGroup grp : iQuery.<ExperimenterGroup>findAllByQuery(
+                "select g from ExperimenterGroup g where g.id in (:ids)",
+                new Parameters().addIds(groupIds))) {
+            groups.put(grp.getId(), grp);
+        }
+
+        /* memberships in the order of the user's groups, as in LocalAdmin */
+        final Map<Long, List<Long>> memberOf = new HashMap<Long, List<Long>>();
+        final Map<Long, List<Long>> leaderOf = new HashMap<Long, List<Long>>();
+        final Map<Long, List<String>> userRoles = new HashMap<Long, List<String>>();
+        for (final Long memberId : memberIds) {
+            memberOf.put(memberId, new ArrayList<Long>());
+            leaderOf.put(memberId, new ArrayList<Long>());
+            userRoles.put(memberId, new ArrayList<String>());
+        }
+        for (final Object[] row : iQuery.projection(
+                "select e.id, m.parent.id, m.parent.name, m.owner from Experimenter e " +
+                "join e.groupExperimenterMap m where e.id in (:ids) order by e.id, index(m)",
+                new Parameters().addIds(memberIds))) {
+            final Long memberId = (Long) row[0];
+            memberOf.get(memberId).add((Long) row[1]);
+            userRoles.get(memberId).add((String) row[2]);
+            if (Boolean.TRUE.equals(row[3])) {
+                leaderOf.get(memberId).add((Long) row[1]);
+            }
+        }
+
+        for (final SessionContext ctx : contexts) {
+            final Experimenter exp = users.get(ctx.getCurrentUserId());
+            final ExperimenterGroup grp = groups.get(ctx.getCurrentGroupId());
+            final Session reloaded = sessions.get(ctx.getSession().getId());
+            if (exp == null || grp == null || reloaded == null) {
+                continue;
+            }
+            final Principal p = new Principal(exp.getOmeName(), grp.getName(), ctx.getCurrentEventType());
+            final List<Long> memberOfGroupsIds = memberOf.get(exp.getId());
+            final Experimenter sudoer = reloaded.getSudoer();
+            boolean hasAdminPrivileges = memberOfGroupsIds.contains(roles.getSystemGroupId());
+            if (sudoer != null) {
+                hasAdminPrivileges = hasAdminPrivileges && memberOf.get(sudoer.getId()).contains(roles.getSystemGroupId());
+            }
+            final List<Object> list = new ArrayList<Object>();
+            list.add(exp);
+            list.add(grp);
+            list.add(hasAdminPrivileges ? adminPrivileges.getSessionPrivileges(reloaded) : Collections.emptySet());
+            list.add(memberOfGroupsIds);
+            list.add(leaderOf.get(exp.getId()));
+            list.add(userRoles.get(exp.getId()));
+            list.add(p);
+            list.add(reloaded);
+            lists.put(ctx.getSession().getUuid(), list);
+        }
+        return lists;
+    }
+
     private Share newShare() {
         Share share = new Share();
         share.putAt("#2733", "ALLOW");
@@ -5,6 +5,9 @@
 
 package ome.services.sessions;
 
+import java.util.Collection;
+import java.util.Map;
+
 import ome.model.meta.Session;
 import ome.system.ServiceFactory;
 
@@ -51,6 +54,14 @@ public interface SessionProvider {
      */
     Session findSessionById(long id, ServiceFactory sf);
 
+    /**
+     * Retrieves sessions by ID, with as few queries as possible.
+     * @param ids session IDs to lookup
+     * @param sf active service factory
+     * @return the sessions found, by ID
+     */
+    Map<Long, Session> findSessionsByIds(Collection<Long> ids, ServiceFactory sf);
+
     Long findSessionIdByUuid(String uuid, ServiceFactory sf);
 
     Long findSessionIdByUuid(String uuid);
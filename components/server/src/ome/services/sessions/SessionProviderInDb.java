@@ -5,8 +5,12 @@
 
 package ome.services.sessions;
 
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import ome.api.local.LocalQuery;
 import ome.conditions.InternalException;
@@ -173,6 +177,30 @@ public class SessionProviderInDb implements SessionProvider, ReadOnlyStatus.IsAw
                         new Parameters().addId(id).cache());
     }
 
+    @Override
+    public Map<Long, Session> findSessionsByIds(Collection<Long> ids, ServiceFactory sf) {
+        final LocalQuery iQuery = (LocalQuery) sf.getQueryService();
+        final Map<Long, Session> sessions = new HashMap<Long, Session>();
+        final Set<Long> remaining = new HashSet<Long>(ids);
+        /* shares first so that they are not loaded as plain sessions */
+        for (final String sessionClass : new String[] {"Share", "Session"}) {
+            if (remaining.isEmpty()) {
+                break;
+            }
+            final List<Session> found = iQuery.findAllByQuery(
+                    "select distinct s from " + sessionClass + " s "
+                    + "left outer join fetch s.sudoer "
+                    + "left outer join fetch s.annotationLinks l "
+                    + "left outer join fetch l.child a where s.id in (:ids)",
+                    new Parameters().addIds(remaining));
+            for (final Session session : found) {
+                sessions.put(session.getId(), session);
+                remaining.remove(session.getId());
+            }
+        }
+        return sessions;
+    }
+
     @Override
     public Long findSessionIdByUuid(final String uuid, ServiceFactory sf) {
         final Session session = sf.getQueryService().findByString(Session.class, "uuid", uuid);
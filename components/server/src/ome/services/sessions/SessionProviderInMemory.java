@@ -20,6 +20,8 @@
 package ome.services.sessions;
 
 import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.SortedSet;
 import java.util.TreeSet;
@@ -163,6 +165,17 @@ public class SessionProviderInMemory implements SessionProvider, ReadOnlyStatus.
         return null;
     }
 
+    @Override
+    public Map<Long, Session> findSessionsByIds(Collection<Long> ids, ServiceFactory sf) {
+        final Map<Long, Session> sessions = new HashMap<Long, Session>();
+        for (final Session session : Iterables.concat(openSessions.values(), closedSessions.values())) {
+            if (ids.contains(session.getId()) && !sessions.containsKey(session.getId())) {
+                sessions.put(session.getId(), session);
+            }
+        }
+        return sessions;
+    }
+
     @Override
     public Long findSessionIdByUuid(String uuid, ServiceFactory sf) {
         return findSessionIdByUuid(uuid);
@@ -20,7 +20,12 @@
 package ome.services.sessions;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.springframework.beans.factory.BeanCreationException;
 
@@ -111,6 +116,21 @@ public class SessionProviderWrapper<P extends SessionProvider & ReadOnlyStatus.I
         return null;
     }
 
+    @Override
+    public Map<Long, Session> findSessionsByIds(Collection<Long> ids, ServiceFactory sf) {
+        final Map<Long, Session> sessions = new HashMap<Long, Session>();
+        final Set<Long> remaining = new HashSet<Long>(ids);
+        for (final P provider : read) {
+            if (remaining.isEmpty()) {
+                break;
+            }
+            final Map<Long, Session> found = provider.findSessionsByIds(remaining, sf);
+            sessions.putAll(found);
+            remaining.removeAll(found.keySet());
+        }
+        return sessions;
+    }
+
     @Override
     public Long findSessionIdByUuid(String uuid, ServiceFactory sf) {
         for (final P provider : read) {
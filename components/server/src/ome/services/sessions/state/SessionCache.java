@@ -5,9 +5,18 @@
 package ome.services.sessions.state;
 
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
@@ -24,6 +33,10 @@ import ome.services.sessions.SessionContext;
 import ome.services.sessions.SessionManager;
 import ome.services.sessions.events.UserGroupUpdateEvent;
 import ome.system.OmeroContext;
+import ome.system.metrics.Histogram;
+import ome.system.metrics.Metrics;
+import ome.system.metrics.NullMetrics;
+import ome.system.metrics.Timer;
 
 import org.perf4j.StopWatch;
 import org.perf4j.slf4j.Slf4JStopWatch;
@@ -34,7 +47,9 @@ import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.MapMaker;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * Synchronized and lockable state for the {@link SessionManager}. Maps from
@@ -69,6 +84,27 @@ public class SessionCache implements ApplicationContextAware {
         SessionContext reload(SessionContext context);
     }
 
+    /**
+     * {@link StaleCacheListener} which can also reload many sessions at once,
+     * used by {@link SessionCache#doUpdate()} in preference to reloading the
+     * sessions one at a time.
+     */
+    public interface BulkStaleCacheListener extends StaleCacheListener {
+
+        /**
+         * Method called for a batch of active sessions in the cache. The
+         * returned map from session uuid to {@link SessionContext} gives the
+         * contexts which will replace the current ones. The sessions missing
+         * from the map are reloaded one at a time with
+         * {@link #reload(SessionContext)}.
+         *
+         * Any runtime exception can be thrown to show that the batch could
+         * not be reloaded, in which case all its sessions are reloaded one
+         * at a time.
+         */
+        Map<String, SessionContext> reloadAll(Collection<SessionContext> contexts);
+    }
+
     /**
      * Container which can be put in a single {@link AtomicReference} instance.
      * Contains all the data for a single session immutably. Therefore any
@@ -252,6 +288,28 @@ public class SessionCache implements ApplicationContextAware {
      */
     private OmeroContext context;
 
+    /**
+     * Number of sessions reloaded together by a
+     * {@link BulkStaleCacheListener}.
+     */
+    private int batchSize = 500;
+
+    /**
+     * Number of threads reloading batches of sessions concurrently during
+     * {@link #doUpdate()}.
+     */
+    private int updateThreads = 1;
+
+    /**
+     * Time taken by {@link #doUpdate()} to synchronize the cache.
+     */
+    private Timer synchronizationTimes = new NullMetrics().timer(this, "synchronizationTimes");
+
+    /**
+     * Number of sessions synchronized by each {@link #doUpdate()}.
+     */
+    private Histogram synchronizedSessions = new NullMetrics().histogram(this, "synchronizedSessions");
+
     public SessionCache() {
         final MapMaker mapMaker = new MapMaker();
         sessions = mapMaker.makeMap();
@@ -280,6 +338,29 @@ public class SessionCache implements ApplicationContextAware {
         this.forceUpdateInterval = milliseconds;
     }
 
+    /**
+     * Inject the number of sessions to reload together during updates.
+     */
+    public void setUpdateBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Inject the number of threads reloading batches of sessions concurrently
+     * during updates.
+     */
+    public void setUpdateThreads(int threads) {
+        this.updateThreads = Math.max(1, threads);
+    }
+
+    /**
+     * Inject the metrics used to report on updates.
+     */
+    public void setMetrics(Metrics metrics) {
+        this.synchronizationTimes = metrics.timer(this, "synchronizationTimes");
+        this.synchronizedSessions = metrics.histogram(this, "synchronizedSessions");
+    }
+
     // Accessors
     // ========================================================================
 
@@ -620,13 +701,21 @@ public class SessionCache implements ApplicationContextAware {
         }
 
         try {
-            final Set<String> ids = sessions.keySet();
+            final List<String> ids = new ArrayList<String>(sessions.keySet());
             log.info("Synchronizing session cache. Count = " + ids.size());
             final StopWatch sw = new Slf4JStopWatch();
-            for (String id : ids) {
-                reload(id);
+            final Timer.Context timer = synchronizationTimes.time();
+            final StaleCacheListener listener = staleCacheListener.get();
+            if (listener instanceof BulkStaleCacheListener) {
+                reloadAll((BulkStaleCacheListener) listener, ids);
+            } else {
+                for (String id : ids) {
+                    reload(id);
+                }
             }
 
+            timer.stop();
+            synchronizedSessions.update(ids.size());
             sw.stop("omero.sessions.synchronization");
             log.info(String.format("Synchronization took %s ms.",
                     sw.getElapsedTime()));
@@ -639,6 +728,100 @@ public class SessionCache implements ApplicationContextAware {
 
     }
 
+    /**
+     * Reloads the given sessions in batches of {@link #batchSize}, with up to
+     * {@link #updateThreads} batches being reloaded concurrently.
+     */
+    private void reloadAll(final BulkStaleCacheListener listener,
+            List<String> ids) {
+        final List<List<String>> batches = Lists.partition(ids, batchSize);
+        if (updateThreads < 2 || batches.size() < 2) {
+            for (List<String> batch : batches) {
+                reloadBatch(listener, batch);
+            }
+            return;
+        }
+        final ExecutorService pool = Executors.newFixedThreadPool(
+                Math.min(updateThreads, batches.size()),
+                new ThreadFactoryBuilder().setDaemon(true)
+                        .setNameFormat("SessionCacheUpdate-%d").build());
+        try {
+            final List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (final List<String> batch : batches) {
+                futures.add(pool.submit(new Runnable() {
+                    public void run() {
+                        reloadBatch(listener, batch);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    log.error("Error synchronizing batch of sessions",
+                            e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted while synchronizing cache");
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Reloads a batch of sessions with a single call to the
+     * {@link BulkStaleCacheListener}. Sessions which have timed out are
+     * removed beforehand and those which the listener could not reload are
+     * then reloaded one at a time by {@link #reload(String)} so that errors
+     * are counted per session.
+     */
+    private void reloadBatch(BulkStaleCacheListener listener,
+            List<String> ids) {
+
+        final Map<String, Data> batch = new LinkedHashMap<String, Data>();
+        final List<SessionContext> contexts = new ArrayList<SessionContext>();
+        for (String id : ids) {
+            Data data = null;
+            try {
+                data = getDataNullOrThrowOnTimeout(id, false);
+            } catch (Exception e) {
+                log.warn("Removing session on get error of " + id, e);
+                internalRemove(id, "Get error");
+                continue;
+            }
+            if (data == null) {
+                internalRemove(id, "Timeout");
+            } else {
+                batch.put(id, data);
+                contexts.add(data.sessionContext);
+            }
+        }
+        if (contexts.isEmpty()) {
+            return;
+        }
+
+        Map<String, SessionContext> replacements;
+        try {
+            replacements = listener.reloadAll(contexts);
+        } catch (Exception e) {
+            log.warn("Error on reload of " + contexts.size()
+                    + " sessions, reloading them one at a time", e);
+            replacements = Collections.emptyMap();
+        }
+
+        for (Map.Entry<String, Data> entry : batch.entrySet()) {
+            final String id = entry.getKey();
+            final SessionContext replacement = replacements.get(id);
+            if (replacement == null) {
+                reload(id);
+            } else {
+                refresh(id, entry.getValue(), replacement);
+            }
+        }
+    }
+
     /**
      * Provides the reloading logic of the {@link SessionCache} for the
      * {@link ome.services.sessions.SessionManagerImpl} to use.
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2018 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.services.util;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Holds the futures of submitted tasks and hands each result to a
+ * {@link Handler} in the order in which the tasks were added. Once the
+ * given number of tasks are pending, adding another first waits for the
+ * oldest, so that only a bounded number of tasks hold their resources at
+ * once. Not thread-safe: tasks are to be added and collected by one thread.
+ * @param <T> the type of the tasks
+ * @param <V> the type of their results
+ * @since 5.4.7
+ */
+public class PendingResults<T, V> {
+
+    /**
+     * Receives the outcome of each task, on the thread adding or collecting
+     * the tasks.
+     * @param <T> the type of the tasks
+     * @param <V> the type of their results
+     */
+    public interface Handler<T, V> {
+
+        /**
+         * The task completed.
+         * @param task the task
+         * @param result its result
+         */
+        void succeeded(T task, V result);
+
+        /**
+         * The task failed or the wait for it was interrupted, in which case
+         * the interrupt status of the thread is set.
+         * @param task the task
+         * @param cause why it failed
+         */
+        void failed(T task, Throwable cause);
+    }
+
+    private final Deque<T> tasks = new ArrayDeque<T>();
+
+    private final Deque<Future<V>> futures = new ArrayDeque<Future<V>>();
+
+    private final int maxPending;
+
+    private final Handler<T, V> handler;
+
+    /**
+     * @param maxPending the most tasks to hold pending at once, at least one
+     * @param handler the handler of the outcome of each task
+     */
+    public PendingResults(int maxPending, Handler<T, V> handler) {
+        if (maxPending < 1) {
+            throw new IllegalArgumentException("must allow a pending task");
+        }
+        this.maxPending = maxPending;
+        this.handler = handler;
+    }
+
+    /**
+     * Adds a submitted task, then collects the oldest if as many tasks as
+     * allowed are pending.
+     * @param task the task
+     * @param future the future of its result
+     */
+    public void add(T task, Future<V> future) {
+        tasks.add(task);
+        futures.add(future);
+        if (tasks.size() >= maxPending) {
+            collectOldest();
+        }
+    }
+
+    /**
+     * Collects every pending task, in the order in which they were added.
+     */
+    public void collectAll() {
+        while (!tasks.isEmpty()) {
+            collectOldest();
+        }
+    }
+
+    /**
+     * @return how many tasks are pending
+     */
+    public int size() {
+        return tasks.size();
+    }
+
+    private void collectOldest() {
+        final T task = tasks.remove();
+        final Future<V> future = futures.remove();
+        final V result;
+        try {
+            result = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            handler.failed(task, e);
+            return;
+        } catch (ExecutionException e) {
+            handler.failed(task, e.getCause());
+            return;
+        }
+        handler.succeeded(task, result);
+    }
+}
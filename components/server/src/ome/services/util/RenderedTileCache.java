@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2018 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.services.util;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import ome.io.messages.PixelDataWrittenMessage;
+import ome.model.display.ChannelBinding;
+import ome.model.display.QuantumDef;
+import ome.model.display.RenderingDef;
+import ome.system.metrics.Counter;
+import ome.system.metrics.Metrics;
+import omeis.providers.re.codomain.CodomainChain;
+import omeis.providers.re.codomain.CodomainMapContext;
+import omeis.providers.re.codomain.ContrastStretchingContext;
+import omeis.providers.re.codomain.PlaneSlicingContext;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationListener;
+
+import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Server-wide, size-bounded LRU cache of compressed rendered tiles. Keys are
+ * built by the rendering engine and must start with the pixels ID followed by
+ * a colon so that all the tiles of a pixels set can be invalidated at once,
+ * e.g. when its rendering settings are saved or its pixel data is written.
+ * The tiles may be held outside of the Java heap in direct buffers.
+ *
+ * @since 5.4.7
+ */
+public class RenderedTileCache implements ApplicationListener<PixelDataWrittenMessage> {
+
+    private static final Logger log = LoggerFactory.getLogger(RenderedTileCache.class);
+
+    /* null if the cache is disabled */
+    private final Cache<String, Object> tiles;
+
+    private final boolean offHeap;
+
+    private final Counter hits, misses, evictions;
+
+    /**
+     * Construct a new rendered tile cache.
+     * @param maxBytes the maximum total size of the cached tiles, the cache is disabled if not positive
+     * @param offHeap if the tiles should be held in direct buffers rather than on the Java heap
+     * @param metrics the metrics to which the hit, miss and eviction counts are reported
+     */
+    public RenderedTileCache(long maxBytes, boolean offHeap, Metrics metrics) {
+        this.offHeap = offHeap;
+        this.hits = metrics.counter(this, "hits");
+        this.misses = metrics.counter(this, "misses");
+        this.evictions = metrics.counter(this, "evictions");
+        if (maxBytes > 0) {
+            tiles = CacheBuilder.newBuilder()
+                    .maximumWeight(maxBytes)
+                    .weigher(new Weigher<String, Object>() {
+                        @Override
+                        public int weigh(String key, Object tile) {
+                            final int size = tile instanceof ByteBuffer ? ((ByteBuffer) tile).capacity() : ((byte[]) tile).length;
+                            return size + 2 * key.length();
+                        }
+                    })
+                    .removalListener(new RemovalListener<String, Object>() {
+                        @Override
+                        public void onRemoval(RemovalNotification<String, Object> notification) {
+                            if (notification.wasEvicted()) {
+                                evictions.inc();
+                            }
+                        }
+                    })
+                    .build();
+            log.info("Rendered tile cache: maxBytes=" + maxBytes + " offHeap=" + offHeap);
+        } else {
+            tiles = null;
+            log.info("Rendered tile cache disabled");
+        }
+    }
+
+    /**
+     * @return if tiles may be cached
+     */
+    public boolean isEnabled() {
+        return tiles != null;
+    }
+
+    /**
+     * Get a copy of a cached tile.
+     * @param key the key of the tile
+     * @return the tile, or {@code null} if it is not cached
+     */
+    public byte[] get(String key) {
+        if (tiles == null) {
+            return null;
+        }
+        final Object tile = tiles.getIfPresent(key);
+        if (tile == null) {
+            misses.inc();
+            return null;
+        }
+        hits.inc();
+        if (tile instanceof ByteBuffer) {
+            final ByteBuffer buffer = ((ByteBuffer) tile).duplicate();
+            final byte[] copy = new byte[buffer.capacity()];
+            buffer.clear();
+            buffer.get(copy);
+            return copy;
+        }
+        return ((byte[]) tile).clone();
+    }
+
+    /**
+     * Cache a copy of a tile.
+     * @param key the key of the tile
+     * @param tile the compressed tile
+     */
+    public void put(String key, byte[] tile) {
+        if (tiles == null) {
+            return;
+        }
+        if (offHeap) {
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(tile.length);
+            buffer.put(tile);
+            tiles.put(key, buffer);
+        } else {
+            tiles.put(key, tile.clone());
+        }
+    }
+
+    /**
+     * Discard all the cached tiles of the given pixels set.
+     * @param pixelsId the ID of the pixels set
+     */
+    public void invalidate(long pixelsId) {
+        if (tiles == null) {
+            return;
+        }
+        final String prefix = pixelsId + ":";
+        final List<String> stale = new ArrayList<String>();
+        for (final String key : tiles.asMap().keySet()) {
+            if (key.startsWith(prefix)) {
+                stale.add(key);
+            }
+        }
+        tiles.invalidateAll(stale);
+    }
+
+    /**
+     * Discard the cached tiles of a pixels set whose pixel data was written.
+     * @param message the message from the pixels service
+     */
+    @Override
+    public void onApplicationEvent(PixelDataWrittenMessage message) {
+        invalidate(message.pixelsID);
+    }
+
+    /**
+     * Returns a hash of the rendering settings, including the unsaved ones,
+     * for use in the keys of the tiles rendered with them. Every setting
+     * that affects the rendered tiles is included, down to the parameters of
+     * the codomain maps.
+     * @param def the rendering settings
+     * @param bindings the channel bindings of the settings
+     * @param chains the codomain chain of each channel
+     * @return the hash of the settings
+     */
+    public static String settingsHash(RenderingDef def,
+            ChannelBinding[] bindings, CodomainChain[] chains) {
+        QuantumDef qDef = def.getQuantization();
+        StringBuilder settings = new StringBuilder();
+        settings.append(def.getModel().getId()).append(';');
+        settings.append(qDef.getBitResolution()).append(',');
+        settings.append(qDef.getCdStart()).append(',');
+        settings.append(qDef.getCdEnd());
+        for (int w = 0; w < bindings.length; w++) {
+            ChannelBinding cb = bindings[w];
+            settings.append(';').append(cb.getActive());
+            settings.append(',').append(cb.getFamily().getId());
+            settings.append(',').append(cb.getCoefficient());
+            settings.append(',').append(cb.getNoiseReduction());
+            settings.append(',').append(cb.getInputStart());
+            settings.append(',').append(cb.getInputEnd());
+            settings.append(',').append(cb.getRed());
+            settings.append(',').append(cb.getGreen());
+            settings.append(',').append(cb.getBlue());
+            settings.append(',').append(cb.getAlpha());
+            settings.append(',').append(cb.getLookupTable());
+            for (CodomainMapContext ctx : chains[w].getContexts()) {
+                settings.append(',');
+                appendContext(settings, ctx);
+            }
+        }
+        return Hashing.sha1().hashString(settings, Charsets.UTF_8).toString();
+    }
+
+    /**
+     * Appends the type and the parameters of a codomain map.
+     * @param settings the description of the settings
+     * @param ctx the codomain map context
+     */
+    private static void appendContext(StringBuilder settings,
+            CodomainMapContext ctx) {
+        settings.append(ctx.getClass().getName());
+        if (ctx instanceof ContrastStretchingContext) {
+            ContrastStretchingContext csc = (ContrastStretchingContext) ctx;
+            settings.append('(').append(csc.getXStart());
+            settings.append(',').append(csc.getYStart());
+            settings.append(',').append(csc.getXEnd());
+            settings.append(',').append(csc.getYEnd()).append(')');
+        } else if (ctx instanceof PlaneSlicingContext) {
+            PlaneSlicingContext psc = (PlaneSlicingContext) ctx;
+            settings.append('(').append(psc.getPlanePrevious());
+            settings.append(',').append(psc.getPlaneSelected());
+            settings.append(',').append(psc.getLowerLimit());
+            settings.append(',').append(psc.getUpperLimit());
+            settings.append(',').append(psc.IsConstant()).append(')');
+        }
+    }
+}
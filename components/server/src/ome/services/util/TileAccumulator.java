@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2018 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.services.util;
+
+import ome.util.PixelData;
+
+/**
+ * Accumulates the pixel values of one channel, one tile at a time, so that
+ * statistics of a plane may be computed without holding the whole plane.
+ * Instances are not thread-safe.
+ * @since 5.4.7
+ */
+public abstract class TileAccumulator {
+
+    /** Holds the pixel values of a tile, reused from tile to tile. */
+    private double[] values = new double[0];
+
+    /**
+     * Adds the pixel values of a tile.
+     * @param tile the tile
+     */
+    public abstract void accumulate(PixelData tile);
+
+    /**
+     * Copies the pixel values of a tile into an array reused from tile to
+     * tile.
+     * @param tile the tile
+     * @return the array, of which the first <code>tile.size()</code> values
+     *         are those of the tile
+     */
+    protected double[] values(PixelData tile) {
+        final int size = tile.size();
+        if (values.length < size) {
+            values = new double[size];
+        }
+        tile.getPixelValues(0, values, 0, size);
+        return values;
+    }
+
+    /**
+     * Finds the minimum and maximum value of a channel, starting from the
+     * range of its pixel type.
+     */
+    public static class MinMax extends TileAccumulator {
+
+        private double min;
+
+        private double max;
+
+        /**
+         * @param pixelsRange the minimum and maximum values of the pixel type,
+         *        as from
+         *        {@link omeis.providers.re.metadata.StatsFactory#initPixelsRange(ome.model.core.Pixels)}
+         */
+        public MinMax(double[] pixelsRange) {
+            min = pixelsRange[1];
+            max = pixelsRange[0];
+        }
+
+        @Override
+        public void accumulate(PixelData tile) {
+            final double[] values = values(tile);
+            double min = this.min;
+            double max = this.max;
+            for (int i = 0, size = tile.size(); i < size; i++) {
+                final double value = values[i];
+                if (value < min)
+                    min = value;
+                if (value > max)
+                    max = value;
+            }
+            this.min = min;
+            this.max = max;
+        }
+
+        /**
+         * @return the minimum and maximum of the values accumulated
+         */
+        public double[] getMinMax() {
+            return new double[] { min, max };
+        }
+    }
+
+    /**
+     * Counts the pixel values of a channel into evenly sized bins.
+     */
+    public static class Histogram extends TileAccumulator {
+
+        private final double min;
+
+        private final double binRange;
+
+        private final int[] data;
+
+        /**
+         * @param min the value at the bottom of the first bin
+         * @param max the value at the top of the last bin
+         * @param binCount the number of bins
+         */
+        public Histogram(double min, double max, int binCount) {
+            this.min = min;
+            this.binRange = (max - min + 1) / binCount;
+            this.data = new int[binCount];
+        }
+
+        @Override
+        public void accumulate(PixelData tile) {
+            final double[] values = values(tile);
+            final int binCount = data.length;
+            for (int i = 0, size = tile.size(); i < size; i++) {
+                int bin = (int) ((values[i] - min) / binRange);
+                // if there are more bins than values (binRange < 1) the bin
+                // will be offset by -1. e.g. min=0.0, max=127.0,
+                // binCount=256: a pixel with max value 127.0 would go into
+                // bin 254 (expected: 255). Therefore increment by one for
+                // these cases.
+                if (bin > 0 && binRange < 1)
+                    bin++;
+
+                if (bin >= 0 && bin < binCount)
+                    data[bin]++;
+            }
+        }
+
+        /**
+         * @return the count of values in each bin
+         */
+        public int[] getData() {
+            return data;
+        }
+    }
+}
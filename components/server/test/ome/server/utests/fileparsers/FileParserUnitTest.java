@@ -11,9 +11,12 @@ import java.io.File;
 import java.io.Reader;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import junit.framework.TestCase;
 import ome.services.fulltext.PdfParser;
+import ome.services.messages.ParserOpenFileMessage;
 import ome.services.messages.RegisterServiceCleanupMessage;
 import ome.system.OmeroContext;
 
@@ -26,6 +29,8 @@ public class FileParserUnitTest extends TestCase {
 
     static List<RegisterServiceCleanupMessage> list = new ArrayList<RegisterServiceCleanupMessage>();
 
+    static List<ParserOpenFileMessage> opened = new ArrayList<ParserOpenFileMessage>();
+
     @Test
     public void testPdfParse() throws Exception {
         File abc123 = ResourceUtils
@@ -40,6 +45,44 @@ public class FileParserUnitTest extends TestCase {
             sb.append(buffered.readLine());
         }
         assertEquals("ABC123", sb.toString());
+        // The indexing thread closes the file once it is indexed.
+        assertEquals(1, opened.size());
+        for (ParserOpenFileMessage file : opened) {
+            file.close();
+        }
+        opened.clear();
+        for (RegisterServiceCleanupMessage cleanup : list) {
+            cleanup.close();
+        }
+        list.clear();
+    }
+
+    @Test
+    public void testPrefetchedPdfParse() throws Exception {
+        File abc123 = ResourceUtils
+                .getFile("classpath:ome/server/utests/fileparsers/ABC123.pdf");
+        PdfParser parser = new PdfParser();
+        parser.setApplicationContext(new OmeroContext(
+                "classpath:ome/server/utests/fileparsers/config.xml"));
+        parser.setMaxFileSize(1024L * 1024);
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            parser.prefetch(abc123, pool);
+            // Each parse of a prefetched file reads the same text.
+            for (int i = 0; i < 2; i++) {
+                StringBuffer sb = new StringBuffer();
+                for (Reader reader : parser.parse(abc123)) {
+                    BufferedReader buffered = new BufferedReader(reader);
+                    sb.append(buffered.readLine());
+                }
+                assertEquals("ABC123", sb.toString());
+            }
+            parser.release(abc123);
+            // The prefetching thread closed the file itself.
+            assertTrue(opened.isEmpty());
+        } finally {
+            pool.shutdown();
+        }
         for (RegisterServiceCleanupMessage cleanup : list) {
             cleanup.close();
         }
@@ -52,6 +95,10 @@ public class FileParserUnitTest extends TestCase {
             if (arg0 instanceof RegisterServiceCleanupMessage) {
                 RegisterServiceCleanupMessage cleanup = (RegisterServiceCleanupMessage) arg0;
                 list.add(cleanup);
+            } else if (arg0 instanceof ParserOpenFileMessage) {
+                synchronized (opened) {
+                    opened.add((ParserOpenFileMessage) arg0);
+                }
             }
         }
 
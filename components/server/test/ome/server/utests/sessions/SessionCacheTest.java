@@ -6,9 +6,15 @@
 package ome.server.utests.sessions;
 
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CyclicBarrier;
 
@@ -29,6 +35,7 @@ import ome.services.sessions.SessionCallback;
 import ome.services.sessions.SessionContext;
 import ome.services.sessions.SessionContextImpl;
 import ome.services.sessions.events.UserGroupUpdateEvent;
+import ome.services.sessions.state.SessionCache.BulkStaleCacheListener;
 import ome.services.sessions.state.SessionCache.StaleCacheListener;
 import ome.services.sessions.state.SessionCache;
 import ome.services.sessions.stats.NullSessionStats;
@@ -378,6 +385,46 @@ public class SessionCacheTest extends TestCase {
         assertTrue(internal.isKeyInCache(s.getUuid()));
     }
 
+    @Test
+    public void testBulkReloadFallsBackForMissingSessions() throws Exception {
+        cache.setUpdateBatchSize(2);
+        cache.setUpdateThreads(2);
+        final List<String> uuids = new ArrayList<String>();
+        for (int i = 0; i < 5; i++) {
+            final Session s = sess();
+            cache.putSession(s.getUuid(), sc(s));
+            uuids.add(s.getUuid());
+        }
+        final String missing = uuids.get(3);
+        final Set<String> bulk = Collections.synchronizedSet(new HashSet<String>());
+        final Set<String> single = Collections.synchronizedSet(new HashSet<String>());
+        cache.setStaleCacheListener(new BulkStaleCacheListener() {
+            public SessionContext reload(SessionContext context) {
+                single.add(context.getSession().getUuid());
+                return context;
+            }
+
+            public Map<String, SessionContext> reloadAll(Collection<SessionContext> contexts) {
+                final Map<String, SessionContext> replacements = new HashMap<String, SessionContext>();
+                for (SessionContext context : contexts) {
+                    final String uuid = context.getSession().getUuid();
+                    bulk.add(uuid);
+                    if (!uuid.equals(missing)) {
+                        replacements.put(uuid, context);
+                    }
+                }
+                return replacements;
+            }
+        });
+        cache.updateEvent(new UserGroupUpdateEvent(this));
+        cache.doUpdate();
+        assertEquals(new HashSet<String>(uuids), bulk);
+        assertEquals(Collections.singleton(missing), single);
+        for (String uuid : uuids) {
+            assertNotNull(cache.getSessionContext(uuid));
+        }
+    }
+
     // Helpers
     // ====================
 
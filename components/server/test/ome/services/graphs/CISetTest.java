@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2018 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.services.graphs;
+
+import java.util.ConcurrentModificationException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import ome.services.graphs.GraphTraversal.CI;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the compact set of class name and ID pairs used in graph traversal.
+ * @since 5.4.7
+ */
+public class CISetTest {
+
+    private static final String IMAGE = "ome.model.core.Image";
+
+    private static final String DATASET = "ome.model.containers.Dataset";
+
+    /**
+     * @param count how many objects of each class
+     * @return a set of images and datasets
+     */
+    private static CISet objects(int count) {
+        final CISet objects = new CISet();
+        for (long id = 1; id <= count; id++) {
+            objects.add(new CI(IMAGE, id));
+            objects.add(new CI(DATASET, id));
+        }
+        return objects;
+    }
+
+    /**
+     * Test that objects of different classes with the same ID are distinct.
+     */
+    @Test
+    public void testClassesDistinct() {
+        final CISet objects = new CISet();
+        Assert.assertTrue(objects.add(new CI(IMAGE, 1)));
+        Assert.assertTrue(objects.add(new CI(DATASET, 1)));
+        Assert.assertFalse(objects.add(new CI(IMAGE, 1)));
+        Assert.assertEquals(objects.size(), 2);
+        Assert.assertTrue(objects.remove(new CI(IMAGE, 1)));
+        Assert.assertFalse(objects.contains(new CI(IMAGE, 1)));
+        Assert.assertTrue(objects.contains(new CI(DATASET, 1)));
+        Assert.assertFalse(objects.contains("not a CI"));
+    }
+
+    /**
+     * Test that iteration finds exactly the objects in the set, including across resizes and removals.
+     */
+    @Test
+    public void testIteration() {
+        final CISet objects = objects(1000);
+        for (long id = 1; id <= 1000; id += 3) {
+            objects.remove(new CI(IMAGE, id));
+        }
+        final Set<CI> expected = new HashSet<CI>();
+        for (long id = 1; id <= 1000; id++) {
+            if (id % 3 != 1) {
+                expected.add(new CI(IMAGE, id));
+            }
+            expected.add(new CI(DATASET, id));
+        }
+        Assert.assertEquals(new HashSet<CI>(objects), expected);
+        Assert.assertEquals(objects.size(), expected.size());
+        Assert.assertEquals(objects, expected);
+    }
+
+    /**
+     * Test that objects may be removed through the iterator.
+     */
+    @Test
+    public void testIteratorRemove() {
+        final CISet objects = objects(100);
+        final Iterator<CI> iterator = objects.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().id % 2 == 0) {
+                iterator.remove();
+            }
+        }
+        Assert.assertEquals(objects.size(), 100);
+        for (final CI object : objects) {
+            Assert.assertEquals(object.id % 2, 1);
+        }
+    }
+
+    /**
+     * Test that the iterator may not remove the same object twice.
+     */
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testIteratorRemoveTwice() {
+        final Iterator<CI> iterator = objects(1).iterator();
+        iterator.next();
+        iterator.remove();
+        iterator.remove();
+    }
+
+    /**
+     * Test that adding to the set while iterating over it is detected.
+     */
+    @Test(expectedExceptions = ConcurrentModificationException.class)
+    public void testAddWhileIterating() {
+        final CISet objects = objects(10);
+        long id = 1000;
+        for (final CI object : objects) {
+            objects.add(new CI(object.className, id++));
+        }
+    }
+
+    /**
+     * Test that removing from the set other than through the iterator while iterating over it is detected.
+     */
+    @Test(expectedExceptions = ConcurrentModificationException.class)
+    public void testRemoveWhileIterating() {
+        final CISet objects = objects(10);
+        for (final CI object : objects) {
+            objects.remove(object);
+        }
+    }
+
+    /**
+     * Test that clearing the set while iterating over it is detected.
+     */
+    @Test(expectedExceptions = ConcurrentModificationException.class)
+    public void testClearWhileIterating() {
+        final CISet objects = objects(10);
+        final Iterator<CI> iterator = objects.iterator();
+        iterator.next();
+        objects.clear();
+        iterator.next();
+    }
+
+    /**
+     * Test that failing to add an object already in the set does not disturb iteration.
+     */
+    @Test
+    public void testAddExistingWhileIterating() {
+        final CISet objects = objects(10);
+        int count = 0;
+        for (final CI object : objects) {
+            Assert.assertFalse(objects.add(new CI(object.className, object.id)));
+            count++;
+        }
+        Assert.assertEquals(count, 20);
+    }
+}
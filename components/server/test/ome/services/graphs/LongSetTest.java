@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2018 University of Dundee & Open Microscopy Environment.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package ome.services.graphs;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the primitive hash set of IDs used in graph traversal.
+ * @since 5.4.7
+ */
+public class LongSetTest {
+
+    /**
+     * @param ids a set of IDs
+     * @return the IDs found by visiting the set's slots
+     */
+    private static Set<Long> visit(LongSet ids) {
+        final Set<Long> visited = new HashSet<Long>();
+        for (int slot = ids.nextSlot(0); slot >= 0; slot = ids.nextSlot(slot + 1)) {
+            Assert.assertTrue(visited.add(ids.idAt(slot)), "each ID should be visited once");
+        }
+        return visited;
+    }
+
+    /**
+     * Test that IDs may be added and found, including across resizes of the table.
+     */
+    @Test
+    public void testAddAcrossResizes() {
+        final LongSet ids = new LongSet();
+        for (long id = 0; id < 10000; id++) {
+            Assert.assertTrue(ids.add(id * 7919));
+            Assert.assertFalse(ids.add(id * 7919));
+        }
+        Assert.assertEquals(ids.size(), 10000);
+        for (long id = 0; id < 10000; id++) {
+            Assert.assertTrue(ids.contains(id * 7919));
+            Assert.assertFalse(ids.contains(id * 7919 + 1));
+        }
+        Assert.assertEquals(visit(ids).size(), 10000);
+    }
+
+    /**
+     * Test that removed IDs leave tombstones that do not hide the IDs that follow them in the table.
+     */
+    @Test
+    public void testRemoveLeavesOthersFindable() {
+        final LongSet ids = new LongSet();
+        for (long id = 1; id <= 5; id++) {
+            ids.add(id);
+        }
+        Assert.assertTrue(ids.remove(2));
+        Assert.assertFalse(ids.remove(2));
+        Assert.assertFalse(ids.contains(2));
+        for (long id : new long[] {1, 3, 4, 5}) {
+            Assert.assertTrue(ids.contains(id));
+        }
+        Assert.assertEquals(ids.size(), 4);
+        Assert.assertTrue(ids.add(2));
+        Assert.assertTrue(ids.contains(2));
+        Assert.assertEquals(ids.size(), 5);
+    }
+
+    /**
+     * Test that repeatedly adding and removing IDs, filling the table with tombstones, neither loses IDs nor
+     * prevents the table from accepting more.
+     */
+    @Test
+    public void testChurnThroughTombstones() {
+        final Random random = new Random(42);
+        final LongSet ids = new LongSet();
+        final Set<Long> expected = new HashSet<Long>();
+        for (int round = 0; round < 100000; round++) {
+            final long id = random.nextInt(64);
+            if (random.nextBoolean()) {
+                Assert.assertEquals(ids.add(id), expected.add(id));
+            } else {
+                Assert.assertEquals(ids.remove(id), expected.remove(id));
+            }
+            Assert.assertEquals(ids.size(), expected.size());
+        }
+        Assert.assertEquals(visit(ids), expected);
+    }
+
+    /**
+     * Test that IDs may be removed by slot while visiting the slots.
+     */
+    @Test
+    public void testRemoveWhileVisiting() {
+        final LongSet ids = new LongSet();
+        for (long id = 0; id < 100; id++) {
+            ids.add(id);
+        }
+        for (int slot = ids.nextSlot(0); slot >= 0; slot = ids.nextSlot(slot + 1)) {
+            if (ids.idAt(slot) % 2 == 0) {
+                ids.removeAt(slot);
+            }
+        }
+        Assert.assertEquals(ids.size(), 50);
+        for (final long id : visit(ids)) {
+            Assert.assertEquals(id % 2, 1);
+        }
+    }
+
+    /**
+     * Test that a slot that holds no ID may not be removed.
+     */
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testRemoveEmptySlot() {
+        final LongSet ids = new LongSet();
+        ids.add(1);
+        final int slot = ids.nextSlot(0);
+        ids.removeAt(slot);
+        ids.removeAt(slot);
+    }
+}
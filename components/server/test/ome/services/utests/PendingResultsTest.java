@@ -0,0 +1,163 @@
+/*
+ *   Copyright 2018 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.utests;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+import ome.services.util.PendingResults;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Checks that {@link PendingResults} hands the results of tasks on in the
+ * order in which the tasks were added, holds no more than its bound of
+ * tasks pending and carries on past failed tasks, as the concurrent
+ * rendering of the thumbnails of a set relies on.
+ * @since 5.4.7
+ */
+@Test(groups = { "unit" })
+public class PendingResultsTest {
+
+    /** The outcome of each task, in the order handled. */
+    private final List<String> handled = new ArrayList<String>();
+
+    private final PendingResults.Handler<String, String> handler =
+            new PendingResults.Handler<String, String>() {
+                public void succeeded(String task, String result) {
+                    handled.add(task + "=" + result);
+                }
+
+                public void failed(String task, Throwable cause) {
+                    handled.add(task + "!" + cause.getMessage());
+                }
+            };
+
+    @BeforeMethod
+    public void setup() {
+        handled.clear();
+        Thread.interrupted();
+    }
+
+    /**
+     * @param result the result of the task
+     * @return a task that is not yet run
+     */
+    private static FutureTask<String> task(final String result) {
+        return new FutureTask<String>(new Callable<String>() {
+            public String call() {
+                if (result == null) {
+                    throw new IllegalStateException("failed");
+                }
+                return result;
+            }
+        });
+    }
+
+    /**
+     * @param result the result of the task
+     * @return a task that has already run
+     */
+    private static FutureTask<String> done(String result) {
+        final FutureTask<String> task = task(result);
+        task.run();
+        return task;
+    }
+
+    /**
+     * Test that results are handled in the order in which the tasks were
+     * added, not the order in which they completed.
+     */
+    public void testOrder() {
+        final PendingResults<String, String> pending =
+                new PendingResults<String, String>(10, handler);
+        final FutureTask<String> first = task("1");
+        pending.add("a", first);
+        pending.add("b", done("2"));
+        pending.add("c", done("3"));
+        Assert.assertTrue(handled.isEmpty());
+        first.run();
+        pending.collectAll();
+        Assert.assertEquals(handled, Arrays.asList("a=1", "b=2", "c=3"));
+        Assert.assertEquals(pending.size(), 0);
+    }
+
+    /**
+     * Test that adding a task once the bound is reached collects the oldest.
+     */
+    public void testBound() {
+        final PendingResults<String, String> pending =
+                new PendingResults<String, String>(2, handler);
+        pending.add("a", done("1"));
+        Assert.assertEquals(pending.size(), 1);
+        Assert.assertTrue(handled.isEmpty());
+        pending.add("b", done("2"));
+        Assert.assertEquals(pending.size(), 1);
+        Assert.assertEquals(handled, Arrays.asList("a=1"));
+        pending.add("c", done("3"));
+        Assert.assertEquals(pending.size(), 1);
+        Assert.assertEquals(handled, Arrays.asList("a=1", "b=2"));
+        pending.collectAll();
+        Assert.assertEquals(handled, Arrays.asList("a=1", "b=2", "c=3"));
+    }
+
+    /**
+     * Test that a bound of one handles each task as it is added, as when
+     * there is no executor for the tasks.
+     */
+    public void testBoundOfOne() {
+        final PendingResults<String, String> pending =
+                new PendingResults<String, String>(1, handler);
+        pending.add("a", done("1"));
+        Assert.assertEquals(handled, Arrays.asList("a=1"));
+        Assert.assertEquals(pending.size(), 0);
+    }
+
+    /**
+     * Test that a failed task is reported with its cause and that the
+     * following tasks are still handled.
+     */
+    public void testFailure() {
+        final PendingResults<String, String> pending =
+                new PendingResults<String, String>(10, handler);
+        pending.add("a", done("1"));
+        pending.add("b", done(null));
+        pending.add("c", done("3"));
+        pending.collectAll();
+        Assert.assertEquals(handled,
+                Arrays.asList("a=1", "b!failed", "c=3"));
+    }
+
+    /**
+     * Test that an interrupted wait fails the remaining tasks rather than
+     * blocking, leaving the thread interrupted.
+     */
+    public void testInterrupted() {
+        final PendingResults<String, String> pending =
+                new PendingResults<String, String>(10, handler);
+        pending.add("a", done("1"));
+        pending.add("b", task("2"));
+        Thread.currentThread().interrupt();
+        try {
+            pending.collectAll();
+            Assert.assertTrue(Thread.currentThread().isInterrupted());
+        } finally {
+            Thread.interrupted();
+        }
+        Assert.assertEquals(handled.get(0), "a=1");
+        Assert.assertTrue(handled.get(1).startsWith("b!"), handled.get(1));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testNoBound() {
+        new PendingResults<String, String>(0, handler);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ *   Copyright 2018 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.utests;
+
+import ome.io.messages.PixelDataWrittenMessage;
+import ome.model.display.ChannelBinding;
+import ome.model.display.QuantumDef;
+import ome.model.display.RenderingDef;
+import ome.model.enums.Family;
+import ome.model.enums.RenderingModel;
+import ome.services.util.RenderedTileCache;
+import ome.system.metrics.NullMetrics;
+import omeis.providers.re.codomain.CodomainChain;
+import omeis.providers.re.codomain.ContrastStretchingContext;
+import omeis.providers.re.codomain.PlaneSlicingContext;
+import omeis.providers.re.codomain.ReverseIntensityContext;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Checks that the tiles rendered with different settings, including the
+ * parameters of codomain maps, are cached under different keys and that
+ * writing pixel data discards the tiles of its pixels set.
+ * @since 5.4.7
+ */
+@Test(groups = { "unit" })
+public class RenderedTileCacheTest {
+
+    private RenderingDef def;
+
+    private ChannelBinding[] bindings;
+
+    private CodomainChain[] chains;
+
+    @BeforeMethod
+    public void setup() {
+        QuantumDef qDef = new QuantumDef();
+        qDef.setBitResolution(255);
+        qDef.setCdStart(0);
+        qDef.setCdEnd(255);
+        def = new RenderingDef();
+        def.setModel(new RenderingModel(1L, false));
+        def.setQuantization(qDef);
+        ChannelBinding cb = new ChannelBinding();
+        cb.setActive(true);
+        cb.setFamily(new Family(1L, false));
+        cb.setCoefficient(1.0);
+        cb.setInputStart(0.0);
+        cb.setInputEnd(255.0);
+        bindings = new ChannelBinding[] { cb };
+        chains = new CodomainChain[] { new CodomainChain(0, 255) };
+    }
+
+    private String hash() {
+        return RenderedTileCache.settingsHash(def, bindings, chains);
+    }
+
+    private static ContrastStretchingContext contrastStretching(int xStart,
+            int yStart, int xEnd, int yEnd) {
+        ContrastStretchingContext ctx = new ContrastStretchingContext();
+        ctx.setCodomain(0, 255);
+        ctx.setCoordinates(xStart, yStart, xEnd, yEnd);
+        return ctx;
+    }
+
+    @Test
+    public void testSameSettingsSameHash() {
+        chains[0].add(new ReverseIntensityContext());
+        Assert.assertEquals(hash(), hash());
+    }
+
+    @Test
+    public void testChannelSettingsChangeHash() {
+        String before = hash();
+        bindings[0].setInputEnd(128.0);
+        Assert.assertNotEquals(hash(), before);
+    }
+
+    @Test
+    public void testCodomainMapChangesHash() {
+        String before = hash();
+        chains[0].add(new ReverseIntensityContext());
+        Assert.assertNotEquals(hash(), before);
+    }
+
+    @Test
+    public void testContrastStretchingParametersChangeHash() {
+        chains[0].add(contrastStretching(10, 20, 200, 230));
+        String before = hash();
+        chains[0].update(contrastStretching(10, 20, 200, 240));
+        Assert.assertNotEquals(hash(), before);
+    }
+
+    @Test
+    public void testPlaneSlicingParametersChangeHash() {
+        chains[0].add(new PlaneSlicingContext(PlaneSlicingContext.BIT_ONE,
+                PlaneSlicingContext.BIT_TWO, false));
+        String before = hash();
+        chains[0].update(new PlaneSlicingContext(PlaneSlicingContext.BIT_ONE,
+                PlaneSlicingContext.BIT_THREE, false));
+        Assert.assertNotEquals(hash(), before);
+    }
+
+    @Test
+    public void testUpdatedCodomainMapMissesCachedTile() {
+        RenderedTileCache cache =
+                new RenderedTileCache(1024, false, new NullMetrics());
+        chains[0].add(contrastStretching(10, 20, 200, 230));
+        byte[] tile = new byte[] { 1, 2, 3 };
+        cache.put("1:" + hash(), tile);
+        Assert.assertEquals(cache.get("1:" + hash()), tile);
+        chains[0].update(contrastStretching(50, 20, 200, 230));
+        Assert.assertNull(cache.get("1:" + hash()));
+    }
+
+    @Test
+    public void testPixelDataWrittenDiscardsTiles() {
+        RenderedTileCache cache =
+                new RenderedTileCache(1024, false, new NullMetrics());
+        byte[] tile = new byte[] { 1, 2, 3 };
+        cache.put("1:" + hash(), tile);
+        cache.put("12:" + hash(), tile);
+        cache.onApplicationEvent(new PixelDataWrittenMessage(this, 1L));
+        Assert.assertNull(cache.get("1:" + hash()));
+        Assert.assertEquals(cache.get("12:" + hash()), tile);
+    }
+}
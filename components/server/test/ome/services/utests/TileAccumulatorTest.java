@@ -0,0 +1,137 @@
+/*
+ *   Copyright 2018 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.services.utests;
+
+import java.nio.ByteBuffer;
+
+import ome.services.util.TileAccumulator;
+import ome.util.PixelData;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Checks that the statistics accumulated tile by tile match those computed
+ * over the whole plane at once.
+ * @since 5.4.7
+ */
+@Test(groups = { "unit" })
+public class TileAccumulatorTest {
+
+    /**
+     * @param values pixel values
+     * @return a 16-bit signed tile of the given values
+     */
+    private static PixelData tile(short... values) {
+        final ByteBuffer data = ByteBuffer.allocate(values.length * 2);
+        for (short value : values) {
+            data.putShort(value);
+        }
+        return new PixelData("int16", data);
+    }
+
+    /**
+     * @return some values, including negative ones
+     */
+    private static short[] plane() {
+        final short[] values = new short[1000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (short) ((i * 7919) % 2000 - 1000);
+        }
+        return values;
+    }
+
+    /**
+     * Accumulate a plane in tiles of the given size.
+     */
+    private static void accumulate(TileAccumulator accumulator,
+            short[] plane, int tileSize) {
+        for (int start = 0; start < plane.length; start += tileSize) {
+            final int end = Math.min(plane.length, start + tileSize);
+            final short[] values = new short[end - start];
+            System.arraycopy(plane, start, values, 0, values.length);
+            accumulator.accumulate(tile(values));
+        }
+    }
+
+    /**
+     * Test that the range starts from the pixel type's range and shrinks to
+     * the values.
+     */
+    public void testMinMax() {
+        final TileAccumulator.MinMax minMax =
+                new TileAccumulator.MinMax(new double[] {-32768, 32767});
+        /* nothing accumulated gives an empty range */
+        Assert.assertEquals(minMax.getMinMax(),
+                new double[] {32767, -32768});
+        minMax.accumulate(tile((short) 5, (short) -3));
+        minMax.accumulate(tile((short) 2));
+        Assert.assertEquals(minMax.getMinMax(), new double[] {-3, 5});
+    }
+
+    /**
+     * Test that the range does not depend upon the tiling.
+     */
+    public void testMinMaxTiling() {
+        final short[] plane = plane();
+        final TileAccumulator.MinMax whole =
+                new TileAccumulator.MinMax(new double[] {-32768, 32767});
+        accumulate(whole, plane, plane.length);
+        for (int tileSize : new int[] {1, 7, 64, 999}) {
+            final TileAccumulator.MinMax tiled =
+                    new TileAccumulator.MinMax(new double[] {-32768, 32767});
+            accumulate(tiled, plane, tileSize);
+            Assert.assertEquals(tiled.getMinMax(), whole.getMinMax());
+        }
+    }
+
+    /**
+     * Test that values are counted into the expected bins and that values
+     * outside the range are not counted.
+     */
+    public void testHistogramBins() {
+        final TileAccumulator.Histogram histogram =
+                new TileAccumulator.Histogram(0, 7, 4);
+        histogram.accumulate(tile((short) 0, (short) 1, (short) 2,
+                (short) 7, (short) -3, (short) 8));
+        Assert.assertEquals(histogram.getData(), new int[] {2, 1, 0, 1});
+    }
+
+    /**
+     * Test that with more bins than values the maximum falls into the last
+     * bin.
+     */
+    public void testHistogramMoreBinsThanValues() {
+        final TileAccumulator.Histogram histogram =
+                new TileAccumulator.Histogram(0, 127, 256);
+        histogram.accumulate(tile((short) 0, (short) 127));
+        Assert.assertEquals(histogram.getData()[0], 1);
+        Assert.assertEquals(histogram.getData()[255], 1);
+    }
+
+    /**
+     * Test that the histogram does not depend upon the tiling, even when a
+     * larger tile follows smaller ones.
+     */
+    public void testHistogramTiling() {
+        final short[] plane = plane();
+        final TileAccumulator.Histogram whole =
+                new TileAccumulator.Histogram(-1000, 999, 64);
+        accumulate(whole, plane, plane.length);
+        int total = 0;
+        for (int count : whole.getData()) {
+            total += count;
+        }
+        Assert.assertEquals(total, plane.length);
+        final TileAccumulator.Histogram tiled =
+                new TileAccumulator.Histogram(-1000, 999, 64);
+        accumulate(tiled, plane, 3);
+        accumulate(tiled, plane, plane.length);
+        for (int i = 0; i < 64; i++) {
+            Assert.assertEquals(tiled.getData()[i], 2 * whole.getData()[i]);
+        }
+    }
+}
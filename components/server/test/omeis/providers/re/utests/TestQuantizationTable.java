@@ -0,0 +1,78 @@
+/*
+ *   Copyright (C) 2018 University of Dundee & Open Microscopy Environment.
+ *   All rights reserved.
+ *
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+package omeis.providers.re.utests;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ome.model.display.ChannelBinding;
+import omeis.providers.re.codomain.CodomainChain;
+import omeis.providers.re.codomain.CodomainMapContext;
+import omeis.providers.re.codomain.ReverseIntensityContext;
+import omeis.providers.re.quantum.Quantization_8_16_bit;
+import omeis.providers.re.quantum.QuantizationTable;
+import omeis.providers.re.quantum.QuantumStrategy;
+
+import org.testng.annotations.Test;
+
+public class TestQuantizationTable extends BaseRenderingTest
+{
+
+	private QuantumStrategy createStrategy()
+	{
+		QuantumStrategy strategy = new Quantization_8_16_bit(
+				settings.getQuantization(), pixels);
+		ChannelBinding cb = settings.getChannelBinding(0);
+		strategy.setExtent(0, 65535);
+		strategy.setMapping(cb.getFamily(), cb.getCoefficient(),
+				cb.getNoiseReduction());
+		strategy.setWindow(100, 40000);
+		return strategy;
+	}
+
+	@Test
+	public void testTableMatchesQuantize() throws Exception
+	{
+		QuantumStrategy strategy = createStrategy();
+		QuantizationTable table = strategy.getQuantizationTable(null);
+		assertNotNull(table);
+		assertEquals(0, table.getOffset());
+		assertEquals(0x10000, table.getValues().length);
+		for (int x = 0; x <= 0xFFFF; x++)
+		{
+			assertEquals(strategy.quantize(x), table.get(x));
+		}
+	}
+
+	@Test
+	public void testTableAppliesCodomainChain() throws Exception
+	{
+		QuantumStrategy strategy = createStrategy();
+		List<CodomainMapContext> contexts =
+			new ArrayList<CodomainMapContext>();
+		contexts.add(new ReverseIntensityContext());
+		CodomainChain chain = new CodomainChain(0, 255, contexts);
+		QuantizationTable table = strategy.getQuantizationTable(chain);
+		for (int x = 0; x <= 0xFFFF; x++)
+		{
+			assertEquals(chain.transform(strategy.quantize(x)), table.get(x));
+		}
+	}
+
+	@Test
+	public void testTableSharedBetweenStrategies() throws Exception
+	{
+		QuantizationTable a = createStrategy().getQuantizationTable(null);
+		QuantizationTable b = createStrategy().getQuantizationTable(null);
+		assertSame(a.getValues(), b.getValues());
+
+		QuantumStrategy other = createStrategy();
+		other.setWindow(200, 40000);
+		QuantizationTable c = other.getQuantizationTable(null);
+		assertNotSame(a.getValues(), c.getValues());
+	}
+}
@@ -0,0 +1,98 @@
+/*
+ *   Copyright 2018 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import ome.util.checksum.ChecksumProvider;
+import ome.util.checksum.ChecksumProviderFactory;
+import ome.util.checksum.ChecksumProviderFactoryImpl;
+import ome.util.checksum.ChecksumType;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures each {@link ChecksumProvider} implementation over a byte array,
+ * a direct buffer and a file, as used for import and repository checks.
+ * @since 5.4.7
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class ChecksumProviderBenchmark {
+
+    @Param({"ADLER32", "CRC32", "MD5", "MURMUR32", "MURMUR128", "SHA1",
+        "FILE_SIZE"})
+    public ChecksumType checksumType;
+
+    @Param({"16777216"})
+    public int size;
+
+    private final ChecksumProviderFactory factory =
+            new ChecksumProviderFactoryImpl();
+
+    private File dir;
+
+    private File file;
+
+    private byte[] bytes;
+
+    private ByteBuffer buffer;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        bytes = SyntheticPixels.bytes("uint8", size);
+        buffer = ByteBuffer.allocateDirect(size);
+        buffer.put(bytes);
+        dir = SyntheticPixels.temporaryDirectory();
+        file = new File(dir, "checksummed");
+        FileUtils.writeByteArrayToFile(file, bytes);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Benchmark
+    public byte[] putBytes() {
+        return factory.getProvider(checksumType).putBytes(bytes)
+                .checksumAsBytes();
+    }
+
+    @Benchmark
+    public byte[] putByteBuffer() {
+        buffer.rewind();
+        return factory.getProvider(checksumType).putBytes(buffer)
+                .checksumAsBytes();
+    }
+
+    @Benchmark
+    public byte[] putFile() {
+        return factory.getProvider(checksumType).putFile(file.getPath())
+                .checksumAsBytes();
+    }
+
+}
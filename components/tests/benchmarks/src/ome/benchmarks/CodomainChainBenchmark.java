@@ -0,0 +1,94 @@
+/*
+ *   Copyright 2018 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import omeis.providers.re.codomain.CodomainChain;
+import omeis.providers.re.codomain.CodomainMapContext;
+import omeis.providers.re.codomain.ContrastStretchingContext;
+import omeis.providers.re.codomain.PlaneSlicingContext;
+import omeis.providers.re.codomain.ReverseIntensityContext;
+import omeis.providers.re.quantum.QuantumFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link CodomainChain#transform(int)} over a plane's worth of
+ * quantized values, for the identity chain and for chains of one or all of
+ * the spatial domain enhancements.
+ * @since 5.4.7
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class CodomainChainBenchmark {
+
+    @Param({"identity", "reverse", "contrast", "slicing", "all"})
+    public String maps;
+
+    @Param({"262144"})
+    public int count;
+
+    private CodomainChain chain;
+
+    private int[] values;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        final List<CodomainMapContext> contexts =
+                new ArrayList<CodomainMapContext>();
+        final boolean all = "all".equals(maps);
+        if (all || "reverse".equals(maps)) {
+            contexts.add(new ReverseIntensityContext());
+        }
+        if (all || "contrast".equals(maps)) {
+            final ContrastStretchingContext contrast =
+                    new ContrastStretchingContext();
+            contrast.setCoordinates(64, 32, 192, 224);
+            contexts.add(contrast);
+        }
+        if (all || "slicing".equals(maps)) {
+            contexts.add(new PlaneSlicingContext(
+                    PlaneSlicingContext.BIT_SIX, PlaneSlicingContext.BIT_SEVEN,
+                    false));
+        }
+        chain = new CodomainChain(0, QuantumFactory.DEPTH_8BIT, contexts);
+
+        final Random random = new Random(count);
+        values = new int[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = random.nextInt(QuantumFactory.DEPTH_8BIT + 1);
+        }
+    }
+
+    @Benchmark
+    public int transform() {
+        int sum = 0;
+        for (final int value : values) {
+            sum += chain.transform(value);
+        }
+        return sum;
+    }
+
+}
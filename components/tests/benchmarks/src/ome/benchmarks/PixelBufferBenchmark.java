@@ -0,0 +1,149 @@
+/*
+ *   Copyright 2018 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.benchmarks;
+
+import java.awt.Dimension;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import ome.io.bioformats.BfPyramidPixelBuffer;
+import ome.io.nio.MappedPixelsCache;
+import ome.io.nio.PixelBuffer;
+import ome.io.nio.PixelsService;
+import ome.io.nio.RomioPixelBuffer;
+import ome.model.core.Pixels;
+import ome.util.PixelData;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures tile reads from a {@link RomioPixelBuffer}, directly or through a
+ * {@link MappedPixelsCache}, and from each end of the resolution levels of a
+ * {@link BfPyramidPixelBuffer}. Successive reads move across the tiles of the
+ * plane so that no one tile is served from a cache.
+ * @since 5.4.7
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class PixelBufferBenchmark {
+
+    @Param({"romio", "romio-mapped", "pyramid", "pyramid-lowest"})
+    public String buffer;
+
+    @Param({"uint8", "uint16"})
+    public String pixelsType;
+
+    @Param({"4096"})
+    public int size;
+
+    @Param({"256"})
+    public int tileSize;
+
+    private File dir;
+
+    private PixelBuffer pixelBuffer;
+
+    private int tilesX, tileCount, tileWidth, tileHeight, sizeX, sizeY;
+
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dir = SyntheticPixels.temporaryDirectory();
+        final Pixels pixels =
+                SyntheticPixels.pixels(1L, pixelsType, size, size, 1, 1, 1);
+        if (buffer.startsWith("romio")) {
+            final File file = new File(dir, "1");
+            SyntheticPixels.writeRomio(file, pixels);
+            final MappedPixelsCache cache = new MappedPixelsCache(
+                    buffer.endsWith("mapped") ? file.length() : 0);
+            pixelBuffer = new RomioPixelBuffer(file.getPath(), pixels, false,
+                    cache);
+        } else {
+            final PixelsService service =
+                    new PixelsService(dir.getPath() + File.separator) {
+                public boolean requiresPixelsPyramid(Pixels pixels) {
+                    return true;
+                }
+            };
+            writePyramid(service._getPixelBuffer(pixels, true));
+            pixelBuffer = service._getPixelBuffer(pixels, false);
+            if (buffer.endsWith("lowest")) {
+                pixelBuffer.setResolutionLevel(0);
+            }
+        }
+        sizeX = pixelBuffer.getSizeX();
+        sizeY = pixelBuffer.getSizeY();
+        tileWidth = Math.min(tileSize, sizeX);
+        tileHeight = Math.min(tileSize, sizeY);
+        tilesX = (sizeX + tileWidth - 1) / tileWidth;
+        tileCount = tilesX * ((sizeY + tileHeight - 1) / tileHeight);
+    }
+
+    /**
+     * Writes the full resolution tiles; the smaller resolution levels are
+     * generated as the buffer is closed.
+     */
+    private void writePyramid(PixelBuffer writer) throws IOException {
+        try {
+            final Dimension tile = writer.getTileSize();
+            final byte[] bytes = SyntheticPixels.bytes(pixelsType,
+                    tile.width * tile.height);
+            final int bytesPerPixel = bytes.length / (tile.width * tile.height);
+            for (int y = 0; y < size; y += tile.height) {
+                final int h = Math.min(tile.height, size - y);
+                for (int x = 0; x < size; x += tile.width) {
+                    final int w = Math.min(tile.width, size - x);
+                    final byte[] data = new byte[w * h * bytesPerPixel];
+                    System.arraycopy(bytes, 0, data, 0, data.length);
+                    writer.setTile(data, 0, 0, 0, x, y, w, h);
+                }
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        pixelBuffer.close();
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Benchmark
+    public double getTile() throws IOException {
+        final int tile = next;
+        next = (next + 1) % tileCount;
+        final int x = (tile % tilesX) * tileWidth;
+        final int y = (tile / tilesX) * tileHeight;
+        final PixelData data = pixelBuffer.getTile(0, 0, 0, x, y,
+                Math.min(tileWidth, sizeX - x), Math.min(tileHeight, sizeY - y));
+        try {
+            return data.getPixelValue(data.size() - 1);
+        } finally {
+            data.dispose();
+        }
+    }
+
+}
@@ -0,0 +1,74 @@
+/*
+ *   Copyright 2018 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import ome.util.PixelData;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures reading every value of a plane with
+ * {@link PixelData#getPixelValue(int)}, from heap and from direct buffers.
+ * @since 5.4.7
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class PixelDataBenchmark {
+
+    @Param({"uint8", "int16", "uint16", "int32", "uint32", "float", "double"})
+    public String pixelsType;
+
+    @Param({"false", "true"})
+    public boolean direct;
+
+    @Param({"262144"})
+    public int count;
+
+    private PixelData data;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        final byte[] bytes = SyntheticPixels.bytes(pixelsType, count);
+        final ByteBuffer buffer;
+        if (direct) {
+            buffer = ByteBuffer.allocateDirect(bytes.length);
+            buffer.put(bytes);
+            buffer.rewind();
+        } else {
+            buffer = ByteBuffer.wrap(bytes);
+        }
+        data = new PixelData(pixelsType, buffer);
+    }
+
+    @Benchmark
+    public double getPixelValue() {
+        double sum = 0;
+        final int size = data.size();
+        for (int i = 0; i < size; i++) {
+            sum += data.getPixelValue(i);
+        }
+        return sum;
+    }
+
+}
@@ -0,0 +1,99 @@
+/*
+ *   Copyright 2018 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import ome.model.core.Pixels;
+import ome.model.display.QuantumDef;
+import ome.model.enums.Family;
+import ome.util.PixelData;
+import omeis.providers.re.quantum.QuantizationException;
+import omeis.providers.re.quantum.QuantumFactory;
+import omeis.providers.re.quantum.QuantumStrategy;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link QuantumStrategy#quantize(double)} over a plane's worth of
+ * values for each family of mapping and each kind of strategy chosen by
+ * {@link QuantumFactory} from the pixels type.
+ * @since 5.4.7
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class QuantumStrategyBenchmark {
+
+    @Param({"uint8", "uint16", "int32", "float"})
+    public String pixelsType;
+
+    @Param({QuantumFactory.LINEAR, QuantumFactory.EXPONENTIAL,
+        QuantumFactory.LOGARITHMIC, QuantumFactory.POLYNOMIAL})
+    public String family;
+
+    @Param({"262144"})
+    public int count;
+
+    private QuantumStrategy strategy;
+
+    private double[] values;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        final Pixels pixels =
+                SyntheticPixels.pixels(1L, pixelsType, 512, 512, 1, 1, 1);
+        final Family mapping = new Family();
+        mapping.setValue(family);
+        final QuantumDef quantumDef = new QuantumDef();
+        quantumDef.setCdStart(0);
+        quantumDef.setCdEnd(QuantumFactory.DEPTH_8BIT);
+        quantumDef.setBitResolution(QuantumFactory.DEPTH_8BIT);
+        strategy = new QuantumFactory(Collections.singletonList(mapping))
+                .getStrategy(quantumDef, pixels);
+
+        /* a window narrower than the values so that clamping is exercised */
+        final double[] range = SyntheticPixels.range(pixelsType);
+        final double margin = (range[1] - range[0]) / 10;
+        strategy.setExtent(range[0], range[1]);
+        strategy.setWindow(range[0] + margin, range[1] - margin);
+        strategy.setQuantizationMap(mapping,
+                QuantumFactory.LINEAR.equals(family) ? 1.0 : 2.0, false);
+
+        final PixelData data = new PixelData(pixelsType,
+                ByteBuffer.wrap(SyntheticPixels.bytes(pixelsType, count)));
+        values = new double[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = data.getPixelValue(i);
+        }
+    }
+
+    @Benchmark
+    public int quantize() throws QuantizationException {
+        int sum = 0;
+        for (final double value : values) {
+            sum += strategy.quantize(value);
+        }
+        return sum;
+    }
+
+}
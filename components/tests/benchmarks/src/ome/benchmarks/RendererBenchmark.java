@@ -0,0 +1,160 @@
+/*
+ *   Copyright 2018 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import ome.io.nio.PixelBuffer;
+import ome.io.nio.RomioPixelBuffer;
+import ome.model.core.Pixels;
+import ome.model.display.ChannelBinding;
+import ome.model.display.QuantumDef;
+import ome.model.display.RenderingDef;
+import ome.model.enums.Family;
+import ome.model.enums.RenderingModel;
+import omeis.providers.re.Renderer;
+import omeis.providers.re.data.PlaneDef;
+import omeis.providers.re.lut.LutProvider;
+import omeis.providers.re.lut.LutReader;
+import omeis.providers.re.quantum.QuantumFactory;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link Renderer#renderAsPackedInt(PlaneDef, PixelBuffer)} of a
+ * whole plane read from a ROMIO pixels file.
+ * @since 5.4.7
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class RendererBenchmark {
+
+    /** The colors of the channels in RGBA. */
+    private static final int[][] COLORS = {
+        {255, 0, 0, 255}, {0, 255, 0, 255}, {0, 0, 255, 255}, {255, 255, 0, 255}
+    };
+
+    @Param({"int8", "uint8", "int16", "uint16", "float"})
+    public String pixelsType;
+
+    @Param({"1", "3", "4"})
+    public int sizeC;
+
+    @Param({"1024"})
+    public int size;
+
+    private File dir;
+
+    private PixelBuffer buffer;
+
+    private Renderer renderer;
+
+    private PlaneDef planeDef;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dir = SyntheticPixels.temporaryDirectory();
+        final Pixels pixels =
+                SyntheticPixels.pixels(1L, pixelsType, size, size, 1, sizeC, 1);
+        final File file = new File(dir, "1");
+        SyntheticPixels.writeRomio(file, pixels);
+        buffer = new RomioPixelBuffer(file.getPath(), pixels);
+
+        final List<Family> families = new ArrayList<Family>();
+        for (String value : new String[] {QuantumFactory.LINEAR,
+                QuantumFactory.EXPONENTIAL, QuantumFactory.LOGARITHMIC,
+                QuantumFactory.POLYNOMIAL}) {
+            final Family family = new Family();
+            family.setValue(value);
+            families.add(family);
+        }
+        final QuantumFactory quantumFactory = new QuantumFactory(families);
+        final RenderingModel rgb = new RenderingModel();
+        rgb.setValue(RenderingModel.VALUE_RGB);
+
+        final RenderingDef def = new RenderingDef();
+        def.setDefaultZ(0);
+        def.setDefaultT(0);
+        def.setModel(rgb);
+        final QuantumDef quantumDef = new QuantumDef();
+        quantumDef.setCdStart(0);
+        quantumDef.setCdEnd(QuantumFactory.DEPTH_8BIT);
+        quantumDef.setBitResolution(QuantumFactory.DEPTH_8BIT);
+        def.setQuantization(quantumDef);
+        final double[] range = SyntheticPixels.range(pixelsType);
+        for (int c = 0; c < sizeC; c++) {
+            final ChannelBinding binding = new ChannelBinding();
+            binding.setFamily(quantumFactory.getFamily(QuantumFactory.LINEAR));
+            binding.setCoefficient(1.0);
+            binding.setInputStart(range[0]);
+            binding.setInputEnd(range[1]);
+            binding.setActive(true);
+            binding.setNoiseReduction(false);
+            binding.setRed(COLORS[c % COLORS.length][0]);
+            binding.setGreen(COLORS[c % COLORS.length][1]);
+            binding.setBlue(COLORS[c % COLORS.length][2]);
+            binding.setAlpha(COLORS[c % COLORS.length][3]);
+            def.addChannelBinding(binding);
+        }
+
+        renderer = new Renderer(quantumFactory,
+                Collections.singletonList(rgb), pixels, def, buffer,
+                new NoLutProvider());
+        planeDef = new PlaneDef(PlaneDef.XY, 0);
+        planeDef.setZ(0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        renderer.close();
+        buffer.close();
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Benchmark
+    public int[] renderAsPackedInt() throws Exception {
+        return renderer.renderAsPackedInt(planeDef, null);
+    }
+
+    /**
+     * Provides no lookup tables so that every channel is rendered by color.
+     */
+    private static class NoLutProvider implements LutProvider {
+
+        public List<LutReader> getLutReaders(ChannelBinding[] channelBindings) {
+            final List<LutReader> lutReaders = new ArrayList<LutReader>();
+            for (ChannelBinding channelBinding : channelBindings) {
+                if (channelBinding.getActive()) {
+                    lutReaders.add(null);
+                }
+            }
+            return lutReaders;
+        }
+    }
+
+}
@@ -0,0 +1,142 @@
+/*
+ *   Copyright 2018 University of Dundee. All rights reserved.
+ *   Use is subject to license terms supplied in LICENSE.txt
+ */
+
+package ome.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import ome.model.core.Channel;
+import ome.model.core.Pixels;
+import ome.model.enums.PixelsType;
+import ome.model.stats.StatsInfo;
+import ome.util.PixelData;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Generates the pixels metadata and pixels files that the benchmarks read.
+ * The values are random but seeded so that every run reads the same data.
+ * @since 5.4.7
+ */
+class SyntheticPixels {
+
+    private static final long SEED = 20180901L;
+
+    private SyntheticPixels() {
+    }
+
+    /**
+     * @param type the pixels type, e.g. <code>uint16</code>
+     * @return the type with its bit size set
+     */
+    static PixelsType pixelsType(String type) {
+        final PixelsType pixelsType = new PixelsType();
+        pixelsType.setValue(type);
+        pixelsType.setBitSize(PixelData.getBitDepth(type));
+        return pixelsType;
+    }
+
+    /**
+     * Creates pixels metadata whose channels span the whole range of the
+     * pixels type, as they would after statistics have been calculated.
+     * @param id the pixels ID, which names the pixels file in a repository
+     * @param type the pixels type
+     * @return the metadata
+     */
+    static Pixels pixels(long id, String type, int sizeX, int sizeY,
+            int sizeZ, int sizeC, int sizeT) {
+        final Pixels pixels = new Pixels(id, true);
+        pixels.setSizeX(sizeX);
+        pixels.setSizeY(sizeY);
+        pixels.setSizeZ(sizeZ);
+        pixels.setSizeC(sizeC);
+        pixels.setSizeT(sizeT);
+        pixels.setPixelsType(pixelsType(type));
+        final double[] range = range(type);
+        for (int c = 0; c < sizeC; c++) {
+            final StatsInfo statsInfo = new StatsInfo();
+            statsInfo.setGlobalMin(range[0]);
+            statsInfo.setGlobalMax(range[1]);
+            final Channel channel = new Channel();
+            channel.setStatsInfo(statsInfo);
+            pixels.addChannel(channel);
+        }
+        return pixels;
+    }
+
+    /**
+     * @return the minimum and maximum of the random values of the type
+     */
+    static double[] range(String type) {
+        if (PixelsType.VALUE_FLOAT.equals(type)
+                || PixelsType.VALUE_DOUBLE.equals(type)) {
+            return new double[] {0, 1};
+        }
+        final int bits = PixelData.getBitDepth(type);
+        if (type.startsWith("u")) {
+            return new double[] {0, Math.pow(2, bits) - 1};
+        }
+        return new double[] {-Math.pow(2, bits - 1), Math.pow(2, bits - 1) - 1};
+    }
+
+    /**
+     * @param type the pixels type
+     * @param count how many pixels
+     * @return big-endian pixel data of random values in the range of the type
+     */
+    static byte[] bytes(String type, int count) {
+        final int bytesPerPixel = PixelData.getBitDepth(type) / 8;
+        final byte[] bytes = new byte[count * bytesPerPixel];
+        final Random random = new Random(SEED);
+        if (PixelsType.VALUE_FLOAT.equals(type)) {
+            final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            for (int i = 0; i < count; i++) {
+                buffer.putFloat(random.nextFloat());
+            }
+        } else if (PixelsType.VALUE_DOUBLE.equals(type)) {
+            final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            for (int i = 0; i < count; i++) {
+                buffer.putDouble(random.nextDouble());
+            }
+        } else {
+            random.nextBytes(bytes);
+        }
+        return bytes;
+    }
+
+    /**
+     * Writes a ROMIO pixels file holding random values for every plane.
+     * @param file the file to write
+     * @param pixels the metadata of the pixels
+     * @throws IOException if the file could not be written
+     */
+    static void writeRomio(File file, Pixels pixels) throws IOException {
+        final String type = pixels.getPixelsType().getValue();
+        final int planes =
+                pixels.getSizeZ() * pixels.getSizeC() * pixels.getSizeT();
+        final byte[] plane =
+                bytes(type, pixels.getSizeX() * pixels.getSizeY());
+        final byte[] all = new byte[plane.length * planes];
+        for (int i = 0; i < planes; i++) {
+            System.arraycopy(plane, 0, all, i * plane.length, plane.length);
+        }
+        FileUtils.writeByteArrayToFile(file, all);
+    }
+
+    /**
+     * @return a new empty temporary directory for a benchmark's files
+     */
+    static File temporaryDirectory() throws IOException {
+        final File dir = File.createTempFile("omero-benchmark", "");
+        if (!(dir.delete() && dir.mkdirs())) {
+            throw new IOException("Failed to create " + dir);
+        }
+        return dir;
+    }
+
+}
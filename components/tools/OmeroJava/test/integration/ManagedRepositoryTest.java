@@ -47,6 +47,7 @@ import omero.ValidationException;
 import omero.api.RawFileStorePrx;
 import omero.cmd.CmdCallbackI;
 import omero.cmd.HandlePrx;
+import omero.grid.ChecksumResponse;
 import omero.grid.ImportLocation;
 import omero.grid.ManagedRepositoryPrx;
 import omero.grid.ManagedRepositoryPrxHelper;
@@ -881,6 +882,43 @@ public class ManagedRepositoryTest extends AbstractServerImportTest {
                 "expected the exactly corrupted files to fail checksum verification");
     }
 
+    /**
+     * Test that a normal user may audit the checksums of their files, setting the checksums that match to a new
+     * algorithm and leaving those that do not match unchanged.
+     * @throws ServerError unexpected
+     */
+    @Test
+    public void testAuditChecksumsSetsMatching() throws ServerError {
+        /* find the files' expected hash */
+        final ChecksumAlgorithm md5Algorithm = ChecksumAlgorithmMapper.getChecksumAlgorithm("MD5-128");
+        final ChecksumAlgorithm murmur128Algorithm = ChecksumAlgorithmMapper.getChecksumAlgorithm("Murmur3-128");
+        final ChecksumProvider murmur128 = CHECKSUM_PROVIDER_FACTORY.getProvider(
+                ChecksumAlgorithmMapper.getChecksumType(murmur128Algorithm));
+        murmur128.putBytes(SAMPLE_FILE_CONTENTS);
+        final String murmur128Hash = murmur128.checksumAsString();
+
+        /* upload the files: one with a good checksum, one with a corrupted checksum, one with no checksum */
+        final long goodFileId = uploadSampleFile();
+        final long corruptFileId = uploadSampleFile();
+        final long noneFileId = uploadSampleFile();
+        repo.setChecksumAlgorithm(md5Algorithm, ImmutableList.of(goodFileId, corruptFileId));
+        corruptChecksum(corruptFileId);
+
+        /* audit the files' checksums, setting them to the new algorithm */
+        final HandlePrx handle = repo.auditChecksums(murmur128Algorithm,
+                ImmutableList.of(goodFileId, corruptFileId, noneFileId));
+        final CmdCallbackI cb = new CmdCallbackI(client, handle);
+        cb.loop(10, 500);
+        final ChecksumResponse response = (ChecksumResponse) assertCmd(cb, true);
+
+        /* check that the files are reported and their checksums set as expected */
+        Assert.assertEquals(response.mismatchFiles, ImmutableList.of(corruptFileId));
+        Assert.assertEqualsNoOrder(response.adjustedFiles.toArray(), new Object[] {goodFileId, noneFileId});
+        assertFileChecksum(goodFileId, murmur128Algorithm.getValue().getValue(), murmur128Hash);
+        assertFileChecksum(noneFileId, murmur128Algorithm.getValue().getValue(), murmur128Hash);
+        assertFileChecksum(corruptFileId, md5Algorithm.getValue().getValue(), "corrupted hash");
+    }
+
     /**
      * A normal user can create a directory within their own parent directory.
      * @throws Exception unexpected
@@ -1907,6 +1907,116 @@ CREATE TRIGGER roi_delete_trigger
     FOR EACH ROW
     EXECUTE PROCEDURE roi_delete_trigger();
 
+--
+-- Bounding boxes of shapes, so that the shapes on a plane that intersect
+-- a viewport may be found without reading every shape of the image.
+-- The image, Z and T are held as ranges so that they may share the GiST
+-- index with the bounds; a shape with no Z or T has an unbounded range.
+-- The bounds are null where they cannot be calculated in SQL, for example
+-- for transformed shapes and labels, and such shapes are in every viewport.
+--
+
+CREATE TABLE _shape_bounds (
+    shape_id INT8 PRIMARY KEY REFERENCES shape (id) ON DELETE CASCADE,
+    image INT8RANGE NOT NULL,
+    the_z INT4RANGE NOT NULL,
+    the_t INT4RANGE NOT NULL,
+    bounds BOX);
+
+CREATE INDEX _shape_bounds_viewport ON _shape_bounds USING GIST (image, the_z, the_t, bounds);
+
+CREATE OR REPLACE FUNCTION _shape_bounds_box(s shape) RETURNS BOX AS $$
+
+    DECLARE
+        bounds BOX;
+
+    BEGIN
+        IF s.transform IS NOT NULL THEN
+            RETURN NULL;
+        END IF;
+
+        CASE s.discriminator
+            WHEN 'rect', 'mask' THEN
+                bounds := box(point(s.x, s.y), point(s.x + s.width, s.y + s.height));
+            WHEN 'ellipse' THEN
+                bounds := box(point(s.x - s.radiusx, s.y - s.radiusy), point(s.x + s.radiusx, s.y + s.radiusy));
+            WHEN 'point' THEN
+                bounds := box(point(s.x, s.y), point(s.x, s.y));
+            WHEN 'line' THEN
+                bounds := box(point(s.x1, s.y1), point(s.x2, s.y2));
+            WHEN 'polygon', 'polyline' THEN
+                BEGIN
+                    SELECT box(point(min(CAST(split_part(p, ',', 1) AS FLOAT8)), min(CAST(split_part(p, ',', 2) AS FLOAT8))),
+                               point(max(CAST(split_part(p, ',', 1) AS FLOAT8)), max(CAST(split_part(p, ',', 2) AS FLOAT8))))
+                        INTO bounds
+                        FROM regexp_split_to_table(btrim(s.points), '\s+') AS p;
+                EXCEPTION WHEN invalid_text_representation THEN
+                    bounds := NULL;
+                END;
+            ELSE
+                bounds := NULL;
+        END CASE;
+
+        RETURN bounds;
+    END;
+$$ LANGUAGE plpgsql STABLE;
+
+CREATE OR REPLACE FUNCTION _shape_bounds_image(image INT8) RETURNS INT8RANGE AS $$
+    SELECT CASE WHEN image IS NULL THEN 'empty' ELSE int8range(image, image, '[]') END;
+$$ LANGUAGE sql IMMUTABLE;
+
+CREATE OR REPLACE FUNCTION _shape_bounds_insert() RETURNS "trigger" AS $$
+
+    BEGIN
+        INSERT INTO _shape_bounds (shape_id, image, the_z, the_t, bounds)
+            SELECT NEW.id, _shape_bounds_image(roi.image), int4range(NEW.thez, NEW.thez, '[]'),
+                   int4range(NEW.thet, NEW.thet, '[]'), _shape_bounds_box(NEW)
+                FROM roi WHERE roi.id = NEW.roi;
+        RETURN NEW;
+    END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION _shape_bounds_update() RETURNS "trigger" AS $$
+
+    BEGIN
+        UPDATE _shape_bounds
+            SET image = _shape_bounds_image(roi.image),
+                the_z = int4range(NEW.thez, NEW.thez, '[]'),
+                the_t = int4range(NEW.thet, NEW.thet, '[]'),
+                bounds = _shape_bounds_box(NEW)
+            FROM roi
+            WHERE shape_id = NEW.id AND roi.id = NEW.roi;
+        RETURN NEW;
+    END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION _shape_bounds_roi_update() RETURNS "trigger" AS $$
+
+    BEGIN
+        IF OLD.image IS DISTINCT FROM NEW.image THEN
+            UPDATE _shape_bounds
+                SET image = _shape_bounds_image(NEW.image)
+                WHERE shape_id IN (SELECT id FROM shape WHERE roi = NEW.id);
+        END IF;
+        RETURN NEW;
+    END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER _shape_bounds_insert
+    AFTER INSERT ON shape
+    FOR EACH ROW
+    EXECUTE PROCEDURE _shape_bounds_insert();
+
+CREATE TRIGGER _shape_bounds_update
+    AFTER UPDATE ON shape
+    FOR EACH ROW
+    EXECUTE PROCEDURE _shape_bounds_update();
+
+CREATE TRIGGER _shape_bounds_roi_update
+    AFTER UPDATE ON roi
+    FOR EACH ROW
+    EXECUTE PROCEDURE _shape_bounds_roi_update();
+
 --
 -- #12317 -- delete map property values along with their holders
 --
@@ -2042,7 +2152,7 @@ alter table dbpatch alter message set default 'Updating';
 -- running so that if anything goes wrong, we'll have some record.
 --
 insert into dbpatch (currentVersion, currentPatch, previousVersion, previousPatch, message)
-             values ('OMERO5.4',  0,    'OMERO5.4',   0,             'Initializing');
+             values ('OMERO5.4',  1,    'OMERO5.4',   0,             'Initializing');
 
 --
 -- Temporarily make event columns nullable; restored below.
@@ -3436,7 +3546,7 @@ CREATE INDEX node_down ON node(down);
 
 update dbpatch set message = 'Database ready.', finished = clock_timestamp()
   where currentVersion = 'OMERO5.4' and
-        currentPatch = 0 and
+        currentPatch = 1 and
         previousVersion = 'OMERO5.4' and
         previousPatch = 0;
 